@@ -0,0 +1,611 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A compact binary encoding of JSON, which is used for messages instead of JSON text if client and server
+ * agreed on it. Every JSON token is written as a one-byte tag, followed by its value: strings are
+ * UTF-8 encoded with their length in front, integers are variable-length encoded, and floating point
+ * numbers are written as IEEE 754 bits. Every property name is written only once per message. Later 
+ * occurrences refer to it by its index. Messages are converted to and from this encoding with the same 
+ * Gson type adapters as JSON text, so both encodings carry the same content.
+ * @author spielwitz
+ *
+ */
+class BinaryMessageCodec
+{
+	/**
+	 * The first byte of a binary encoded message. JSON text never starts with this byte.
+	 */
+	static final int FORMAT_MARKER = 0xB1;
+	
+	private static final int TAG_BEGIN_OBJECT = 1;
+	private static final int TAG_END_OBJECT = 2;
+	private static final int TAG_BEGIN_ARRAY = 3;
+	private static final int TAG_END_ARRAY = 4;
+	private static final int TAG_NAME = 5;
+	private static final int TAG_NAME_INDEX = 6;
+	private static final int TAG_STRING = 7;
+	private static final int TAG_TRUE = 8;
+	private static final int TAG_FALSE = 9;
+	private static final int TAG_NULL = 10;
+	private static final int TAG_LONG = 11;
+	private static final int TAG_FLOAT = 12;
+	private static final int TAG_DOUBLE = 13;
+	private static final int TAG_NUMBER = 14;
+	private static final int STRING_CHUNK_SIZE = 8192;
+	
+	/**
+	 * Check if a message is binary encoded, without consuming the first byte of the message.
+	 * @param in The input stream of the message
+	 * @return True, if the message is binary encoded
+	 * @throws IOException
+	 */
+	static boolean isBinary(PushbackInputStream in) throws IOException
+	{
+		int firstByte = in.read();
+		
+		if (firstByte < 0)
+		{
+			return false;
+		}
+		
+		in.unread(firstByte);
+		
+		return firstByte == FORMAT_MARKER;
+	}
+	
+	/**
+	 * Check if a message is binary encoded.
+	 * @param bytes The message
+	 * @return True, if the message is binary encoded
+	 */
+	static boolean isBinary(byte[] bytes)
+	{
+		return bytes.length > 0 && (bytes[0] & 0xFF) == FORMAT_MARKER;
+	}
+	
+	/**
+	 * Create a JSON writer which writes a binary encoded message to a stream. The format marker is written
+	 * right away.
+	 * @param out The output stream
+	 * @return The JSON writer
+	 * @throws IOException
+	 */
+	static JsonWriter newWriter(OutputStream out) throws IOException
+	{
+		out.write(FORMAT_MARKER);
+		return new BinaryJsonWriter(out);
+	}
+	
+	/**
+	 * Read a binary encoded message into a JSON tree.
+	 * @param in The input stream
+	 * @return The message as a JSON tree
+	 * @throws IOException
+	 */
+	static JsonElement read(InputStream in) throws IOException
+	{
+		if (in.read() != FORMAT_MARKER)
+		{
+			throw new IOException("The message is not binary encoded.");
+		}
+		
+		ArrayList<String> names = new ArrayList<String>();
+		
+		return readValue(in, readTag(in), names);
+	}
+	
+	private static int readTag(InputStream in) throws IOException
+	{
+		int tag = in.read();
+		
+		if (tag < 0)
+		{
+			throw new EOFException();
+		}
+		
+		return tag;
+	}
+	
+	private static String readName(InputStream in, int tag, ArrayList<String> names) throws IOException
+	{
+		if (tag == TAG_NAME)
+		{
+			String name = readString(in);
+			names.add(name);
+			return name;
+		}
+		else if (tag == TAG_NAME_INDEX)
+		{
+			int index = (int) readUnsignedVarLong(in);
+			
+			if (index < 0 || index >= names.size())
+			{
+				throw new IOException("Invalid name index " + index + ".");
+			}
+			
+			return names.get(index);
+		}
+		else
+		{
+			throw new IOException("Unexpected tag " + tag + " instead of a name.");
+		}
+	}
+	
+	private static void readFully(InputStream in, byte[] bytes, int length) throws IOException
+	{
+		int offset = 0;
+		
+		while (offset < length)
+		{
+			int count = in.read(bytes, offset, length - offset);
+			
+			if (count < 0)
+			{
+				throw new EOFException();
+			}
+			
+			offset += count;
+		}
+	}
+	
+	private static long readLongBits(InputStream in, int byteCount) throws IOException
+	{
+		long bits = 0;
+		
+		for (int i = 0; i < byteCount; i++)
+		{
+			bits = (bits << 8) | readTag(in);
+		}
+		
+		return bits;
+	}
+	
+	private static String readString(InputStream in) throws IOException
+	{
+		long length = readUnsignedVarLong(in);
+		
+		if (length < 0 || length > Integer.MAX_VALUE)
+		{
+			throw new IOException("Invalid string length " + length + ".");
+		}
+		
+		if (length <= STRING_CHUNK_SIZE)
+		{
+			byte[] bytes = new byte[(int) length];
+			readFully(in, bytes, bytes.length);
+			
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		// The length comes from the other side. Memory is only allocated for the bytes which actually arrive.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(STRING_CHUNK_SIZE);
+		byte[] chunk = new byte[STRING_CHUNK_SIZE];
+		long bytesRemaining = length;
+		
+		while (bytesRemaining > 0)
+		{
+			int chunkLength = (int) Math.min(bytesRemaining, STRING_CHUNK_SIZE);
+			readFully(in, chunk, chunkLength);
+			bytes.write(chunk, 0, chunkLength);
+			bytesRemaining -= chunkLength;
+		}
+		
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	private static long readUnsignedVarLong(InputStream in) throws IOException
+	{
+		long value = 0;
+		
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readTag(in);
+			value |= (long)(b & 0x7F) << shift;
+			
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		
+		throw new IOException("Invalid variable-length number.");
+	}
+	
+	private static JsonElement readValue(InputStream in, int tag, ArrayList<String> names) throws IOException
+	{
+		switch (tag)
+		{
+		case TAG_BEGIN_OBJECT:
+			JsonObject jsonObject = new JsonObject();
+			
+			for (int nextTag = readTag(in); nextTag != TAG_END_OBJECT; nextTag = readTag(in))
+			{
+				String name = readName(in, nextTag, names);
+				jsonObject.add(name, readValue(in, readTag(in), names));
+			}
+			
+			return jsonObject;
+			
+		case TAG_BEGIN_ARRAY:
+			JsonArray jsonArray = new JsonArray();
+			
+			for (int nextTag = readTag(in); nextTag != TAG_END_ARRAY; nextTag = readTag(in))
+			{
+				jsonArray.add(readValue(in, nextTag, names));
+			}
+			
+			return jsonArray;
+			
+		case TAG_STRING:
+			return new JsonPrimitive(readString(in));
+		case TAG_TRUE:
+			return new JsonPrimitive(true);
+		case TAG_FALSE:
+			return new JsonPrimitive(false);
+		case TAG_NULL:
+			return JsonNull.INSTANCE;
+		case TAG_LONG:
+			long zigZag = readUnsignedVarLong(in);
+			return new JsonPrimitive((zigZag >>> 1) ^ -(zigZag & 1));
+		case TAG_FLOAT:
+			return new JsonPrimitive(Float.intBitsToFloat((int) readLongBits(in, 4)));
+		case TAG_DOUBLE:
+			return new JsonPrimitive(Double.longBitsToDouble(readLongBits(in, 8)));
+		case TAG_NUMBER:
+			return new JsonPrimitive(new BigDecimal(readString(in)));
+		default:
+			throw new IOException("Unexpected tag " + tag + ".");
+		}
+	}
+	
+	// ==============
+	
+	/**
+	 * A JSON writer which writes the binary encoding instead of JSON text. Like the JSON text writer,
+	 * it drops properties whose value is null, unless nulls are serialized.
+	 */
+	private static class BinaryJsonWriter extends JsonWriter
+	{
+		private static final Writer UNWRITABLE_WRITER = new Writer()
+		{
+			@Override
+			public void write(char[] buffer, int offset, int counter)
+			{
+				throw new AssertionError();
+			}
+			
+			@Override
+			public void flush()
+			{
+				throw new AssertionError();
+			}
+			
+			@Override
+			public void close()
+			{
+				throw new AssertionError();
+			}
+		};
+		
+		private OutputStream out;
+		private HashMap<String, Integer> names = new HashMap<String, Integer>();
+		private String deferredName;
+		
+		private BinaryJsonWriter(OutputStream out)
+		{
+			super(UNWRITABLE_WRITER);
+			this.out = out;
+		}
+		
+		@Override
+		public JsonWriter beginArray() throws IOException
+		{
+			this.writeDeferredName();
+			this.out.write(TAG_BEGIN_ARRAY);
+			return this;
+		}
+		
+		@Override
+		public JsonWriter beginObject() throws IOException
+		{
+			this.writeDeferredName();
+			this.out.write(TAG_BEGIN_OBJECT);
+			return this;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			this.out.close();
+		}
+		
+		@Override
+		public JsonWriter endArray() throws IOException
+		{
+			this.out.write(TAG_END_ARRAY);
+			return this;
+		}
+		
+		@Override
+		public JsonWriter endObject() throws IOException
+		{
+			// A property whose null value was dropped
+			this.deferredName = null;
+			this.out.write(TAG_END_OBJECT);
+			return this;
+		}
+		
+		@Override
+		public void flush() throws IOException
+		{
+			this.out.flush();
+		}
+		
+		@Override
+		public JsonWriter jsonValue(String value) throws IOException
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			
+			// Type adapters may write raw JSON text. It is parsed and written token by token.
+			JsonReader reader = new JsonReader(new StringReader(value));
+			reader.setLenient(true);
+			int depth = 0;
+			
+			do
+			{
+				switch (reader.peek())
+				{
+				case BEGIN_ARRAY:
+					reader.beginArray();
+					this.beginArray();
+					depth++;
+					break;
+				case END_ARRAY:
+					reader.endArray();
+					this.endArray();
+					depth--;
+					break;
+				case BEGIN_OBJECT:
+					reader.beginObject();
+					this.beginObject();
+					depth++;
+					break;
+				case END_OBJECT:
+					reader.endObject();
+					this.endObject();
+					depth--;
+					break;
+				case NAME:
+					this.name(reader.nextName());
+					break;
+				case STRING:
+					this.value(reader.nextString());
+					break;
+				case NUMBER:
+					// Keep the exact text of the number
+					this.writeDeferredName();
+					this.out.write(TAG_NUMBER);
+					this.writeString(reader.nextString());
+					break;
+				case BOOLEAN:
+					this.value(reader.nextBoolean());
+					break;
+				case NULL:
+					reader.nextNull();
+					this.nullValue();
+					break;
+				default:
+					throw new IOException("Invalid raw JSON value");
+				}
+			} while (depth > 0);
+			
+			if (reader.peek() != JsonToken.END_DOCUMENT)
+			{
+				throw new IOException("Invalid raw JSON value");
+			}
+			
+			return this;
+		}
+		
+		@Override
+		public JsonWriter name(String name) throws IOException
+		{
+			if (name == null)
+			{
+				throw new NullPointerException("name == null");
+			}
+			
+			this.deferredName = name;
+			return this;
+		}
+		
+		@Override
+		public JsonWriter nullValue() throws IOException
+		{
+			if (this.deferredName != null && !this.getSerializeNulls())
+			{
+				this.deferredName = null;
+				return this;
+			}
+			
+			this.writeDeferredName();
+			this.out.write(TAG_NULL);
+			return this;
+		}
+		
+		@Override
+		public JsonWriter value(boolean value) throws IOException
+		{
+			this.writeDeferredName();
+			this.out.write(value ? TAG_TRUE : TAG_FALSE);
+			return this;
+		}
+		
+		@Override
+		public JsonWriter value(Boolean value) throws IOException
+		{
+			return value == null ? this.nullValue() : this.value(value.booleanValue());
+		}
+		
+		@Override
+		public JsonWriter value(double value) throws IOException
+		{
+			this.writeDeferredName();
+			this.out.write(TAG_DOUBLE);
+			this.writeLongBits(Double.doubleToLongBits(value), 8);
+			return this;
+		}
+		
+		@Override
+		public JsonWriter value(float value) throws IOException
+		{
+			this.writeDeferredName();
+			this.out.write(TAG_FLOAT);
+			this.writeLongBits(Float.floatToIntBits(value), 4);
+			return this;
+		}
+		
+		@Override
+		public JsonWriter value(long value) throws IOException
+		{
+			this.writeDeferredName();
+			this.out.write(TAG_LONG);
+			this.writeUnsignedVarLong((value << 1) ^ (value >> 63));
+			return this;
+		}
+		
+		@Override
+		public JsonWriter value(Number value) throws IOException
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			{
+				return this.value(value.longValue());
+			}
+			else if (value instanceof Double)
+			{
+				return this.value(value.doubleValue());
+			}
+			else if (value instanceof Float)
+			{
+				return this.value(value.floatValue());
+			}
+			
+			// Big numbers and numbers parsed from JSON text keep their exact text
+			this.writeDeferredName();
+			this.out.write(TAG_NUMBER);
+			this.writeString(value.toString());
+			return this;
+		}
+		
+		@Override
+		public JsonWriter value(String value) throws IOException
+		{
+			if (value == null)
+			{
+				return this.nullValue();
+			}
+			
+			this.writeDeferredName();
+			this.out.write(TAG_STRING);
+			this.writeString(value);
+			return this;
+		}
+		
+		private void writeDeferredName() throws IOException
+		{
+			if (this.deferredName == null)
+			{
+				return;
+			}
+			
+			Integer index = this.names.get(this.deferredName);
+			
+			if (index != null)
+			{
+				this.out.write(TAG_NAME_INDEX);
+				this.writeUnsignedVarLong(index);
+			}
+			else
+			{
+				this.names.put(this.deferredName, this.names.size());
+				this.out.write(TAG_NAME);
+				this.writeString(this.deferredName);
+			}
+			
+			this.deferredName = null;
+		}
+		
+		private void writeLongBits(long bits, int byteCount) throws IOException
+		{
+			for (int shift = (byteCount - 1) * 8; shift >= 0; shift -= 8)
+			{
+				this.out.write((int)(bits >>> shift));
+			}
+		}
+		
+		private void writeString(String value) throws IOException
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.writeUnsignedVarLong(bytes.length);
+			this.out.write(bytes);
+		}
+		
+		private void writeUnsignedVarLong(long value) throws IOException
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				this.out.write((int)((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			
+			this.out.write((int) value);
+		}
+	}
+}
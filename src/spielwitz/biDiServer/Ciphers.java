@@ -17,33 +17,191 @@
 
 package spielwitz.biDiServer;
 
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+
 import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
- * AES ciphers.
+ * The AES key material of a session. A session may be used by several connections at the same time, 
+ * but a Cipher object is not thread-safe. Therefore the session only holds the key and the initialization 
+ * vectors, and every encryption or decryption initializes a Cipher object taken from a pool.
  * @author spielwitz
  *
  */
 class Ciphers 
 {
-	Cipher cipherEncrypt;
-	Cipher cipherDecrypt;
+	private static final String ALGORITHM_AES_CBC = "AES/CBC/PKCS5Padding";
+	private static final int AES_BLOCK_SIZE = 16;
+	private static final int POOL_SIZE = 32;
+	private static final int RESUMPTION_REPLAY_WINDOW_SIZE = 64;
+	
+	private static ArrayBlockingQueue<Cipher> aesCiphers = new ArrayBlockingQueue<Cipher>(POOL_SIZE);
+	private static SecureRandom secureRandom = new SecureRandom();
+	
 	String sessionId;
-	long created;
-	long lastUsed;
+	volatile long created;
+	volatile long lastUsed;
+	byte[] macKey;
+	String userId;
+	boolean resumable;
+	
+	private SecretKeySpec key;
+	private IvParameterSpec ivEncrypt;
+	private IvParameterSpec ivDecrypt;
+	
+	private long resumptionSequenceNumber;
+	private long resumptionReplayWindow;
+	
+	/**
+	 * Generate a random initialization vector for AES encryption. Each side of a session generates the 
+	 * initialization vector for the messages it sends and tells the other side.
+	 * @return The initialization vector
+	 */
+	static byte[] generateIv()
+	{
+		byte[] iv = new byte[AES_BLOCK_SIZE];
+		secureRandom.nextBytes(iv);
+		return iv;
+	}
 	
 	/**
 	 * Constructor.
-	 * @param cipherEncrypt Cipher for message encryption
-	 * @param cipherDecrypt Cipher for message decryption
+	 * @param key AES key of the session
+	 * @param ivEncrypt Initialization vector for message encryption
+	 * @param ivDecrypt Initialization vector for message decryption
 	 * @param sessionId Session ID
+	 * @param macKey Key to authenticate session resumptions
 	 */
-	Ciphers(Cipher cipherEncrypt, Cipher cipherDecrypt, String sessionId)
+	Ciphers(SecretKeySpec key, byte[] ivEncrypt, byte[] ivDecrypt, String sessionId, byte[] macKey)
 	{
-		this.cipherEncrypt = cipherEncrypt;
-		this.cipherDecrypt = cipherDecrypt;
+		this.key = key;
+		this.ivEncrypt = new IvParameterSpec(ivEncrypt);
+		this.ivDecrypt = new IvParameterSpec(ivDecrypt);
 		this.sessionId = sessionId;
+		this.macKey = macKey;
 		this.lastUsed = 0;
 		this.created = 0;
 	}
+	
+	/**
+	 * Check the sequence number of a session resumption on the server. A sequence number is accepted only once.
+	 * Because connections of the same session may overtake each other, a sequence number lower than the highest 
+	 * one accepted so far is still accepted within a small window.
+	 * @param sequenceNumber The sequence number sent by the client
+	 * @return True, if the sequence number was not used before
+	 */
+	synchronized boolean acceptResumptionSequenceNumber(long sequenceNumber)
+	{
+		if (sequenceNumber <= 0)
+		{
+			return false;
+		}
+		
+		if (sequenceNumber > this.resumptionSequenceNumber)
+		{
+			long shift = sequenceNumber - this.resumptionSequenceNumber;
+			
+			this.resumptionReplayWindow =
+					shift < RESUMPTION_REPLAY_WINDOW_SIZE ?
+							(this.resumptionReplayWindow << shift) | 1L :
+							1L;
+			this.resumptionSequenceNumber = sequenceNumber;
+			
+			return true;
+		}
+		
+		long offset = this.resumptionSequenceNumber - sequenceNumber;
+		
+		if (offset >= RESUMPTION_REPLAY_WINDOW_SIZE)
+		{
+			return false;
+		}
+		
+		long bit = 1L << offset;
+		
+		if ((this.resumptionReplayWindow & bit) != 0)
+		{
+			return false;
+		}
+		
+		this.resumptionReplayWindow |= bit;
+		return true;
+	}
+	
+	/**
+	 * Get the sequence number for the next session resumption on the client.
+	 * @return The sequence number
+	 */
+	synchronized long nextResumptionSequenceNumber()
+	{
+		return ++this.resumptionSequenceNumber;
+	}
+	
+	/**
+	 * Decrypt a message.
+	 * @param ciphertext The encrypted message
+	 * @return The decrypted message
+	 * @throws Exception
+	 */
+	byte[] decrypt(byte[] ciphertext) throws Exception
+	{
+		return doFinal(Cipher.DECRYPT_MODE, ciphertext);
+	}
+	
+	/**
+	 * Encrypt a message.
+	 * @param plaintext The message
+	 * @return The encrypted message
+	 * @throws Exception
+	 */
+	byte[] encrypt(byte[] plaintext) throws Exception
+	{
+		return doFinal(Cipher.ENCRYPT_MODE, plaintext);
+	}
+	
+	/**
+	 * Get a Cipher object for one message, for example to encrypt or decrypt a stream. 
+	 * Call {@link #releaseCipher(Cipher)} when the message is complete.
+	 * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+	 * @return The initialized Cipher object
+	 * @throws Exception
+	 */
+	Cipher getCipher(int mode) throws Exception
+	{
+		Cipher cipher = aesCiphers.poll();
+		
+		if (cipher == null)
+		{
+			cipher = Cipher.getInstance(ALGORITHM_AES_CBC);
+		}
+		
+		cipher.init(
+				mode, 
+				this.key, 
+				mode == Cipher.ENCRYPT_MODE ? this.ivEncrypt : this.ivDecrypt);
+		
+		return cipher;
+	}
+	
+	/**
+	 * Return a Cipher object obtained with {@link #getCipher(int)} to the pool.
+	 * @param cipher The Cipher object
+	 */
+	void releaseCipher(Cipher cipher)
+	{
+		aesCiphers.offer(cipher);
+	}
+	
+	private byte[] doFinal(int mode, byte[] input) throws Exception
+	{
+		Cipher cipher = this.getCipher(mode);
+		byte[] output = cipher.doFinal(input);
+		
+		this.releaseCipher(cipher);
+		
+		return output;
+	}
 }
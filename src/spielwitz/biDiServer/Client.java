@@ -17,13 +17,24 @@
 
 package spielwitz.biDiServer;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.security.KeyPair;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * The client that can send requests to the server and can receive notifications from the server.
@@ -36,6 +47,14 @@ public abstract class Client
 	 * The default client socket time out (10 seconds)
 	 */
 	public static final int CLIENT_SOCKET_TIMEOUT = 10;
+	
+	/**
+	 * Idle time after which a kept-alive connection is not used anymore. The server closes idle connections after 30 seconds.
+	 */
+	private static final long KEEP_ALIVE_MAX_IDLE_MILLISECONDS = 20000;
+	
+	private static final int ASYNC_THREAD_KEEP_ALIVE_SECONDS = 60;
+	
 	/**
 	 * Activate a user.
 	 * @param userActivationData User activation data
@@ -75,14 +94,22 @@ public abstract class Client
 	}
 	
 	private ClientConfiguration config;
-	private Ciphers aesCiphers;
+	private volatile Ciphers aesCiphers;
 	
 	boolean establishNotificationSocket;
 	private boolean connected;
 	
 	private ClientNotificationReceiverThread notificationReceiverThread;
 	
-	private ClientReconnectThread reconnectThread;
+	private Thread reconnectThread;
+	
+	private ArrayDeque<ServerConnection> keepAliveConnections = new ArrayDeque<ServerConnection>();
+	
+	private Semaphore requestPermits;
+	
+	private MessageCompression messageCompression;
+	
+	private ThreadPoolExecutor asyncExecutor;
 	
 	private Object lockObject = new Object();
 	
@@ -101,6 +128,9 @@ public abstract class Client
 				!config.getUserId().equals(User.ADMIN_USER_ID) ?
 						true :
 						false;
+		
+		this.requestPermits = new Semaphore(config.getMaxConcurrentRequests(), true);
+		this.messageCompression = new MessageCompression(config.getCompressionLevel());
 				
 		TextProperties.setLocale(locale);
 	}
@@ -119,6 +149,16 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #changeUser(PayloadRequestMessageChangeUser)}.
+	 * @param payload The user data
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<PayloadResponseMessageChangeUser>> changeUserAsync(PayloadRequestMessageChangeUser payload)
+	{
+		return this.sendAsync(() -> this.changeUser(payload));
+	}
+	
 	/**
 	 * Create a new data set. There must not be an existing data set with the same ID.
 	 * @param dataSet The data set.
@@ -129,6 +169,16 @@ public abstract class Client
 		return this.sendRequestMessage(RequestMessageType.CREATE_DATA_SET, new Payload(dataSet)).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #createDataSet(DataSet)}.
+	 * @param dataSet The data set
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> createDataSetAsync(DataSet dataSet)
+	{
+		return this.sendAsync(() -> this.createDataSet(dataSet));
+	}
+	
 	/** 
 	 * Delete a data set. No error is returned, if the data set does not exist.
 	 * @param id The data set ID.
@@ -139,6 +189,16 @@ public abstract class Client
 		return this.sendRequestMessage(RequestMessageType.DELETE_DATA_SET, new Payload(id)).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #deleteDataSet(String)}.
+	 * @param id The data set ID
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> deleteDataSetAsync(String id)
+	{
+		return this.sendAsync(() -> this.deleteDataSet(id));
+	}
+	
 	/**
 	 * Delete a user.
 	 * @param userId The user ID.
@@ -149,6 +209,16 @@ public abstract class Client
 		return this.sendRequestMessage(RequestMessageType.DELETE_USER, new Payload(userId)).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #deleteUser(String)}.
+	 * @param userId The user ID
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> deleteUserAsync(String userId)
+	{
+		return this.sendAsync(() -> this.deleteUser(userId));
+	}
+	
 	/**
 	 * Disconnects the client from the server.
 	 */
@@ -164,6 +234,17 @@ public abstract class Client
 		{
 			this.reconnectThread.interrupt();
 		}
+		
+		this.closeKeepAliveConnections();
+		
+		synchronized(this.lockObject)
+		{
+			if (this.asyncExecutor != null)
+			{
+				this.asyncExecutor.shutdown();
+				this.asyncExecutor = null;
+			}
+		}
 	}
 	
 	/**
@@ -189,6 +270,45 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #getDataSet(String)}.
+	 * @param id The data set ID
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<DataSet>> getDataSetAsync(String id)
+	{
+		return this.sendAsync(() -> this.getDataSet(id));
+	}
+	
+	/**
+	 * Get a data set only if it was changed since the client read it. If the data set still has the version
+	 * that the client knows, the response contains no data set, and {@link ResponseInfo#isNotModified()} returns true.
+	 * @param id The data set ID
+	 * @param knownVersion The version of the data set which the client already has
+	 * @return The data set, or no data set if it was not modified
+	 */
+	public Response<DataSet> getDataSet(String id, long knownVersion)
+	{
+		ResponseMessage responseMessage = this.sendRequestMessage(
+				RequestMessageType.GET_DATA_SET, 
+				new Payload(new PayloadRequestMessageGetDataSet(id, knownVersion)));
+		
+		return new Response<DataSet>(
+				(DataSet) responseMessage.getPayloadObject(),
+				responseMessage.getInfo());
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #getDataSet(String, long)}.
+	 * @param id The data set ID
+	 * @param knownVersion The version of the data set which the client already has
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<DataSet>> getDataSetAsync(String id, long knownVersion)
+	{
+		return this.sendAsync(() -> this.getDataSet(id, knownVersion));
+	}
+	
 	/**
 	 * Get all information about all data sets related to a user.
 	 * @param userId The ID of the user.
@@ -202,6 +322,16 @@ public abstract class Client
 				(PayloadResponseGetDataSetInfosOfUser) responseMessage.getPayloadObject(),
 				responseMessage.getInfo());
 	}
+	
+	/**
+	 * Asynchronous variant of {@link #getDataSetInfosOfUser(String)}.
+	 * @param userId The ID of the user
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<PayloadResponseGetDataSetInfosOfUser>> getDataSetInfosOfUserAsync(String userId)
+	{
+		return this.sendAsync(() -> this.getDataSetInfosOfUser(userId));
+	}
 
 	/**
 	 * Get the server log.
@@ -216,6 +346,15 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #getServerLog()}.
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<PayloadResponseMessageGetLog>> getServerLogAsync()
+	{
+		return this.sendAsync(() -> this.getServerLog());
+	}
+	
 	/**
 	 * Get the server status.
 	 * @return Server status
@@ -229,6 +368,15 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #getServerStatus()}.
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<PayloadResponseMessageGetServerStatus>> getServerStatusAsync()
+	{
+		return this.sendAsync(() -> this.getServerStatus());
+	}
+	
 	/**
 	 * Get a user.
 	 * @param userId The user ID
@@ -243,6 +391,16 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #getUser(String)}.
+	 * @param userId The user ID
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<User>> getUserAsync(String userId)
+	{
+		return this.sendAsync(() -> this.getUser(userId));
+	}
+	
 	/**
 	 * Get the ID of the user who is connected through this client.
 	 * @return The user ID
@@ -265,6 +423,15 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #getUsers()}.
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<PayloadResponseMessageGetUsers>> getUsersAsync()
+	{
+		return this.sendAsync(() -> this.getUsers());
+	}
+	
 	/**
 	 * Checks if the notification socket is connected.
 	 * @return True, if connected.
@@ -274,6 +441,36 @@ public abstract class Client
 		return connected;
 	}
 	
+	/**
+	 * Change the payload of an existing data set. Only the differences between the payload of the base data set 
+	 * and the changed payload object are sent to the server. The server rejects the change if the data set 
+	 * was changed since the base data set was read.
+	 * @param baseDataSet The data set as it was read from the server
+	 * @param payloadObject The changed payload object
+	 * @return The new version of the data set
+	 */
+	public Response<Long> patchDataSet(DataSet baseDataSet, Object payloadObject)
+	{
+		ResponseMessage responseMessage = this.sendRequestMessage(
+				RequestMessageType.PATCH_DATA_SET, 
+				new Payload(new PayloadRequestMessagePatchDataSet(baseDataSet, payloadObject)));
+		
+		return new Response<Long>(
+				(Long)responseMessage.getPayloadObject(),
+				responseMessage.getInfo());
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #patchDataSet(DataSet, Object)}.
+	 * @param baseDataSet The data set as it was read from the server
+	 * @param payloadObject The changed payload object
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<Long>> patchDataSetAsync(DataSet baseDataSet, Object payloadObject)
+	{
+		return this.sendAsync(() -> this.patchDataSet(baseDataSet, payloadObject));
+	}
+	
 	/**
 	 * Ping the server.
 	 * @return Response information
@@ -283,6 +480,15 @@ public abstract class Client
 		return this.sendRequestMessage(RequestMessageType.PING, null).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #pingServer()}.
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> pingServerAsync()
+	{
+		return this.sendAsync(() -> this.pingServer());
+	}
+	
 	/**
 	 * Push a notification to a number of recipients.
 	 * @param recipients The recipients
@@ -296,6 +502,49 @@ public abstract class Client
 				new Payload(new PayloadRequestMessagePushNotification(recipients, object))).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #pushNotification(ArrayList, Object)}.
+	 * @param recipients The recipients
+	 * @param object The object to be pushed
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> pushNotificationAsync(ArrayList<String> recipients, Object object)
+	{
+		return this.sendAsync(() -> this.pushNotification(recipients, object));
+	}
+	
+	/**
+	 * Send several requests to the server in one round trip. The server processes the requests in the order 
+	 * in which they were added to the batch and returns one response for each request.
+	 * @param batch The requests
+	 * @return The responses to the requests
+	 */
+	public Response<PayloadResponseMessageBatch> sendBatchRequest(PayloadRequestMessageBatch batch)
+	{
+		ResponseMessage responseMessage = this.sendRequestMessage(RequestMessageType.BATCH, new Payload(batch));
+		
+		PayloadResponseMessageBatch payloadResponse = (PayloadResponseMessageBatch)responseMessage.getPayloadObject();
+		
+		if (payloadResponse != null)
+		{
+			payloadResponse.setMessages(batch);
+		}
+		
+		return new Response<PayloadResponseMessageBatch>(
+				payloadResponse,
+				responseMessage.getInfo());
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #sendBatchRequest(PayloadRequestMessageBatch)}.
+	 * @param batch The requests
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<PayloadResponseMessageBatch>> sendBatchRequestAsync(PayloadRequestMessageBatch batch)
+	{
+		return this.sendAsync(() -> this.sendBatchRequest(batch));
+	}
+	
 	/**
 	 * Send a custom-defined request message to the server.
 	 * @param <T> The class of the response payload
@@ -312,6 +561,17 @@ public abstract class Client
 				responseMessage.getInfo());
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #sendCustomRequestMessage(Object)}.
+	 * @param <T> The class of the response payload
+	 * @param payload The request payload
+	 * @return The future response
+	 */
+	public <T> CompletableFuture<Response<T>> sendCustomRequestMessageAsync(Object payload)
+	{
+		return this.sendAsync(() -> this.sendCustomRequestMessage(payload));
+	}
+	
 	/**
 	 * Set the server log level.
 	 * @param newLogLevel The new log level
@@ -322,6 +582,16 @@ public abstract class Client
 		return this.sendRequestMessage(RequestMessageType.SET_LOG_LEVEL, new Payload(newLogLevel)).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #setLogLevel(LogLevel)}.
+	 * @param newLogLevel The new log level
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> setLogLevelAsync(LogLevel newLogLevel)
+	{
+		return this.sendAsync(() -> this.setLogLevel(newLogLevel));
+	}
+	
 	/**
 	 * Shut down the server. 
 	 * @return Response information
@@ -338,8 +608,9 @@ public abstract class Client
 	{
 		if (this.establishNotificationSocket)
 		{
-			this.reconnectThread = this.new ClientReconnectThread();
-			this.reconnectThread.start();
+			this.reconnectThread = ExecutionThreads.start(
+										this.new ClientReconnectThread(), 
+										this.config.getExecutionMode());
 		}
 		else
 		{
@@ -357,170 +628,287 @@ public abstract class Client
 		return this.sendRequestMessage(RequestMessageType.UPDATE_DATA_SET, new Payload(dataSet)).getInfo();
 	}
 	
+	/**
+	 * Asynchronous variant of {@link #updateDataSet(DataSet)}.
+	 * @param dataSet The data set
+	 * @return The future response information
+	 */
+	public CompletableFuture<ResponseInfo> updateDataSetAsync(DataSet dataSet)
+	{
+		return this.sendAsync(() -> this.updateDataSet(dataSet));
+	}
+	
+	/**
+	 * Update an existing data set only if it still has the expected version on the server. If the data set
+	 * was changed in the meantime, the update is rejected.
+	 * @param dataSet The data set
+	 * @param expectedVersion The version which the data set must have on the server, usually the version of the data set when it was read
+	 * @return The new version of the data set
+	 */
+	public Response<Long> updateDataSet(DataSet dataSet, long expectedVersion)
+	{
+		ResponseMessage responseMessage = this.sendRequestMessage(
+				RequestMessageType.UPDATE_DATA_SET, 
+				new Payload(new PayloadRequestMessageUpdateDataSet(dataSet, expectedVersion)));
+		
+		return new Response<Long>(
+				(Long)responseMessage.getPayloadObject(),
+				responseMessage.getInfo());
+	}
+	
+	/**
+	 * Asynchronous variant of {@link #updateDataSet(DataSet, long)}.
+	 * @param dataSet The data set
+	 * @param expectedVersion The version which the data set must have on the server
+	 * @return The future response
+	 */
+	public CompletableFuture<Response<Long>> updateDataSetAsync(DataSet dataSet, long expectedVersion)
+	{
+		return this.sendAsync(() -> this.updateDataSet(dataSet, expectedVersion));
+	}
+	
+	/**
+	 * Send a request message. Up to {@link ClientConfiguration#getMaxConcurrentRequests()} requests
+	 * of this client are in flight at the same time. Further requests wait until a request has finished.
+	 * @param type Request message type
+	 * @param payload Request payload
+	 * @return The response message
+	 */
 	ResponseMessage sendRequestMessage(RequestMessageType type, Payload payload)
+	{
+		this.requestPermits.acquireUninterruptibly();
+		
+		try
+		{
+			return this.sendRequestMessageWithPermit(type, payload);
+		}
+		finally
+		{
+			this.requestPermits.release();
+		}
+	}
+	
+	private ResponseMessage sendRequestMessageWithPermit(RequestMessageType type, Payload payload)
 	{
 		ResponseMessage responseMessage  = null;
 		
-		synchronized(this.lockObject)
+		responseMessage = this.sendRequestMessageOnKeepAliveConnection(type, payload);
+		
+		if (responseMessage != null)
 		{
-			Socket kkSocket = null;
-			OutputStream out = null;
+			return responseMessage;
+		}
+		
+		Socket kkSocket = null;
+		OutputStream out = null;
+		
+		ArrayList<ProtocolFeature> featuresOffered = new ArrayList<ProtocolFeature>();
+		
+		if (this.config.isKeepAlive() &&
+			type != RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET)
+		{
+			featuresOffered.add(ProtocolFeature.KEEP_ALIVE);
+		}
+		
+		if (type == RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET)
+		{
+			featuresOffered.add(ProtocolFeature.NOTIFICATIONS_AES);
+		}
+		
+		try {
+			Ciphers ciphers = this.aesCiphers;
 			
-			try {
-				kkSocket = new Socket();
-				kkSocket.connect(
-						new InetSocketAddress(this.config.getUrl(), this.config.getPort()), 
-						this.config.getTimeout() > 0 ?
-								this.config.getTimeout() * 1000 :
-								CLIENT_SOCKET_TIMEOUT * 1000);
-				
-				out = kkSocket.getOutputStream();
-				DataInputStream in = new DataInputStream(kkSocket.getInputStream());
-				
-				String sessionId = null;
+			if (this.isSessionResumable(ciphers))
+			{
+				kkSocket = this.connect();
 				
-				if (this.aesCiphers == null || this.config.getUserId().equals(User.ACTIVATION_USER_ID))
+				try
 				{
-					sessionId = CryptoLib.NULL_UUID;
+					ServerConnection connection = this.resumeSession(kkSocket, ciphers, featuresOffered);
+					
+					responseMessage = connection.exchangeMessages(type, payload);
+					
+					// A server which resumes sessions supports all features offered by this client
+					this.afterResponseMessageReceived(
+							connection, 
+							type, 
+							responseMessage, 
+							featuresOffered);
+					
+					return responseMessage;
 				}
-				else
+				catch (SessionResumptionRejectedException x)
 				{
-					sessionId = this.aesCiphers.sessionId;
+					// The server does not know the session any more. Fall back to the full handshake.
+					ciphers.resumable = false;
+					kkSocket.close();
 				}
+				catch (Exception x)
+				{
+					// The next request goes through the full handshake, which tells if the server
+					// still supports session resumption.
+					ciphers.resumable = false;
+					throw x;
+				}
+			}
+			
+			kkSocket = this.connect();
+			
+			out = kkSocket.getOutputStream();
+			DataInputStream in = new DataInputStream(kkSocket.getInputStream());
+			
+			String sessionId = null;
+			
+			if (ciphers == null || this.config.getUserId().equals(User.ACTIVATION_USER_ID))
+			{
+				sessionId = CryptoLib.NULL_UUID;
+			}
+			else
+			{
+				sessionId = ciphers.sessionId;
+			}
+			
+			RequestMessageBase requestMessageUserId = 
+					new RequestMessageBase(
+							sessionId,
+							getBuild(),
+							new Payload(this.config.getUserId()));
+			
+			ArrayList<ProtocolFeature> featuresOfferedHandshake = new ArrayList<ProtocolFeature>(featuresOffered);
+			
+			if (!this.config.getUserId().equals(User.ACTIVATION_USER_ID))
+			{
+				featuresOfferedHandshake.add(ProtocolFeature.SESSION_RESUMPTION);
+				featuresOfferedHandshake.add(ProtocolFeature.FLAGGED_COMPRESSION);
 				
-				RequestMessageBase requestMessageUserId = 
-						new RequestMessageBase(
-								sessionId,
-								getBuild(),
-								new Payload(this.config.getUserId()));
-								
-				CryptoLib.sendStringRsaEncrypted(
-						out, 
-						requestMessageUserId.serialize(), 
-						this.config.getServerPublicKeyObject());
-				
-				String token = null;
+				if (this.config.getMessageFormat() == MessageFormat.Binary)
+				{
+					featuresOfferedHandshake.add(ProtocolFeature.BINARY_MESSAGES);
+				}
 				
-				if (this.config.getUserId().equals(User.ACTIVATION_USER_ID))
+				if (this.config.getKeyAgreementAlgorithm() == KeyAgreementAlgorithm.X25519 &&
+					CryptoLib.isX25519Supported())
 				{
-					token = CryptoLib.NULL_UUID;
+					featuresOfferedHandshake.add(ProtocolFeature.KEY_AGREEMENT_X25519);
 				}
-				else
+			}
+			
+			requestMessageUserId.setFeatures(featuresOfferedHandshake);
+							
+			CryptoLib.sendStringRsaEncrypted(
+					out, 
+					requestMessageUserId.serialize(), 
+					this.config.getServerPublicKeyObject());
+			
+			String token = null;
+			ArrayList<ProtocolFeature> featuresAccepted = new ArrayList<ProtocolFeature>();
+			
+			if (this.config.getUserId().equals(User.ACTIVATION_USER_ID))
+			{
+				token = CryptoLib.NULL_UUID;
+			}
+			else
+			{
+				ResponseMessage responseMessageUserId = 
+						(ResponseMessage) ResponseMessage.deserialize(
+								CryptoLib.receiveStringRsaEncrypted(
+										in, 
+										this.config.getUserPrivateKeyObject()));	
+				
+				PayloadResponseMessageUserId payloadUserId = (PayloadResponseMessageUserId) responseMessageUserId.getPayloadObject();
+				
+				if (payloadUserId.getServerClientBuildCheck() != null)
 				{
-					ResponseMessage responseMessageUserId = 
-							(ResponseMessage) ResponseMessage.deserialize(
-									CryptoLib.receiveStringRsaEncrypted(
-											in, 
-											this.config.getUserPrivateKeyObject()));	
-					
-					PayloadResponseMessageUserId payloadUserId = (PayloadResponseMessageUserId) responseMessageUserId.getPayloadObject();
+					TextProperty textPropertyError = null;
 					
-					if (payloadUserId.getServerClientBuildCheck() != null)
+					if (!payloadUserId.getServerClientBuildCheck().areBuildsCompatible())
 					{
-						TextProperty textPropertyError = null;
+						textPropertyError = TextProperties.IncomptabileBuilds(
+								payloadUserId.getServerClientBuildCheck().getMinimumComptabileBuild(),
+		    					getBuild());
+					}
+					else
+					{
+						ServerClientBuildCheckResult serverClientBuildCheck = 
+								this.checkServerClientBuild(responseMessageUserId.getServerBuild());
 						
-						if (!payloadUserId.getServerClientBuildCheck().areBuildsCompatible())
-						{
-							textPropertyError = TextProperties.IncomptabileBuilds(
-									payloadUserId.getServerClientBuildCheck().getMinimumComptabileBuild(),
-			    					getBuild());
-						}
-						else
+						if (!serverClientBuildCheck.areBuildsCompatible())
 						{
-							ServerClientBuildCheckResult serverClientBuildCheck = 
-									this.checkServerClientBuild(responseMessageUserId.getServerBuild());
-							
-							if (!serverClientBuildCheck.areBuildsCompatible())
-							{
-								textPropertyError = TextProperties.ServerBuildOutdated(
-										responseMessageUserId.getServerBuild(),
-		    							serverClientBuildCheck.getMinimumComptabileBuild());
-							}
+							textPropertyError = TextProperties.ServerBuildOutdated(
+									responseMessageUserId.getServerBuild(),
+	    							serverClientBuildCheck.getMinimumComptabileBuild());
 						}
-						
-					    if (textPropertyError != null)
-					    {
-					    	responseMessage = new ResponseMessage(
-									false,
-									TextProperties.getMessageText(textPropertyError),
-									null);
-					    	responseMessage.setServerBuild(this.getBuild());
-					    	
-					    	kkSocket.close();
-					    	
-					    	return responseMessage;
-					    }
 					}
 					
-					sessionId = payloadUserId.isSessionValid() ? sessionId : CryptoLib.NULL_UUID;
-					token = payloadUserId.getToken();
-				}
-				
-				if (sessionId.equals(CryptoLib.NULL_UUID))
-				{
-					this.aesCiphers = CryptoLib.diffieHellmanKeyAgreementClient(in, out);
-				}
-				
-				RequestMessage requestMessage = new RequestMessage(
-														type,
-														sessionId,
-														token,
-														this.getBuild(),
-														payload);
-					
-				CryptoLib.sendStringAesEncrypted(
-						out, 
-						requestMessage.serialize(), 
-						this.aesCiphers.cipherEncrypt);
-				
-				responseMessage = 
-						(ResponseMessage) ResponseMessage.deserialize(
-								CryptoLib.receiveStringAesEncrypted(in, this.aesCiphers.cipherDecrypt));
-				
-				if (type == RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET &&
-						this.establishNotificationSocket &&
-						responseMessage != null && 
-						responseMessage.isSuccess())
-				{
-					this.establishNotificationSocket(kkSocket);
-				}
-				else
-				{
-					kkSocket.close();
-				}
-				
-				if (responseMessage.getMessage() == null &&
-					requestMessage.getType() != RequestMessageType.CUSTOM)
-				{
-					responseMessage.setMessage(TextProperties.getMessageText(responseMessage.getTextProperty()));
+				    if (textPropertyError != null)
+				    {
+				    	responseMessage = new ResponseMessage(
+								false,
+								TextProperties.getMessageText(textPropertyError),
+								null);
+				    	responseMessage.setServerBuild(this.getBuild());
+				    	
+				    	kkSocket.close();
+				    	
+				    	return responseMessage;
+				    }
 				}
 				
-				if (this.config.getUserId().equals(User.ACTIVATION_USER_ID))
-				{
-					this.aesCiphers = null;
-				}
+				sessionId = payloadUserId.isSessionValid() ? sessionId : CryptoLib.NULL_UUID;
+				token = payloadUserId.getToken();
+				featuresAccepted = payloadUserId.getFeatures();
 			}
-		    catch (EOFException e)
+			
+			if (sessionId.equals(CryptoLib.NULL_UUID))
 			{
-		    	responseMessage = new ResponseMessage(
-		    								false,
-		    								TextProperties.getMessageText(TextProperties.ConnectionClosed()),
-		    								null);
-		    	responseMessage.setServerBuild(this.getBuild());
-		    	
-		    	return responseMessage;
+				ciphers = 
+						featuresAccepted.contains(ProtocolFeature.KEY_AGREEMENT_X25519) ?
+								CryptoLib.x25519KeyAgreementClient(in, out) :
+								CryptoLib.diffieHellmanKeyAgreementClient(in, out);
+				ciphers.created = System.currentTimeMillis();
+				this.aesCiphers = ciphers;
 			}
-		    catch (Exception e)
+			
+			ciphers.resumable = featuresAccepted.contains(ProtocolFeature.SESSION_RESUMPTION);
+			
+			ServerConnection connection = new ServerConnection(
+					kkSocket, 
+					in, 
+					out, 
+					ciphers, 
+					MessageEncoding.fromFeatures(featuresAccepted, this.messageCompression),
+					sessionId, 
+					token);
+			
+			responseMessage = connection.exchangeMessages(type, payload);
+			
+			this.afterResponseMessageReceived(
+					connection, 
+					type, 
+					responseMessage, 
+					featuresAccepted);
+			
+			if (this.config.getUserId().equals(User.ACTIVATION_USER_ID))
 			{
-		    	responseMessage = new ResponseMessage(
-						false,
-						TextProperties.getMessageText(TextProperties.NoConnectionToServer(e.getMessage())),
-						null);
-		    	responseMessage.setServerBuild(this.getBuild());
-		    	
-		    	return responseMessage;
+				this.aesCiphers = null;
 			}
 		}
+	    catch (ServerBusyException e)
+		{
+	    	try
+	    	{
+	    		kkSocket.close();
+	    	}
+	    	catch (Exception x)
+	    	{
+	    	}
+	    	
+	    	return this.getResponseMessageServerBusy();
+		}
+	    catch (Exception e)
+		{
+	    	return this.getResponseMessageConnectionFailed(e);
+		}
 		
 		return responseMessage;
 	}
@@ -557,10 +945,148 @@ public abstract class Client
 			long dateCreated,
 			Object payload);
 	
-	private void establishNotificationSocket(Socket kkSocket)
+	private void afterResponseMessageReceived(
+			ServerConnection connection,
+			RequestMessageType type,
+			ResponseMessage responseMessage,
+			ArrayList<ProtocolFeature> featuresAccepted) throws IOException
+	{
+		if (type == RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET &&
+				this.establishNotificationSocket &&
+				responseMessage != null && 
+				responseMessage.isSuccess())
+		{
+			this.establishNotificationSocket(
+					connection.socket,
+					featuresAccepted.contains(ProtocolFeature.NOTIFICATIONS_AES) ?
+							connection.ciphers :
+							null);
+		}
+		else if (featuresAccepted.contains(ProtocolFeature.KEEP_ALIVE))
+		{
+			this.releaseKeepAliveConnection(connection);
+		}
+		else
+		{
+			connection.close();
+		}
+	}
+	
+	private void closeKeepAliveConnections()
+	{
+		synchronized(this.lockObject)
+		{
+			for (ServerConnection connection: this.keepAliveConnections)
+			{
+				connection.close();
+			}
+			
+			this.keepAliveConnections.clear();
+		}
+	}
+	
+	private Socket connect() throws IOException
+	{
+		Socket kkSocket = new Socket();
+		kkSocket.connect(
+				new InetSocketAddress(this.config.getUrl(), this.config.getPort()), 
+				this.config.getTimeout() > 0 ?
+						this.config.getTimeout() * 1000 :
+						CLIENT_SOCKET_TIMEOUT * 1000);
+		
+		return kkSocket;
+	}
+	
+	private void establishNotificationSocket(Socket kkSocket, Ciphers ciphers)
+	{
+		ClientNotificationReceiverThread t = this.new ClientNotificationReceiverThread(kkSocket, ciphers);
+		ExecutionThreads.start(t, this.config.getExecutionMode());
+	}
+	
+	private ResponseMessage getResponseMessageConnectionFailed(Exception e)
+	{
+		Throwable cause = e instanceof RequestNotSentException ? e.getCause() : e;
+		
+		ResponseMessage responseMessage = new ResponseMessage(
+				false,
+				TextProperties.getMessageText(
+						cause instanceof EOFException ?
+								TextProperties.ConnectionClosed() :
+								TextProperties.NoConnectionToServer(cause.getMessage())),
+				null);
+		responseMessage.setServerBuild(this.getBuild());
+		
+		return responseMessage;
+	}
+	
+	private ResponseMessage getResponseMessageServerBusy()
+	{
+		ResponseMessage responseMessage = new ResponseMessage(
+				false,
+				TextProperties.getMessageText(TextProperties.ServerBusy()),
+				null);
+		responseMessage.setServerBuild(this.getBuild());
+		
+		return responseMessage;
+	}
+	
+	private ThreadPoolExecutor getAsyncExecutor()
+	{
+		synchronized(this.lockObject)
+		{
+			if (this.asyncExecutor == null)
+			{
+				ThreadFactory threadFactory = ExecutionThreads.getThreadFactory(this.config.getExecutionMode());
+				
+				final ThreadFactory threadFactoryBase =
+						threadFactory != null ?
+								threadFactory :
+								ExecutionThreads.getThreadFactory(ExecutionMode.PlatformThreads);
+				
+				// The number of threads does not need to exceed the number of permits, 
+				// because each request has to acquire a permit anyway.
+				this.asyncExecutor = new ThreadPoolExecutor(
+						this.config.getMaxConcurrentRequests(),
+						this.config.getMaxConcurrentRequests(),
+						ASYNC_THREAD_KEEP_ALIVE_SECONDS,
+						TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(),
+						new ThreadFactory()
+						{
+							public Thread newThread(Runnable runnable)
+							{
+								Thread thread = threadFactoryBase.newThread(runnable);
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+				
+				this.asyncExecutor.allowCoreThreadTimeOut(true);
+			}
+			
+			return this.asyncExecutor;
+		}
+	}
+	
+	/**
+	 * Check if the session can be resumed on a new connection without a full handshake.
+	 * @param ciphers The ciphers of the session. Null, if there is no session yet
+	 * @return True, if the server has agreed on session resumption and still knows the session
+	 */
+	private boolean isSessionResumable(Ciphers ciphers)
 	{
-		ClientNotificationReceiverThread t = this.new ClientNotificationReceiverThread(kkSocket);
-		t.start();
+		if (ciphers == null || 
+			!ciphers.resumable ||
+			this.config.getUserId().equals(User.ACTIVATION_USER_ID))
+		{
+			return false;
+		}
+		
+		// Do not try to resume a session which the server has already discarded
+		long timeNow = System.currentTimeMillis();
+		
+		return timeNow - ciphers.lastUsed < CryptoLib.CIPHERS_MAX_INACTIVITY_MILLISECONDS &&
+			   timeNow - ciphers.created < CryptoLib.CIPHERS_MAX_VALIDITY_MILLISECONDS;
 	}
 	
 	/**
@@ -574,6 +1100,153 @@ public abstract class Client
 		}
 	}
 	
+	/**
+	 * Put a kept-alive connection back into the pool of idle connections, so that other requests can use it.
+	 * @param connection The connection
+	 */
+	private void releaseKeepAliveConnection(ServerConnection connection)
+	{
+		synchronized(this.lockObject)
+		{
+			if (this.keepAliveConnections.size() < this.config.getMaxConcurrentRequests())
+			{
+				this.keepAliveConnections.push(connection);
+				return;
+			}
+		}
+		
+		connection.close();
+	}
+	
+	/**
+	 * Resume the session on a new connection. The session resumption message is not sent before the request,
+	 * so that both go to the server in one flight.
+	 * @param kkSocket The new connection
+	 * @param ciphers The ciphers of the session
+	 * @param featuresOffered The protocol features offered by the client
+	 * @return The server connection on which the request can be sent
+	 * @throws Exception
+	 */
+	private ServerConnection resumeSession(
+			Socket kkSocket, 
+			Ciphers ciphers,
+			ArrayList<ProtocolFeature> featuresOffered) throws Exception
+	{
+		OutputStream out = new BufferedOutputStream(kkSocket.getOutputStream());
+		DataInputStream in = new DataInputStream(kkSocket.getInputStream());
+		
+		long sequenceNumber = ciphers.nextResumptionSequenceNumber();
+		String token = UUID.randomUUID().toString();
+		
+		RequestMessageSessionResumption requestMessageResumption = 
+				new RequestMessageSessionResumption(
+						ciphers.sessionId,
+						getBuild(),
+						new Payload(this.config.getUserId()),
+						sequenceNumber,
+						token,
+						CryptoLib.getSessionResumptionMac(
+								ciphers.macKey, 
+								ciphers.sessionId, 
+								this.config.getUserId(), 
+								sequenceNumber, 
+								token));
+		
+		// The encoding is agreed on for every connection, so the features of the handshake are offered again
+		ArrayList<ProtocolFeature> featuresOfferedResumption = new ArrayList<ProtocolFeature>(featuresOffered);
+		featuresOfferedResumption.add(ProtocolFeature.FLAGGED_COMPRESSION);
+		
+		if (this.config.getMessageFormat() == MessageFormat.Binary)
+		{
+			featuresOfferedResumption.add(ProtocolFeature.BINARY_MESSAGES);
+		}
+		
+		requestMessageResumption.setFeatures(featuresOfferedResumption);
+		
+		MessageEncoding encoding = MessageEncoding.fromFeatures(featuresOfferedResumption, this.messageCompression);
+		
+		CryptoLib.sendSessionResumptionStart(out, ciphers.sessionId);
+		CryptoLib.sendMessageAesEncrypted(out, requestMessageResumption, ciphers, encoding);
+		
+		return new ServerConnection(
+				kkSocket, 
+				in, 
+				out, 
+				ciphers, 
+				encoding,
+				ciphers.sessionId, 
+				token);
+	}
+	
+	/**
+	 * Execute a request on a thread of the client.
+	 * @param <T> The result type
+	 * @param request The request
+	 * @return The future result
+	 */
+	private <T> CompletableFuture<T> sendAsync(Supplier<T> request)
+	{
+		return CompletableFuture.supplyAsync(request, this.getAsyncExecutor());
+	}
+	
+	/**
+	 * Send a request message over a connection which was kept alive after a previous request.
+	 * @param type Request message type
+	 * @param payload Request payload
+	 * @return The response message, or null if there is no usable connection. Then a new connection has to be established.
+	 */
+	private ResponseMessage sendRequestMessageOnKeepAliveConnection(RequestMessageType type, Payload payload)
+	{
+		if (type == RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET)
+		{
+			return null;
+		}
+		
+		ServerConnection connection = null;
+		
+		synchronized(this.lockObject)
+		{
+			connection = this.keepAliveConnections.poll();
+			
+			while (connection != null && !connection.isUsable())
+			{
+				connection.close();
+				connection = this.keepAliveConnections.poll();
+			}
+		}
+		
+		if (connection == null)
+		{
+			return null;
+		}
+		
+		try
+		{
+			ResponseMessage responseMessage = connection.exchangeMessages(type, payload);
+			this.releaseKeepAliveConnection(connection);
+			
+			return responseMessage;
+		}
+		catch (RequestNotSentException x)
+		{
+			// The server closed the connection in the meantime. The request was not processed.
+			connection.close();
+			return null;
+		}
+		catch (ServerBusyException x)
+		{
+			// The server did not process the request
+			connection.close();
+			return this.getResponseMessageServerBusy();
+		}
+		catch (Exception x)
+		{
+			// The server may have processed the request already, so it must not be sent again
+			connection.close();
+			return this.getResponseMessageConnectionFailed(x);
+		}
+	}
+	
 	private void setConnectionStatus(boolean connected)
 	{
 		this.connected = connected;
@@ -581,18 +1254,22 @@ public abstract class Client
 		
 		if (this.notificationReceiverThread != null && !connected)
 		{
-			this.notificationReceiverThread.interrupt();
+			this.notificationReceiverThread.disconnect();
 			this.notificationReceiverThread = null;
 		}
 	}
 	
-	private class ClientNotificationReceiverThread extends Thread
+	private class ClientNotificationReceiverThread implements Runnable
 	{
 		private Socket socket;
+		private Ciphers ciphers;
+		private PushNotificationForwarderThread forwarder;
+		private Thread forwarderThread;
 		
-		ClientNotificationReceiverThread(Socket socket)
+		ClientNotificationReceiverThread(Socket socket, Ciphers ciphers)
 		{
 			this.socket = socket;
+			this.ciphers = ciphers;
 		}
 		
 		public void run()
@@ -602,21 +1279,23 @@ public abstract class Client
 				this.socket.setSoTimeout(0);
 				DataInputStream in = new DataInputStream(this.socket.getInputStream());
 				
+				// One thread forwards the notifications in the order in which they were received
+				this.forwarder = new PushNotificationForwarderThread();
+				this.forwarderThread = ExecutionThreads.start(this.forwarder, getConfig().getExecutionMode());
+				
 				do
 				{
 					setConnectionStatus(true);
 					
 					Notifications notifications = 
-							(Notifications) Notifications.deserialize(
-								CryptoLib.receiveStringRsaEncrypted(
-									in, 
-									getConfig().getUserPrivateKeyObject()));
+							this.ciphers != null ?
+									Notifications.deserialize(CryptoLib.receiveBytesAesEncrypted(in, this.ciphers)) :
+									Notifications.deserialize(
+											CryptoLib.receiveStringRsaEncrypted(in, getConfig().getUserPrivateKeyObject()));
 					
 					if (notifications != null)
 					{
-						PushNotificationForwarderThread pushNotificationReceivedThread =
-								new PushNotificationForwarderThread(notifications);
-						pushNotificationReceivedThread.start();
+						this.forwarder.add(notifications);
 					}
 					
 				} while (true);
@@ -626,6 +1305,12 @@ public abstract class Client
 				
 			}
 			
+			if (this.forwarderThread != null)
+			{
+				// Notifications which were not forwarded yet are sent again by the server when the client reconnects
+				this.forwarderThread.interrupt();
+			}
+			
 			setConnectionStatus(false);
 		}
 		
@@ -642,7 +1327,7 @@ public abstract class Client
 		}
 	}
 	
-	private class ClientReconnectThread extends Thread
+	private class ClientReconnectThread implements Runnable
 	{
 		public void run()
 		{
@@ -661,18 +1346,136 @@ public abstract class Client
 		}
 	}
 	
-	private class PushNotificationForwarderThread extends Thread
+	private class ServerConnection
 	{
-		private Notifications notifications;
+		private Socket socket;
+		private DataInputStream in;
+		private OutputStream out;
+		private Ciphers ciphers;
+		private MessageEncoding encoding;
+		private String sessionId;
+		private String token;
+		private long lastUsed;
 		
-		private PushNotificationForwarderThread(Notifications notifications)
+		ServerConnection(
+				Socket socket, 
+				DataInputStream in, 
+				OutputStream out, 
+				Ciphers ciphers, 
+				MessageEncoding encoding,
+				String sessionId, 
+				String token)
 		{
-			this.notifications = notifications;
+			this.socket = socket;
+			this.in = in;
+			this.out = out;
+			this.ciphers = ciphers;
+			this.encoding = encoding;
+			this.sessionId = sessionId;
+			this.token = token;
+		}
+		
+		void close()
+		{
+			try
+			{
+				this.socket.close();
+			}
+			catch (Exception x)
+			{
+			}
 		}
 		
+		/**
+		 * Send a request and receive the response.
+		 * @param type Request message type
+		 * @param payload Request payload
+		 * @return The response message
+		 * @throws RequestNotSentException The request could not be sent, or the server closed the idle connection without reading it. The request can be sent again
+		 * @throws Exception The request failed. The server may have processed it
+		 */
+		ResponseMessage exchangeMessages(RequestMessageType type, Payload payload) throws Exception
+		{
+			RequestMessage requestMessage = new RequestMessage(
+													type,
+													this.sessionId,
+													this.token,
+													getBuild(),
+													payload);
+			
+			try
+			{
+				CryptoLib.sendMessageAesEncrypted(
+						this.out, 
+						requestMessage, 
+						this.ciphers,
+						this.encoding);
+				this.out.flush();
+			}
+			catch (IOException x)
+			{
+				throw new RequestNotSentException(x);
+			}
+			
+			ResponseMessage responseMessage = null;
+			
+			try
+			{
+				responseMessage = (ResponseMessage) CryptoLib.receiveMessageAesEncrypted(this.in, this.ciphers);
+			}
+			catch (ConnectionClosedIdleException x)
+			{
+				// The server tells that it closed the idle connection without reading the request. Any other 
+				// failure, even a connection closed without a response, can happen after the server has processed 
+				// the request.
+				throw new RequestNotSentException(x);
+			}
+			
+			this.lastUsed = System.currentTimeMillis();
+			this.ciphers.lastUsed = this.lastUsed;
+			
+			if (responseMessage.getMessage() == null &&
+				requestMessage.getType() != RequestMessageType.CUSTOM)
+			{
+				responseMessage.setMessage(TextProperties.getMessageText(responseMessage.getTextProperty()));
+			}
+			
+			return responseMessage;
+		}
+		
+		boolean isUsable()
+		{
+			return !this.socket.isClosed() &&
+					System.currentTimeMillis() - this.lastUsed < KEEP_ALIVE_MAX_IDLE_MILLISECONDS;
+		}
+	}
+	
+	private class PushNotificationForwarderThread implements Runnable
+	{
+		private LinkedBlockingQueue<Notifications> notificationsQueue = new LinkedBlockingQueue<Notifications>();
+		
 		public void run()
 		{
-			for (Notification notification: this.notifications.getNotifications())
+			try
+			{
+				while (true)
+				{
+					this.forward(this.notificationsQueue.take());
+				}
+			}
+			catch (InterruptedException x)
+			{
+			}
+		}
+		
+		private void add(Notifications notifications)
+		{
+			this.notificationsQueue.add(notifications);
+		}
+		
+		private void forward(Notifications notifications)
+		{
+			for (Notification notification: notifications.getNotifications())
 			{
 				if (notification.isPing())
 					continue;
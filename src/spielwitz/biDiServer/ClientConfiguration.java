@@ -27,6 +27,15 @@ import java.security.PublicKey;
  */
 public class ClientConfiguration extends FileBasedSerializableEntity
 {
+	/**
+	 * The default maximum number of requests which a client sends to the server at the same time (1)
+	 */
+	public static final int CLIENT_DEFAULT_MAX_CONCURRENT_REQUESTS = 1;
+	/**
+	 * The default deflate level of messages which the client compresses (6)
+	 */
+	public static final int CLIENT_DEFAULT_COMPRESSION_LEVEL = 6;
+	
 	/**
 	 * Get the proposed file name of a client configuration file, composed of user ID, server URL, and server port. 
 	 * @param userId The user ID
@@ -65,6 +74,12 @@ public class ClientConfiguration extends FileBasedSerializableEntity
 	
 	private String serverPublicKey;
 	private String adminEmail;
+	private boolean keepAlive;
+	private ExecutionMode executionMode;
+	private KeyAgreementAlgorithm keyAgreementAlgorithm;
+	private int maxConcurrentRequests;
+	private Integer compressionLevel;
+	private MessageFormat messageFormat;
 	
 	private transient PrivateKey userPrivateKeyObject;
 	
@@ -110,6 +125,48 @@ public class ClientConfiguration extends FileBasedSerializableEntity
 		return adminEmail;
 	}
 	
+	/**
+	 * Get the deflate level with which the client compresses messages to the server (0 to 9). The default is 6.
+	 * @return The compression level
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel != null && compressionLevel >= 0 && compressionLevel <= 9 ? 
+				compressionLevel : 
+				CLIENT_DEFAULT_COMPRESSION_LEVEL;
+	}
+	
+	/**
+	 * Get the kind of threads on which the client receives and forwards notifications. The default is platform threads.
+	 * @return The execution mode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode != null ? executionMode : ExecutionMode.PlatformThreads;
+	}
+	
+	/**
+	 * Get the algorithm with which the client agrees on the key of a new session with the server. The default is X25519.
+	 * @return The key agreement algorithm
+	 */
+	public KeyAgreementAlgorithm getKeyAgreementAlgorithm() {
+		return keyAgreementAlgorithm != null ? keyAgreementAlgorithm : KeyAgreementAlgorithm.X25519;
+	}
+	
+	/**
+	 * Get the maximum number of requests which the client sends to the server at the same time.
+	 * @return The maximum number of concurrent requests
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests > 0 ? maxConcurrentRequests : CLIENT_DEFAULT_MAX_CONCURRENT_REQUESTS;
+	}
+	
+	/**
+	 * Get the format in which the client exchanges messages with the server. The default is JSON.
+	 * @return The message format
+	 */
+	public MessageFormat getMessageFormat() {
+		return messageFormat != null ? messageFormat : MessageFormat.Json;
+	}
+	
 	/**
 	 * Get the server port.
 	 * @return The server port
@@ -158,6 +215,71 @@ public class ClientConfiguration extends FileBasedSerializableEntity
 		return userPrivateKeyObject;
 	}
 	
+	/**
+	 * True, if the client keeps an authenticated connection to the server open and sends
+	 * subsequent requests over it, instead of opening a new connection for every request.
+	 * @return True, if connections are kept alive
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+	
+	/**
+	 * Set the deflate level with which the client compresses messages to the server.
+	 * 0 disables compression, 1 is the fastest and 9 the strongest level. Short messages are never compressed.
+	 * The value is read when the client is created.
+	 * @param compressionLevel The compression level (0 to 9)
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+	
+	/**
+	 * Set the kind of threads on which the client receives and forwards notifications.
+	 * @param executionMode The execution mode
+	 */
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+	
+	/**
+	 * Keep an authenticated connection to the server open and send subsequent requests over it.
+	 * The connection is only kept alive if the server supports it. Idle connections are closed 
+	 * by the client after a while.
+	 * @param keepAlive True, if connections shall be kept alive
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+	
+	/**
+	 * Set the algorithm with which the client agrees on the key of a new session with the server.
+	 * X25519 is only used if both the client and the server support it.
+	 * @param keyAgreementAlgorithm The key agreement algorithm
+	 */
+	public void setKeyAgreementAlgorithm(KeyAgreementAlgorithm keyAgreementAlgorithm) {
+		this.keyAgreementAlgorithm = keyAgreementAlgorithm;
+	}
+	
+	/**
+	 * Set the maximum number of requests which the client sends to the server at the same time, 
+	 * for example when a backend service acting as one user fans out requests with the asynchronous methods of the client.
+	 * The value is read when the client is created.
+	 * @param maxConcurrentRequests The maximum number of concurrent requests
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+	
+	/**
+	 * Set the format in which the client exchanges messages with the server.
+	 * The binary format is only used if the server supports it.
+	 * @param messageFormat The message format
+	 */
+	public void setMessageFormat(MessageFormat messageFormat) {
+		this.messageFormat = messageFormat;
+	}
+	
 	/**
 	 * Set the server port.
 	 * @param port The server port.
@@ -0,0 +1,34 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+/**
+ * Thrown when the server answers with the frame "connection closed idle" instead of a message.
+ * The server has not read the request, so it can be sent again on a new connection.
+ * @author spielwitz
+ *
+ */
+@SuppressWarnings("serial")
+class ConnectionClosedIdleException extends Exception
+{
+	ConnectionClosedIdleException()
+	{
+		super(TextProperties.getMessageText(TextProperties.ConnectionClosed()));
+	}
+}
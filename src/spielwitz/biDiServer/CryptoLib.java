@@ -17,18 +17,29 @@
 
 package spielwitz.biDiServer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.Writer;
 import java.security.AlgorithmParameters;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
@@ -38,9 +49,14 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
 import javax.crypto.interfaces.DHPublicKey;
 import javax.crypto.spec.DHParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -51,14 +67,26 @@ import javax.crypto.spec.SecretKeySpec;
 class CryptoLib 
 {
 	private static final String ALGORITHM_RSA = "RSA";
+	private static final String ALGORITHM_MAC = "HmacSHA256";
+	private static final String ALGORITHM_X25519 = "X25519";
+	private static final String ALGORITHM_AES_GCM = "AES/GCM/NoPadding";
+	private static final int HYBRID_AES_KEY_LENGTH = 16;
+	private static final int HYBRID_IV_LENGTH = 12;
+	private static final int HYBRID_TAG_LENGTH_BITS = 128;
+	private static final int HYBRID_WRAPPED_KEY_LENGTH_BYTE_SIZE = 2;
+	private static final String MAC_KEY_LABEL = "biDiServer session resumption";
 	private static final String STRING_ENCODING = "UTF-8"; 
 	private static final int ENCRYPT_CHUNK_LENGTH = 50;
 	private static final int KEY_SIZE = 512;
+	private static final int DIFFIE_HELLMAN_KEY_SIZE = 2048;
+	private static final int STREAM_BUFFER_SIZE = 8192;
 	private static final int CHUNK_LENGTH_BYTE_SIZE = 1;
 	
 	private static final String CODES = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/=";
 	
 	private static Hashtable<Character,Integer> codeIndices;
+	private static boolean x25519Supported;
+	private static SecureRandom secureRandom = new SecureRandom();
 	
 	/**
 	 * A string representing an initial UUID.
@@ -75,6 +103,27 @@ class CryptoLib
 	 */
 	static final long CIPHERS_MAX_VALIDITY_MILLISECONDS = 30 * 60 * 1000;
 	
+	/**
+	 * Frame length which the server sends instead of a message if it is too busy to process the request.
+	 */
+	static final int FRAME_LENGTH_SERVER_BUSY = -1;
+	
+	/**
+	 * Frame length which the client sends instead of an RSA encrypted message if it resumes a session.
+	 */
+	static final int FRAME_LENGTH_SESSION_RESUMPTION = -2;
+	
+	/**
+	 * Frame length which the server sends instead of a message if it cannot resume the session.
+	 */
+	static final int FRAME_LENGTH_SESSION_RESUMPTION_REJECTED = -3;
+	
+	/**
+	 * Frame length which the server sends before it closes a kept-alive connection without having read
+	 * a request from it.
+	 */
+	static final int FRAME_LENGTH_CONNECTION_CLOSED_IDLE = -4;
+	
 	static
 	{
 		codeIndices = new Hashtable<Character,Integer>(CODES.length());
@@ -85,6 +134,14 @@ class CryptoLib
 		try {
 			Cipher.getInstance(ALGORITHM_RSA);
 		} catch (Exception e) {}
+		
+		try {
+			// X25519 is available as of Java 11
+			KeyPairGenerator.getInstance(ALGORITHM_X25519);
+			KeyAgreement.getInstance(ALGORITHM_X25519);
+			KeyFactory.getInstance(ALGORITHM_X25519);
+			x25519Supported = true;
+		} catch (Exception e) {}
 	}
 	
 	static byte[] base64Decode(String input)
@@ -145,6 +202,35 @@ class CryptoLib
         return out.toString();
     }
 	
+	/**
+	 * Create a pool of Diffie-Hellman key pairs for the server, generated with the parameters which clients
+	 * use by default.
+	 * @param size The number of key pairs generated ahead of time
+	 * @return The key pair pool
+	 * @throws Exception
+	 */
+	static KeyPairPool createDiffieHellmanKeyPairPool(int size) throws Exception
+	{
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("DH");
+		keyPairGenerator.initialize(DIFFIE_HELLMAN_KEY_SIZE);
+		
+		DHParameterSpec params = ((DHPublicKey)keyPairGenerator.generateKeyPair().getPublic()).getParams();
+		
+		return new KeyPairPool("DH", params, size);
+	}
+	
+	/**
+	 * Create a pool of X25519 key pairs for the server.
+	 * @param size The number of key pairs generated ahead of time
+	 * @return The key pair pool, or null if X25519 is not supported
+	 */
+	static KeyPairPool createX25519KeyPairPool(int size)
+	{
+		return x25519Supported ?
+				new KeyPairPool(ALGORITHM_X25519, null, size) :
+				null;
+	}
+	
 	/**
 	 * Decode a private RSA key from a base64-encoded string.
 	 * @param base64String The private RSA key as a base64-encoded string
@@ -196,6 +282,33 @@ class CryptoLib
 		return publicKey;
 	}
 
+	/**
+	 * Decrypt a message which was encrypted with {@link #encryptHybrid(String, PublicKey)}.
+	 * @param bytes The encrypted message
+	 * @param key The private RSA key of the recipient
+	 * @return The decrypted message
+	 * @throws Exception
+	 */
+	static String decryptHybrid(byte[] bytes, PrivateKey key) throws Exception
+	{
+		int wrappedKeyLength = (bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF);
+		
+		Cipher rsaCipher = Cipher.getInstance(ALGORITHM_RSA);
+		rsaCipher.init(Cipher.DECRYPT_MODE, key);
+		byte[] keyAndIv = rsaCipher.doFinal(bytes, HYBRID_WRAPPED_KEY_LENGTH_BYTE_SIZE, wrappedKeyLength);
+		
+		Cipher aesCipher = Cipher.getInstance(ALGORITHM_AES_GCM);
+		aesCipher.init(
+				Cipher.DECRYPT_MODE, 
+				new SecretKeySpec(keyAndIv, 0, HYBRID_AES_KEY_LENGTH, "AES"),
+				new GCMParameterSpec(HYBRID_TAG_LENGTH_BITS, keyAndIv, HYBRID_AES_KEY_LENGTH, HYBRID_IV_LENGTH));
+		
+		int offset = HYBRID_WRAPPED_KEY_LENGTH_BYTE_SIZE + wrappedKeyLength;
+		byte[] compressed = aesCipher.doFinal(bytes, offset, bytes.length - offset);
+		
+		return new String(decompress(compressed), STRING_ENCODING);
+	}
+	
 	static String decryptRsa(byte[] text, PrivateKey key) throws Exception 
 	{
 		ArrayList<byte[]> textBytes2 = new ArrayList<byte[]>(); 
@@ -255,7 +368,7 @@ class CryptoLib
 			OutputStream out) throws Exception
 	{
         KeyPairGenerator clientKpairGen = KeyPairGenerator.getInstance("DH");
-        clientKpairGen.initialize(2048);
+        clientKpairGen.initialize(DIFFIE_HELLMAN_KEY_SIZE);
         KeyPair clientKpair = clientKpairGen.generateKeyPair();
         
         KeyAgreement clientKeyAgree = KeyAgreement.getInstance("DH");
@@ -281,21 +394,13 @@ class CryptoLib
         byte[] serverEncodedParams = receiveByteArray(in);
         SecretKeySpec clientAesKey = new SecretKeySpec(clientSharedSecret, 0, 16, "AES");
 
-        AlgorithmParameters clientAesParams = AlgorithmParameters.getInstance("AES");
-        clientAesParams.init(serverEncodedParams);
-        Cipher clientCipherDecrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        clientCipherDecrypt.init(Cipher.DECRYPT_MODE, clientAesKey, clientAesParams);
-        
-        Cipher clientCipherEncrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        clientCipherEncrypt.init(Cipher.ENCRYPT_MODE, clientAesKey);
+        byte[] clientIvDecrypt = decodeAesParameters(serverEncodedParams);
+        byte[] clientIvEncrypt = Ciphers.generateIv();
         
-        byte[] clientEncodedParams = clientCipherEncrypt.getParameters().getEncoded();
-
-        sendByteArray(out, clientEncodedParams);
+        sendByteArray(out, encodeAesParameters(clientIvEncrypt));
         
-        String sessionId = receiveStringAesEncrypted(in, clientCipherDecrypt);
-        
-        Ciphers ciphers = new Ciphers(clientCipherEncrypt, clientCipherDecrypt, sessionId);
+        Ciphers ciphers = new Ciphers(clientAesKey, clientIvEncrypt, clientIvDecrypt, null, deriveMacKey(clientSharedSecret));
+        ciphers.sessionId = receiveStringAesEncrypted(in, ciphers);
         return ciphers;
 	}
 	
@@ -303,12 +408,14 @@ class CryptoLib
 	 * Perform the Diffie-Hellman key agreement for the server.
 	 * @param in Data input stream
 	 * @param out Output stream
+	 * @param keyPairPool Pool of server key pairs. Only used if the client uses the same parameters
 	 * @return The ciphers
 	 * @throws Exception
 	 */
 	static Ciphers diffieHellmanKeyAgreementServer(
 			DataInputStream in, 
-			OutputStream out) throws Exception
+			OutputStream out,
+			KeyPairPool keyPairPool) throws Exception
 	{
 		byte[] clientPubKeyEnc = receiveByteArray(in);
         
@@ -319,9 +426,18 @@ class CryptoLib
 
         DHParameterSpec dhParamFromclientPubKey = ((DHPublicKey)clientPubKey).getParams();
 
-        KeyPairGenerator serverKpairGen = KeyPairGenerator.getInstance("DH");
-        serverKpairGen.initialize(dhParamFromclientPubKey);
-        KeyPair serverKpair = serverKpairGen.generateKeyPair();
+        KeyPair serverKpair = null;
+        
+        if (keyPairPool != null && keyPairPool.isCompatible(dhParamFromclientPubKey))
+        {
+            serverKpair = keyPairPool.take();
+        }
+        else
+        {
+            KeyPairGenerator serverKpairGen = KeyPairGenerator.getInstance("DH");
+            serverKpairGen.initialize(dhParamFromclientPubKey);
+            serverKpair = serverKpairGen.generateKeyPair();
+        }
 
         KeyAgreement serverKeyAgree = KeyAgreement.getInstance("DH");
         serverKeyAgree.init(serverKpair.getPrivate());
@@ -340,21 +456,15 @@ class CryptoLib
         
         SecretKeySpec serverAesKey = new SecretKeySpec(serverSharedSecret, 0, 16, "AES");
 
-        Cipher serverCipherEncrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        serverCipherEncrypt.init(Cipher.ENCRYPT_MODE, serverAesKey);
-        byte[] encodedParamsServer = serverCipherEncrypt.getParameters().getEncoded();
-        sendByteArray(out, encodedParamsServer);
+        byte[] serverIvEncrypt = Ciphers.generateIv();
+        sendByteArray(out, encodeAesParameters(serverIvEncrypt));
         
-        byte[] clientEncodedParams = receiveByteArray(in);
-        AlgorithmParameters serverAesParams = AlgorithmParameters.getInstance("AES");
-        serverAesParams.init(clientEncodedParams);
-        Cipher serverCipherDecrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        serverCipherDecrypt.init(Cipher.DECRYPT_MODE, serverAesKey, serverAesParams);
+        byte[] serverIvDecrypt = decodeAesParameters(receiveByteArray(in));
         
         String sessionId = UUID.randomUUID().toString();
-        sendStringAesEncrypted(out, sessionId, serverCipherEncrypt);
-
-        Ciphers ciphers = new Ciphers(serverCipherEncrypt, serverCipherDecrypt, sessionId);
+        Ciphers ciphers = new Ciphers(serverAesKey, serverIvEncrypt, serverIvDecrypt, sessionId, deriveMacKey(serverSharedSecret));
+        
+        sendStringAesEncrypted(out, sessionId, ciphers, MessageEncoding.LEGACY);
         return ciphers;
 	}
 	
@@ -384,6 +494,45 @@ class CryptoLib
 		return base64Encode(publicKey.getEncoded());
 	}
 	
+	/**
+	 * Encrypt a message of any length with a random AES key. Only the AES key is encrypted with RSA,
+	 * so that the cost of the RSA operations does not depend on the length of the message.
+	 * @param text The message text
+	 * @param key The public RSA key of the recipient
+	 * @return The wrapped AES key, followed by the AES encrypted message. Null, if the message could not be encrypted
+	 */
+	static byte[] encryptHybrid(String text, PublicKey key)
+	{
+		try
+		{
+			byte[] keyAndIv = new byte[HYBRID_AES_KEY_LENGTH + HYBRID_IV_LENGTH];
+			secureRandom.nextBytes(keyAndIv);
+			
+			Cipher rsaCipher = Cipher.getInstance(ALGORITHM_RSA);
+			rsaCipher.init(Cipher.ENCRYPT_MODE, key);
+			byte[] wrappedKey = rsaCipher.doFinal(keyAndIv);
+			
+			Cipher aesCipher = Cipher.getInstance(ALGORITHM_AES_GCM);
+			aesCipher.init(
+					Cipher.ENCRYPT_MODE, 
+					new SecretKeySpec(keyAndIv, 0, HYBRID_AES_KEY_LENGTH, "AES"),
+					new GCMParameterSpec(HYBRID_TAG_LENGTH_BITS, keyAndIv, HYBRID_AES_KEY_LENGTH, HYBRID_IV_LENGTH));
+			byte[] ciphertext = aesCipher.doFinal(compress(text.getBytes(STRING_ENCODING)));
+			
+			byte[] encryptedBytes = new byte[HYBRID_WRAPPED_KEY_LENGTH_BYTE_SIZE + wrappedKey.length + ciphertext.length];
+			encryptedBytes[0] = (byte) ((wrappedKey.length >> 8) & 0xFF);
+			encryptedBytes[1] = (byte) (wrappedKey.length & 0xFF);
+			System.arraycopy(wrappedKey, 0, encryptedBytes, HYBRID_WRAPPED_KEY_LENGTH_BYTE_SIZE, wrappedKey.length);
+			System.arraycopy(ciphertext, 0, encryptedBytes, HYBRID_WRAPPED_KEY_LENGTH_BYTE_SIZE + wrappedKey.length, ciphertext.length);
+			
+			return encryptedBytes;
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+	
 	static byte[] encryptRsa(String text, PublicKey key)
 	{
 		ArrayList<byte[]> chunkBytesEncrypted = new ArrayList<byte[]>();
@@ -445,6 +594,16 @@ class CryptoLib
 		return encryptedBytes;
 	}
 	
+	/**
+	 * Get the frame which tells the client that the server closes a kept-alive connection without
+	 * reading a request from it, for connections in non-blocking mode.
+	 * @return The frame
+	 */
+	static byte[] getConnectionClosedIdleFrame()
+	{
+		return CryptoLib.convertIntToByteArray(FRAME_LENGTH_CONNECTION_CLOSED_IDLE);
+	}
+	
 	/**
 	 * Get a new RSA key pair.
 	 * @return The RSA key pair
@@ -461,28 +620,182 @@ class CryptoLib
 		return keyGen.generateKeyPair();
 	}
 	
+	/**
+	 * Compute the message authentication code with which a client proves that it holds the key of the session
+	 * it wants to resume.
+	 * @param macKey The key of the session
+	 * @param sessionId The session ID
+	 * @param userId The user ID
+	 * @param sequenceNumber The sequence number of the session resumption
+	 * @param token The token for the requests on the resumed connection
+	 * @return The message authentication code as a base64-encoded string
+	 * @throws Exception
+	 */
+	static String getSessionResumptionMac(
+			byte[] macKey,
+			String sessionId,
+			String userId,
+			long sequenceNumber,
+			String token) throws Exception
+	{
+		Mac mac = Mac.getInstance(ALGORITHM_MAC);
+		mac.init(new SecretKeySpec(macKey, ALGORITHM_MAC));
+		
+		String text = sessionId + "\n" + userId + "\n" + sequenceNumber + "\n" + token;
+		
+		return base64Encode(mac.doFinal(text.getBytes(STRING_ENCODING)));
+	}
+	
+	/**
+	 * Check the message authentication code of a session resumption.
+	 * @param mac The message authentication code sent by the client
+	 * @param macKey The key of the session
+	 * @param sessionId The session ID
+	 * @param userId The user ID
+	 * @param sequenceNumber The sequence number of the session resumption
+	 * @param token The token for the requests on the resumed connection
+	 * @return True, if the message authentication code is valid
+	 * @throws Exception
+	 */
+	static boolean isSessionResumptionMacValid(
+			String mac,
+			byte[] macKey,
+			String sessionId,
+			String userId,
+			long sequenceNumber,
+			String token) throws Exception
+	{
+		if (mac == null || macKey == null)
+		{
+			return false;
+		}
+		
+		String expectedMac = getSessionResumptionMac(macKey, sessionId, userId, sequenceNumber, token);
+		
+		return MessageDigest.isEqual(
+				expectedMac.getBytes(STRING_ENCODING), 
+				mac.getBytes(STRING_ENCODING));
+	}
+	
+	/**
+	 * Check if the Java runtime supports the X25519 key agreement.
+	 * @return True, if X25519 is supported
+	 */
+	static boolean isX25519Supported()
+	{
+		return x25519Supported;
+	}
+	
+	/**
+	 * Receive the length of the next frame.
+	 * @param in The data input stream
+	 * @return The frame length
+	 * @throws Exception
+	 */
+	static int receiveFrameLength(DataInputStream in) throws Exception
+	{
+		byte[] lengthBytes = new byte[4];
+	    in.readFully(lengthBytes);
+	    
+	    int length = CryptoLib.convertByteArrayToInt(lengthBytes);
+	    
+	    if (length == FRAME_LENGTH_SERVER_BUSY)
+	    {
+	    	throw new ServerBusyException();
+	    }
+	    else if (length == FRAME_LENGTH_SESSION_RESUMPTION_REJECTED)
+	    {
+	    	throw new SessionResumptionRejectedException();
+	    }
+	    else if (length == FRAME_LENGTH_CONNECTION_CLOSED_IDLE)
+	    {
+	    	throw new ConnectionClosedIdleException();
+	    }
+	    
+	    return length;
+	}
+	
+	/**
+	 * Receive an AES encrypted message and deserialize it while it is decrypted and decompressed, without 
+	 * holding the decrypted message in memory.
+	 * @param in The data input stream
+	 * @param ciphers The ciphers of the session
+	 * @return The message, or null if the message cannot be deserialized
+	 * @throws Exception
+	 */
+	static SerializableMessage receiveMessageAesEncrypted(
+			DataInputStream in,
+			Ciphers ciphers) throws Exception
+	{
+		FrameInputStream frameIn = new FrameInputStream(in, CryptoLib.receiveFrameLength(in));
+		Cipher cipher = ciphers.getCipher(Cipher.DECRYPT_MODE);
+		
+		try (PushbackInputStream decoder = new PushbackInputStream(
+												MessageCompression.newDecoder(
+														new CipherInputStream(
+																new BufferedInputStream(frameIn, STREAM_BUFFER_SIZE), 
+																cipher))))
+		{
+			if (BinaryMessageCodec.isBinary(decoder))
+			{
+				return SerializableMessage.deserializeBinary(new BufferedInputStream(decoder, STREAM_BUFFER_SIZE));
+			}
+			
+			return SerializableMessage.deserialize(new InputStreamReader(decoder, STRING_ENCODING));
+		}
+		finally
+		{
+			// Keep the stream in sync, even if the message was not read completely
+			frameIn.close();
+			ciphers.releaseCipher(cipher);
+		}
+	}
+	
 	/**
 	 * Receive an AES encrypted message and decrypt it.
 	 * @param in The data input stream
-	 * @param decryptCipher The decryption cipher
+	 * @param ciphers The ciphers of the session
 	 * @return The decrypted message
 	 * @throws Exception
 	 */
-	static String receiveStringAesEncrypted(
+	static byte[] receiveBytesAesEncrypted(
 			DataInputStream in,
-			Cipher decryptCipher) throws Exception
+			Ciphers ciphers) throws Exception
 	{
-		byte[] byteCiphertextLength = new byte[4];
-	    in.readFully(byteCiphertextLength);
-	    
-	    int length = CryptoLib.convertByteArrayToInt(byteCiphertextLength);
+	    int length = CryptoLib.receiveFrameLength(in);
 	    
 	    byte[] ciphertext = new byte[length];
 	    in.readFully(ciphertext);
 	    
-	    byte[] recovered = decompress(decryptCipher.doFinal(ciphertext));
+	    byte[] plaintext = ciphers.decrypt(ciphertext);
 	    
-	    return new String(recovered, STRING_ENCODING);
+	    return MessageCompression.decode(plaintext);
+	}
+	
+	/**
+	 * Receive the session ID of a session resumption, after the frame length
+	 * {@link #FRAME_LENGTH_SESSION_RESUMPTION} was received.
+	 * @param in The data input stream
+	 * @return The session ID
+	 * @throws Exception
+	 */
+	static String receiveSessionResumptionSessionId(DataInputStream in) throws Exception
+	{
+		return new String(receiveByteArray(in), STRING_ENCODING);
+	}
+	
+	/**
+	 * Receive an AES encrypted message and decrypt it.
+	 * @param in The data input stream
+	 * @param ciphers The ciphers of the session
+	 * @return The decrypted message
+	 * @throws Exception
+	 */
+	static String receiveStringAesEncrypted(
+			DataInputStream in,
+			Ciphers ciphers) throws Exception
+	{
+	    return new String(receiveBytesAesEncrypted(in, ciphers), STRING_ENCODING);
 	}
 	
 	/**
@@ -496,11 +809,22 @@ class CryptoLib
 			DataInputStream in,
 			PrivateKey key) throws Exception
 	{
-		byte[] lengthBytes = new byte[4];
-	    in.readFully(lengthBytes);
-	    
-	    int length = CryptoLib.convertByteArrayToInt(lengthBytes);
-	    
+	    return receiveStringRsaEncrypted(in, CryptoLib.receiveFrameLength(in), key);
+	}
+	
+	/**
+	 * Receive an RSA encrypted message whose frame length was already received, and decrypt it.
+	 * @param in The data input stream
+	 * @param length The frame length
+	 * @param key The private RSA key of the recipient
+	 * @return The decrypted message
+	 * @throws Exception
+	 */
+	static String receiveStringRsaEncrypted(
+			DataInputStream in,
+			int length,
+			PrivateKey key) throws Exception
+	{
 	    byte[] bytes = new byte[length];
 	    in.readFully(bytes);
 	    
@@ -508,24 +832,152 @@ class CryptoLib
 	}
 	
 	/**
-	 * Send a message AES encrypted.
+	 * Send a message AES encrypted with the ciphers of a session. If the connection supports flagged compression, 
+	 * short messages are sent uncompressed.
+	 * @param out The output stream
+	 * @param content The message
+	 * @param ciphers The ciphers of the session
+	 * @param encoding The message encoding of the connection
+	 * @throws Exception
+	 */
+	static void sendBytesAesEncrypted(
+			OutputStream out,
+			byte[] content,
+			Ciphers ciphers,
+			MessageEncoding encoding) throws Exception
+	{
+		MessageCompression compression = encoding.compression;
+		
+		byte[] encoded = 
+				compression != null ?
+						compression.encode(content) :
+						compress(content);
+		
+		sendByteArray(out, ciphers.encrypt(encoded));
+	}
+	
+	/**
+	 * Tell the client that the server closes a kept-alive connection without reading a request from it.
+	 * A request which the client has sent at the same time can be sent again on a new connection.
+	 * @param out The output stream
+	 * @throws IOException
+	 */
+	static void sendConnectionClosedIdle(OutputStream out) throws IOException
+	{
+		out.write(CryptoLib.getConnectionClosedIdleFrame());
+		out.flush();
+	}
+	
+	/**
+	 * Serialize a message and send it AES encrypted. The message is serialized, compressed, and encrypted on the 
+	 * fly, so that only the encrypted message is held in memory. It is sent in one frame with one write.
+	 * If client and server agreed on binary messages, the message is binary encoded instead of JSON text.
+	 * @param out The output stream
+	 * @param message The message
+	 * @param ciphers The ciphers of the session
+	 * @param encoding The message encoding of the connection
+	 * @throws Exception
+	 */
+	static void sendMessageAesEncrypted(
+			OutputStream out,
+			SerializableMessage message,
+			Ciphers ciphers,
+			MessageEncoding encoding) throws Exception
+	{
+		FrameOutputStream frameOut = new FrameOutputStream();
+		Cipher cipher = ciphers.getCipher(Cipher.ENCRYPT_MODE);
+		MessageCompression compression = encoding.compression;
+		
+		try
+		{
+			OutputStream cipherOut = new CipherOutputStream(frameOut, cipher);
+			
+			if (encoding.binaryMessages)
+			{
+				try (OutputStream encoderOut = new BufferedOutputStream(
+												compression != null ?
+														compression.newEncoder(cipherOut) :
+														new GZIPOutputStream(cipherOut, STREAM_BUFFER_SIZE),
+												STREAM_BUFFER_SIZE))
+				{
+					message.serializeBinary(encoderOut);
+				}
+			}
+			else
+			{
+				// The buffered writer saves the output stream writer from copying every string Gson writes
+				try (Writer writer = new BufferedWriter(
+										new OutputStreamWriter(
+											compression != null ?
+													compression.newEncoder(cipherOut) :
+													new GZIPOutputStream(cipherOut, STREAM_BUFFER_SIZE),
+											STRING_ENCODING),
+										STREAM_BUFFER_SIZE))
+				{
+					message.serialize(writer);
+				}
+			}
+		}
+		finally
+		{
+			ciphers.releaseCipher(cipher);
+		}
+		
+		frameOut.sendTo(out);
+	}
+	
+	/**
+	 * Tell the client that the server is too busy to process its request. Sending this frame is cheap,
+	 * because nothing is encrypted.
+	 * @param out The output stream
+	 * @throws IOException
+	 */
+	static void sendServerBusy(OutputStream out) throws IOException
+	{
+		out.write(CryptoLib.convertIntToByteArray(FRAME_LENGTH_SERVER_BUSY));
+		out.flush();
+	}
+	
+	/**
+	 * Tell the client that the server cannot resume the session. The client falls back to the full handshake.
+	 * @param out The output stream
+	 * @throws IOException
+	 */
+	static void sendSessionResumptionRejected(OutputStream out) throws IOException
+	{
+		out.write(CryptoLib.convertIntToByteArray(FRAME_LENGTH_SESSION_RESUMPTION_REJECTED));
+		out.flush();
+	}
+	
+	/**
+	 * Start a session resumption instead of the RSA encrypted user ID. The session ID is sent unencrypted,
+	 * because the server needs it to find the key of the session.
+	 * @param out The output stream
+	 * @param sessionId The session ID
+	 * @throws Exception
+	 */
+	static void sendSessionResumptionStart(OutputStream out, String sessionId) throws Exception
+	{
+		out.write(CryptoLib.convertIntToByteArray(FRAME_LENGTH_SESSION_RESUMPTION));
+		sendByteArray(out, sessionId.getBytes(STRING_ENCODING));
+	}
+	
+	/**
+	 * Send a message AES encrypted with the ciphers of a session. If the connection supports flagged compression, 
+	 * short messages are sent uncompressed.
 	 * @param out The output stream
 	 * @param text The message text
-	 * @param encryptCipher The cipher for encryption
+	 * @param ciphers The ciphers of the session
+	 * @param encoding The message encoding of the connection
 	 * @throws Exception
 	 */
 	static void sendStringAesEncrypted(
 			OutputStream out,
 			String text,
-			Cipher encryptCipher) throws Exception
+			Ciphers ciphers,
+			MessageEncoding encoding) throws Exception
 	{
-        byte[] ciphertext = encryptCipher.doFinal(
-        		compress(text.getBytes(STRING_ENCODING)));
-		
-		byte[] byteCiphertextLength = CryptoLib.convertIntToByteArray(ciphertext.length);
-
-		out.write(byteCiphertextLength);
-		out.write(ciphertext);
+		sendBytesAesEncrypted(out, text.getBytes(STRING_ENCODING), ciphers, encoding);
 	}
 	
 	/**
@@ -542,10 +994,104 @@ class CryptoLib
 	{
 		byte[] bytesStringEncrypted = CryptoLib.encryptRsa(text, key);
 	    
-		byte[] byteStringLength = CryptoLib.convertIntToByteArray(bytesStringEncrypted.length);
-
-		out.write(byteStringLength);
-		out.write(bytesStringEncrypted);
+		sendByteArray(out, bytesStringEncrypted);
+	}
+	
+	/**
+	 * Receive the next frame and discard it.
+	 * @param in The data input stream
+	 * @throws Exception
+	 */
+	static void skipFrame(DataInputStream in) throws Exception
+	{
+		receiveByteArray(in);
+	}
+	
+	/**
+	 * Perform the X25519 key agreement for the client.
+	 * @param in Data input stream
+	 * @param out Output stream
+	 * @return The ciphers
+	 * @throws Exception
+	 */
+	static Ciphers x25519KeyAgreementClient(
+			DataInputStream in, 
+			OutputStream out) throws Exception
+	{
+		KeyPair clientKpair = KeyPairGenerator.getInstance(ALGORITHM_X25519).generateKeyPair();
+		
+		sendByteArray(out, clientKpair.getPublic().getEncoded());
+		
+		byte[] serverPubKeyEnc = receiveByteArray(in);
+		byte[] serverEncodedParams = receiveByteArray(in);
+		
+		PublicKey serverPubKey = KeyFactory.getInstance(ALGORITHM_X25519).generatePublic(
+				new X509EncodedKeySpec(serverPubKeyEnc));
+		
+		KeyAgreement clientKeyAgree = KeyAgreement.getInstance(ALGORITHM_X25519);
+		clientKeyAgree.init(clientKpair.getPrivate());
+		clientKeyAgree.doPhase(serverPubKey, true);
+		
+		byte[] clientSharedSecret = clientKeyAgree.generateSecret();
+		SecretKeySpec clientAesKey = deriveAesKey(clientSharedSecret);
+		
+		byte[] clientIvDecrypt = decodeAesParameters(serverEncodedParams);
+		byte[] clientIvEncrypt = Ciphers.generateIv();
+		
+		sendByteArray(out, encodeAesParameters(clientIvEncrypt));
+		
+		Ciphers ciphers = new Ciphers(clientAesKey, clientIvEncrypt, clientIvDecrypt, null, deriveMacKey(clientSharedSecret));
+		ciphers.sessionId = receiveStringAesEncrypted(in, ciphers);
+		
+		return ciphers;
+	}
+	
+	/**
+	 * Perform the X25519 key agreement for the server. Compared to the Diffie-Hellman key agreement,
+	 * the server sends its public key together with its AES parameters, which saves one round trip.
+	 * @param in Data input stream
+	 * @param out Output stream
+	 * @param keyPairPool Pool of server key pairs, or null
+	 * @return The ciphers
+	 * @throws Exception
+	 */
+	static Ciphers x25519KeyAgreementServer(
+			DataInputStream in, 
+			OutputStream out,
+			KeyPairPool keyPairPool) throws Exception
+	{
+		byte[] clientPubKeyEnc = receiveByteArray(in);
+		
+		PublicKey clientPubKey = KeyFactory.getInstance(ALGORITHM_X25519).generatePublic(
+				new X509EncodedKeySpec(clientPubKeyEnc));
+		
+		KeyPair serverKpair = 
+				keyPairPool != null ?
+						keyPairPool.take() :
+						KeyPairGenerator.getInstance(ALGORITHM_X25519).generateKeyPair();
+		
+		KeyAgreement serverKeyAgree = KeyAgreement.getInstance(ALGORITHM_X25519);
+		serverKeyAgree.init(serverKpair.getPrivate());
+		serverKeyAgree.doPhase(clientPubKey, true);
+		
+		byte[] serverSharedSecret = serverKeyAgree.generateSecret();
+		SecretKeySpec serverAesKey = deriveAesKey(serverSharedSecret);
+		
+		byte[] serverIvEncrypt = Ciphers.generateIv();
+		
+		ByteArrayOutputStream serverMessage = new ByteArrayOutputStream();
+		sendByteArray(serverMessage, serverKpair.getPublic().getEncoded());
+		sendByteArray(serverMessage, encodeAesParameters(serverIvEncrypt));
+		out.write(serverMessage.toByteArray());
+		
+		byte[] serverIvDecrypt = decodeAesParameters(receiveByteArray(in));
+		
+		String sessionId = UUID.randomUUID().toString();
+		Ciphers ciphers = new Ciphers(serverAesKey, serverIvEncrypt, serverIvDecrypt, sessionId, deriveMacKey(serverSharedSecret));
+		
+		sendStringAesEncrypted(out, sessionId, ciphers, MessageEncoding.LEGACY);
+		
+		return ciphers;
 	}
 	
 	private static byte[] compress(byte[] content){
@@ -603,13 +1149,41 @@ class CryptoLib
 		return out.toByteArray();
 	}
 
+	private static byte[] decodeAesParameters(byte[] encodedParams) throws Exception
+	{
+		AlgorithmParameters aesParams = AlgorithmParameters.getInstance("AES");
+		aesParams.init(encodedParams);
+		
+		return aesParams.getParameterSpec(IvParameterSpec.class).getIV();
+	}
+	
+	private static SecretKeySpec deriveAesKey(byte[] sharedSecret) throws Exception
+	{
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(sharedSecret);
+		
+		return new SecretKeySpec(hash, 0, 16, "AES");
+	}
+	
+	private static byte[] deriveMacKey(byte[] sharedSecret) throws Exception
+	{
+		Mac mac = Mac.getInstance(ALGORITHM_MAC);
+		mac.init(new SecretKeySpec(sharedSecret, ALGORITHM_MAC));
+		
+		return mac.doFinal(MAC_KEY_LABEL.getBytes(STRING_ENCODING));
+	}
+	
+	private static byte[] encodeAesParameters(byte[] iv) throws Exception
+	{
+		AlgorithmParameters aesParams = AlgorithmParameters.getInstance("AES");
+		aesParams.init(new IvParameterSpec(iv));
+		
+		return aesParams.getEncoded();
+	}
+	
 	private static byte[] receiveByteArray(
 			DataInputStream in) throws Exception
 	{
-		byte[] lengthBytes = new byte[4];
-	    in.readFully(lengthBytes);
-	    
-	    int length = CryptoLib.convertByteArrayToInt(lengthBytes);
+	    int length = CryptoLib.receiveFrameLength(in);
 	    
 	    byte[] bytes = new byte[length];
 	    in.readFully(bytes);
@@ -622,8 +1196,120 @@ class CryptoLib
 			byte[] bytesString) throws Exception
 	{
 		byte[] byteStringLength = CryptoLib.convertIntToByteArray(bytesString.length);
+		byte[] frame = new byte[byteStringLength.length + bytesString.length];
+		
+		// Write the frame at once, so that the length and the content are not sent in separate TCP segments
+		System.arraycopy(byteStringLength, 0, frame, 0, byteStringLength.length);
+		System.arraycopy(bytesString, 0, frame, byteStringLength.length, bytesString.length);
 
-		out.write(byteStringLength);
-		out.write(bytesString);
+		out.write(frame);
+	}
+	
+	// ==========================================================
+	
+	/**
+	 * The body of one frame of the input stream. Closing the stream skips the rest of the frame,
+	 * but does not close the input stream.
+	 */
+	private static class FrameInputStream extends InputStream
+	{
+		private DataInputStream in;
+		private int remaining;
+		
+		private FrameInputStream(DataInputStream in, int length) throws IOException
+		{
+			if (length < 0)
+			{
+				throw new IOException("Invalid frame length");
+			}
+			
+			this.in = in;
+			this.remaining = length;
+		}
+		
+		@Override
+		public int available() throws IOException
+		{
+			return Math.min(this.in.available(), this.remaining);
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			while (this.remaining > 0)
+			{
+				int skipped = this.in.skipBytes(this.remaining);
+				
+				if (skipped <= 0)
+				{
+					this.in.readByte();
+					skipped = 1;
+				}
+				
+				this.remaining -= skipped;
+			}
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			if (this.remaining <= 0)
+			{
+				return -1;
+			}
+			
+			int b = this.in.read();
+			
+			if (b < 0)
+			{
+				throw new EOFException();
+			}
+			
+			this.remaining--;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (this.remaining <= 0)
+			{
+				return -1;
+			}
+			
+			int count = this.in.read(b, off, Math.min(len, this.remaining));
+			
+			if (count < 0)
+			{
+				throw new EOFException();
+			}
+			
+			this.remaining -= count;
+			return count;
+		}
+	}
+	
+	// ==========================================================
+	
+	/**
+	 * A buffer for one frame. The frame length is filled in when the frame is sent.
+	 */
+	private static class FrameOutputStream extends ByteArrayOutputStream
+	{
+		private static final int FRAME_LENGTH_SIZE = 4;
+		
+		private FrameOutputStream()
+		{
+			super(STREAM_BUFFER_SIZE);
+			this.count = FRAME_LENGTH_SIZE;
+		}
+		
+		private void sendTo(OutputStream out) throws IOException
+		{
+			byte[] lengthBytes = convertIntToByteArray(this.count - FRAME_LENGTH_SIZE);
+			System.arraycopy(lengthBytes, 0, this.buf, 0, FRAME_LENGTH_SIZE);
+			
+			out.write(this.buf, 0, this.count);
+		}
 	}
 }
@@ -35,6 +35,8 @@ import com.google.gson.Gson;
 public class DataSet extends DataSetBase
 {
 	private static Gson serializer = new Gson();
+	
+	private transient int serializedLength;
 
 	/**
 	 * Creates a data set object instance from a JSON string.
@@ -53,6 +55,18 @@ public class DataSet extends DataSetBase
 		}
 	}
 	
+	static DataSet deserializeFromFile(String dataJson)
+	{
+		DataSet data = deserialize(dataJson);
+		
+		if (data != null)
+		{
+			data.serializedLength = dataJson.length();
+		}
+		
+		return data;
+	}
+	
 	static DataSet readFromFile(String fileName)
 	{
 		DataSet data = null;
@@ -64,7 +78,7 @@ public class DataSet extends DataSetBase
 			String dataJson = (String)is.readObject();
 			is.close();
 			
-			data = deserialize(dataJson);
+			data = deserializeFromFile(dataJson);
 
 		} catch (Exception e){}		
 		
@@ -108,9 +122,41 @@ public class DataSet extends DataSetBase
 		return this.serialize();
 	}
 	
-	String writeToFile(String fileName)
+	DataSet copy()
+	{
+		DataSet copy = new DataSet(
+				this.getId(), 
+				this.userIds != null ? new HashSet<String>(this.userIds) : null, 
+				null);
+		
+		copy.setPayload(this.getPayload() != null ? this.getPayload().copy() : null);
+		copy.setVersion(this.getVersion());
+		copy.serializedLength = this.serializedLength;
+		
+		return copy;
+	}
+	
+	int getSerializedLength()
+	{
+		return this.serializedLength;
+	}
+	
+	String serializeForFile()
 	{
 		String dataJson = this.serialize();
+		this.serializedLength = dataJson.length();
+		
+		return dataJson;
+	}
+	
+	String writeToFile(String fileName)
+	{
+		return this.writeToFile(fileName, false);
+	}
+	
+	String writeToFile(String fileName, boolean sync)
+	{
+		String dataJson = this.serializeForFile();
 		String errorText = null;
 		
 		try {
@@ -118,6 +164,14 @@ public class DataSet extends DataSetBase
 			GZIPOutputStream zipout = new GZIPOutputStream(fs);
 			ObjectOutputStream os = new ObjectOutputStream(zipout);
 			os.writeObject(dataJson);
+			
+			if (sync)
+			{
+				os.flush();
+				zipout.finish();
+				fs.getFD().sync();
+			}
+			
 			os.close();
 		} catch (Exception e) {
 			errorText = e.toString();
@@ -33,6 +33,7 @@ public abstract class DataSetBase
 	 */
 	protected HashSet<String> userIds;
 	private Payload payload;
+	private long version;
 	
 	DataSetBase(String id, HashSet<String> userIds, Object payloadObject)
 	{
@@ -77,6 +78,16 @@ public abstract class DataSetBase
 		return userIds;
 	}
 	
+	/**
+	 * Get the version of a data set or data set info. The server assigns a new, higher version 
+	 * whenever it stores a data set.
+	 * @return The version
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+	
 	/**
 	 * Set the payload object a data set.
 	 * @param payloadObject The payload object
@@ -85,4 +96,14 @@ public abstract class DataSetBase
 	{
 		this.payload = new Payload(payloadObject);
 	}
+	
+	void setPayload(Payload payload)
+	{
+		this.payload = payload;
+	}
+	
+	void setVersion(long version)
+	{
+		this.version = version;
+	}
 }
@@ -0,0 +1,160 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The data sets which were read or written recently, so that data sets which are read often are not read
+ * from their files again and again. The cache is bounded by the number of data sets and by their estimated
+ * size in memory. If a bound is exceeded, the data sets which were used least recently are dropped.
+ * The cached data sets are shared and must not be changed.
+ * @author spielwitz
+ *
+ */
+class DataSetCache
+{
+	// Estimated memory of a cached data set besides its JSON text
+	private static final int BYTES_OVERHEAD_PER_DATA_SET = 256;
+	
+	private LinkedHashMap<String, DataSet> dataSets = new LinkedHashMap<String, DataSet>(16, 0.75f, true);
+	private int maxEntries;
+	private long maxBytes;
+	private long bytes;
+	private long hits;
+	private long misses;
+	
+	/**
+	 * Constructor.
+	 * @param maxEntries Maximum number of data sets. 0 disables the cache
+	 * @param maxBytes Maximum estimated size of all data sets in bytes
+	 */
+	DataSetCache(int maxEntries, long maxBytes)
+	{
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Get a data set and mark it as used.
+	 * @param id The data set ID
+	 * @return The data set, or null if the data set is not cached
+	 */
+	synchronized DataSet get(String id)
+	{
+		DataSet dataSet = this.dataSets.get(id);
+		
+		if (dataSet != null)
+		{
+			this.hits++;
+		}
+		else
+		{
+			this.misses++;
+		}
+		
+		return dataSet;
+	}
+	
+	/**
+	 * Get the estimated size of the cached data sets in memory.
+	 * @return The estimated size in bytes
+	 */
+	synchronized long getBytes()
+	{
+		return this.bytes;
+	}
+	
+	/**
+	 * Get the number of cached data sets.
+	 * @return The number of cached data sets
+	 */
+	synchronized int getDataSetsCached()
+	{
+		return this.dataSets.size();
+	}
+	
+	/**
+	 * Get the number of lookups which found the data set in the cache.
+	 * @return The number of hits
+	 */
+	synchronized long getHits()
+	{
+		return this.hits;
+	}
+	
+	/**
+	 * Get the number of lookups which did not find the data set in the cache.
+	 * @return The number of misses
+	 */
+	synchronized long getMisses()
+	{
+		return this.misses;
+	}
+	
+	/**
+	 * Add or replace a data set. Data sets which are larger than the cache are not added.
+	 * @param dataSet The data set. It must not be changed afterwards
+	 */
+	synchronized void put(DataSet dataSet)
+	{
+		this.remove(dataSet.getId());
+		
+		long dataSetBytes = estimateBytes(dataSet);
+		
+		if (this.maxEntries <= 0 || dataSetBytes > this.maxBytes)
+		{
+			return;
+		}
+		
+		this.dataSets.put(dataSet.getId(), dataSet);
+		this.bytes += dataSetBytes;
+		
+		Iterator<Map.Entry<String, DataSet>> iterator = this.dataSets.entrySet().iterator();
+		
+		while (this.dataSets.size() > this.maxEntries || this.bytes > this.maxBytes)
+		{
+			DataSet dataSetLeastRecentlyUsed = iterator.next().getValue();
+			iterator.remove();
+			this.bytes -= estimateBytes(dataSetLeastRecentlyUsed);
+		}
+	}
+	
+	/**
+	 * Remove a data set.
+	 * @param id The data set ID
+	 */
+	synchronized void remove(String id)
+	{
+		DataSet dataSet = this.dataSets.remove(id);
+		
+		if (dataSet != null)
+		{
+			this.bytes -= estimateBytes(dataSet);
+		}
+	}
+	
+	private static long estimateBytes(DataSet dataSet)
+	{
+		// Two bytes per character of the JSON text
+		return 2L * dataSet.getSerializedLength() + BYTES_OVERHEAD_PER_DATA_SET;
+	}
+}
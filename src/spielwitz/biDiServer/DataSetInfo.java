@@ -41,8 +41,4 @@ public class DataSetInfo extends DataSetBase
 	{
 		return new Gson().toJson(this);
 	}
-	
-	void setUserIds(HashSet<String> userIds) {
-		this.userIds = userIds;
-	}
 }
@@ -0,0 +1,44 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+/**
+ * The way the server stores the data sets.
+ * @author spielwitz
+ *
+ */
+public enum DataSetStorage
+{
+	/**
+	 * Storage "Files". Every data set is stored in a file of its own, which is written completely
+	 * whenever the data set is updated.
+	 */
+	Files,
+	
+	/**
+	 * Storage "Segments". Updated data sets are appended to a few large segment files. An index in memory 
+	 * points to the latest version of every data set. Outdated versions are removed in the background.
+	 */
+	Segments,
+	
+	/**
+	 * Storage "Memory". The data sets are kept in memory only and are lost when the server stops. 
+	 * For ephemeral deployments, tests, and benchmarks.
+	 */
+	Memory
+}
@@ -0,0 +1,92 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.io.IOException;
+
+/**
+ * A store in which the server keeps its data sets. The server ships with the stores {@link FileDataSetStore}, 
+ * {@link SegmentedDataSetStore}, and {@link InMemoryDataSetStore}, selected with 
+ * {@link ServerConfiguration#setDataSetStorage(DataSetStorage)}. To use a store of your own, override 
+ * {@link Server#createDataSetStore()}.
+ * <p>
+ * The server never writes a data set while it reads or writes the same data set on another thread.
+ * Different data sets are read and written on several threads at the same time.
+ * @author spielwitz
+ *
+ */
+public interface DataSetStore
+{
+	/**
+	 * Close the store. The server calls it when it shuts down.
+	 */
+	void close();
+	
+	/**
+	 * Delete a data set. Nothing happens if the data set does not exist.
+	 * @param id The data set ID
+	 * @throws IOException
+	 */
+	void delete(String id) throws IOException;
+	
+	/**
+	 * Read a data set.
+	 * @param id The data set ID
+	 * @return The data set, or null if the data set does not exist
+	 * @throws IOException
+	 */
+	DataSet get(String id) throws IOException;
+	
+	/**
+	 * Read all data sets. The server calls it once when it starts.
+	 * @param consumer Receives the data sets one by one
+	 * @throws IOException
+	 */
+	void loadAll(DataSetConsumer consumer) throws IOException;
+	
+	/**
+	 * Add or update a data set. The store must not keep a reference to the data set object,
+	 * or change it.
+	 * @param dataSet The data set
+	 * @throws IOException
+	 */
+	void put(DataSet dataSet) throws IOException;
+	
+	/**
+	 * Force all data sets written and deleted so far to the disk. The write-ahead log calls it before it 
+	 * deletes the records of these data sets.
+	 * @throws IOException
+	 */
+	void sync() throws IOException;
+	
+	// ==============
+	
+	/**
+	 * Receives the data sets read by {@link DataSetStore#loadAll(DataSetConsumer)}.
+	 */
+	@FunctionalInterface
+	interface DataSetConsumer
+	{
+		/**
+		 * Receive a data set.
+		 * @param dataSet The data set
+		 * @throws IOException
+		 */
+		void accept(DataSet dataSet) throws IOException;
+	}
+}
@@ -0,0 +1,109 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Issues the versions of data sets. The versions are unique across all data sets and server restarts, 
+ * so that a data set which was deleted and created again never gets a version which a client may have seen before.
+ * The counter reserves blocks of versions in a file, so that the file is only written once per block.
+ * @author spielwitz
+ *
+ */
+class DataSetVersionCounter
+{
+	private static final long RESERVATION_SIZE = 1000;
+	
+	private File file;
+	private long version;
+	private long versionReserved;
+	
+	/**
+	 * Constructor. Continues after the versions reserved by the previous run of the server.
+	 * @param file The file in which the reserved versions are kept
+	 * @throws IOException
+	 */
+	DataSetVersionCounter(File file) throws IOException
+	{
+		this.file = file;
+		
+		if (file.exists())
+		{
+			try
+			{
+				this.version = Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+			}
+			catch (NumberFormatException x)
+			{
+				throw new IOException(x.toString());
+			}
+		}
+		
+		this.versionReserved = this.version;
+	}
+	
+	/**
+	 * Get the next version. The version is reserved in the file before it is returned.
+	 * @return The version
+	 * @throws IOException The version could not be reserved
+	 */
+	synchronized long next() throws IOException
+	{
+		if (this.version >= this.versionReserved)
+		{
+			this.reserve(this.version + RESERVATION_SIZE);
+		}
+		
+		return ++this.version;
+	}
+	
+	/**
+	 * Make sure that the counter continues after a version found in a data set.
+	 * @param version The version of a data set
+	 */
+	synchronized void update(long version)
+	{
+		this.version = Math.max(this.version, version);
+	}
+	
+	private void reserve(long versionReserved) throws IOException
+	{
+		// Replace the file in one step, so that a crash cannot leave it empty
+		File fileTemp = new File(this.file.getPath() + ".tmp");
+		
+		try (FileOutputStream out = new FileOutputStream(fileTemp))
+		{
+			out.write(Long.toString(versionReserved).getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+		}
+		
+		Files.move(
+				fileTemp.toPath(), 
+				this.file.toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+		
+		this.versionReserved = versionReserved;
+	}
+}
@@ -0,0 +1,658 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log for data set updates. An update is acknowledged as soon as it is appended to the log 
+ * and the log is forced to disk. Updates which arrive while the log is forced are written and forced together
+ * (group commit). A background thread writes the updated data sets to the data set store later, and deletes 
+ * the log segments whose updates are all written to the store. If the server stops before, the remaining 
+ * log segments are replayed with {@link #recover(File, DataSetStore)} when the server starts again.
+ * <p>
+ * A record of the log consists of the length of its content, its type, its content, and a CRC32 checksum.
+ * Replaying a segment stops at the first incomplete or damaged record, which was never acknowledged.
+ * @author spielwitz
+ *
+ */
+class DataSetWriteAheadLog
+{
+	private static final String SEGMENT_FILE_EXTENSION = ".wal";
+	private static final byte RECORD_TYPE_PUT = 1;
+	private static final byte RECORD_TYPE_DELETE = 2;
+	private static final byte ENTRY_TYPE_ROTATE = 3;
+	private static final byte ENTRY_TYPE_STOP = 4;
+	private static final int RECORD_HEADER_LENGTH = 5;
+	private static final int RECORD_TRAILER_LENGTH = 4;
+	private static final int CHECKPOINT_INTERVAL_MILLISECONDS = 1000;
+	private static final int STREAM_BUFFER_SIZE = 65536;
+	
+	/**
+	 * Replay the log segments which were left behind when the server stopped, and delete them.
+	 * @param logFolder The folder of the log segments
+	 * @param store The data set store
+	 * @return The number of replayed records
+	 * @throws IOException
+	 */
+	static int recover(File logFolder, DataSetStore store) throws IOException
+	{
+		int recordsReplayed = 0;
+		
+		for (File segment: listSegments(logFolder))
+		{
+			try (DataInputStream in = new DataInputStream(
+											new BufferedInputStream(
+													new FileInputStream(segment), 
+													STREAM_BUFFER_SIZE)))
+			{
+				long bytesRemaining = segment.length();
+				
+				while (bytesRemaining >= RECORD_HEADER_LENGTH + RECORD_TRAILER_LENGTH)
+				{
+					int length = in.readInt();
+					
+					if (length < 0 || length > bytesRemaining - RECORD_HEADER_LENGTH - RECORD_TRAILER_LENGTH)
+					{
+						break;
+					}
+					
+					byte type = in.readByte();
+					byte[] content = new byte[length];
+					in.readFully(content);
+					int checksum = in.readInt();
+					
+					if (checksum != getChecksum(type, content))
+					{
+						break;
+					}
+					
+					String text = new String(content, StandardCharsets.UTF_8);
+					
+					if (type == RECORD_TYPE_PUT)
+					{
+						DataSet dataSet = DataSet.deserialize(text);
+						
+						if (dataSet != null && ServerUtils.checkFileName(dataSet.getId()) == FileNameCheck.Ok)
+						{
+							store.put(dataSet);
+						}
+					}
+					else if (type == RECORD_TYPE_DELETE && ServerUtils.checkFileName(text) == FileNameCheck.Ok)
+					{
+						store.delete(text);
+					}
+					
+					recordsReplayed++;
+					bytesRemaining -= RECORD_HEADER_LENGTH + length + RECORD_TRAILER_LENGTH;
+				}
+			}
+			catch (EOFException x)
+			{
+				// An incomplete record at the end of the segment
+			}
+		}
+		
+		store.sync();
+		
+		for (File segment: listSegments(logFolder))
+		{
+			Files.delete(segment.toPath());
+		}
+		
+		return recordsReplayed;
+	}
+	
+	private static int getChecksum(byte type, byte[] content)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(content);
+		
+		return (int) crc.getValue();
+	}
+	
+	private static long getSegmentNumber(File segment)
+	{
+		String name = segment.getName();
+		
+		try
+		{
+			return Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()));
+		}
+		catch (NumberFormatException x)
+		{
+			return -1;
+		}
+	}
+	
+	private static File[] listSegments(File logFolder)
+	{
+		File[] segments = logFolder.listFiles(
+				(folder, name) -> name.endsWith(SEGMENT_FILE_EXTENSION));
+		
+		if (segments == null)
+		{
+			return new File[0];
+		}
+		
+		Arrays.sort(segments, (segment1, segment2) -> Long.compare(getSegmentNumber(segment1), getSegmentNumber(segment2)));
+		
+		return segments;
+	}
+	
+	private static String segmentFileName(long segmentNumber)
+	{
+		return String.format("%016d%s", segmentNumber, SEGMENT_FILE_EXTENSION);
+	}
+	
+	private File logFolder;
+	private DataSetStore store;
+	private LinkedBlockingQueue<LogEntry> entries = new LinkedBlockingQueue<LogEntry>();
+	private ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+	private Object lockObject = new Object();
+	private Object checkpointLock = new Object();
+	private volatile boolean closed;
+	private boolean stopped;
+	
+	private AtomicLong recordsLogged = new AtomicLong();
+	private AtomicLong commits = new AtomicLong();
+	
+	// Owned by the commit thread
+	private long segmentNumber;
+	private FileOutputStream segmentOut;
+	private DataOutputStream segmentData;
+	private boolean segmentEmpty;
+	
+	/**
+	 * Constructor. Opens a new log segment and starts the commit thread and the checkpoint thread.
+	 * Call {@link #recover(File, DataSetStore)} before.
+	 * @param logFolder The folder of the log segments
+	 * @param store The data set store
+	 * @throws IOException
+	 */
+	DataSetWriteAheadLog(File logFolder, DataSetStore store) throws IOException
+	{
+		this.logFolder = logFolder;
+		this.store = store;
+		
+		File[] segments = listSegments(logFolder);
+		
+		this.openSegment(
+				segments.length > 0 ?
+						getSegmentNumber(segments[segments.length - 1]) + 1 :
+						1);
+		
+		Thread commitThread = new CommitThread();
+		commitThread.setDaemon(true);
+		commitThread.start();
+		
+		Thread checkpointThread = new CheckpointThread();
+		checkpointThread.setDaemon(true);
+		checkpointThread.start();
+	}
+	
+	/**
+	 * Stop logging. All pending updates are written to the data set store, and the log segments are deleted.
+	 * Afterwards, {@link #put(DataSet)} and {@link #delete(String)} return false. Returns when the pending 
+	 * updates are written, even if another thread closed the log.
+	 */
+	void close()
+	{
+		synchronized (this.checkpointLock)
+		{
+			synchronized (this.lockObject)
+			{
+				if (this.closed)
+				{
+					return;
+				}
+				
+				this.closed = true;
+				this.lockObject.notifyAll();
+			}
+			
+			// No records are appended any more. Wait until the commit thread has closed the current segment,
+			// so that all segments can be deleted, even if writing to the log failed.
+			LogEntry stopEntry = new LogEntry(ENTRY_TYPE_STOP, null);
+			this.entries.add(stopEntry);
+			stopEntry.await();
+			
+			this.stopped = true;
+			
+			// Updates after closing go to the data set store directly. The log records must not be replayed
+			// over them when the server starts again. The segments are only kept if the store failed, too.
+			if (this.writePendingWrites())
+			{
+				for (File segment: listSegments(this.logFolder))
+				{
+					segment.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Log the deletion of a data set. Call it while holding the write lock of the data set.
+	 * @param id The data set ID
+	 * @return True, if the deletion was logged. False, if the log is closed
+	 * @throws IOException The deletion could not be logged. The log is closed
+	 */
+	boolean delete(String id) throws IOException
+	{
+		return this.append(
+				id, 
+				new PendingWrite(null), 
+				new LogEntry(RECORD_TYPE_DELETE, id.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Get the number of times the log was forced to disk.
+	 * @return The number of group commits
+	 */
+	long getCommits()
+	{
+		return this.commits.get();
+	}
+	
+	/**
+	 * Get the update of a data set which is logged, but not yet written to the data set store.
+	 * @param id The data set ID
+	 * @return The pending update, or null if the data set store is up to date
+	 */
+	PendingWrite getPendingWrite(String id)
+	{
+		return this.pendingWrites.get(id);
+	}
+	
+	/**
+	 * Get the number of data sets which are not yet up to date in the data set store.
+	 * @return The number of pending updates
+	 */
+	int getPendingWrites()
+	{
+		return this.pendingWrites.size();
+	}
+	
+	/**
+	 * Get the number of logged records.
+	 * @return The number of logged records
+	 */
+	long getRecordsLogged()
+	{
+		return this.recordsLogged.get();
+	}
+	
+	/**
+	 * Log an update of a data set and wait until it is forced to disk. Call it while holding the write lock 
+	 * of the data set.
+	 * @param dataSet The data set. It must not be changed afterwards
+	 * @return True, if the update was logged. False, if the log is closed
+	 * @throws IOException The update could not be logged. The log is closed
+	 */
+	boolean put(DataSet dataSet) throws IOException
+	{
+		return this.append(
+				dataSet.getId(), 
+				new PendingWrite(dataSet), 
+				new LogEntry(RECORD_TYPE_PUT, dataSet.serializeForFile().getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	private boolean append(String id, PendingWrite pendingWrite, LogEntry entry) throws IOException
+	{
+		boolean closed = false;
+		
+		synchronized (this.lockObject)
+		{
+			closed = this.closed;
+			
+			if (!closed)
+			{
+				// The pending update is visible before the record is logged, so that a checkpoint which
+				// starts after the record was logged always finds it
+				this.pendingWrites.put(id, pendingWrite);
+				this.entries.add(entry);
+			}
+		}
+		
+		if (closed)
+		{
+			// The caller writes the data set to the store itself. Wait until the older pending update
+			// of the data set is written, so that it cannot overwrite the newer one. If it could not be
+			// written, it must not be read instead of the newer one either.
+			this.close();
+			this.pendingWrites.remove(id);
+			return false;
+		}
+		
+		entry.await();
+		
+		if (entry.error != null)
+		{
+			// The pending update stays, so that closing the log writes it to the store
+			this.close();
+			throw entry.error;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Write all pending updates to the data set store. Then delete the log segments whose records
+	 * are all written.
+	 */
+	private void checkpoint()
+	{
+		synchronized (this.checkpointLock)
+		{
+			if (this.stopped)
+			{
+				return;
+			}
+			
+			// New records go to a new segment, so that the records of the completed segments
+			// are all pending updates now, or already written
+			LogEntry rotateEntry = new LogEntry(ENTRY_TYPE_ROTATE, null);
+			this.entries.add(rotateEntry);
+			rotateEntry.await();
+			
+			if (rotateEntry.error != null || !this.writePendingWrites())
+			{
+				return;
+			}
+			
+			for (File segment: listSegments(this.logFolder))
+			{
+				if (getSegmentNumber(segment) <= rotateEntry.segmentNumberCompleted)
+				{
+					segment.delete();
+				}
+			}
+		}
+	}
+	
+	private void openSegment(long segmentNumber) throws IOException
+	{
+		this.segmentNumber = segmentNumber;
+		this.segmentOut = new FileOutputStream(new File(this.logFolder, segmentFileName(segmentNumber)));
+		this.segmentData = new DataOutputStream(new BufferedOutputStream(this.segmentOut, STREAM_BUFFER_SIZE));
+		this.segmentEmpty = true;
+	}
+	
+	private void syncSegment() throws IOException
+	{
+		this.segmentData.flush();
+		this.segmentOut.getChannel().force(false);
+	}
+	
+	/**
+	 * Write the pending updates to the data set store and force the store to disk.
+	 * @return True, if all pending updates were written
+	 */
+	private boolean writePendingWrites()
+	{
+		boolean allWritten = true;
+		
+		for (Map.Entry<String, PendingWrite> pendingWrite: new ArrayList<Map.Entry<String, PendingWrite>>(this.pendingWrites.entrySet()))
+		{
+			try
+			{
+				if (pendingWrite.getValue().dataSet != null)
+				{
+					this.store.put(pendingWrite.getValue().dataSet);
+				}
+				else
+				{
+					this.store.delete(pendingWrite.getKey());
+				}
+				
+				// A newer update of the data set stays pending
+				this.pendingWrites.remove(pendingWrite.getKey(), pendingWrite.getValue());
+			}
+			catch (IOException x)
+			{
+				allWritten = false;
+			}
+		}
+		
+		if (!allWritten)
+		{
+			return false;
+		}
+		
+		try
+		{
+			this.store.sync();
+			return true;
+		}
+		catch (IOException x)
+		{
+			return false;
+		}
+	}
+	
+	private void writeEntries(ArrayList<LogEntry> batch) throws IOException
+	{
+		int records = 0;
+		
+		for (LogEntry entry: batch)
+		{
+			if (entry.type == RECORD_TYPE_PUT || entry.type == RECORD_TYPE_DELETE)
+			{
+				this.segmentData.writeInt(entry.content.length);
+				this.segmentData.writeByte(entry.type);
+				this.segmentData.write(entry.content);
+				this.segmentData.writeInt(getChecksum(entry.type, entry.content));
+				this.segmentEmpty = false;
+				records++;
+			}
+			else if (entry.type == ENTRY_TYPE_ROTATE)
+			{
+				if (this.segmentEmpty)
+				{
+					entry.segmentNumberCompleted = this.segmentNumber - 1;
+				}
+				else
+				{
+					this.syncSegment();
+					this.segmentData.close();
+					entry.segmentNumberCompleted = this.segmentNumber;
+					this.openSegment(this.segmentNumber + 1);
+				}
+			}
+		}
+		
+		if (records > 0)
+		{
+			this.syncSegment();
+			this.recordsLogged.addAndGet(records);
+			this.commits.incrementAndGet();
+		}
+	}
+	
+	// ==============
+	
+	/**
+	 * A data set update which is logged, but not yet written to the data set store.
+	 */
+	static class PendingWrite
+	{
+		/**
+		 * The data set, or null if the data set was deleted.
+		 */
+		final DataSet dataSet;
+		
+		private PendingWrite(DataSet dataSet)
+		{
+			this.dataSet = dataSet;
+		}
+	}
+	
+	// ==============
+	
+	private class CheckpointThread extends Thread
+	{
+		public void run()
+		{
+			do
+			{
+				synchronized (lockObject)
+				{
+					try
+					{
+						lockObject.wait(CHECKPOINT_INTERVAL_MILLISECONDS);
+					}
+					catch (InterruptedException e)
+					{
+						break;
+					}
+					
+					if (closed)
+					{
+						break;
+					}
+				}
+				
+				checkpoint();
+				
+			} while (true);
+		}
+	}
+	
+	// ==============
+	
+	private class CommitThread extends Thread
+	{
+		public void run()
+		{
+			do
+			{
+				ArrayList<LogEntry> batch = new ArrayList<LogEntry>();
+				
+				try
+				{
+					batch.add(entries.take());
+				}
+				catch (InterruptedException e)
+				{
+					break;
+				}
+				
+				// All records which arrived while the previous batch was forced to disk are committed together
+				entries.drainTo(batch);
+				
+				IOException error = null;
+				
+				try
+				{
+					writeEntries(batch);
+				}
+				catch (IOException x)
+				{
+					error = x;
+				}
+				
+				boolean stop = false;
+				
+				for (LogEntry entry: batch)
+				{
+					entry.error = error;
+					entry.done.countDown();
+					stop = stop || entry.type == ENTRY_TYPE_STOP;
+				}
+				
+				if (stop)
+				{
+					try
+					{
+						segmentData.close();
+						
+						if (segmentEmpty)
+						{
+							Files.deleteIfExists(new File(logFolder, segmentFileName(segmentNumber)).toPath());
+						}
+					}
+					catch (IOException x)
+					{
+					}
+					
+					break;
+				}
+			} while (true);
+		}
+	}
+	
+	// ==============
+	
+	private static class LogEntry
+	{
+		private byte type;
+		private byte[] content;
+		private CountDownLatch done = new CountDownLatch(1);
+		private volatile IOException error;
+		private volatile long segmentNumberCompleted;
+		
+		private LogEntry(byte type, byte[] content)
+		{
+			this.type = type;
+			this.content = content;
+		}
+		
+		private void await()
+		{
+			boolean interrupted = false;
+			
+			while (true)
+			{
+				try
+				{
+					this.done.await();
+					break;
+				}
+				catch (InterruptedException x)
+				{
+					interrupted = true;
+				}
+			}
+			
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Starts threads according to the execution mode. Virtual threads are looked up by reflection, 
+ * so that the library still runs on Java runtimes without virtual threads.
+ * @author spielwitz
+ *
+ */
+class ExecutionThreads
+{
+	private static Method methodStartVirtualThread;
+	private static Method methodOfVirtual;
+	private static Method methodBuilderFactory;
+	
+	static
+	{
+		try
+		{
+			methodStartVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+			methodOfVirtual = Thread.class.getMethod("ofVirtual");
+			methodBuilderFactory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+		}
+		catch (Exception x)
+		{
+			methodStartVirtualThread = null;
+			methodOfVirtual = null;
+			methodBuilderFactory = null;
+		}
+	}
+	
+	/**
+	 * Check if the Java runtime supports virtual threads.
+	 * @return True, if virtual threads are supported
+	 */
+	static boolean areVirtualThreadsSupported()
+	{
+		return methodStartVirtualThread != null;
+	}
+	
+	/**
+	 * Get a factory which creates threads according to the execution mode.
+	 * @param executionMode The execution mode
+	 * @return The thread factory, or null if virtual threads are requested but not supported by the Java runtime
+	 */
+	static ThreadFactory getThreadFactory(ExecutionMode executionMode)
+	{
+		if (executionMode != ExecutionMode.VirtualThreads)
+		{
+			return Executors.defaultThreadFactory();
+		}
+		
+		if (!areVirtualThreadsSupported())
+		{
+			return null;
+		}
+		
+		try
+		{
+			return (ThreadFactory) methodBuilderFactory.invoke(methodOfVirtual.invoke(null));
+		}
+		catch (Exception x)
+		{
+			// For example, virtual threads are a preview feature of the Java runtime which is not enabled
+			return null;
+		}
+	}
+	
+	/**
+	 * Start a thread.
+	 * @param runnable The code to be executed by the thread
+	 * @param executionMode The execution mode. If virtual threads are not supported, a platform thread is started.
+	 * @return The started thread
+	 */
+	static Thread start(Runnable runnable, ExecutionMode executionMode)
+	{
+		if (executionMode == ExecutionMode.VirtualThreads && areVirtualThreadsSupported())
+		{
+			try
+			{
+				return (Thread) methodStartVirtualThread.invoke(null, runnable);
+			}
+			catch (Exception x)
+			{
+			}
+		}
+		
+		Thread thread = new Thread(runnable);
+		thread.start();
+		return thread;
+	}
+}
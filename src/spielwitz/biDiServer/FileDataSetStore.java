@@ -0,0 +1,139 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+
+/**
+ * A data set store which keeps every data set in a GZIP compressed file of its own. The name of the file
+ * is the data set ID. An update rewrites the whole file.
+ * @author spielwitz
+ *
+ */
+public class FileDataSetStore implements DataSetStore
+{
+	private File folder;
+	private HashSet<String> idsNotSynced = new HashSet<String>();
+	
+	/**
+	 * Constructor.
+	 * @param folder The folder of the data set files
+	 */
+	public FileDataSetStore(File folder)
+	{
+		this.folder = folder;
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+	
+	@Override
+	public void delete(String id) throws IOException
+	{
+		Files.deleteIfExists(new File(this.folder, id).toPath());
+		
+		this.addIdNotSynced(id);
+	}
+	
+	@Override
+	public DataSet get(String id) throws IOException
+	{
+		File file = new File(this.folder, id);
+		
+		return file.exists() ?
+				DataSet.readFromFile(file.getPath()) :
+				null;
+	}
+	
+	@Override
+	public void loadAll(DataSetConsumer consumer) throws IOException
+	{
+		for (String id: this.folder.list())
+		{
+			DataSet dataSet = DataSet.readFromFile(new File(this.folder, id).getPath());
+			
+			if (dataSet != null)
+			{
+				consumer.accept(dataSet);
+			}
+		}
+	}
+	
+	@Override
+	public void put(DataSet dataSet) throws IOException
+	{
+		String errorText = dataSet.writeToFile(new File(this.folder, dataSet.getId()).getPath());
+		
+		if (errorText != null)
+		{
+			throw new IOException(errorText);
+		}
+		
+		this.addIdNotSynced(dataSet.getId());
+	}
+	
+	@Override
+	public void sync() throws IOException
+	{
+		HashSet<String> ids = null;
+		
+		synchronized (this.idsNotSynced)
+		{
+			ids = new HashSet<String>(this.idsNotSynced);
+			this.idsNotSynced.clear();
+		}
+		
+		for (String id: ids)
+		{
+			File file = new File(this.folder, id);
+			
+			if (file.exists())
+			{
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE))
+				{
+					channel.force(true);
+				}
+			}
+		}
+		
+		// The directory entries of written and deleted files. Not all platforms support this.
+		try (FileChannel channel = FileChannel.open(this.folder.toPath(), StandardOpenOption.READ))
+		{
+			channel.force(true);
+		}
+		catch (IOException x)
+		{
+		}
+	}
+	
+	private void addIdNotSynced(String id)
+	{
+		synchronized (this.idsNotSynced)
+		{
+			this.idsNotSynced.add(id);
+		}
+	}
+}
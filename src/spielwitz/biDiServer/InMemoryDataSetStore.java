@@ -0,0 +1,72 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A data set store which keeps the data sets in memory only. All data sets are lost when the server stops.
+ * Use it for ephemeral deployments, tests, and benchmarks.
+ * @author spielwitz
+ *
+ */
+public class InMemoryDataSetStore implements DataSetStore
+{
+	private ConcurrentHashMap<String, DataSet> dataSets = new ConcurrentHashMap<String, DataSet>();
+	
+	@Override
+	public void close()
+	{
+	}
+	
+	@Override
+	public void delete(String id) throws IOException
+	{
+		this.dataSets.remove(id);
+	}
+	
+	@Override
+	public DataSet get(String id) throws IOException
+	{
+		DataSet dataSet = this.dataSets.get(id);
+		
+		return dataSet != null ? dataSet.copy() : null;
+	}
+	
+	@Override
+	public void loadAll(DataSetConsumer consumer) throws IOException
+	{
+		for (DataSet dataSet: this.dataSets.values())
+		{
+			consumer.accept(dataSet.copy());
+		}
+	}
+	
+	@Override
+	public void put(DataSet dataSet) throws IOException
+	{
+		this.dataSets.put(dataSet.getId(), dataSet.copy());
+	}
+	
+	@Override
+	public void sync() throws IOException
+	{
+	}
+}
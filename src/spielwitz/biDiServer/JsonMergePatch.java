@@ -0,0 +1,142 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+/**
+ * Creates and applies JSON merge patches as described in RFC 7386. A merge patch contains the members
+ * of a JSON object which were changed. A member with the value null was removed. Arrays and values which
+ * are not JSON objects are replaced as a whole.
+ * @author spielwitz
+ *
+ */
+class JsonMergePatch
+{
+	/**
+	 * Apply a merge patch to a JSON element.
+	 * @param target The JSON element. It is changed by the patch
+	 * @param patch The merge patch
+	 * @return The patched JSON element
+	 */
+	static JsonElement apply(JsonElement target, JsonElement patch)
+	{
+		if (patch == null || !patch.isJsonObject())
+		{
+			return patch != null ? patch : JsonNull.INSTANCE;
+		}
+		
+		JsonObject targetObject = target != null && target.isJsonObject() ?
+				target.getAsJsonObject() :
+				new JsonObject();
+		
+		for (Map.Entry<String, JsonElement> member: patch.getAsJsonObject().entrySet())
+		{
+			if (member.getValue().isJsonNull())
+			{
+				targetObject.remove(member.getKey());
+			}
+			else
+			{
+				targetObject.add(
+						member.getKey(), 
+						apply(targetObject.get(member.getKey()), member.getValue()));
+			}
+		}
+		
+		return targetObject;
+	}
+	
+	/**
+	 * Create a merge patch which turns one JSON element into another.
+	 * @param source The original JSON element
+	 * @param target The changed JSON element
+	 * @return The merge patch, or null if both JSON elements are equal
+	 */
+	static JsonElement create(JsonElement source, JsonElement target)
+	{
+		if (source == null || !source.isJsonObject() || target == null || !target.isJsonObject())
+		{
+			if (isNull(source) && isNull(target))
+			{
+				return null;
+			}
+			
+			return source != null && source.equals(target) ? null : copy(target);
+		}
+		
+		JsonObject sourceObject = source.getAsJsonObject();
+		JsonObject targetObject = target.getAsJsonObject();
+		JsonObject patch = new JsonObject();
+		
+		for (String key: sourceObject.keySet())
+		{
+			if (isNull(targetObject.get(key)) && !isNull(sourceObject.get(key)))
+			{
+				patch.add(key, JsonNull.INSTANCE);
+			}
+		}
+		
+		for (Map.Entry<String, JsonElement> member: targetObject.entrySet())
+		{
+			if (isNull(member.getValue()))
+			{
+				continue;
+			}
+			
+			JsonElement memberPatch = create(sourceObject.get(member.getKey()), member.getValue());
+			
+			if (memberPatch != null)
+			{
+				patch.add(member.getKey(), memberPatch);
+			}
+		}
+		
+		return patch.size() > 0 ? patch : null;
+	}
+	
+	private static JsonElement copy(JsonElement jsonElement)
+	{
+		// Null members must not get into the patch, because they would remove members of the target
+		if (jsonElement == null || !jsonElement.isJsonObject())
+		{
+			return jsonElement != null ? jsonElement.deepCopy() : JsonNull.INSTANCE;
+		}
+		
+		JsonObject copy = new JsonObject();
+		
+		for (Map.Entry<String, JsonElement> member: jsonElement.getAsJsonObject().entrySet())
+		{
+			if (!isNull(member.getValue()))
+			{
+				copy.add(member.getKey(), copy(member.getValue()));
+			}
+		}
+		
+		return copy;
+	}
+	
+	private static boolean isNull(JsonElement jsonElement)
+	{
+		return jsonElement == null || jsonElement.isJsonNull();
+	}
+}
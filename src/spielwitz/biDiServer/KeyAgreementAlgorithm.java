@@ -0,0 +1,40 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+/**
+ * The algorithm with which the client and the server agree on the key of a new session.
+ * @author spielwitz
+ *
+ */
+public enum KeyAgreementAlgorithm
+{
+	/**
+	 * Key agreement "DiffieHellman". Classic finite-field Diffie-Hellman with 2048-bit keys. Supported by all
+	 * servers and Java runtimes.
+	 */
+	DiffieHellman,
+	
+	/**
+	 * Key agreement "X25519". Elliptic-curve Diffie-Hellman on Curve25519, which is much cheaper to compute and
+	 * exchanges much shorter keys. Requires Java 11 or later on both the client and the server. If either
+	 * side does not support it, classic Diffie-Hellman is used instead.
+	 */
+	X25519
+}
@@ -0,0 +1,175 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.spec.DHParameterSpec;
+
+/**
+ * A pool of key pairs which a background thread generates ahead of time, so that a handshake does not wait
+ * for the generation of a key pair. If the pool is empty, the key pair is generated right away.
+ * @author spielwitz
+ *
+ */
+class KeyPairPool
+{
+	private String algorithm;
+	private AlgorithmParameterSpec params;
+	private ArrayBlockingQueue<KeyPair> keyPairs;
+	private Object refillLock = new Object();
+	
+	private AtomicLong keyPairsFromPool = new AtomicLong();
+	private AtomicLong keyPairsGenerated = new AtomicLong();
+	
+	/**
+	 * Constructor.
+	 * @param algorithm The key pair algorithm, for example "DH" or "X25519"
+	 * @param params The algorithm parameters, or null if the algorithm does not need parameters
+	 * @param size The number of key pairs generated ahead of time. With size 0, key pairs are always generated right away
+	 */
+	KeyPairPool(String algorithm, AlgorithmParameterSpec params, int size)
+	{
+		this.algorithm = algorithm;
+		this.params = params;
+		
+		if (size > 0)
+		{
+			this.keyPairs = new ArrayBlockingQueue<KeyPair>(size);
+			
+			Thread refillThread = new RefillThread();
+			refillThread.setDaemon(true);
+			refillThread.start();
+		}
+	}
+	
+	/**
+	 * Get the number of key pairs which were taken from the pool.
+	 * @return The number of key pairs taken from the pool
+	 */
+	long getKeyPairsFromPool()
+	{
+		return this.keyPairsFromPool.get();
+	}
+	
+	/**
+	 * Get the number of key pairs which had to be generated right away, because the pool was empty.
+	 * @return The number of key pairs generated right away
+	 */
+	long getKeyPairsGenerated()
+	{
+		return this.keyPairsGenerated.get();
+	}
+	
+	/**
+	 * Check if the key pairs of the pool can be used with the parameters of the other side.
+	 * @param params The parameters of the other side
+	 * @return True, if the key pairs of the pool use the same parameters
+	 */
+	boolean isCompatible(AlgorithmParameterSpec params)
+	{
+		if (this.params == null || params == null)
+		{
+			return this.params == params;
+		}
+		
+		if (this.params instanceof DHParameterSpec && params instanceof DHParameterSpec)
+		{
+			DHParameterSpec dhParams1 = (DHParameterSpec) this.params;
+			DHParameterSpec dhParams2 = (DHParameterSpec) params;
+			
+			return dhParams1.getP().equals(dhParams2.getP()) &&
+				   dhParams1.getG().equals(dhParams2.getG());
+		}
+		
+		return this.params.equals(params);
+	}
+	
+	/**
+	 * Take a key pair from the pool. If the pool is empty, a key pair is generated right away.
+	 * @return The key pair
+	 * @throws Exception
+	 */
+	KeyPair take() throws Exception
+	{
+		KeyPair keyPair = this.keyPairs != null ? this.keyPairs.poll() : null;
+		
+		if (keyPair != null)
+		{
+			this.keyPairsFromPool.incrementAndGet();
+			
+			synchronized (this.refillLock)
+			{
+				this.refillLock.notify();
+			}
+			
+			return keyPair;
+		}
+		
+		this.keyPairsGenerated.incrementAndGet();
+		return this.generate();
+	}
+	
+	private KeyPair generate() throws Exception
+	{
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(this.algorithm);
+		
+		if (this.params != null)
+		{
+			keyPairGenerator.initialize(this.params);
+		}
+		
+		return keyPairGenerator.generateKeyPair();
+	}
+	
+	// ==========================================================
+	
+	private class RefillThread extends Thread
+	{
+		public void run()
+		{
+			do
+			{
+				try
+				{
+					while (keyPairs.remainingCapacity() > 0)
+					{
+						keyPairs.offer(generate());
+					}
+					
+					synchronized (refillLock)
+					{
+						while (keyPairs.remainingCapacity() == 0)
+						{
+							refillLock.wait();
+						}
+					}
+				}
+				catch (Exception e)
+				{
+					break;
+				}
+			} while (true);
+		}
+	}
+}
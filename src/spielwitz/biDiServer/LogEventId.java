@@ -33,6 +33,10 @@ enum LogEventId
 	E5,
 	E6,
 	E7,
+	E8,
+	E9,
+	E10,
+	E11,
 	
 	I1,
 	
@@ -41,8 +45,10 @@ enum LogEventId
 	
 	W1,
 	W2,
+	W3,
 	
 	V1,
+	V2,
 	
 	CUSTOM
 }
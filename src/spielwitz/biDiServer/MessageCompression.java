@@ -0,0 +1,620 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of AES encrypted messages. Every message starts with a flag which tells whether the message
+ * is compressed. Messages below a size threshold, and messages which do not get smaller, are not compressed.
+ * Deflaters and inflaters are pooled instead of being kept per thread, because virtual threads are not reused.
+ * Messages of older builds are compressed with GZIP and are recognized by the GZIP header.
+ * @author spielwitz
+ *
+ */
+class MessageCompression
+{
+	/**
+	 * Messages shorter than this are never compressed.
+	 */
+	static final int THRESHOLD_BYTES = 256;
+	
+	private static final byte FLAG_UNCOMPRESSED = 0;
+	private static final byte FLAG_DEFLATE = 1;
+	private static final int HEADER_LENGTH_UNCOMPRESSED = 1;
+	private static final int HEADER_LENGTH_DEFLATE = 5;
+	private static final int GZIP_MAGIC_BYTE_1 = 0x1f;
+	private static final int GZIP_MAGIC_BYTE_2 = 0x8b;
+	private static final int POOL_SIZE = 32;
+	private static final int MAX_DEFLATE_RATIO = 1100;
+	private static final int STREAM_BUFFER_SIZE = 8192;
+	private static final int STREAM_SAMPLE_BYTES = 65536;
+	
+	private static ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+	
+	/**
+	 * Decode a message which was encoded with {@link #encode(byte[])}, or compressed with GZIP by an older build.
+	 * @param bytes The encoded message
+	 * @return The message
+	 * @throws Exception
+	 */
+	static byte[] decode(byte[] bytes) throws Exception
+	{
+		if (bytes.length >= 2 &&
+			(bytes[0] & 0xFF) == GZIP_MAGIC_BYTE_1 &&
+			(bytes[1] & 0xFF) == GZIP_MAGIC_BYTE_2)
+		{
+			return decodeGzip(bytes);
+		}
+		
+		if (bytes.length >= HEADER_LENGTH_UNCOMPRESSED && bytes[0] == FLAG_UNCOMPRESSED)
+		{
+			byte[] content = new byte[bytes.length - HEADER_LENGTH_UNCOMPRESSED];
+			System.arraycopy(bytes, HEADER_LENGTH_UNCOMPRESSED, content, 0, content.length);
+			return content;
+		}
+		
+		if (bytes.length >= HEADER_LENGTH_DEFLATE && bytes[0] == FLAG_DEFLATE)
+		{
+			int length = (bytes[1] & 0xFF) << 24 |
+						 (bytes[2] & 0xFF) << 16 |
+						 (bytes[3] & 0xFF) << 8 |
+						 (bytes[4] & 0xFF);
+			
+			if (length < 0 || length > (long)bytes.length * MAX_DEFLATE_RATIO)
+			{
+				throw new IllegalArgumentException("Invalid message length");
+			}
+			
+			byte[] content = new byte[length];
+			Inflater inflater = inflaters.poll();
+			
+			if (inflater == null)
+			{
+				inflater = new Inflater();
+			}
+			
+			try
+			{
+				inflater.setInput(bytes, HEADER_LENGTH_DEFLATE, bytes.length - HEADER_LENGTH_DEFLATE);
+				
+				int offset = 0;
+				
+				while (offset < length && !inflater.finished())
+				{
+					int count = inflater.inflate(content, offset, length - offset);
+					
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					{
+						break;
+					}
+					
+					offset += count;
+				}
+				
+				if (offset != length)
+				{
+					throw new IllegalArgumentException("Truncated message");
+				}
+			}
+			finally
+			{
+				inflater.reset();
+				
+				if (!inflaters.offer(inflater))
+				{
+					inflater.end();
+				}
+			}
+			
+			return content;
+		}
+		
+		throw new IllegalArgumentException("Unknown message compression");
+	}
+	
+	/**
+	 * Get a stream which decodes a message while it is read. The message was encoded with 
+	 * {@link #newEncoder(OutputStream)} or {@link #encode(byte[])}, or compressed with GZIP by an older build.
+	 * @param in The stream of the encoded message
+	 * @return The stream of the message
+	 * @throws IOException
+	 */
+	static InputStream newDecoder(InputStream in) throws IOException
+	{
+		PushbackInputStream pushbackIn = new PushbackInputStream(in, 1);
+		int flag = pushbackIn.read();
+		
+		if (flag == GZIP_MAGIC_BYTE_1)
+		{
+			pushbackIn.unread(flag);
+			return new GZIPInputStream(pushbackIn, STREAM_BUFFER_SIZE);
+		}
+		else if (flag == FLAG_UNCOMPRESSED)
+		{
+			return pushbackIn;
+		}
+		else if (flag == FLAG_DEFLATE)
+		{
+			int length = new DataInputStream(pushbackIn).readInt();
+			
+			if (length < 0)
+			{
+				throw new IllegalArgumentException("Invalid message length");
+			}
+			
+			return new PooledInflaterInputStream(pushbackIn, length);
+		}
+		
+		throw new IllegalArgumentException("Unknown message compression");
+	}
+	
+	private static byte[] decodeGzip(byte[] bytes) throws Exception
+	{
+		byte[] buffer = new byte[1024];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		try (GZIPInputStream gzipper = new GZIPInputStream(new ByteArrayInputStream(bytes)))
+		{
+			int len;
+			while ((len = gzipper.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+			}
+		}
+		
+		return out.toByteArray();
+	}
+	
+	private int level;
+	private ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+	
+	private AtomicLong messagesCompressed = new AtomicLong();
+	private AtomicLong messagesUncompressed = new AtomicLong();
+	private AtomicLong bytesBeforeCompression = new AtomicLong();
+	private AtomicLong bytesAfterCompression = new AtomicLong();
+	private AtomicLong compressionNanoseconds = new AtomicLong();
+	
+	/**
+	 * Constructor.
+	 * @param level The compression level (0-9). With level 0, messages are never compressed
+	 */
+	MessageCompression(int level)
+	{
+		this.level = level;
+	}
+	
+	/**
+	 * Encode a message. The message is only compressed if it is long enough and if compression makes it shorter.
+	 * @param content The message
+	 * @return The encoded message
+	 */
+	byte[] encode(byte[] content)
+	{
+		if (this.level > 0 && content.length >= THRESHOLD_BYTES)
+		{
+			long timeStart = System.nanoTime();
+			byte[] compressed = this.deflate(content);
+			this.compressionNanoseconds.addAndGet(System.nanoTime() - timeStart);
+			
+			if (compressed != null)
+			{
+				this.messagesCompressed.incrementAndGet();
+				this.bytesBeforeCompression.addAndGet(content.length);
+				this.bytesAfterCompression.addAndGet(compressed.length);
+				
+				return compressed;
+			}
+		}
+		
+		this.messagesUncompressed.incrementAndGet();
+		
+		byte[] bytes = new byte[HEADER_LENGTH_UNCOMPRESSED + content.length];
+		bytes[0] = FLAG_UNCOMPRESSED;
+		System.arraycopy(content, 0, bytes, HEADER_LENGTH_UNCOMPRESSED, content.length);
+		
+		return bytes;
+	}
+	
+	/**
+	 * Get the number of bytes of the compressed messages after compression.
+	 * @return The number of bytes after compression
+	 */
+	long getBytesAfterCompression()
+	{
+		return this.bytesAfterCompression.get();
+	}
+	
+	/**
+	 * Get the number of bytes of the compressed messages before compression.
+	 * @return The number of bytes before compression
+	 */
+	long getBytesBeforeCompression()
+	{
+		return this.bytesBeforeCompression.get();
+	}
+	
+	/**
+	 * Get the time spent on compression, including attempts that did not make the message shorter.
+	 * @return The time spent on compression in nanoseconds
+	 */
+	long getCompressionNanoseconds()
+	{
+		return this.compressionNanoseconds.get();
+	}
+	
+	/**
+	 * Get the number of compressed messages.
+	 * @return The number of compressed messages
+	 */
+	long getMessagesCompressed()
+	{
+		return this.messagesCompressed.get();
+	}
+	
+	/**
+	 * Get the number of messages which were sent without compression.
+	 * @return The number of uncompressed messages
+	 */
+	long getMessagesUncompressed()
+	{
+		return this.messagesUncompressed.get();
+	}
+	
+	/**
+	 * Get a stream which encodes a message while it is written. Like with {@link #encode(byte[])}, short messages
+	 * and messages which do not get shorter are not compressed. A longer message is deflated on the fly; the deflated 
+	 * message is buffered, because its header contains the length of the message. The message itself is buffered 
+	 * as well until it is clear whether compression makes it shorter: up to its end, or up to a sample of 
+	 * {@value #STREAM_SAMPLE_BYTES} bytes. If the sample does not shrink clearly, the rest of the message is 
+	 * written uncompressed as it comes. Closing the stream writes the encoded message and closes the target stream.
+	 * @param out The target stream
+	 * @return The stream to write the message to
+	 */
+	OutputStream newEncoder(OutputStream out)
+	{
+		return this.new EncoderOutputStream(out);
+	}
+	
+	private byte[] deflate(byte[] content)
+	{
+		Deflater deflater = this.deflaters.poll();
+		
+		if (deflater == null)
+		{
+			deflater = new Deflater(this.level);
+		}
+		
+		try
+		{
+			// Compression is only worth it if the result is shorter than the message
+			byte[] buffer = new byte[content.length];
+			
+			deflater.setInput(content);
+			deflater.finish();
+			
+			int length = deflater.deflate(buffer);
+			
+			if (!deflater.finished() || HEADER_LENGTH_DEFLATE + length >= HEADER_LENGTH_UNCOMPRESSED + content.length)
+			{
+				return null;
+			}
+			
+			byte[] bytes = new byte[HEADER_LENGTH_DEFLATE + length];
+			bytes[0] = FLAG_DEFLATE;
+			bytes[1] = (byte) ((content.length >> 24) & 0xFF);
+			bytes[2] = (byte) ((content.length >> 16) & 0xFF);
+			bytes[3] = (byte) ((content.length >> 8) & 0xFF);
+			bytes[4] = (byte) (content.length & 0xFF);
+			System.arraycopy(buffer, 0, bytes, HEADER_LENGTH_DEFLATE, length);
+			
+			return bytes;
+		}
+		finally
+		{
+			deflater.reset();
+			
+			if (!this.deflaters.offer(deflater))
+			{
+				deflater.end();
+			}
+		}
+	}
+	
+	// ==========================================================
+	
+	private class EncoderOutputStream extends OutputStream
+	{
+		private OutputStream out;
+		private byte[] head = new byte[THRESHOLD_BYTES];
+		private int headLength;
+		private long length;
+		private boolean uncompressed;
+		private Deflater deflater;
+		private byte[] deflateBuffer;
+		private ByteArrayOutputStream deflated;
+		private ByteArrayOutputStream sample;
+		private boolean closed;
+		
+		private EncoderOutputStream(OutputStream out)
+		{
+			this.out = out;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (this.closed)
+			{
+				return;
+			}
+			
+			this.closed = true;
+			
+			try
+			{
+				if (this.deflater != null)
+				{
+					long timeStart = System.nanoTime();
+					
+					this.deflater.finish();
+					
+					while (!this.deflater.finished())
+					{
+						this.deflateToBuffer(Deflater.NO_FLUSH);
+					}
+					
+					compressionNanoseconds.addAndGet(System.nanoTime() - timeStart);
+					
+					if (this.sample != null &&
+						HEADER_LENGTH_DEFLATE + this.deflated.size() >= HEADER_LENGTH_UNCOMPRESSED + this.length)
+					{
+						// Compression does not make the message shorter
+						this.writeSampleUncompressed();
+					}
+				}
+				
+				if (this.deflater != null)
+				{
+					this.out.write(new byte[] {
+							FLAG_DEFLATE,
+							(byte) ((this.length >> 24) & 0xFF),
+							(byte) ((this.length >> 16) & 0xFF),
+							(byte) ((this.length >> 8) & 0xFF),
+							(byte) (this.length & 0xFF)});
+					this.deflated.writeTo(this.out);
+					
+					messagesCompressed.incrementAndGet();
+					bytesBeforeCompression.addAndGet(this.length);
+					bytesAfterCompression.addAndGet(HEADER_LENGTH_DEFLATE + this.deflated.size());
+				}
+				else
+				{
+					if (!this.uncompressed)
+					{
+						this.out.write(FLAG_UNCOMPRESSED);
+						this.out.write(this.head, 0, this.headLength);
+					}
+					
+					messagesUncompressed.incrementAndGet();
+				}
+				
+				this.out.close();
+			}
+			finally
+			{
+				this.releaseDeflater();
+			}
+		}
+		
+		@Override
+		public void write(int b) throws IOException
+		{
+			this.write(new byte[] {(byte) b}, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (this.length + len > Integer.MAX_VALUE)
+			{
+				throw new IOException("Message too long");
+			}
+			
+			this.length += len;
+			
+			if (this.uncompressed)
+			{
+				this.out.write(b, off, len);
+			}
+			else if (this.deflater != null)
+			{
+				this.deflate(b, off, len);
+			}
+			else if (level == 0)
+			{
+				// Compression is disabled. The message is written as it comes.
+				this.uncompressed = true;
+				this.out.write(FLAG_UNCOMPRESSED);
+				this.out.write(b, off, len);
+			}
+			else if (this.headLength + len < THRESHOLD_BYTES)
+			{
+				System.arraycopy(b, off, this.head, this.headLength, len);
+				this.headLength += len;
+			}
+			else
+			{
+				// The message is long enough to be compressed
+				this.deflater = deflaters.poll();
+				
+				if (this.deflater == null)
+				{
+					this.deflater = new Deflater(level);
+				}
+				
+				this.deflateBuffer = new byte[STREAM_BUFFER_SIZE];
+				this.deflated = new ByteArrayOutputStream(STREAM_BUFFER_SIZE);
+				this.sample = new ByteArrayOutputStream(STREAM_BUFFER_SIZE);
+				
+				this.deflate(this.head, 0, this.headLength);
+				this.deflate(b, off, len);
+			}
+		}
+		
+		private void deflate(byte[] b, int off, int len) throws IOException
+		{
+			long timeStart = System.nanoTime();
+			
+			this.deflater.setInput(b, off, len);
+			
+			while (!this.deflater.needsInput())
+			{
+				this.deflateToBuffer(Deflater.NO_FLUSH);
+			}
+			
+			if (this.sample != null)
+			{
+				this.sample.write(b, off, len);
+				
+				if (this.sample.size() >= STREAM_SAMPLE_BYTES)
+				{
+					// Flush the deflater to see how much the sample has shrunk
+					while (this.deflateToBuffer(Deflater.SYNC_FLUSH) == this.deflateBuffer.length)
+					{
+					}
+					
+					if (4L * (HEADER_LENGTH_DEFLATE + this.deflated.size()) <= 3L * this.sample.size())
+					{
+						this.sample = null;
+					}
+					else
+					{
+						this.writeSampleUncompressed();
+					}
+				}
+			}
+			
+			compressionNanoseconds.addAndGet(System.nanoTime() - timeStart);
+		}
+		
+		private int deflateToBuffer(int flush)
+		{
+			int count = this.deflater.deflate(this.deflateBuffer, 0, this.deflateBuffer.length, flush);
+			this.deflated.write(this.deflateBuffer, 0, count);
+			return count;
+		}
+		
+		private void releaseDeflater()
+		{
+			if (this.deflater != null)
+			{
+				this.deflater.reset();
+				
+				if (!deflaters.offer(this.deflater))
+				{
+					this.deflater.end();
+				}
+				
+				this.deflater = null;
+			}
+		}
+		
+		private void writeSampleUncompressed() throws IOException
+		{
+			this.releaseDeflater();
+			this.deflated = null;
+			this.uncompressed = true;
+			
+			this.out.write(FLAG_UNCOMPRESSED);
+			this.sample.writeTo(this.out);
+			this.sample = null;
+		}
+	}
+	
+	// ==========================================================
+	
+	private static class PooledInflaterInputStream extends InflaterInputStream
+	{
+		private int length;
+		private boolean inflaterReleased;
+		
+		private PooledInflaterInputStream(InputStream in, int length)
+		{
+			super(in, getInflater(), STREAM_BUFFER_SIZE);
+			this.length = length;
+		}
+		
+		private static Inflater getInflater()
+		{
+			Inflater inflater = inflaters.poll();
+			return inflater != null ? inflater : new Inflater();
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int count = super.read(b, off, len);
+			
+			// Like when the message is decoded in one piece, do not inflate more than the announced length,
+			// and not more than any deflated data can be inflated to.
+			if (count > 0 &&
+				(this.inf.getBytesWritten() > this.length ||
+				 this.inf.getBytesWritten() > (HEADER_LENGTH_DEFLATE + this.inf.getBytesRead()) * MAX_DEFLATE_RATIO))
+			{
+				throw new IOException("Invalid message length");
+			}
+			
+			return count;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				if (!this.inflaterReleased)
+				{
+					this.inflaterReleased = true;
+					this.inf.reset();
+					
+					if (!inflaters.offer(this.inf))
+					{
+						this.inf.end();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.util.ArrayList;
+
+/**
+ * How the messages of a connection are encoded before they are encrypted. Client and server agree on 
+ * the encoding for every connection. The encoding is never changed, so that it can be passed to other threads.
+ * @author spielwitz
+ *
+ */
+class MessageEncoding
+{
+	/**
+	 * JSON text compressed with GZIP, as understood by all builds.
+	 */
+	static final MessageEncoding LEGACY = new MessageEncoding(null, false);
+	
+	/**
+	 * Get the encoding for the protocol features which client and server agreed on.
+	 * @param features The agreed protocol features
+	 * @param compression The compression to use if flagged compression was agreed on
+	 * @return The encoding
+	 */
+	static MessageEncoding fromFeatures(ArrayList<ProtocolFeature> features, MessageCompression compression)
+	{
+		return new MessageEncoding(
+				features.contains(ProtocolFeature.FLAGGED_COMPRESSION) ? compression : null, 
+				features.contains(ProtocolFeature.BINARY_MESSAGES));
+	}
+	
+	/**
+	 * Compression with a flag telling if the message is compressed. Null, if messages are always compressed with GZIP.
+	 */
+	final MessageCompression compression;
+	
+	/**
+	 * True, if messages are binary encoded instead of JSON text.
+	 */
+	final boolean binaryMessages;
+	
+	private MessageEncoding(MessageCompression compression, boolean binaryMessages)
+	{
+		this.compression = compression;
+		this.binaryMessages = binaryMessages;
+	}
+}
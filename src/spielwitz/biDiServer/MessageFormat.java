@@ -0,0 +1,38 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+/**
+ * The format in which the client and the server exchange messages after the key of the session has been agreed on.
+ * @author spielwitz
+ *
+ */
+public enum MessageFormat
+{
+	/**
+	 * Message format "Json". Messages are exchanged as JSON text. Supported by all servers.
+	 */
+	Json,
+	
+	/**
+	 * Message format "Binary". Messages are exchanged in a compact binary encoding of JSON, which is faster to
+	 * generate and to parse than JSON text. If the server does not support it, JSON text is used instead.
+	 */
+	Binary
+}
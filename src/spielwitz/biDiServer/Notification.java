@@ -167,7 +167,7 @@ class Notification
 		this.recipients = recipients;
 		
 		this.payloadEncrypted = new Payload(payloadObject);
-		this.payloadEncrypted.encryptRsa(key);
+		this.payloadEncrypted.encrypt(key);
 	}
 	
 	/**
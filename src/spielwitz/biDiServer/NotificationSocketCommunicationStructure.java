@@ -17,8 +17,17 @@
 
 package spielwitz.biDiServer;
 
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 class NotificationSocketCommunicationStructure
 {
-	Notification notification;
+	// A lock instead of a monitor, so that a waiting virtual thread does not pin its carrier thread
+	final ReentrantLock lock = new ReentrantLock();
+	final Condition changed = lock.newCondition();
+	
+	// Notifications which were pushed while the previous ones were sent. They are sent together.
+	ArrayList<Notification> notifications = new ArrayList<Notification>();
 	boolean closeSocket;
 }
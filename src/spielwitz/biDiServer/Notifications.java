@@ -17,9 +17,14 @@
 
 package spielwitz.biDiServer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 class Notifications
 {
@@ -30,6 +35,25 @@ class Notifications
 		return serializer.fromJson(json, Notifications.class); 
 	}
 	
+	static Notifications deserialize(byte[] bytes)
+	{
+		if (!BinaryMessageCodec.isBinary(bytes))
+		{
+			return deserialize(new String(bytes, StandardCharsets.UTF_8));
+		}
+		
+		try
+		{
+			return serializer.fromJson(
+					BinaryMessageCodec.read(new ByteArrayInputStream(bytes)), 
+					Notifications.class);
+		}
+		catch (IOException | JsonParseException x)
+		{
+			return null;
+		}
+	}
+	
 	private ArrayList<Notification> notifications;
 	
 	Notifications(ArrayList<Notification> notifications)
@@ -52,4 +76,20 @@ class Notifications
 	{
 		return serializer.toJson(this);
 	}
+	
+	byte[] serializeBinary()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		try
+		{
+			serializer.toJson(this, Notifications.class, BinaryMessageCodec.newWriter(out));
+		}
+		catch (IOException x)
+		{
+			// A ByteArrayOutputStream does not throw I/O exceptions
+		}
+		
+		return out.toByteArray();
+	}
 }
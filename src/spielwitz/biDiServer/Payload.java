@@ -35,6 +35,7 @@ public class Payload
 	private String className;
 	private JsonElement jsonElement;
 	private String jsonElementRsaEncrypted;
+	private String jsonElementHybridEncrypted;
 	
 	/**
 	 * Constructor.
@@ -45,10 +46,16 @@ public class Payload
 		if (obj != null)
 		{
 			this.className = obj.getClass().getName();
-			this.jsonElement = serializer.toJsonTree(obj);
+			this.jsonElement = PayloadCodecRegistry.toJsonTree(obj);
 		}
 	}
 	
+	Payload(String className, JsonElement jsonElement)
+	{
+		this.className = className;
+		this.jsonElement = jsonElement;
+	}
+	
 	/**
 	 * Get the name of the class of the payload object.
 	 * @return The name of the class of the payload object.
@@ -80,7 +87,7 @@ public class Payload
 		
 		try
 		{
- 			return serializer.fromJson(this.jsonElement, Class.forName(this.className));
+			return PayloadCodecRegistry.fromJsonTree(this.className, this.jsonElement);
 		}
 		catch (Exception x)
 		{
@@ -105,11 +112,23 @@ public class Payload
 		return serializer.toJson(this.jsonElement);
 	}
 
-	void encryptRsa(PublicKey key)
+	Payload copy()
+	{
+		Payload copy = new Payload(null);
+		
+		copy.className = this.className;
+		copy.jsonElement = this.jsonElement != null ? this.jsonElement.deepCopy() : null;
+		copy.jsonElementRsaEncrypted = this.jsonElementRsaEncrypted;
+		copy.jsonElementHybridEncrypted = this.jsonElementHybridEncrypted;
+		
+		return copy;
+	}
+	
+	void encrypt(PublicKey key)
 	{
-		this.jsonElementRsaEncrypted = 
+		this.jsonElementHybridEncrypted = 
 				CryptoLib.base64Encode(
-						CryptoLib.encryptRsa(
+						CryptoLib.encryptHybrid(
 						serializer.toJson(jsonElement),
 						key));
 		this.jsonElement = null;
@@ -119,12 +138,17 @@ public class Payload
 	{
 		try
 		{
-			this.jsonElement = 
-					serializer.fromJson(
-						CryptoLib.decryptRsa(
-								CryptoLib.base64Decode(this.jsonElementRsaEncrypted),
-							key),
-						JsonElement.class);
+			// Payloads which were stored by older builds are encrypted with RSA only
+			String json = 
+					this.jsonElementHybridEncrypted != null ?
+							CryptoLib.decryptHybrid(
+									CryptoLib.base64Decode(this.jsonElementHybridEncrypted),
+									key) :
+							CryptoLib.decryptRsa(
+									CryptoLib.base64Decode(this.jsonElementRsaEncrypted),
+									key);
+			
+			this.jsonElement = serializer.fromJson(json, JsonElement.class);
 			
 			return this.getObject();
 		}
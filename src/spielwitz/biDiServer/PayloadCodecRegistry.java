@@ -0,0 +1,110 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+
+/**
+ * Converts payload objects to and from JSON. The classes of payload objects and their Gson type adapters 
+ * are looked up once per class and cached. Applications can register hand-written type adapters for payload 
+ * classes which are serialized very often, for example the payload of their data sets, so that these
+ * classes are converted without reflection.
+ * @author spielwitz
+ *
+ */
+public class PayloadCodecRegistry
+{
+	private static final Gson serializer = new Gson();
+	
+	private static ConcurrentHashMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+	private static ConcurrentHashMap<Class<?>, TypeAdapter<?>> typeAdapters = new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
+	
+	/**
+	 * Register a hand-written type adapter for a payload class. The type adapter must produce the same JSON as 
+	 * Gson does by default, because the other side may convert the payload with the default type adapter.
+	 * Payloads are converted to JSON trees, so the type adapter cannot write raw JSON text with 
+	 * {@code JsonWriter.jsonValue}. Register type adapters before the client or the server is started.
+	 * @param payloadClass The payload class
+	 * @param typeAdapter The type adapter
+	 */
+	public static <T> void registerTypeAdapter(Class<T> payloadClass, TypeAdapter<T> typeAdapter)
+	{
+		typeAdapters.put(payloadClass, typeAdapter.nullSafe());
+	}
+	
+	/**
+	 * Convert JSON to a payload object.
+	 * @param className The name of the class of the payload object
+	 * @param jsonElement The payload object as a JSON element
+	 * @return The payload object
+	 * @throws ClassNotFoundException
+	 */
+	static Object fromJsonTree(String className, JsonElement jsonElement) throws ClassNotFoundException
+	{
+		return getTypeAdapter(getClass(className)).fromJsonTree(jsonElement);
+	}
+	
+	/**
+	 * Convert a payload object to JSON.
+	 * @param obj The payload object
+	 * @return The payload object as a JSON element
+	 */
+	static JsonElement toJsonTree(Object obj)
+	{
+		return getTypeAdapter(obj.getClass()).toJsonTree(obj);
+	}
+	
+	private static Class<?> getClass(String className) throws ClassNotFoundException
+	{
+		Class<?> c = classes.get(className);
+		
+		if (c == null)
+		{
+			// Unknown class names are not cached, because they may come from anybody
+			c = Class.forName(className);
+			classes.put(className, c);
+		}
+		
+		return c;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static TypeAdapter<Object> getTypeAdapter(Class<?> c)
+	{
+		TypeAdapter<?> typeAdapter = typeAdapters.get(c);
+		
+		if (typeAdapter == null)
+		{
+			typeAdapter = serializer.getAdapter(c);
+			
+			TypeAdapter<?> typeAdapterRegistered = typeAdapters.putIfAbsent(c, typeAdapter);
+			
+			if (typeAdapterRegistered != null)
+			{
+				typeAdapter = typeAdapterRegistered;
+			}
+		}
+		
+		return (TypeAdapter<Object>) typeAdapter;
+	}
+}
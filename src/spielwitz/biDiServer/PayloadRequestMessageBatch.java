@@ -0,0 +1,217 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.util.ArrayList;
+
+/**
+ * Request message payload for sending several requests to the server in one round trip. The server
+ * processes the requests in the order in which they were added.
+ * @author spielwitz
+ *
+ */
+public class PayloadRequestMessageBatch extends PayloadMessageBase
+{
+	private ArrayList<BatchItem> items;
+	
+	/**
+	 * Constructor.
+	 */
+	public PayloadRequestMessageBatch()
+	{
+		this.items = new ArrayList<BatchItem>();
+	}
+	
+	/**
+	 * Add a request to create a new data set.
+	 * @param dataSet The data set
+	 * @return The index of the request in the batch
+	 */
+	public int addCreateDataSet(DataSet dataSet)
+	{
+		return this.add(RequestMessageType.CREATE_DATA_SET, new Payload(dataSet));
+	}
+	
+	/**
+	 * Add a custom-defined request.
+	 * @param payload The request payload
+	 * @return The index of the request in the batch
+	 */
+	public int addCustomRequest(Object payload)
+	{
+		return this.add(RequestMessageType.CUSTOM, new Payload(payload));
+	}
+	
+	/**
+	 * Add a request to delete a data set.
+	 * @param id The data set ID
+	 * @return The index of the request in the batch
+	 */
+	public int addDeleteDataSet(String id)
+	{
+		return this.add(RequestMessageType.DELETE_DATA_SET, new Payload(id));
+	}
+	
+	/**
+	 * Add a request to get a data set.
+	 * @param id The data set ID
+	 * @return The index of the request in the batch
+	 */
+	public int addGetDataSet(String id)
+	{
+		return this.add(RequestMessageType.GET_DATA_SET, new Payload(id));
+	}
+	
+	/**
+	 * Add a request to get a data set only if it was changed since the client read it.
+	 * @param id The data set ID
+	 * @param knownVersion The version of the data set which the client already has
+	 * @return The index of the request in the batch
+	 */
+	public int addGetDataSet(String id, long knownVersion)
+	{
+		return this.add(
+				RequestMessageType.GET_DATA_SET, 
+				new Payload(new PayloadRequestMessageGetDataSet(id, knownVersion)));
+	}
+	
+	/**
+	 * Add a request to change the payload of an existing data set.
+	 * @param baseDataSet The data set as it was read from the server
+	 * @param payloadObject The changed payload object
+	 * @return The index of the request in the batch
+	 */
+	public int addPatchDataSet(DataSet baseDataSet, Object payloadObject)
+	{
+		return this.add(
+				RequestMessageType.PATCH_DATA_SET, 
+				new Payload(new PayloadRequestMessagePatchDataSet(baseDataSet, payloadObject)));
+	}
+	
+	/**
+	 * Add a request to push a notification to a number of recipients.
+	 * @param recipients The recipients
+	 * @param object The object to be pushed
+	 * @return The index of the request in the batch
+	 */
+	public int addPushNotification(ArrayList<String> recipients, Object object)
+	{
+		return this.add(
+				RequestMessageType.PUSH_NOTIFICATION, 
+				new Payload(new PayloadRequestMessagePushNotification(recipients, object)));
+	}
+	
+	/**
+	 * Add a request to update an existing data set.
+	 * @param dataSet The data set
+	 * @return The index of the request in the batch
+	 */
+	public int addUpdateDataSet(DataSet dataSet)
+	{
+		return this.add(RequestMessageType.UPDATE_DATA_SET, new Payload(dataSet));
+	}
+	
+	/**
+	 * Add a request to update an existing data set only if it still has the expected version on the server.
+	 * @param dataSet The data set
+	 * @param expectedVersion The version which the data set must have on the server
+	 * @return The index of the request in the batch
+	 */
+	public int addUpdateDataSet(DataSet dataSet, long expectedVersion)
+	{
+		return this.add(
+				RequestMessageType.UPDATE_DATA_SET, 
+				new Payload(new PayloadRequestMessageUpdateDataSet(dataSet, expectedVersion)));
+	}
+	
+	/**
+	 * Get the number of requests in the batch.
+	 * @return The number of requests
+	 */
+	public int size()
+	{
+		return this.items.size();
+	}
+	
+	/**
+	 * Check if requests of a type can be part of a batch.
+	 * @param type The request message type
+	 * @return True, if the type is allowed
+	 */
+	static boolean isTypeAllowed(RequestMessageType type)
+	{
+		if (type == null)
+		{
+			return false;
+		}
+		
+		switch (type)
+		{
+			case GET_DATA_SET:
+			case CREATE_DATA_SET:
+			case UPDATE_DATA_SET:
+			case PATCH_DATA_SET:
+			case DELETE_DATA_SET:
+			case PUSH_NOTIFICATION:
+			case CUSTOM:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Get the payload of a request.
+	 * @param index The index of the request
+	 * @return The payload
+	 */
+	Payload getPayload(int index)
+	{
+		return this.items.get(index).payload;
+	}
+	
+	/**
+	 * Get the type of a request.
+	 * @param index The index of the request
+	 * @return The request message type
+	 */
+	RequestMessageType getType(int index)
+	{
+		return this.items.get(index).type;
+	}
+	
+	private int add(RequestMessageType type, Payload payload)
+	{
+		this.items.add(new BatchItem(type, payload));
+		return this.items.size() - 1;
+	}
+	
+	// ==============================================
+	
+	private static class BatchItem
+	{
+		private RequestMessageType type;
+		private Payload payload;
+		
+		private BatchItem(RequestMessageType type, Payload payload)
+		{
+			this.type = type;
+			this.payload = payload;
+		}
+	}
+}
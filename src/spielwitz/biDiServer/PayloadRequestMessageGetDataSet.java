@@ -0,0 +1,58 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+/**
+ * Request message payload for getting a data set only if it was changed since the client read it.
+ * @author spielwitz
+ *
+ */
+class PayloadRequestMessageGetDataSet extends PayloadMessageBase
+{
+	private String id;
+	private long knownVersion;
+	
+	/**
+	 * Constructor.
+	 * @param id The data set ID
+	 * @param knownVersion The version of the data set which the client already has
+	 */
+	PayloadRequestMessageGetDataSet(String id, long knownVersion)
+	{
+		this.id = id;
+		this.knownVersion = knownVersion;
+	}
+	
+	/**
+	 * Get the data set ID.
+	 * @return The data set ID
+	 */
+	String getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * Get the version of the data set which the client already has.
+	 * @return The known version
+	 */
+	long getKnownVersion()
+	{
+		return this.knownVersion;
+	}
+}
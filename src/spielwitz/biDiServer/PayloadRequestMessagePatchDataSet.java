@@ -0,0 +1,97 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Request message payload for changing the payload of an existing data set. Instead of the whole data set,
+ * only a JSON merge patch (RFC 7386) with the differences to a base version of the data set is sent.
+ * @author spielwitz
+ *
+ */
+public class PayloadRequestMessagePatchDataSet extends PayloadMessageBase
+{
+	// The merge patch marks removed members with null, so nulls must not get lost
+	private static final Gson serializer = new GsonBuilder().serializeNulls().create();
+	
+	private String id;
+	private long baseVersion;
+	private String className;
+	private String patch;
+	
+	/**
+	 * Constructor. The merge patch is created from the differences between the payload of the base data set 
+	 * and the changed payload object.
+	 * @param baseDataSet The data set as it was read from the server
+	 * @param payloadObject The changed payload object
+	 */
+	public PayloadRequestMessagePatchDataSet(DataSet baseDataSet, Object payloadObject)
+	{
+		Payload payload = new Payload(payloadObject);
+		
+		JsonElement patch = JsonMergePatch.create(
+				baseDataSet.getPayload() != null ? baseDataSet.getPayload().getJsonElement() : null, 
+				payload.getJsonElement());
+		
+		this.id = baseDataSet.getId();
+		this.baseVersion = baseDataSet.getVersion();
+		this.className = payload.getClassName();
+		this.patch = patch != null ? serializer.toJson(patch) : null;
+	}
+	
+	/**
+	 * Get the version of the data set on which the patch is based.
+	 * @return The base version
+	 */
+	public long getBaseVersion()
+	{
+		return this.baseVersion;
+	}
+	
+	/**
+	 * Get the ID of the data set.
+	 * @return The data set ID
+	 */
+	public String getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * Check if the payload object was changed at all.
+	 * @return True, if the patch is empty
+	 */
+	public boolean isEmpty()
+	{
+		return this.patch == null;
+	}
+	
+	String getClassName()
+	{
+		return this.className;
+	}
+	
+	JsonElement getPatch()
+	{
+		return this.patch != null ? JsonParser.parseString(this.patch) : null;
+	}
+}
@@ -0,0 +1,58 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+/**
+ * Request message payload for updating a data set only if it still has the expected version.
+ * @author spielwitz
+ *
+ */
+class PayloadRequestMessageUpdateDataSet extends PayloadMessageBase
+{
+	private DataSet dataSet;
+	private long expectedVersion;
+	
+	/**
+	 * Constructor.
+	 * @param dataSet The data set
+	 * @param expectedVersion The version which the data set must have on the server
+	 */
+	PayloadRequestMessageUpdateDataSet(DataSet dataSet, long expectedVersion)
+	{
+		this.dataSet = dataSet;
+		this.expectedVersion = expectedVersion;
+	}
+	
+	/**
+	 * Get the data set.
+	 * @return The data set
+	 */
+	DataSet getDataSet()
+	{
+		return this.dataSet;
+	}
+	
+	/**
+	 * Get the version which the data set must have on the server.
+	 * @return The expected version
+	 */
+	long getExpectedVersion()
+	{
+		return this.expectedVersion;
+	}
+}
@@ -0,0 +1,94 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.util.ArrayList;
+
+/**
+ * Response message payload of a batch request. It contains one response for each request of the batch,
+ * in the order of the requests.
+ * @author spielwitz
+ *
+ */
+public class PayloadResponseMessageBatch extends PayloadMessageBase
+{
+	private ArrayList<ResponseMessage> responses;
+	
+	/**
+	 * Constructor.
+	 * @param responses The responses to the requests of the batch
+	 */
+	PayloadResponseMessageBatch(ArrayList<ResponseMessage> responses)
+	{
+		super();
+		this.responses = responses;
+	}
+	
+	/**
+	 * Get the response to a request of the batch.
+	 * @param <T> The class of the response payload
+	 * @param index The index of the request in the batch
+	 * @return The response
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Response<T> getResponse(int index)
+	{
+		ResponseMessage responseMessage = this.responses.get(index);
+		
+		return new Response<T>(
+				(T)responseMessage.getPayloadObject(),
+				responseMessage.getInfo());
+	}
+	
+	/**
+	 * Get the information about the response to a request of the batch.
+	 * @param index The index of the request in the batch
+	 * @return The information about the response
+	 */
+	public ResponseInfo getResponseInfo(int index)
+	{
+		return this.responses.get(index).getInfo();
+	}
+	
+	/**
+	 * Get the number of responses.
+	 * @return The number of responses
+	 */
+	public int size()
+	{
+		return this.responses.size();
+	}
+	
+	/**
+	 * Convert the text properties of the responses into messages in the language of the client.
+	 * @param request The batch request
+	 */
+	void setMessages(PayloadRequestMessageBatch request)
+	{
+		for (int i = 0; i < this.responses.size() && i < request.size(); i++)
+		{
+			ResponseMessage responseMessage = this.responses.get(i);
+			
+			if (responseMessage.getMessage() == null &&
+				request.getType(i) != RequestMessageType.CUSTOM)
+			{
+				responseMessage.setMessage(TextProperties.getMessageText(responseMessage.getTextProperty()));
+			}
+		}
+	}
+}
@@ -28,6 +28,35 @@ public class PayloadResponseMessageGetServerStatus extends PayloadMessageBase
 	private long logSizeBytes;
 	private LogLevel logLevel;
 	private String build;
+	private int workerThreadsActive;
+	private int workerThreadsMax;
+	private int requestsQueued;
+	private int requestsQueuedMax;
+	private long requestsRejected;
+	private long messagesCompressed;
+	private long messagesUncompressed;
+	private long bytesBeforeCompression;
+	private long bytesAfterCompression;
+	private long compressionMilliseconds;
+	private int sessionsCached;
+	private int sessionsMax;
+	private long sessionsExpired;
+	private long sessionsEvicted;
+	private int keyPairPoolSize;
+	private long keyPairsFromPool;
+	private long keyPairsGenerated;
+	private int dataSetsCached;
+	private int dataSetsCachedMax;
+	private long dataSetCacheBytes;
+	private long dataSetCacheHits;
+	private long dataSetCacheMisses;
+	private int dataSetSegments;
+	private long dataSetSegmentsBytes;
+	private long dataSetSegmentsLiveBytes;
+	private long dataSetSegmentsCompactions;
+	private int writeAheadLogPendingWrites;
+	private long writeAheadLogRecords;
+	private long writeAheadLogCommits;
 	
 	/**
 	 * Constructor.
@@ -49,6 +78,24 @@ public class PayloadResponseMessageGetServerStatus extends PayloadMessageBase
 		this.build = build;
 	}
 
+	/**
+	 * Get the number of bytes of the messages compressed by the server, after compression.
+	 * @return Number of bytes after compression
+	 */
+	public long getBytesAfterCompression()
+	{
+		return bytesAfterCompression;
+	}
+
+	/**
+	 * Get the number of bytes of the messages compressed by the server, before compression.
+	 * @return Number of bytes before compression
+	 */
+	public long getBytesBeforeCompression()
+	{
+		return bytesBeforeCompression;
+	}
+
 	/**
 	 * Get the build of the server.
 	 * @return Build of the server
@@ -58,6 +105,124 @@ public class PayloadResponseMessageGetServerStatus extends PayloadMessageBase
 		return build;
 	}
 
+	/**
+	 * Get the time which the server spent on compressing messages since it was started.
+	 * @return Compression time in milliseconds
+	 */
+	public long getCompressionMilliseconds()
+	{
+		return compressionMilliseconds;
+	}
+
+	/**
+	 * Get the estimated size of the data sets cached in memory.
+	 * @return Estimated size of the cached data sets in bytes
+	 */
+	public long getDataSetCacheBytes()
+	{
+		return dataSetCacheBytes;
+	}
+
+	/**
+	 * Get the number of data set reads which were served from the cache since the server was started.
+	 * @return Number of cache hits
+	 */
+	public long getDataSetCacheHits()
+	{
+		return dataSetCacheHits;
+	}
+
+	/**
+	 * Get the number of data set reads which were not served from the cache since the server was started.
+	 * @return Number of cache misses
+	 */
+	public long getDataSetCacheMisses()
+	{
+		return dataSetCacheMisses;
+	}
+
+	/**
+	 * Get the number of segment files if the data sets are stored in segments.
+	 * @return Number of segments
+	 */
+	public int getDataSetSegments()
+	{
+		return dataSetSegments;
+	}
+
+	/**
+	 * Get the total size of the segment files if the data sets are stored in segments.
+	 * @return Size of the segments in bytes
+	 */
+	public long getDataSetSegmentsBytes()
+	{
+		return dataSetSegmentsBytes;
+	}
+
+	/**
+	 * Get the number of segments which were compacted, because most of their data sets were outdated.
+	 * @return Number of compactions
+	 */
+	public long getDataSetSegmentsCompactions()
+	{
+		return dataSetSegmentsCompactions;
+	}
+
+	/**
+	 * Get the size of the current data set versions in the segment files.
+	 * @return Size of the current data sets in bytes
+	 */
+	public long getDataSetSegmentsLiveBytes()
+	{
+		return dataSetSegmentsLiveBytes;
+	}
+
+	/**
+	 * Get the number of data sets cached in memory.
+	 * @return Number of cached data sets
+	 */
+	public int getDataSetsCached()
+	{
+		return dataSetsCached;
+	}
+
+	/**
+	 * Get the maximum number of data sets cached in memory.
+	 * @return Maximum number of cached data sets
+	 */
+	public int getDataSetsCachedMax()
+	{
+		return dataSetsCachedMax;
+	}
+
+	/**
+	 * Get the number of key pairs per key agreement algorithm which the server generates ahead of time.
+	 * @return Size of the key pair pools
+	 */
+	public int getKeyPairPoolSize()
+	{
+		return keyPairPoolSize;
+	}
+
+	/**
+	 * Get the number of key pairs for new sessions which were taken from the key pair pools since the server was started.
+	 * @return Number of key pairs taken from the pools
+	 */
+	public long getKeyPairsFromPool()
+	{
+		return keyPairsFromPool;
+	}
+
+	/**
+	 * Get the number of key pairs for new sessions which were generated during the handshake since the server was started,
+	 * because the key pair pool was empty.
+	 * @return Number of key pairs generated during the handshake
+	 */
+	public long getKeyPairsGenerated()
+	{
+		return keyPairsGenerated;
+	}
+
 	/**
 	 * Get the log level.
 	 * @return Log level
@@ -76,6 +241,52 @@ public class PayloadResponseMessageGetServerStatus extends PayloadMessageBase
 		return logSizeBytes;
 	}
 
+	/**
+	 * Get the number of messages which the server compressed since it was started.
+	 * @return Number of compressed messages
+	 */
+	public long getMessagesCompressed()
+	{
+		return messagesCompressed;
+	}
+
+	/**
+	 * Get the number of messages which the server sent without compression since it was started,
+	 * because they were too short or did not shrink.
+	 * @return Number of uncompressed messages
+	 */
+	public long getMessagesUncompressed()
+	{
+		return messagesUncompressed;
+	}
+
+	/**
+	 * Get the number of requests waiting for a free worker thread.
+	 * @return Number of queued requests
+	 */
+	public int getRequestsQueued()
+	{
+		return requestsQueued;
+	}
+
+	/**
+	 * Get the maximum number of requests waiting for a free worker thread.
+	 * @return Maximum number of queued requests
+	 */
+	public int getRequestsQueuedMax()
+	{
+		return requestsQueuedMax;
+	}
+
+	/**
+	 * Get the number of requests which were rejected with "server busy" since the server was started.
+	 * @return Number of rejected requests
+	 */
+	public long getRequestsRejected()
+	{
+		return requestsRejected;
+	}
+
 	/**
 	 * Get the server start date.
 	 * @return Server start date
@@ -84,4 +295,223 @@ public class PayloadResponseMessageGetServerStatus extends PayloadMessageBase
 	{
 		return serverStartDate;
 	}
+
+	/**
+	 * Get the number of sessions which the server keeps in memory.
+	 * @return Number of sessions
+	 */
+	public int getSessionsCached()
+	{
+		return sessionsCached;
+	}
+
+	/**
+	 * Get the number of sessions which were dropped since the server was started, because the server 
+	 * kept the maximum number of sessions in memory.
+	 * @return Number of evicted sessions
+	 */
+	public long getSessionsEvicted()
+	{
+		return sessionsEvicted;
+	}
+
+	/**
+	 * Get the number of sessions which expired since the server was started.
+	 * @return Number of expired sessions
+	 */
+	public long getSessionsExpired()
+	{
+		return sessionsExpired;
+	}
+
+	/**
+	 * Get the maximum number of sessions which the server keeps in memory.
+	 * @return Maximum number of sessions
+	 */
+	public int getSessionsMax()
+	{
+		return sessionsMax;
+	}
+
+	/**
+	 * Get the number of worker threads currently processing requests.
+	 * @return Number of active worker threads
+	 */
+	public int getWorkerThreadsActive()
+	{
+		return workerThreadsActive;
+	}
+
+	/**
+	 * Get the maximum number of worker threads.
+	 * @return Maximum number of worker threads
+	 */
+	public int getWorkerThreadsMax()
+	{
+		return workerThreadsMax;
+	}
+
+	/**
+	 * Get the number of times the write-ahead log was forced to the disk. Every time, all records
+	 * which arrived in the meantime are forced together.
+	 * @return Number of group commits
+	 */
+	public long getWriteAheadLogCommits()
+	{
+		return writeAheadLogCommits;
+	}
+
+	/**
+	 * Get the number of data sets whose updates are in the write-ahead log, but not yet in their files.
+	 * @return Number of pending data set writes
+	 */
+	public int getWriteAheadLogPendingWrites()
+	{
+		return writeAheadLogPendingWrites;
+	}
+
+	/**
+	 * Get the number of records appended to the write-ahead log.
+	 * @return Number of logged records
+	 */
+	public long getWriteAheadLogRecords()
+	{
+		return writeAheadLogRecords;
+	}
+	
+	/**
+	 * Set the compression statistics of the server.
+	 * @param messagesCompressed Number of compressed messages
+	 * @param messagesUncompressed Number of uncompressed messages
+	 * @param bytesBeforeCompression Number of bytes before compression
+	 * @param bytesAfterCompression Number of bytes after compression
+	 * @param compressionMilliseconds Compression time in milliseconds
+	 */
+	void setCompressionStatus(
+			long messagesCompressed,
+			long messagesUncompressed,
+			long bytesBeforeCompression,
+			long bytesAfterCompression,
+			long compressionMilliseconds)
+	{
+		this.messagesCompressed = messagesCompressed;
+		this.messagesUncompressed = messagesUncompressed;
+		this.bytesBeforeCompression = bytesBeforeCompression;
+		this.bytesAfterCompression = bytesAfterCompression;
+		this.compressionMilliseconds = compressionMilliseconds;
+	}
+	
+	/**
+	 * Set the status of the data set cache.
+	 * @param dataSetsCached Number of cached data sets
+	 * @param dataSetsCachedMax Maximum number of cached data sets
+	 * @param dataSetCacheBytes Estimated size of the cached data sets in bytes
+	 * @param dataSetCacheHits Number of cache hits
+	 * @param dataSetCacheMisses Number of cache misses
+	 */
+	void setDataSetCacheStatus(
+			int dataSetsCached,
+			int dataSetsCachedMax,
+			long dataSetCacheBytes,
+			long dataSetCacheHits,
+			long dataSetCacheMisses)
+	{
+		this.dataSetsCached = dataSetsCached;
+		this.dataSetsCachedMax = dataSetsCachedMax;
+		this.dataSetCacheBytes = dataSetCacheBytes;
+		this.dataSetCacheHits = dataSetCacheHits;
+		this.dataSetCacheMisses = dataSetCacheMisses;
+	}
+	
+	/**
+	 * Set the status of the data set segments.
+	 * @param dataSetSegments Number of segments
+	 * @param dataSetSegmentsBytes Size of the segments in bytes
+	 * @param dataSetSegmentsLiveBytes Size of the current data sets in bytes
+	 * @param dataSetSegmentsCompactions Number of compactions
+	 */
+	void setDataSetSegmentsStatus(
+			int dataSetSegments,
+			long dataSetSegmentsBytes,
+			long dataSetSegmentsLiveBytes,
+			long dataSetSegmentsCompactions)
+	{
+		this.dataSetSegments = dataSetSegments;
+		this.dataSetSegmentsBytes = dataSetSegmentsBytes;
+		this.dataSetSegmentsLiveBytes = dataSetSegmentsLiveBytes;
+		this.dataSetSegmentsCompactions = dataSetSegmentsCompactions;
+	}
+	
+	/**
+	 * Set the status of the key pair pools.
+	 * @param keyPairPoolSize Size of the key pair pools
+	 * @param keyPairsFromPool Number of key pairs taken from the pools
+	 * @param keyPairsGenerated Number of key pairs generated during the handshake
+	 */
+	void setKeyPairPoolStatus(
+			int keyPairPoolSize,
+			long keyPairsFromPool,
+			long keyPairsGenerated)
+	{
+		this.keyPairPoolSize = keyPairPoolSize;
+		this.keyPairsFromPool = keyPairsFromPool;
+		this.keyPairsGenerated = keyPairsGenerated;
+	}
+	
+	/**
+	 * Set the status of the request executor.
+	 * @param workerThreadsActive Number of active worker threads
+	 * @param workerThreadsMax Maximum number of worker threads
+	 * @param requestsQueued Number of queued requests
+	 * @param requestsQueuedMax Maximum number of queued requests
+	 * @param requestsRejected Number of rejected requests
+	 */
+	void setRequestExecutorStatus(
+			int workerThreadsActive,
+			int workerThreadsMax,
+			int requestsQueued,
+			int requestsQueuedMax,
+			long requestsRejected)
+	{
+		this.workerThreadsActive = workerThreadsActive;
+		this.workerThreadsMax = workerThreadsMax;
+		this.requestsQueued = requestsQueued;
+		this.requestsQueuedMax = requestsQueuedMax;
+		this.requestsRejected = requestsRejected;
+	}
+	
+	/**
+	 * Set the status of the session cache.
+	 * @param sessionsCached Number of sessions
+	 * @param sessionsMax Maximum number of sessions
+	 * @param sessionsExpired Number of expired sessions
+	 * @param sessionsEvicted Number of evicted sessions
+	 */
+	void setSessionCacheStatus(
+			int sessionsCached,
+			int sessionsMax,
+			long sessionsExpired,
+			long sessionsEvicted)
+	{
+		this.sessionsCached = sessionsCached;
+		this.sessionsMax = sessionsMax;
+		this.sessionsExpired = sessionsExpired;
+		this.sessionsEvicted = sessionsEvicted;
+	}
+	
+	/**
+	 * Set the status of the write-ahead log.
+	 * @param writeAheadLogPendingWrites Number of pending data set writes
+	 * @param writeAheadLogRecords Number of logged records
+	 * @param writeAheadLogCommits Number of group commits
+	 */
+	void setWriteAheadLogStatus(
+			int writeAheadLogPendingWrites,
+			long writeAheadLogRecords,
+			long writeAheadLogCommits)
+	{
+		this.writeAheadLogPendingWrites = writeAheadLogPendingWrites;
+		this.writeAheadLogRecords = writeAheadLogRecords;
+		this.writeAheadLogCommits = writeAheadLogCommits;
+	}
 }
@@ -17,6 +17,8 @@
 
 package spielwitz.biDiServer;
 
+import java.util.ArrayList;
+
 /**
  * Response message payload for negotiating the token and session.
  * @author spielwitz
@@ -27,21 +29,25 @@ class PayloadResponseMessageUserId extends PayloadMessageBase
 	private String token;
 	private boolean sessionValid;
 	private ServerClientBuildCheckResult serverClientBuildCheck;
+	private ArrayList<ProtocolFeature> features;
 	
 	/**
 	 * Constructor.
 	 * @param token Token
 	 * @param sessionValid True, if the existing session is valid
 	 * @param ServerClientBuildCheckResult Result of the build compatibility check on server side
+	 * @param features Protocol features accepted by the server
 	 */
 	PayloadResponseMessageUserId(
 			String token, 
 			boolean sessionValid, 
-			ServerClientBuildCheckResult serverClientBuildCheck)
+			ServerClientBuildCheckResult serverClientBuildCheck,
+			ArrayList<ProtocolFeature> features)
 	{
 		this.token = token;
 		this.sessionValid = sessionValid;
 		this.serverClientBuildCheck = serverClientBuildCheck;
+		this.features = features;
 	}
 
 	/**
@@ -70,4 +76,13 @@ class PayloadResponseMessageUserId extends PayloadMessageBase
 	{
 		return serverClientBuildCheck;
 	}
+	
+	/**
+	 * Get the protocol features accepted by the server.
+	 * @return Protocol features accepted by the server. Never null
+	 */
+	ArrayList<ProtocolFeature> getFeatures()
+	{
+		return ProtocolFeature.normalize(features);
+	}
 }
@@ -0,0 +1,39 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+/**
+ * The way the server writes updated data sets to the disk.
+ * @author spielwitz
+ *
+ */
+public enum PersistenceMode
+{
+	/**
+	 * Mode "Synchronous". The server writes the file of a data set before it responds to the update.
+	 */
+	Synchronous,
+	
+	/**
+	 * Mode "WriteAheadLog". The server appends the update to a write-ahead log and responds as soon as 
+	 * the log is on the disk. Updates arriving at the same time are forced to the disk together. 
+	 * The files of the data sets are written in the background. If the server stops before, 
+	 * the log is replayed when the server starts again.
+	 */
+	WriteAheadLog
+}
@@ -0,0 +1,89 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.util.ArrayList;
+
+/**
+ * Optional protocol features which are negotiated between client and server when a connection is established.
+ * The client offers the features it supports, and the server returns the subset it accepts. Older servers
+ * ignore the offered features, so a client never uses a feature which was not confirmed by the server.
+ * @author spielwitz
+ *
+ */
+enum ProtocolFeature
+{
+	/**
+	 * AES encrypted messages are binary encoded instead of JSON text, see {@link BinaryMessageCodec}.
+	 * Received messages are recognized by their first byte, so that either side can still read JSON text.
+	 */
+	BINARY_MESSAGES,
+	
+	/**
+	 * AES encrypted messages start with a flag which tells whether the message is deflated. Short messages
+	 * and messages which do not shrink are sent uncompressed.
+	 */
+	FLAGGED_COMPRESSION,
+	
+	/**
+	 * The connection is kept open after the response has been sent, so that the client can send more requests
+	 * without a new handshake.
+	 */
+	KEEP_ALIVE,
+	
+	/**
+	 * The key of a new session is agreed on with X25519 instead of classic Diffie-Hellman.
+	 */
+	KEY_AGREEMENT_X25519,
+	
+	/**
+	 * Notifications on the notification socket are encrypted with the AES ciphers of the session which
+	 * opened the socket, instead of the RSA key of the user.
+	 */
+	NOTIFICATIONS_AES,
+	
+	/**
+	 * The client can resume its session on a new connection in one round trip. It proves that it holds the key 
+	 * of the session with a message authentication code and sends its request right away, without the RSA 
+	 * encrypted handshake.
+	 */
+	SESSION_RESUMPTION;
+	
+	/**
+	 * Remove features which are unknown to this build. Gson deserializes unknown enum values to null.
+	 * @param features The list of features as received from the other side
+	 * @return The list of known features. Never null
+	 */
+	static ArrayList<ProtocolFeature> normalize(ArrayList<ProtocolFeature> features)
+	{
+		ArrayList<ProtocolFeature> normalizedFeatures = new ArrayList<ProtocolFeature>();
+		
+		if (features != null)
+		{
+			for (ProtocolFeature feature: features)
+			{
+				if (feature != null && !normalizedFeatures.contains(feature))
+				{
+					normalizedFeatures.add(feature);
+				}
+			}
+		}
+		
+		return normalizedFeatures;
+	}
+}
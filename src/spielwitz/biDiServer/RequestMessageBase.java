@@ -17,6 +17,8 @@
 
 package spielwitz.biDiServer;
 
+import java.util.ArrayList;
+
 /**
  * The most simple request message, just to initiate connection between client and server.
  * @author spielwitz
@@ -26,6 +28,7 @@ class RequestMessageBase extends SerializableMessage
 {
 	private String sessionId;
 	private String clientBuild;
+	private ArrayList<ProtocolFeature> features;
 	
 	/**
 	 * Constructor.
@@ -48,6 +51,15 @@ class RequestMessageBase extends SerializableMessage
 		return clientBuild;
 	}
 	
+	/**
+	 * Get the protocol features offered by the client.
+	 * @return The protocol features offered by the client. Never null
+	 */
+	ArrayList<ProtocolFeature> getFeatures()
+	{
+		return ProtocolFeature.normalize(features);
+	}
+	
 	/**
 	 * Get the session ID.
 	 * @return The session ID
@@ -56,4 +68,13 @@ class RequestMessageBase extends SerializableMessage
 	{
 		return sessionId;
 	}
+	
+	/**
+	 * Set the protocol features offered by the client.
+	 * @param features The protocol features offered by the client
+	 */
+	void setFeatures(ArrayList<ProtocolFeature> features)
+	{
+		this.features = features;
+	}
 }
@@ -0,0 +1,84 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+/**
+ * The request message with which a client resumes an existing session without RSA encryption and without
+ * a key agreement. The message is AES encrypted with the ciphers of the session. The message authentication 
+ * code proves that the client holds the key of the session, and the sequence number prevents that the
+ * message is replayed.
+ * @author spielwitz
+ *
+ */
+class RequestMessageSessionResumption extends RequestMessageBase
+{
+	private long sequenceNumber;
+	private String token;
+	private String mac;
+	
+	/**
+	 * Constructor.
+	 * @param sessionId Session ID
+	 * @param clientBuild Client build
+	 * @param payload Message payload with the user ID
+	 * @param sequenceNumber Sequence number of the session resumption
+	 * @param token Token for the requests on the resumed connection
+	 * @param mac Message authentication code
+	 */
+	RequestMessageSessionResumption(
+			String sessionId, 
+			String clientBuild, 
+			Payload payload, 
+			long sequenceNumber, 
+			String token, 
+			String mac)
+	{
+		super(sessionId, clientBuild, payload);
+		this.sequenceNumber = sequenceNumber;
+		this.token = token;
+		this.mac = mac;
+	}
+	
+	/**
+	 * Get the message authentication code.
+	 * @return The message authentication code
+	 */
+	String getMac()
+	{
+		return mac;
+	}
+	
+	/**
+	 * Get the sequence number of the session resumption.
+	 * @return The sequence number
+	 */
+	long getSequenceNumber()
+	{
+		return sequenceNumber;
+	}
+	
+	/**
+	 * Get the token for the requests on the resumed connection.
+	 * @return The token
+	 */
+	String getToken()
+	{
+		return token;
+	}
+}
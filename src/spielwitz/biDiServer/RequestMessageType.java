@@ -43,6 +43,8 @@ enum RequestMessageType
 	PUSH_NOTIFICATION,
 	PUSH_NOTIFICATION_RECEIVED,
 	DISCONNECT,
+	BATCH,
+	PATCH_DATA_SET,
 	
 	CUSTOM
 }
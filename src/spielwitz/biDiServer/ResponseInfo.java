@@ -29,6 +29,7 @@ public class ResponseInfo
 	private boolean success;
 	private String message;
 	private String serverBuild;
+	private boolean notModified;
 	
 	/**
 	 * Constructor.
@@ -66,6 +67,15 @@ public class ResponseInfo
 		return serverBuild;
 	}
 	
+	/**
+	 * True, if the client already has the current version of the requested data set. In this case,
+	 * the response contains no data set.
+	 * @return True, if the data set was not modified
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+	
 	/**
 	 * True, if the request was successful.
 	 * @return True, if the request was successful
@@ -97,4 +107,8 @@ public class ResponseInfo
 	{
 		return new Gson().toJson(this);
 	}
+	
+	void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
 }
@@ -0,0 +1,816 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A data set store which appends the data sets to a few large segment files instead of writing a file
+ * per data set. An index in memory points to the latest record of every data set. A deleted data set
+ * gets a tombstone record.
+ * <p>
+ * Records are never changed. When less than half of the records of a segment are current, a background thread
+ * copies the current records to the newest segment and deletes the segment (compaction).
+ * When the store is opened, the index is rebuilt by reading all segments in order; an incomplete or 
+ * damaged record at the end of the newest segment is cut off.
+ * <p>
+ * A record consists of the length of its content, its type, its content, and a CRC32 checksum. 
+ * The content is the data set ID, followed by the GZIP compressed JSON string of the data set.
+ * @author spielwitz
+ *
+ */
+public class SegmentedDataSetStore implements DataSetStore
+{
+	private static final String SEGMENT_FILE_EXTENSION = ".seg";
+	private static final byte RECORD_TYPE_PUT = 1;
+	private static final byte RECORD_TYPE_DELETE = 2;
+	private static final int RECORD_HEADER_LENGTH = 5;
+	private static final int RECORD_TRAILER_LENGTH = 4;
+	private static final long SEGMENT_MAX_BYTES = 16 * 1024 * 1024;
+	private static final int COMPACTION_MIN_LIVE_PERCENT = 50;
+	private static final int COMPACTION_INTERVAL_MILLISECONDS = 10000;
+	private static final int STREAM_BUFFER_SIZE = 65536;
+	
+	/**
+	 * Delete all segments of a store which is no longer used.
+	 * @param folder The folder of the segments
+	 * @throws IOException
+	 */
+	static void deleteSegments(File folder) throws IOException
+	{
+		for (File file: listSegmentFiles(folder))
+		{
+			Files.delete(file.toPath());
+		}
+	}
+	
+	/**
+	 * Check if a folder contains segments.
+	 * @param folder The folder of the segments
+	 * @return True, if the folder contains segments
+	 */
+	static boolean hasSegments(File folder)
+	{
+		return listSegmentFiles(folder).length > 0;
+	}
+	
+	private static int getChecksum(byte[] record)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(record, RECORD_HEADER_LENGTH - 1, record.length - RECORD_HEADER_LENGTH - RECORD_TRAILER_LENGTH + 1);
+		
+		return (int) crc.getValue();
+	}
+	
+	private static long getSegmentNumber(File file)
+	{
+		String name = file.getName();
+		
+		try
+		{
+			return Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()));
+		}
+		catch (NumberFormatException x)
+		{
+			return -1;
+		}
+	}
+	
+	/**
+	 * Check the checksum of a record. A damaged record is skipped, because its length tells where the next record starts.
+	 */
+	private static boolean isRecordIntact(byte[] record)
+	{
+		return ByteBuffer.wrap(record).getInt(record.length - RECORD_TRAILER_LENGTH) == getChecksum(record);
+	}
+	
+	private static File[] listSegmentFiles(File folder)
+	{
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(SEGMENT_FILE_EXTENSION));
+		
+		if (files == null)
+		{
+			return new File[0];
+		}
+		
+		Arrays.sort(files, (file1, file2) -> Long.compare(getSegmentNumber(file1), getSegmentNumber(file2)));
+		
+		return files;
+	}
+	
+	private static byte[] newRecord(byte type, String id, byte[] data) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeInt(0);
+		out.writeByte(type);
+		out.writeUTF(id);
+		
+		if (data != null)
+		{
+			out.write(data);
+		}
+		
+		out.writeInt(0);
+		out.close();
+		
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		record.putInt(0, record.capacity() - RECORD_HEADER_LENGTH - RECORD_TRAILER_LENGTH);
+		record.putInt(record.capacity() - RECORD_TRAILER_LENGTH, getChecksum(record.array()));
+		
+		return record.array();
+	}
+	
+	/**
+	 * Read the next record of a segment. The checksum is not checked.
+	 * @return The record, or null if there is no complete record
+	 */
+	private static byte[] readRecord(DataInputStream in, long bytesRemaining) throws IOException
+	{
+		if (bytesRemaining < RECORD_HEADER_LENGTH + RECORD_TRAILER_LENGTH)
+		{
+			return null;
+		}
+		
+		try
+		{
+			int length = in.readInt();
+			
+			if (length < 0 || length > bytesRemaining - RECORD_HEADER_LENGTH - RECORD_TRAILER_LENGTH)
+			{
+				return null;
+			}
+			
+			byte[] record = new byte[RECORD_HEADER_LENGTH + length + RECORD_TRAILER_LENGTH];
+			ByteBuffer.wrap(record).putInt(length);
+			in.readFully(record, 4, record.length - 4);
+			
+			return record;
+		}
+		catch (EOFException x)
+		{
+			return null;
+		}
+	}
+	
+	private static String readRecordId(byte[] record) throws IOException
+	{
+		return new DataInputStream(
+				new ByteArrayInputStream(record, RECORD_HEADER_LENGTH, record.length - RECORD_HEADER_LENGTH)).readUTF();
+	}
+	
+	private static String segmentFileName(long segmentNumber)
+	{
+		return String.format("%016d%s", segmentNumber, SEGMENT_FILE_EXTENSION);
+	}
+	
+	private File folder;
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private HashMap<String, RecordLocation> index = new HashMap<String, RecordLocation>();
+	private TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+	private Segment activeSegment;
+	private long compactions;
+	private Object lockObject = new Object();
+	private volatile boolean closed;
+	
+	/**
+	 * Open the store, rebuild its index, and start the compaction thread.
+	 * @param folder The folder of the segments
+	 * @throws IOException
+	 */
+	public SegmentedDataSetStore(File folder) throws IOException
+	{
+		this.folder = folder;
+		
+		File[] files = listSegmentFiles(folder);
+		
+		try
+		{
+			for (int i = 0; i < files.length; i++)
+			{
+				this.recoverSegment(files[i], i == files.length - 1);
+			}
+		}
+		catch (IOException x)
+		{
+			for (Segment segment: this.segments.values())
+			{
+				segment.channel.close();
+			}
+			
+			throw x;
+		}
+		
+		this.openActiveSegment(
+				files.length > 0 ?
+						getSegmentNumber(files[files.length - 1]) + 1 :
+						1);
+		
+		Thread compactionThread = new CompactionThread();
+		compactionThread.setDaemon(true);
+		compactionThread.start();
+	}
+	
+	/**
+	 * Stop the compaction thread, force the newest segment to disk, and close all segments.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (this.lockObject)
+		{
+			this.closed = true;
+			this.lockObject.notifyAll();
+		}
+		
+		this.lock.writeLock().lock();
+		
+		try
+		{
+			this.activeSegment.channel.force(false);
+		}
+		catch (IOException x)
+		{
+		}
+		finally
+		{
+			for (Segment segment: this.segments.values())
+			{
+				try
+				{
+					segment.channel.close();
+				}
+				catch (IOException x)
+				{
+				}
+			}
+			
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public void delete(String id) throws IOException
+	{
+		byte[] record = newRecord(RECORD_TYPE_DELETE, id, null);
+		
+		this.lock.writeLock().lock();
+		
+		try
+		{
+			if (this.index.containsKey(id))
+			{
+				this.append(id, record, false);
+			}
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public DataSet get(String id) throws IOException
+	{
+		byte[] record = null;
+		
+		this.lock.readLock().lock();
+		
+		try
+		{
+			RecordLocation location = this.index.get(id);
+			
+			if (location == null)
+			{
+				return null;
+			}
+			
+			record = new byte[location.length];
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			
+			while (buffer.hasRemaining())
+			{
+				if (location.segment.channel.read(buffer, location.offset + buffer.position()) < 0)
+				{
+					throw new EOFException();
+				}
+			}
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+		
+		DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(
+						record, 
+						RECORD_HEADER_LENGTH, 
+						record.length - RECORD_HEADER_LENGTH - RECORD_TRAILER_LENGTH));
+		in.readUTF();
+		
+		try (InputStream zipin = new GZIPInputStream(in))
+		{
+			ByteArrayOutputStream json = new ByteArrayOutputStream();
+			byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+			int bytesRead;
+			
+			while ((bytesRead = zipin.read(buffer)) > 0)
+			{
+				json.write(buffer, 0, bytesRead);
+			}
+			
+			return DataSet.deserializeFromFile(new String(json.toByteArray(), StandardCharsets.UTF_8));
+		}
+	}
+	
+	@Override
+	public void loadAll(DataSetConsumer consumer) throws IOException
+	{
+		for (String id: this.getIds())
+		{
+			DataSet dataSet = this.get(id);
+			
+			if (dataSet != null)
+			{
+				consumer.accept(dataSet);
+			}
+		}
+	}
+	
+	@Override
+	public void put(DataSet dataSet) throws IOException
+	{
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		
+		try (GZIPOutputStream zipout = new GZIPOutputStream(data))
+		{
+			zipout.write(dataSet.serializeForFile().getBytes(StandardCharsets.UTF_8));
+		}
+		
+		byte[] record = newRecord(RECORD_TYPE_PUT, dataSet.getId(), data.toByteArray());
+		
+		this.lock.writeLock().lock();
+		
+		try
+		{
+			this.append(dataSet.getId(), record, true);
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public void sync() throws IOException
+	{
+		this.lock.readLock().lock();
+		
+		try
+		{
+			this.activeSegment.channel.force(false);
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Compact the segments, except the newest one, in which less than half of the records are current.
+	 * The compaction thread calls it regularly.
+	 */
+	void compactSegments()
+	{
+		ArrayList<Segment> segmentsToCompact = new ArrayList<Segment>();
+		
+		this.lock.readLock().lock();
+		
+		try
+		{
+			for (Segment segment: this.segments.values())
+			{
+				if (segment != this.activeSegment && 
+					(segment.size == 0 || segment.liveBytes * 100 < segment.size * COMPACTION_MIN_LIVE_PERCENT))
+				{
+					segmentsToCompact.add(segment);
+				}
+			}
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+		
+		for (Segment segment: segmentsToCompact)
+		{
+			if (this.closed)
+			{
+				break;
+			}
+			
+			try
+			{
+				this.compact(segment);
+			}
+			catch (IOException x)
+			{
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Get the total size of all segments.
+	 * @return The size of all segments in bytes
+	 */
+	long getBytes()
+	{
+		this.lock.readLock().lock();
+		
+		try
+		{
+			long bytes = 0;
+			
+			for (Segment segment: this.segments.values())
+			{
+				bytes += segment.size;
+			}
+			
+			return bytes;
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the number of compacted segments.
+	 * @return The number of compactions
+	 */
+	long getCompactions()
+	{
+		this.lock.readLock().lock();
+		
+		try
+		{
+			return this.compactions;
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the IDs of all data sets.
+	 * @return The data set IDs
+	 */
+	ArrayList<String> getIds()
+	{
+		this.lock.readLock().lock();
+		
+		try
+		{
+			return new ArrayList<String>(this.index.keySet());
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the size of the current records of all data sets.
+	 * @return The size of the current records in bytes
+	 */
+	long getLiveBytes()
+	{
+		this.lock.readLock().lock();
+		
+		try
+		{
+			long liveBytes = 0;
+			
+			for (Segment segment: this.segments.values())
+			{
+				liveBytes += segment.liveBytes;
+			}
+			
+			return liveBytes;
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the number of segments.
+	 * @return The number of segments
+	 */
+	int getSegments()
+	{
+		this.lock.readLock().lock();
+		
+		try
+		{
+			return this.segments.size();
+		}
+		finally
+		{
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Append a record to the newest segment and update the index. Call it while holding the write lock.
+	 */
+	private void append(String id, byte[] record, boolean isCurrent) throws IOException
+	{
+		if (this.activeSegment.size > 0 && this.activeSegment.size + record.length > SEGMENT_MAX_BYTES)
+		{
+			this.activeSegment.channel.force(false);
+			this.openActiveSegment(this.activeSegment.number + 1);
+		}
+		
+		Segment segment = this.activeSegment;
+		long offset = segment.size;
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		
+		while (buffer.hasRemaining())
+		{
+			segment.channel.write(buffer, offset + buffer.position());
+		}
+		
+		segment.size += record.length;
+		
+		this.updateIndex(id, isCurrent ? new RecordLocation(segment, offset, record.length) : null);
+	}
+	
+	/**
+	 * Copy the current records of a segment to the newest segment, and delete the segment.
+	 */
+	private void compact(Segment segment) throws IOException
+	{
+		long offset = 0;
+		
+		try (DataInputStream in = new DataInputStream(
+										new BufferedInputStream(
+												new FileInputStream(segment.file), 
+												STREAM_BUFFER_SIZE)))
+		{
+			byte[] record;
+			
+			while ((record = readRecord(in, segment.size - offset)) != null)
+			{
+				if (!isRecordIntact(record))
+				{
+					offset += record.length;
+					continue;
+				}
+				
+				String id = readRecordId(record);
+				
+				this.lock.writeLock().lock();
+				
+				try
+				{
+					RecordLocation location = this.index.get(id);
+					
+					if (record[RECORD_HEADER_LENGTH - 1] == RECORD_TYPE_PUT)
+					{
+						if (location != null && location.segment == segment && location.offset == offset)
+						{
+							this.append(id, record, true);
+						}
+					}
+					else if (location == null && segment != this.segments.firstEntry().getValue())
+					{
+						// An older segment may still contain a record of the deleted data set
+						this.append(id, record, false);
+					}
+				}
+				finally
+				{
+					this.lock.writeLock().unlock();
+				}
+				
+				offset += record.length;
+			}
+		}
+		
+		if (offset < segment.size)
+		{
+			// The segment must not be deleted before all its records were copied
+			throw new IOException(TextProperties.getMessageText(
+					TextProperties.SegmentDamaged(segment.file.getPath(), Long.toString(offset))));
+		}
+		
+		this.lock.writeLock().lock();
+		
+		try
+		{
+			// The copies must be on the disk before the originals are gone
+			this.activeSegment.channel.force(false);
+			this.segments.remove(segment.number);
+			segment.channel.close();
+			this.compactions++;
+		}
+		finally
+		{
+			this.lock.writeLock().unlock();
+		}
+		
+		Files.delete(segment.file.toPath());
+	}
+	
+	private void openActiveSegment(long segmentNumber) throws IOException
+	{
+		File file = new File(this.folder, segmentFileName(segmentNumber));
+		
+		this.activeSegment = new Segment(
+				segmentNumber, 
+				file, 
+				FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		
+		this.segments.put(segmentNumber, this.activeSegment);
+	}
+	
+	private void recoverSegment(File file, boolean newest) throws IOException
+	{
+		Segment segment = new Segment(
+				getSegmentNumber(file), 
+				file, 
+				FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+		
+		long fileSize = segment.channel.size();
+		
+		this.segments.put(segment.number, segment);
+		
+		try (DataInputStream in = new DataInputStream(
+										new BufferedInputStream(
+												new FileInputStream(file), 
+												STREAM_BUFFER_SIZE)))
+		{
+			byte[] record;
+			
+			while ((record = readRecord(in, fileSize - segment.size)) != null)
+			{
+				// Damaged records are skipped and removed by the next compaction
+				if (isRecordIntact(record))
+				{
+					this.updateIndex(
+							readRecordId(record), 
+							record[RECORD_HEADER_LENGTH - 1] == RECORD_TYPE_PUT ?
+									new RecordLocation(segment, segment.size, record.length) :
+									null);
+				}
+				
+				segment.size += record.length;
+			}
+		}
+		
+		if (segment.size < fileSize)
+		{
+			if (newest)
+			{
+				// An incomplete record was written when the server stopped
+				segment.channel.truncate(segment.size);
+			}
+			else
+			{
+				// Without the length of the damaged record, the records after it cannot be found. Newer versions 
+				// of data sets might be among them, so the segment cannot be used.
+				throw new IOException(TextProperties.getMessageText(
+						TextProperties.SegmentDamaged(file.getPath(), Long.toString(segment.size))));
+			}
+		}
+	}
+	
+	/**
+	 * Point the index to the latest record of a data set. Call it while holding the write lock.
+	 * @param location The location of the record, or null if the data set was deleted
+	 */
+	private void updateIndex(String id, RecordLocation location)
+	{
+		RecordLocation previousLocation = location != null ?
+				this.index.put(id, location) :
+				this.index.remove(id);
+		
+		if (previousLocation != null)
+		{
+			previousLocation.segment.liveBytes -= previousLocation.length;
+		}
+		
+		if (location != null)
+		{
+			location.segment.liveBytes += location.length;
+		}
+	}
+	
+	// ==============
+	
+	private class CompactionThread extends Thread
+	{
+		public void run()
+		{
+			do
+			{
+				synchronized (lockObject)
+				{
+					try
+					{
+						lockObject.wait(COMPACTION_INTERVAL_MILLISECONDS);
+					}
+					catch (InterruptedException e)
+					{
+						break;
+					}
+					
+					if (closed)
+					{
+						break;
+					}
+				}
+				
+				compactSegments();
+				
+			} while (true);
+		}
+	}
+	
+	// ==============
+	
+	private static class RecordLocation
+	{
+		private Segment segment;
+		private long offset;
+		private int length;
+		
+		private RecordLocation(Segment segment, long offset, int length)
+		{
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
+	// ==============
+	
+	private static class Segment
+	{
+		private long number;
+		private File file;
+		private FileChannel channel;
+		private long size;
+		private long liveBytes;
+		
+		private Segment(long number, File file, FileChannel channel)
+		{
+			this.number = number;
+			this.file = file;
+			this.channel = channel;
+		}
+	}
+}
@@ -0,0 +1,559 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An I/O loop which multiplexes client connections on one selector thread. The loop accepts new
+ * connections, and it watches connections which are idle: kept-alive request connections waiting for 
+ * the next request, and notification connections waiting for the next notification to be pushed.
+ * <p>
+ * Request processing itself is not done by the loop. As soon as a kept-alive connection becomes readable,
+ * the connection is removed from the selector, switched back to blocking mode, and handed over to the 
+ * listener, which processes the request on a worker thread and parks the connection again afterwards.
+ * </p>
+ * @author spielwitz
+ *
+ */
+class SelectorLoop implements Runnable
+{
+	private static final long SELECT_TIMEOUT_MILLISECONDS = 1000;
+	private static final int READ_BUFFER_SIZE = 256;
+	private static final int PUSH_QUEUE_MAX_BYTES = 1024 * 1024;
+	
+	private Selector selector;
+	private SelectorLoopListener listener;
+	private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private ArrayList<Connection> connectionsToHandOver = new ArrayList<Connection>();
+	private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private volatile boolean closed;
+	
+	/**
+	 * Constructor.
+	 * @param listener Listener which is called when connections are accepted, become readable, or are closed
+	 * @throws IOException
+	 */
+	SelectorLoop(SelectorLoopListener listener) throws IOException
+	{
+		this.selector = Selector.open();
+		this.listener = listener;
+	}
+	
+	/**
+	 * Accept new connections on a server socket channel.
+	 * @param serverChannel The server socket channel
+	 */
+	void accept(final ServerSocketChannel serverChannel)
+	{
+		this.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					serverChannel.configureBlocking(false);
+					serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				}
+				catch (IOException x)
+				{
+					close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Stop the loop and close all connections managed by the loop.
+	 */
+	void close()
+	{
+		this.closed = true;
+		this.selector.wakeup();
+	}
+	
+	/**
+	 * Get the number of connections currently managed by the loop.
+	 * @return The number of connections
+	 */
+	int getConnectionCount()
+	{
+		try
+		{
+			return this.selector.keys().size();
+		}
+		catch (ClosedSelectorException x)
+		{
+			return 0;
+		}
+	}
+	
+	/**
+	 * Park an idle connection until the client sends the next request. The connection is switched to non-blocking mode.
+	 * @param channel The connection
+	 * @param attachment Object which is passed to the listener when the connection becomes readable
+	 * @param maxIdleMilliseconds Time after which the connection is closed if the client does not send anything
+	 * @param closingBytes Bytes which are sent to the client when the loop closes the idle connection, or null
+	 */
+	void park(SocketChannel channel, Object attachment, long maxIdleMilliseconds, byte[] closingBytes)
+	{
+		Connection connection = new Connection(channel, attachment, maxIdleMilliseconds, false);
+		connection.closingBytes = closingBytes;
+		this.register(connection);
+	}
+	
+	/**
+	 * Register a connection through which the server pushes data to the client. The connection is switched to non-blocking mode.
+	 * @param channel The connection
+	 * @param attachment Object which is passed to the listener when the client closes the connection
+	 * @return Handle to send data through the connection
+	 */
+	PushConnection registerPushConnection(SocketChannel channel, Object attachment)
+	{
+		Connection connection = new Connection(channel, attachment, 0, true);
+		this.register(connection);
+		return new PushConnection(connection);
+	}
+	
+	public void run()
+	{
+		while (!this.closed)
+		{
+			try
+			{
+				this.selector.select(SELECT_TIMEOUT_MILLISECONDS);
+				
+				this.runTasks();
+				this.processSelectedKeys();
+				this.handOverConnections();
+				this.closeIdleConnections();
+			}
+			catch (ClosedSelectorException x)
+			{
+				break;
+			}
+			catch (IOException x)
+			{
+				break;
+			}
+		}
+		
+		this.closeAll();
+	}
+	
+	private void closeAll()
+	{
+		try
+		{
+			for (SelectionKey key: this.selector.keys())
+			{
+				closeChannel(key);
+			}
+			
+			this.selector.close();
+		}
+		catch (Exception x)
+		{
+		}
+	}
+	
+	private void closeChannel(SelectionKey key)
+	{
+		key.cancel();
+		
+		Connection connection = (Connection)key.attachment();
+		
+		try
+		{
+			if (connection != null && connection.closingBytes != null)
+			{
+				// The few bytes fit into the empty send buffer of an idle connection
+				((SocketChannel)key.channel()).write(ByteBuffer.wrap(connection.closingBytes));
+			}
+		}
+		catch (IOException x)
+		{
+		}
+		
+		try
+		{
+			key.channel().close();
+		}
+		catch (IOException x)
+		{
+		}
+		
+		if (connection != null)
+		{
+			connection.closed = true;
+			this.listener.onConnectionClosed(connection.attachment);
+		}
+	}
+	
+	private void closeIdleConnections()
+	{
+		long timeNow = System.currentTimeMillis();
+		
+		for (SelectionKey key: this.selector.keys())
+		{
+			Connection connection = (Connection)key.attachment();
+			
+			if (connection != null &&
+				connection.maxIdleMilliseconds > 0 &&
+				timeNow - connection.lastActivity > connection.maxIdleMilliseconds)
+			{
+				this.closeChannel(key);
+			}
+		}
+	}
+	
+	private void execute(Runnable task)
+	{
+		this.tasks.add(task);
+		this.selector.wakeup();
+	}
+	
+	private void handOverConnections() throws IOException
+	{
+		while (this.connectionsToHandOver.size() > 0)
+		{
+			ArrayList<Connection> connections = new ArrayList<Connection>(this.connectionsToHandOver);
+			this.connectionsToHandOver.clear();
+			
+			// The keys of the connections have been cancelled. They are deregistered from the
+			// selector with the next selection operation. Only then the channels can be switched
+			// back to blocking mode.
+			this.selector.selectNow();
+			
+			for (Connection connection: connections)
+			{
+				try
+				{
+					connection.channel.configureBlocking(true);
+					this.listener.onConnectionReadable(connection.channel, connection.attachment);
+				}
+				catch (IOException x)
+				{
+					try
+					{
+						connection.channel.close();
+					}
+					catch (IOException e)
+					{
+					}
+					
+					this.listener.onConnectionClosed(connection.attachment);
+				}
+			}
+			
+			this.processSelectedKeys();
+		}
+	}
+	
+	private void processSelectedKeys()
+	{
+		Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+		
+		while (iterator.hasNext())
+		{
+			SelectionKey key = iterator.next();
+			iterator.remove();
+			
+			try
+			{
+				if (!key.isValid())
+				{
+					continue;
+				}
+				
+				if (key.isAcceptable())
+				{
+					this.processSelectedKeyAccept(key);
+				}
+				else if (((Connection)key.attachment()).push)
+				{
+					this.processSelectedKeyPush(key);
+				}
+				else if (key.isReadable())
+				{
+					key.cancel();
+					this.connectionsToHandOver.add((Connection)key.attachment());
+				}
+			}
+			catch (CancelledKeyException x)
+			{
+			}
+		}
+	}
+	
+	private void processSelectedKeyAccept(SelectionKey key)
+	{
+		ServerSocketChannel serverChannel = (ServerSocketChannel)key.channel();
+		
+		try
+		{
+			SocketChannel channel = serverChannel.accept();
+			
+			while (channel != null)
+			{
+				this.listener.onConnectionAccepted(channel);
+				channel = serverChannel.accept();
+			}
+		}
+		catch (IOException x)
+		{
+			if (!serverChannel.isOpen())
+			{
+				this.close();
+			}
+		}
+	}
+	
+	private void processSelectedKeyPush(SelectionKey key)
+	{
+		Connection connection = (Connection)key.attachment();
+		SocketChannel channel = (SocketChannel)key.channel();
+		
+		try
+		{
+			if (key.isReadable())
+			{
+				// The client never sends anything through a push connection. Reading is only 
+				// used to detect that the client closed the connection.
+				this.readBuffer.clear();
+				
+				if (channel.read(this.readBuffer) < 0)
+				{
+					this.closeChannel(key);
+					return;
+				}
+			}
+			
+			if (key.isValid() && key.isWritable())
+			{
+				synchronized(connection.pushQueue)
+				{
+					while (!connection.pushQueue.isEmpty())
+					{
+						ByteBuffer buffer = connection.pushQueue.getFirst();
+						int bytesWritten = channel.write(buffer);
+						connection.pushQueueBytes -= bytesWritten;
+						
+						if (buffer.hasRemaining())
+						{
+							break;
+						}
+						
+						connection.pushQueue.removeFirst();
+					}
+					
+					if (connection.pushQueue.isEmpty())
+					{
+						key.interestOps(SelectionKey.OP_READ);
+					}
+				}
+			}
+		}
+		catch (IOException x)
+		{
+			this.closeChannel(key);
+		}
+	}
+	
+	private void register(final Connection connection)
+	{
+		this.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					connection.channel.configureBlocking(false);
+					connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+					
+					synchronized(connection.pushQueue)
+					{
+						if (connection.closed)
+						{
+							closeChannel(connection.key);
+						}
+						else if (!connection.pushQueue.isEmpty())
+						{
+							connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						}
+					}
+				}
+				catch (Exception x)
+				{
+					try
+					{
+						connection.channel.close();
+					}
+					catch (IOException e)
+					{
+					}
+					
+					listener.onConnectionClosed(connection.attachment);
+				}
+			}
+		});
+	}
+	
+	private void runTasks()
+	{
+		Runnable task = this.tasks.poll();
+		
+		while (task != null)
+		{
+			task.run();
+			task = this.tasks.poll();
+		}
+	}
+	
+	// ==============================================
+	
+	/**
+	 * Handle to push data to the client through a connection managed by a selector loop.
+	 */
+	class PushConnection
+	{
+		private Connection connection;
+		
+		private PushConnection(Connection connection)
+		{
+			this.connection = connection;
+		}
+		
+		/**
+		 * Close the connection.
+		 */
+		void close()
+		{
+			synchronized(this.connection.pushQueue)
+			{
+				this.connection.closed = true;
+			}
+			
+			execute(new Runnable()
+			{
+				public void run()
+				{
+					if (connection.key != null && connection.key.isValid())
+					{
+						connection.key.cancel();
+					}
+					
+					try
+					{
+						connection.channel.close();
+					}
+					catch (IOException x)
+					{
+					}
+				}
+			});
+		}
+		
+		/**
+		 * True, if the connection is open.
+		 * @return True, if the connection is open
+		 */
+		boolean isOpen()
+		{
+			return !this.connection.closed;
+		}
+		
+		/**
+		 * Send data to the client. The data is queued and written as soon as the client can receive it.
+		 * If the client does not consume its data, the connection is closed.
+		 * @param bytes The data
+		 */
+		void send(byte[] bytes)
+		{
+			synchronized(this.connection.pushQueue)
+			{
+				if (this.connection.closed)
+				{
+					return;
+				}
+				
+				if (this.connection.pushQueueBytes + bytes.length > PUSH_QUEUE_MAX_BYTES)
+				{
+					this.close();
+					return;
+				}
+				
+				this.connection.pushQueue.add(ByteBuffer.wrap(bytes));
+				this.connection.pushQueueBytes += bytes.length;
+			}
+			
+			execute(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						if (connection.key != null && connection.key.isValid())
+						{
+							connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						}
+					}
+					catch (CancelledKeyException x)
+					{
+					}
+				}
+			});
+		}
+	}
+	
+	// ==============================================
+	
+	private static class Connection
+	{
+		private SocketChannel channel;
+		private Object attachment;
+		private long maxIdleMilliseconds;
+		private long lastActivity;
+		private boolean push;
+		private byte[] closingBytes;
+		private volatile boolean closed;
+		private SelectionKey key;
+		private LinkedList<ByteBuffer> pushQueue = new LinkedList<ByteBuffer>();
+		private int pushQueueBytes;
+		
+		private Connection(SocketChannel channel, Object attachment, long maxIdleMilliseconds, boolean push)
+		{
+			this.channel = channel;
+			this.attachment = attachment;
+			this.maxIdleMilliseconds = maxIdleMilliseconds;
+			this.push = push;
+			this.lastActivity = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Callbacks of a selector loop. The callbacks are executed on the thread of the selector loop 
+ * and must therefore return quickly.
+ * @author spielwitz
+ *
+ */
+interface SelectorLoopListener
+{
+	/**
+	 * A new connection was accepted. The connection is in blocking mode.
+	 * @param channel The connection
+	 */
+	void onConnectionAccepted(SocketChannel channel);
+	
+	/**
+	 * A connection was closed by the client, it timed out, or it failed.
+	 * @param attachment The object attached to the connection when it was registered
+	 */
+	void onConnectionClosed(Object attachment);
+	
+	/**
+	 * A parked connection received data. The connection was removed from the selector and is in blocking mode again.
+	 * @param channel The connection
+	 * @param attachment The object attached to the connection when it was parked
+	 */
+	void onConnectionReadable(SocketChannel channel, Object attachment);
+}
@@ -17,9 +17,21 @@
 
 package spielwitz.biDiServer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * The base class for request and response messages.
@@ -40,16 +52,101 @@ abstract class SerializableMessage
 	 */
 	static SerializableMessage deserialize(String json)
 	{
-		JsonObject jsonObject = serializer.fromJson(json, JsonObject.class);
+		try
+		{
+			return deserialize(new StringReader(json));
+		}
+		catch (IOException x)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Deserialize a message while it is read from a stream. If the class name precedes the message object,
+	 * as written by {@link #serialize(Writer)}, the message object is deserialized directly from the stream.
+	 * Otherwise, the message object is parsed into a JSON tree first.
+	 * @param reader The reader
+	 * @return The message, or null if the message cannot be deserialized
+	 * @throws IOException
+	 */
+	static SerializableMessage deserialize(Reader reader) throws IOException
+	{
+		JsonReader jsonReader = serializer.newJsonReader(reader);
 		
-		String className = jsonObject.get(PROPERTY_CLASS_NAME).getAsString();
-		JsonElement jsonElementObject = jsonObject.get(PROPERTY_OBJECT);
+		try
+		{
+			String className = null;
+			JsonElement jsonElementObject = null;
+			SerializableMessage message = null;
+			
+			jsonReader.beginObject();
+			
+			while (jsonReader.hasNext())
+			{
+				String name = jsonReader.nextName();
+				
+				if (name.equals(PROPERTY_CLASS_NAME))
+				{
+					className = jsonReader.nextString();
+				}
+				else if (name.equals(PROPERTY_OBJECT) && className != null)
+				{
+					message = (SerializableMessage) serializer.fromJson(jsonReader, Class.forName(className));
+				}
+				else if (name.equals(PROPERTY_OBJECT))
+				{
+					jsonElementObject = serializer.fromJson(jsonReader, JsonElement.class);
+				}
+				else
+				{
+					jsonReader.skipValue();
+				}
+			}
+			
+			jsonReader.endObject();
+			
+			if (message == null && jsonElementObject != null && className != null)
+			{
+				message = (SerializableMessage) serializer.fromJson(jsonElementObject, Class.forName(className));
+			}
+			
+			return message;
+		}
+		catch (JsonParseException x)
+		{
+			if (x.getCause() instanceof IOException)
+			{
+				throw (IOException) x.getCause();
+			}
+			
+			return null;
+		}
+		catch (ClassNotFoundException | ClassCastException | IllegalStateException x)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Deserialize a binary encoded message, see {@link BinaryMessageCodec}.
+	 * @param in The input stream
+	 * @return The message, or null if the message cannot be deserialized
+	 * @throws IOException
+	 */
+	static SerializableMessage deserializeBinary(InputStream in) throws IOException
+	{
+		JsonElement jsonElement = BinaryMessageCodec.read(in);
 		
 		try
 		{
-			return (SerializableMessage) serializer.fromJson(jsonElementObject, Class.forName(className));
+			JsonObject jsonObject = jsonElement.getAsJsonObject();
+			
+			return (SerializableMessage) serializer.fromJson(
+					jsonObject.get(PROPERTY_OBJECT), 
+					Class.forName(jsonObject.get(PROPERTY_CLASS_NAME).getAsString()));
 		}
-		catch (Exception x)
+		catch (JsonParseException | ClassNotFoundException | ClassCastException | IllegalStateException | NullPointerException x)
 		{
 			return null;
 		}
@@ -97,11 +194,62 @@ abstract class SerializableMessage
 	 */
 	String serialize()
 	{
-		JsonObject jsonObject = new JsonObject();
+		StringWriter writer = new StringWriter();
 		
-		jsonObject.add(PROPERTY_OBJECT, serializer.toJsonTree(this));
-		jsonObject.addProperty(PROPERTY_CLASS_NAME, this.getClass().getName());
+		try
+		{
+			this.serialize(writer);
+		}
+		catch (IOException x)
+		{
+			// A StringWriter does not throw I/O exceptions
+		}
+		
+		return writer.toString();
+	}
+	
+	/**
+	 * Serialize the message while it is written to a stream, without building the JSON string in memory.
+	 * The class name is written before the message object, so that the message can be deserialized while it is read.
+	 * @param writer The writer
+	 * @throws IOException
+	 */
+	void serialize(Writer writer) throws IOException
+	{
+		this.serialize(serializer.newJsonWriter(writer));
+	}
+	
+	/**
+	 * Serialize the message binary encoded while it is written to a stream, see {@link BinaryMessageCodec}.
+	 * @param out The output stream
+	 * @throws IOException
+	 */
+	void serializeBinary(OutputStream out) throws IOException
+	{
+		this.serialize(BinaryMessageCodec.newWriter(out));
+	}
+	
+	private void serialize(JsonWriter jsonWriter) throws IOException
+	{
+		jsonWriter.beginObject();
+		jsonWriter.name(PROPERTY_CLASS_NAME).value(this.getClass().getName());
+		jsonWriter.name(PROPERTY_OBJECT);
+		
+		try
+		{
+			serializer.toJson(this, this.getClass(), jsonWriter);
+		}
+		catch (JsonIOException x)
+		{
+			if (x.getCause() instanceof IOException)
+			{
+				throw (IOException) x.getCause();
+			}
+			
+			throw x;
+		}
 		
-		return serializer.toJson(jsonObject);
+		jsonWriter.endObject();
+		jsonWriter.flush();
 	}
 }
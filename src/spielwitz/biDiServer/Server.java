@@ -17,13 +17,21 @@
 
 package spielwitz.biDiServer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.KeyPair;
@@ -31,8 +39,17 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.UUID;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import com.google.gson.JsonElement;
 
@@ -44,8 +61,10 @@ import com.google.gson.JsonElement;
 public abstract class Server
 {
 	private static final int SOCKET_TIMEOUT = 30000;
-	private static final int SERVER_THREAD_POOL_CORE_SIZE = 2;
-	private static final int SERVER_THREAD_POOL_MAX_SIZE = 200;
+	private static final int WORKER_THREAD_KEEP_ALIVE_SECONDS = 60;
+	private static final int SERVER_BUSY_RESPONDER_QUEUE_SIZE = 100;
+	private static final int SERVER_BUSY_SOCKET_TIMEOUT = 1000;
+	private static final int SERVER_BUSY_MAX_BYTES_DISCARDED = 64 * 1024;
 	/**
 	 * The name of the root folder where the server stores all data. The name is "ServerData".
 	 */
@@ -55,8 +74,12 @@ public abstract class Server
 	
 	private final static String FOLDER_NAME_NOTIFICATIONS = "Notifications";
 	private final static String FOLDER_NAME_DATA_SETS = "DataSets";
+	private final static String FOLDER_NAME_WRITE_AHEAD_LOG = "WriteAheadLog";
+	private final static String FOLDER_NAME_DATA_SET_SEGMENTS = "DataSetSegments";
+	private final static String FILE_NAME_DATA_SET_VERSION = "DataSetVersion";
 
 	private final static String MESSAGE_PROCESSING_CONTAINER_DATA_KEY_USER = "User";
+	private final static int DATA_SET_LOCK_STRIPES = 256;
 	private ServerConfiguration config;
 	private String homeDir;
 	private Log log;
@@ -66,15 +89,49 @@ public abstract class Server
 	private boolean shutdown = false;
 	private boolean adminCreated;
 	private ServerSocket serverSocket;
+	private ServerSocketChannel serverSocketChannel;
+	private SelectorLoop[] selectorLoops;
+	private AtomicInteger nextSelectorLoop = new AtomicInteger();
+	private ThreadPoolExecutor executor;
+	private ThreadPoolExecutor serverBusyResponder;
+	private ThreadPoolExecutor idleConnectionThreads;
+	private AtomicLong requestsRejected = new AtomicLong();
+	private MessageCompression messageCompression;
 	
 	private NotificationThreadPulseCheckThread pulseCheckThread;
 	
-	private Hashtable<String, DataSetInfo> dataSetInfos;
+	private ConcurrentHashMap<String, DataSetInfo> dataSetInfos;
+	private UserDataSetIndex userDataSetIndex = new UserDataSetIndex();
+	private DataSetCache dataSetCache;
+	private DataSetWriteAheadLog dataSetWriteAheadLog;
+	private DataSetStore dataSetStore;
+	private DataSetVersionCounter dataSetVersionCounter;
 	private Hashtable<String,User> users;
-	private Hashtable<String, Ciphers> ciphersPerSession = new Hashtable<String, Ciphers>();
-	private Hashtable<String, NotificationThread> notificationThreads = new Hashtable<String, NotificationThread>();
+	private SessionCache sessionCache;
+	private KeyPairPool keyPairPoolDiffieHellman;
+	private KeyPairPool keyPairPoolX25519;
+	private Hashtable<String, NotificationConnection> notificationConnections = new Hashtable<String, NotificationConnection>();
 	
-	private Object dataLock = new Object();
+	private StripedReadWriteLocks dataSetLocks = new StripedReadWriteLocks(DATA_SET_LOCK_STRIPES);
+	
+	private static void moveDataSets(DataSetStore source, DataSetStore target) throws IOException
+	{
+		ArrayList<String> ids = new ArrayList<String>();
+		
+		source.loadAll(dataSet -> 
+		{
+			target.put(dataSet);
+			ids.add(dataSet.getId());
+		});
+		
+		// The data sets must be on the disk before the originals are gone
+		target.sync();
+		
+		for (String id: ids)
+		{
+			source.delete(id);
+		}
+	}
 
 	/**
 	 * Instantiate a server object instance.
@@ -100,7 +157,27 @@ public abstract class Server
 		
 		this.initReadAllUsers();
 		this.initCreateAdmin();
+		
+		this.dataSetCache = new DataSetCache(
+				config.getDataSetCacheMaxEntries(), 
+				config.getDataSetCacheMaxMegabytes() * 1024L * 1024L);
+		
 		this.initReadAllDataSets();
+		
+		if (config.getPersistenceMode() == PersistenceMode.WriteAheadLog &&
+			config.getDataSetStorage() != DataSetStorage.Memory)
+		{
+			try
+			{
+				this.dataSetWriteAheadLog = new DataSetWriteAheadLog(
+						Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_WRITE_AHEAD_LOG).toFile(),
+						this.dataSetStore);
+			}
+			catch (IOException x)
+			{
+				throw new ServerException(x.toString());
+			}
+		}
 	}
 
 	/**
@@ -117,9 +194,19 @@ public abstract class Server
 	 */
 	public void start()
 	{
+		boolean selectorEngine = this.config.getIoEngine() == ServerIoEngine.Selector;
+		
 		try
 		{
-		    this.serverSocket = new ServerSocket(this.config.getPort());
+			if (selectorEngine)
+			{
+				this.serverSocketChannel = ServerSocketChannel.open();
+				this.serverSocketChannel.bind(new InetSocketAddress(this.config.getPort()));
+			}
+			else
+			{
+				this.serverSocket = new ServerSocket(this.config.getPort());
+			}
 		    
 		    System.out.println(
 		    		TextProperties.getMessageText(TextProperties.ServerStarted(Integer.toString(this.config.getPort()))));
@@ -141,49 +228,90 @@ public abstract class Server
 			return;
 		}
 		
+		this.sessionCache = new SessionCache(this.config.getMaxSessions());
+		
+		try
+		{
+			this.keyPairPoolDiffieHellman = CryptoLib.createDiffieHellmanKeyPairPool(this.config.getKeyPairPoolSize());
+		}
+		catch (Exception x)
+		{
+			// Diffie-Hellman key pairs are generated during the handshake
+		}
+		
+		this.keyPairPoolX25519 = CryptoLib.createX25519KeyPairPool(this.config.getKeyPairPoolSize());
+		
 		this.pulseCheckThread = this.new NotificationThreadPulseCheckThread();
 		pulseCheckThread.start();
 		
 		this.startDate = System.currentTimeMillis();
 		
-		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-		executor.setCorePoolSize(SERVER_THREAD_POOL_CORE_SIZE);
-		executor.setMaximumPoolSize(SERVER_THREAD_POOL_MAX_SIZE);
+		ThreadFactory threadFactory = ExecutionThreads.getThreadFactory(this.config.getExecutionMode());
 		
-		while (true)
+		if (threadFactory == null)
 		{
-			try
-			{
-			    Socket clientSocket = this.serverSocket.accept();
-			    clientSocket.setSoTimeout(SOCKET_TIMEOUT);
-			    
-			    if (this.shutdown)
-			    {
-			    	clientSocket.close();
-			    	break;
-			    }
-			    
-			    ServerThread serverThread = this.new ServerThread(
-			    									clientSocket,
-			    									clientSocket.getInetAddress().toString());
-
-			    executor.submit(serverThread);
-			}
-			catch (SocketException x)
-			{
-				break;
-			}
-			catch (Exception x)
-			{
-				this.log.logMessage(
-						LogEventId.E1,
-						LogLevel.Error,
-						TextProperties.getMessageText(TextProperties.ServerSocketAcceptError(x.getMessage())));
-				break;
-			}
+			System.out.println(
+					TextProperties.getMessageText(TextProperties.VirtualThreadsNotSupported()));
+			
+			this.log.logMessage(
+					LogEventId.W3,
+					LogLevel.Warning,
+					TextProperties.getMessageText(TextProperties.VirtualThreadsNotSupported()));
+			
+			threadFactory = ExecutionThreads.getThreadFactory(ExecutionMode.PlatformThreads);
+		}
+		
+		// All worker threads are core threads which time out when they are idle. Like this, the pool
+		// starts new threads up to the maximum before it queues requests, and it rejects requests
+		// only when the queue is full.
+		this.executor = new ThreadPoolExecutor(
+								this.config.getMaxWorkerThreads(),
+								this.config.getMaxWorkerThreads(),
+								WORKER_THREAD_KEEP_ALIVE_SECONDS,
+								TimeUnit.SECONDS,
+								new ArrayBlockingQueue<Runnable>(this.config.getMaxQueuedRequests()),
+								threadFactory,
+								this.new ServerBusyHandler());
+		this.executor.allowCoreThreadTimeOut(true);
+		
+		this.messageCompression = new MessageCompression(this.config.getCompressionLevel());
+		
+		this.serverBusyResponder = new ThreadPoolExecutor(
+								1,
+								1,
+								WORKER_THREAD_KEEP_ALIVE_SECONDS,
+								TimeUnit.SECONDS,
+								new ArrayBlockingQueue<Runnable>(SERVER_BUSY_RESPONDER_QUEUE_SIZE));
+		this.serverBusyResponder.allowCoreThreadTimeOut(true);
+		
+		// Blocking engine: a kept-alive connection waits for the next request of its client on a thread
+		// of this pool. If no thread is free, the idle connection is closed instead.
+		this.idleConnectionThreads = new ThreadPoolExecutor(
+								0,
+								this.config.getMaxWorkerThreads(),
+								WORKER_THREAD_KEEP_ALIVE_SECONDS,
+								TimeUnit.SECONDS,
+								new SynchronousQueue<Runnable>(),
+								threadFactory);
+		
+		if (selectorEngine)
+		{
+			this.runSelectorLoops();
+		}
+		else
+		{
+			this.runAcceptLoop();
 		}
 		
 		this.closeServerSocket();
+		
+		if (this.dataSetWriteAheadLog != null)
+		{
+			this.dataSetWriteAheadLog.close();
+		}
+		
+		this.dataSetStore.close();
+		
 		System.exit(0);
 	}
 	
@@ -203,6 +331,26 @@ public abstract class Server
 	 */
 	protected abstract ServerClientBuildCheckResult checkServerClientBuild(String clientBuild);
 	
+	/**
+	 * Create the store in which the server keeps the data sets. The server calls it once when it starts.
+	 * By default, the store selected with {@link ServerConfiguration#setDataSetStorage(DataSetStorage)} is created.
+	 * Override it to use a store of your own.
+	 * @return The data set store
+	 * @throws IOException
+	 */
+	protected DataSetStore createDataSetStore() throws IOException
+	{
+		switch (this.config.getDataSetStorage())
+		{
+		case Segments:
+			return new SegmentedDataSetStore(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SET_SEGMENTS).toFile());
+		case Memory:
+			return new InMemoryDataSetStore();
+		default:
+			return new FileDataSetStore(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS).toFile());
+		}
+	}
+	
 	/**
 	 * Check if a data set exists.
 	 * @param id The id of the data set
@@ -210,26 +358,21 @@ public abstract class Server
 	 */
 	protected boolean dataSetExists(String id)
 	{
-		synchronized(this.dataLock)
-		{
-			return this.dataSetInfos.containsKey(id);
-		}
+		return this.dataSetInfos.containsKey(id);
 	}
 	
 	/**
-	 * Delete a data set.
+	 * Delete a data set. If the data set cannot be deleted, an error is logged, and the data set is kept.
 	 * @param id The data set ID.
 	 */
 	protected void deleteDataSet(String id)
 	{
-		if (ServerUtils.checkFileName(id) == FileNameCheck.Ok)
+		try
+		{
+			this.removeDataSet(id);
+		}
+		catch (IOException x)
 		{
-			synchronized(this.dataLock)
-			{
-				File file = Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS, id).toFile();
-				file.delete();
-				this.dataSetInfos.remove(id);
-			}
 		}
 	}
 	
@@ -251,21 +394,23 @@ public abstract class Server
 	/**
 	 * Get a data set.
 	 * @param id The ID of the data set
-	 * @return The data set
+	 * @return The data set, or null if it does not exist or could not be read. Then an error is logged
 	 */
 	protected DataSet getDataSet(String id)
 	{
-		if (ServerUtils.checkFileName(id) == FileNameCheck.Ok)
+		DataSet dataSet = null;
+		
+		try
 		{
-			synchronized(this.dataLock)
-			{
-				return DataSet.readFromFile(Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS, id).toString());
-			}
+			dataSet = this.readDataSet(id);
 		}
-		else
+		catch (IOException x)
 		{
 			return null;
 		}
+		
+		// The caller may change the data set, but not the cached one
+		return dataSet != null ? dataSet.copy() : null;
 	}
 	
 	/**
@@ -287,14 +432,14 @@ public abstract class Server
 	{
 		ArrayList<DataSetInfo> dataSetInfos = new ArrayList<DataSetInfo>();
 		
-		synchronized(this.dataLock)
+		for (String dataSetId: this.userDataSetIndex.getDataSetIds(userId))
 		{
-			for (DataSetInfo info: this.dataSetInfos.values())
+			DataSetInfo info = this.dataSetInfos.get(dataSetId);
+			
+			// The data set may have been changed or deleted since the index was read
+			if (info != null && info.getUserIds().contains(userId))
 			{
-				if (info.getUserIds().contains(userId))
-				{
-					dataSetInfos.add(info);
-				}
+				dataSetInfos.add(info);
 			}
 		}
 
@@ -396,29 +541,21 @@ public abstract class Server
 	}
 	
 	/**
-	 * Add or update a data set.
+	 * Add or update a data set. The server assigns a new version to the data set.
 	 * @param dataSet The data set
-	 * @return The result of the ID check
+	 * @return The result of the ID check, or null if the data set could not be written. Then an error is logged, 
+	 * and the data set on the server is unchanged
 	 */
 	protected FileNameCheck setDataSet(DataSet dataSet)
 	{
-		if (dataSet == null)
+		try
 		{
-			return FileNameCheck.InvalidCharacters;
+			return this.writeDataSet(dataSet);
 		}
-		
-		FileNameCheck fileNameCheck = ServerUtils.checkFileName(dataSet.getId());
-		
-		if (fileNameCheck == FileNameCheck.Ok)
+		catch (IOException x)
 		{
-			synchronized(this.dataLock)
-			{
-				this.setDataSetInfoFromDataSet(dataSet);
-				dataSet.writeToFile(Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS, dataSet.getId()).toString());
-			}
+			return null;
 		}
-		
-		return fileNameCheck;
 	}
 	
 	/**
@@ -451,20 +588,20 @@ public abstract class Server
 		}
 	}
 	
-	private void addNotificationThread(String userId, NotificationThread notificationThread)
+	private void addNotificationConnection(String userId, NotificationConnection notificationConnection)
 	{
-		synchronized(this.notificationThreads)
+		synchronized(this.notificationConnections)
 		{
-			NotificationThread t = this.notificationThreads.get(userId);
+			NotificationConnection t = this.notificationConnections.get(userId);
 			
 			if (t != null)
 			{
-				t.interrupt();
-				this.notificationThreads.remove(userId);
+				t.shutdownServer();
+				this.notificationConnections.remove(userId);
 			}
 			
-			this.notificationThreads.put(userId, notificationThread);
-			notificationThread.start();
+			this.notificationConnections.put(userId, notificationConnection);
+			notificationConnection.start();
 		}
 	}
 	
@@ -503,6 +640,17 @@ public abstract class Server
 			if (serverSocket != null)
 				serverSocket.close();
 			
+			if (serverSocketChannel != null)
+				serverSocketChannel.close();
+			
+			if (selectorLoops != null)
+			{
+				for (SelectorLoop selectorLoop: selectorLoops)
+				{
+					selectorLoop.close();
+				}
+			}
+			
 			this.log.logMessage(
 					LogEventId.G2,
 					LogLevel.Information,
@@ -530,52 +678,52 @@ public abstract class Server
 	
 	private void disconnect(String userId)
 	{
-		synchronized(this.notificationThreads)
+		synchronized(this.notificationConnections)
 		{
-			NotificationThread notificationThread = this.notificationThreads.get(userId);
+			NotificationConnection notificationConnection = this.notificationConnections.get(userId);
 			
-			if (notificationThread != null)
+			if (notificationConnection != null)
 			{
-				notificationThread.shutdownServer();
+				notificationConnection.shutdownServer();
 			}
 			
-			this.notificationThreads.remove(userId);
+			this.notificationConnections.remove(userId);
 		}
 	}
 	
 	private Ciphers getCiphers(String sessionId)
 	{
-		if (sessionId == null || 
-			sessionId.equals(CryptoLib.NULL_UUID))
+		return this.sessionCache.get(sessionId);
+	}
+
+	private long getKeyPairsFromPool()
+	{
+		long keyPairsFromPool = 0;
+		
+		for (KeyPairPool keyPairPool: new KeyPairPool[] {this.keyPairPoolDiffieHellman, this.keyPairPoolX25519})
 		{
-			return null;
+			if (keyPairPool != null)
+			{
+				keyPairsFromPool += keyPairPool.getKeyPairsFromPool();
+			}
 		}
 		
-		synchronized (this.ciphersPerSession)
+		return keyPairsFromPool;
+	}
+	
+	private long getKeyPairsGenerated()
+	{
+		long keyPairsGenerated = 0;
+		
+		for (KeyPairPool keyPairPool: new KeyPairPool[] {this.keyPairPoolDiffieHellman, this.keyPairPoolX25519})
 		{
-			Ciphers ciphers = this.ciphersPerSession.get(sessionId);
-			
-			if (ciphers == null)
-				return null;
-			
-			if (!ciphers.sessionId.equals(sessionId))
-				return null;
-			
-			long timeNow = System.currentTimeMillis();
-			
-			if (timeNow - ciphers.lastUsed > CryptoLib.CIPHERS_MAX_INACTIVITY_MILLISECONDS)
-			{
-				return null;
-			}				
-			
-			if (timeNow - ciphers.created > CryptoLib.CIPHERS_MAX_VALIDITY_MILLISECONDS)
+			if (keyPairPool != null)
 			{
-				return null;
+				keyPairsGenerated += keyPairPool.getKeyPairsGenerated();
 			}
-			
-			ciphers.lastUsed = timeNow;
-			return ciphers;
 		}
+		
+		return keyPairsGenerated;
 	}
 
 	private Log getLog()
@@ -650,37 +798,74 @@ public abstract class Server
 		this.createFolder(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_USERS).toFile());
 		this.createFolder(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS).toFile());
 		this.createFolder(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_NOTIFICATIONS).toFile());
+		this.createFolder(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_WRITE_AHEAD_LOG).toFile());
+		this.createFolder(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SET_SEGMENTS).toFile());
 		
 		return pathLog;
 	}
 	
-	private void initReadAllDataSets()
+	private void initReadAllDataSets() throws ServerException
 	{
-		File directoryGames = Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS).toFile();
-		this.dataSetInfos = new Hashtable<String, DataSetInfo>();
-		
-		for (String fileName: directoryGames.list())
+		try
 		{
-			System.out.println(TextProperties.getMessageText(TextProperties.ReadingDataSet(fileName)));
+			this.dataSetStore = this.createDataSetStore();
 			
-			String dataSetFileName = Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS, fileName).toString();
-			DataSet dataSet = DataSet.readFromFile(dataSetFileName);
-			
-			if (dataSet == null)
-				continue;
+			// The data set storage was changed in the configuration
+			if (this.dataSetStore instanceof SegmentedDataSetStore)
+			{
+				moveDataSets(
+						new FileDataSetStore(Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SETS).toFile()), 
+						this.dataSetStore);
+			}
+			else if (this.dataSetStore instanceof FileDataSetStore)
+			{
+				File folderSegments = Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_DATA_SET_SEGMENTS).toFile();
+				
+				if (SegmentedDataSetStore.hasSegments(folderSegments))
+				{
+					SegmentedDataSetStore segmentedDataSetStore = new SegmentedDataSetStore(folderSegments);
+					moveDataSets(segmentedDataSetStore, this.dataSetStore);
+					segmentedDataSetStore.close();
+					SegmentedDataSetStore.deleteSegments(folderSegments);
+				}
+			}
 			
-			JsonElement jsonElementAfterMigration = this.migrateDataSet(
-									dataSet.getPayload().getClassName(),
-									dataSet.getPayload().getJsonElement());
+			// Updates which were logged, but not yet written to the data set store when the server stopped
+			int recordsReplayed = DataSetWriteAheadLog.recover(
+					Paths.get(this.homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_WRITE_AHEAD_LOG).toFile(),
+					this.dataSetStore);
 			
-			if (jsonElementAfterMigration != null)
+			if (recordsReplayed > 0)
 			{
-				dataSet.getPayload().setJsonElement(jsonElementAfterMigration);
-				dataSet.writeToFile(dataSetFileName);
+				System.out.println(TextProperties.getMessageText(TextProperties.WriteAheadLogReplayed(Integer.toString(recordsReplayed))));
 			}
 			
-			this.setDataSetInfoFromDataSet(dataSet);
-		}		
+			this.dataSetInfos = new ConcurrentHashMap<String, DataSetInfo>();
+			this.dataSetVersionCounter = new DataSetVersionCounter(
+					Paths.get(this.homeDir, FOLDER_NAME_ROOT, FILE_NAME_DATA_SET_VERSION).toFile());
+			
+			this.dataSetStore.loadAll(dataSet ->
+			{
+				System.out.println(TextProperties.getMessageText(TextProperties.ReadingDataSet(dataSet.getId())));
+				
+				JsonElement jsonElementAfterMigration = this.migrateDataSet(
+										dataSet.getPayload().getClassName(),
+										dataSet.getPayload().getJsonElement());
+				
+				if (jsonElementAfterMigration != null)
+				{
+					dataSet.getPayload().setJsonElement(jsonElementAfterMigration);
+					this.dataSetStore.put(dataSet);
+				}
+				
+				this.setDataSetInfoFromDataSet(dataSet);
+				this.dataSetVersionCounter.update(dataSet.getVersion());
+			});
+		}
+		catch (IOException x)
+		{
+			throw new ServerException(x.toString());
+		}
 	}
 	
 	private void initReadAllUsers()
@@ -699,6 +884,37 @@ public abstract class Server
 		}
 	}
 	
+	/**
+	 * Append a data set update to the write-ahead log, if the server uses it.
+	 * Call it while holding the write lock of the data set.
+	 * @param id The ID of the data set
+	 * @param dataSet The new data set, or null if the data set is deleted
+	 * @return True, if the update was logged. False, if the data set file has to be written synchronously
+	 */
+	private boolean logDataSetUpdate(String id, DataSet dataSet)
+	{
+		if (this.dataSetWriteAheadLog == null)
+		{
+			return false;
+		}
+		
+		try
+		{
+			return dataSet != null ?
+					this.dataSetWriteAheadLog.put(dataSet) :
+					this.dataSetWriteAheadLog.delete(id);
+		}
+		catch (IOException x)
+		{
+			this.log.logMessage(
+					LogEventId.E8,
+					LogLevel.Error,
+					TextProperties.getMessageText(TextProperties.WriteAheadLogFailed(x.toString())));
+			
+			return false;
+		}
+	}
+	
 	private void onRequestMessageReceived(MessageProcessingContainer container) throws ServerException
 	{
 		switch (container.getRequestMessage().getType())
@@ -763,6 +979,12 @@ public abstract class Server
 				this.disconnect(container.getUserId());
 				container.setResponseMessage(new ResponseMessage());
 				break;
+			case BATCH:
+				this.onRequestMessageReceivedBatch(container);
+				break;
+			case PATCH_DATA_SET:
+				this.onRequestMessageReceivedPatchDataSet(container);
+				break;
 			case CUSTOM:
 				Tuple<ResponseInfo,Object> response = 
 				this.onCustomRequestMessageReceived(
@@ -829,6 +1051,60 @@ public abstract class Server
 		container.setResponseMessage(new ResponseMessage(null));
 	}
 	
+	private void onRequestMessageReceivedBatch(MessageProcessingContainer container)
+	{
+		RequestMessage requestMessage = container.getRequestMessage();
+		PayloadRequestMessageBatch payload = (PayloadRequestMessageBatch) requestMessage.getPayloadObject();
+		ArrayList<ResponseMessage> responseMessages = new ArrayList<ResponseMessage>();
+		
+		for (int i = 0; i < payload.size(); i++)
+		{
+			RequestMessageType type = payload.getType(i);
+			
+			if (!PayloadRequestMessageBatch.isTypeAllowed(type))
+			{
+				responseMessages.add(new ResponseMessage(
+						false,
+						null,
+						TextProperties.BatchRequestTypeNotAllowed(type != null ? type.toString() : "")));
+				continue;
+			}
+			
+			MessageProcessingContainer itemContainer = new MessageProcessingContainer(
+					container.getUserId(),
+					new RequestMessage(
+							type, 
+							requestMessage.getSessionId(), 
+							requestMessage.getToken(), 
+							requestMessage.getClientBuild(), 
+							payload.getPayload(i)));
+			
+			try
+			{
+				this.onRequestMessageReceived(itemContainer);
+			}
+			catch (Exception x)
+			{
+				itemContainer.setResponseMessage(new ResponseMessage(
+						false,
+						null,
+						TextProperties.ApplicationError(x.toString())));
+			}
+			
+			if (itemContainer.getResponseMessage() == null)
+			{
+				itemContainer.setResponseMessage(new ResponseMessage(
+						false,
+						null,
+						TextProperties.ResponseMessageNotSet()));
+			}
+			
+			responseMessages.add(itemContainer.getResponseMessage());
+		}
+		
+		container.setResponseMessage(new ResponseMessage(new Payload(new PayloadResponseMessageBatch(responseMessages))));
+	}
+	
 	private void onRequestMessageReceivedChangeUser(MessageProcessingContainer container)
 	{
 		if (!container.getUserId().equals(User.ADMIN_USER_ID))
@@ -937,11 +1213,14 @@ public abstract class Server
 	{
 		String dataSetId = (String)container.getRequestMessage().getPayloadObject();
 		
-		synchronized(this.dataLock)
+		Lock lock = this.dataSetLocks.get(dataSetId).writeLock();
+		lock.lock();
+		
+		try
 		{
 			if (this.dataSetInfos.containsKey(dataSetId))
 			{
-				DataSet dataSet = this.getDataSet(dataSetId);
+				DataSet dataSet = this.readDataSet(dataSetId);
 				
 				if (!container.getUserId().equals(User.ADMIN_USER_ID) &&
 					!dataSet.getUserIds().contains(container.getUserId()))
@@ -956,9 +1235,22 @@ public abstract class Server
 					return;
 				}
 				
-				this.deleteDataSet(dataSetId);
+				this.removeDataSet(dataSetId);
 			}
 		}
+		catch (IOException x)
+		{
+			container.setResponseMessage(
+					new ResponseMessage(
+							false,
+							null,
+							TextProperties.DataSetDeleteFailed(dataSetId, x.toString())));
+			return;
+		}
+		finally
+		{
+			lock.unlock();
+		}
 		
 		container.setResponseMessage(
 				new ResponseMessage(
@@ -995,25 +1287,30 @@ public abstract class Server
 		{
 			synchronized (this.users)
 			{
-				synchronized(this.dataLock)
+				File file = Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_USERS, userId).toFile();
+				file.delete();
+				
+				this.users.remove(userId);
+				
+				for (String dataSetId: this.userDataSetIndex.getDataSetIds(userId))
 				{
-					File file = Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_USERS, userId).toFile();
-					file.delete();
-					
-					this.users.remove(userId);
+					Lock lock = this.dataSetLocks.get(dataSetId).writeLock();
+					lock.lock();
 					
-					for (String dataSetId: this.dataSetInfos.keySet())
+					try
 					{
-						DataSetInfo dataSetInfo = this.dataSetInfos.get(dataSetId);
+						// The data set may have been changed or deleted in the meantime
+						DataSet dataSet = this.getDataSet(dataSetId);
 						
-						if (dataSetInfo.getUserIds().contains(userId))
+						if (dataSet != null && dataSet.getUserIds().remove(userId))
 						{
-							DataSet dataSet = this.getDataSet(dataSetInfo.getId());
-							dataSet.getUserIds().remove(userId);
-							
 							this.setDataSet(dataSet);
 						}
 					}
+					finally
+					{
+						lock.unlock();
+					}
 				}
 			}
 			
@@ -1024,11 +1321,30 @@ public abstract class Server
 	
 	private void onRequestMessageReceivedGetDataSet(MessageProcessingContainer container)
 	{
-		String dataSetId = (String)container.getRequestMessage().getPayloadObject();
+		Object payloadObject = container.getRequestMessage().getPayloadObject();
+		String dataSetId = null;
+		PayloadRequestMessageGetDataSet payloadConditional = null;
+		
+		if (payloadObject instanceof PayloadRequestMessageGetDataSet)
+		{
+			payloadConditional = (PayloadRequestMessageGetDataSet) payloadObject;
+			dataSetId = payloadConditional.getId();
+		}
+		else
+		{
+			dataSetId = (String) payloadObject;
+		}
 		
-		synchronized(this.dataLock)
+		Lock lock = this.dataSetLocks.get(dataSetId).readLock();
+		lock.lock();
+		
+		try
 		{
-			if (!this.dataSetInfos.containsKey(dataSetId))
+			// The data set info is up to date while the lock is held, so that the data set only has to be read
+			// if it is actually sent to the client
+			DataSetInfo dataSetInfo = this.dataSetInfos.get(dataSetId);
+			
+			if (dataSetInfo == null)
 			{
 				container.setResponseMessage(
 						new ResponseMessage(
@@ -1037,17 +1353,8 @@ public abstract class Server
 								TextProperties.DataSetIdNotExists(dataSetId)));
 				return;
 			}
-			
-			DataSet dataSet = this.getDataSet(dataSetId);
-			
-			if (container.getUserId().equals(User.ADMIN_USER_ID) ||
-				dataSet.getUserIds().contains(container.getUserId()))
-			{
-				container.setResponseMessage(
-						new ResponseMessage(
-								new Payload(dataSet)));
-			}
-			else
+			else if (!container.getUserId().equals(User.ADMIN_USER_ID) &&
+					 !dataSetInfo.getUserIds().contains(container.getUserId()))
 			{
 				container.setResponseMessage(
 						new ResponseMessage(
@@ -1058,9 +1365,34 @@ public abstract class Server
 										dataSetId)));
 				return;
 			}
+			else if (payloadConditional != null && payloadConditional.getKnownVersion() == dataSetInfo.getVersion())
+			{
+				ResponseInfo info = new ResponseInfo(true);
+				info.setNotModified(true);
+				
+				container.setResponseMessage(
+						new ResponseMessage(null, info));
+				return;
+			}
+			
+			container.setResponseMessage(
+					new ResponseMessage(
+							new Payload(this.readDataSet(dataSetId))));
 		}
-	}
-	
+		catch (IOException x)
+		{
+			container.setResponseMessage(
+					new ResponseMessage(
+							false,
+							null,
+							TextProperties.DataSetReadFailed(dataSetId, x.toString())));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
 	private void onRequestMessageReceivedGetDataSetInfosOfUser(MessageProcessingContainer container)
 	{
 		String userId = (String)container.getRequestMessage().getPayloadObject();
@@ -1096,6 +1428,57 @@ public abstract class Server
 						this.config.getLogLevel(), 
 						this.getBuild());
 		
+		payloadResponse.setRequestExecutorStatus(
+				this.executor.getActiveCount(),
+				this.executor.getMaximumPoolSize(),
+				this.executor.getQueue().size(),
+				this.config.getMaxQueuedRequests(),
+				this.requestsRejected.get());
+		
+		payloadResponse.setSessionCacheStatus(
+				this.sessionCache.getSessionsCached(),
+				this.config.getMaxSessions(),
+				this.sessionCache.getSessionsExpired(),
+				this.sessionCache.getSessionsEvicted());
+		
+		payloadResponse.setDataSetCacheStatus(
+				this.dataSetCache.getDataSetsCached(),
+				this.config.getDataSetCacheMaxEntries(),
+				this.dataSetCache.getBytes(),
+				this.dataSetCache.getHits(),
+				this.dataSetCache.getMisses());
+		
+		if (this.dataSetWriteAheadLog != null)
+		{
+			payloadResponse.setWriteAheadLogStatus(
+					this.dataSetWriteAheadLog.getPendingWrites(), 
+					this.dataSetWriteAheadLog.getRecordsLogged(), 
+					this.dataSetWriteAheadLog.getCommits());
+		}
+		
+		if (this.dataSetStore instanceof SegmentedDataSetStore)
+		{
+			SegmentedDataSetStore segmentedDataSetStore = (SegmentedDataSetStore)this.dataSetStore;
+			
+			payloadResponse.setDataSetSegmentsStatus(
+					segmentedDataSetStore.getSegments(), 
+					segmentedDataSetStore.getBytes(), 
+					segmentedDataSetStore.getLiveBytes(), 
+					segmentedDataSetStore.getCompactions());
+		}
+		
+		payloadResponse.setKeyPairPoolStatus(
+				this.config.getKeyPairPoolSize(),
+				this.getKeyPairsFromPool(),
+				this.getKeyPairsGenerated());
+		
+		payloadResponse.setCompressionStatus(
+				this.messageCompression.getMessagesCompressed(),
+				this.messageCompression.getMessagesUncompressed(),
+				this.messageCompression.getBytesBeforeCompression(),
+				this.messageCompression.getBytesAfterCompression(),
+				TimeUnit.NANOSECONDS.toMillis(this.messageCompression.getCompressionNanoseconds()));
+		
 		container.setResponseMessage(new ResponseMessage(new Payload(payloadResponse)));
 	}
 	
@@ -1139,6 +1522,107 @@ public abstract class Server
 										users))));
 	}
 		
+	private void onRequestMessageReceivedPatchDataSet(MessageProcessingContainer container)
+	{
+		PayloadRequestMessagePatchDataSet payload = (PayloadRequestMessagePatchDataSet) container.getRequestMessage().getPayloadObject();
+		String dataSetId = payload.getId();
+		
+		Lock lock = this.dataSetLocks.get(dataSetId).writeLock();
+		lock.lock();
+		
+		try
+		{
+			DataSet dataSet = null;
+			
+			try
+			{
+				dataSet = this.dataSetInfos.containsKey(dataSetId) ?
+						this.readDataSet(dataSetId) :
+						null;
+			}
+			catch (IOException x)
+			{
+				container.setResponseMessage(
+						new ResponseMessage(
+								false,
+								null,
+								TextProperties.DataSetReadFailed(dataSetId, x.toString())));
+				return;
+			}
+			
+			if (dataSet == null)
+			{
+				container.setResponseMessage(
+						new ResponseMessage(
+								false,
+								null,
+								TextProperties.DataSetIdNotExists(dataSetId)));
+				return;
+			}
+			else if (!container.getUserId().equals(User.ADMIN_USER_ID) &&
+					 !dataSet.getUserIds().contains(container.getUserId()))
+			{
+				container.setResponseMessage(
+						new ResponseMessage(
+								false,
+								null,
+								TextProperties.DataSetUserNotAuthorizedUpdate(
+										container.getUserId(),
+										dataSetId)));
+				return;
+			}
+			else if (dataSet.getVersion() != payload.getBaseVersion())
+			{
+				container.setResponseMessage(
+						new ResponseMessage(
+								false,
+								null,
+								TextProperties.DataSetVersionConflict(
+										dataSetId,
+										Long.toString(payload.getBaseVersion()),
+										Long.toString(dataSet.getVersion()))));
+				return;
+			}
+			
+			if (!payload.isEmpty())
+			{
+				// The data set is shared with other readers, so the patch is applied to a copy
+				DataSet dataSetPatched = dataSet.copy();
+				
+				dataSetPatched.setPayload(
+						new Payload(
+								payload.getClassName(),
+								JsonMergePatch.apply(
+										dataSetPatched.getPayload() != null ? dataSetPatched.getPayload().getJsonElement() : null,
+										payload.getPatch())));
+				
+				try
+				{
+					this.writeDataSet(dataSetPatched);
+				}
+				catch (IOException x)
+				{
+					container.setResponseMessage(
+							new ResponseMessage(
+									false,
+									null,
+									TextProperties.DataSetWriteFailed(dataSetId, x.toString())));
+					return;
+				}
+				
+				dataSet = dataSetPatched;
+			}
+			
+			container.setResponseMessage(
+					new ResponseMessage(
+							new Payload(dataSet.getVersion())));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
 	private void onRequestMessageReceivedPushNotificationReceived(MessageProcessingContainer container)
 	{
 		String notificationId = (String)container.getRequestMessage().getPayloadObject();
@@ -1153,9 +1637,24 @@ public abstract class Server
 	
 	private void onRequestMessageReceivedSetDataSet(MessageProcessingContainer container, boolean create)
 	{
-		DataSet dataSet = (DataSet)container.getRequestMessage().getPayloadObject();
+		Object payloadObject = container.getRequestMessage().getPayloadObject();
+		DataSet dataSet = null;
+		PayloadRequestMessageUpdateDataSet payloadConditional = null;
 		
-		synchronized(this.dataLock)
+		if (payloadObject instanceof PayloadRequestMessageUpdateDataSet)
+		{
+			payloadConditional = (PayloadRequestMessageUpdateDataSet) payloadObject;
+			dataSet = payloadConditional.getDataSet();
+		}
+		else
+		{
+			dataSet = (DataSet) payloadObject;
+		}
+		
+		Lock lock = this.dataSetLocks.get(dataSet.getId()).writeLock();
+		lock.lock();
+		
+		try
 		{
 			if (create && this.dataSetInfos.containsKey(dataSet.getId()))
 			{
@@ -1189,9 +1688,38 @@ public abstract class Server
 											dataSet.getId())));
 					return;
 				}
+				
+				long currentVersion = this.dataSetInfos.get(dataSet.getId()).getVersion();
+				
+				if (payloadConditional != null && payloadConditional.getExpectedVersion() != currentVersion)
+				{
+					container.setResponseMessage(
+							new ResponseMessage(
+									false,
+									null,
+									TextProperties.DataSetVersionConflict(
+											dataSet.getId(),
+											Long.toString(payloadConditional.getExpectedVersion()),
+											Long.toString(currentVersion))));
+					return;
+				}
 			}
 			
-			FileNameCheck fileNameCheck = this.setDataSet(dataSet);
+			FileNameCheck fileNameCheck = null;
+			
+			try
+			{
+				fileNameCheck = this.writeDataSet(dataSet);
+			}
+			catch (IOException x)
+			{
+				container.setResponseMessage(
+						new ResponseMessage(
+								false,
+								null,
+								TextProperties.DataSetWriteFailed(dataSet.getId(), x.toString())));
+				return;
+			}
 			
 			if (fileNameCheck != FileNameCheck.Ok)
 			{
@@ -1224,9 +1752,14 @@ public abstract class Server
 				return;
 			}
 		}
+		finally
+		{
+			lock.unlock();
+		}
 		
 		container.setResponseMessage(
-				new ResponseMessage());
+				new ResponseMessage(
+						new Payload(dataSet.getVersion())));
 	}
 	
 	private void onRequestMessageReceivedSetLogLevel(MessageProcessingContainer container)
@@ -1245,17 +1778,78 @@ public abstract class Server
 		container.setResponseMessage(new ResponseMessage(null));
 	}
 	
-	private void pulseCheckNotificationThreads()
+	private void pulseCheckNotificationConnections()
 	{
-		synchronized(this.notificationThreads)
+		synchronized(this.notificationConnections)
 		{
-			for (NotificationThread t: this.notificationThreads.values())
+			for (NotificationConnection t: this.notificationConnections.values())
 			{
 				t.pulseCheck();
 			}
 		}
 	}
 	
+	/**
+	 * Read a data set from the cache, or from its file if it is not cached.
+	 * @param id The ID of the data set
+	 * @return The data set. It is shared with other readers and must not be changed
+	 * @throws IOException The data set could not be read. An error is logged
+	 */
+	private DataSet readDataSet(String id) throws IOException
+	{
+		if (ServerUtils.checkFileName(id) != FileNameCheck.Ok)
+		{
+			return null;
+		}
+		
+		Lock lock = this.dataSetLocks.get(id).readLock();
+		lock.lock();
+		
+		try
+		{
+			DataSet dataSet = this.dataSetCache.get(id);
+			
+			if (dataSet == null && this.dataSetWriteAheadLog != null)
+			{
+				// The file of the data set may not be up to date yet
+				DataSetWriteAheadLog.PendingWrite pendingWrite = this.dataSetWriteAheadLog.getPendingWrite(id);
+				
+				if (pendingWrite != null)
+				{
+					return pendingWrite.dataSet;
+				}
+			}
+			
+			if (dataSet == null)
+			{
+				try
+				{
+					dataSet = this.dataSetStore.get(id);
+				}
+				catch (IOException x)
+				{
+					this.log.logMessage(
+							LogEventId.E11,
+							LogLevel.Error,
+							TextProperties.getMessageText(TextProperties.DataSetReadFailed(id, x.toString())));
+					throw x;
+				}
+				
+				if (dataSet != null)
+				{
+					// Writers wait for the read lock, so the data set cannot be outdated yet
+					this.dataSetCache.put(dataSet);
+				}
+			}
+			
+			return dataSet;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+	
 	private User readUser(String userId)
 	{
 		synchronized(this.users)
@@ -1277,87 +1871,246 @@ public abstract class Server
 		}
 	}
 	
-	private void removeNotificationThread(String userId)
+	/**
+	 * Delete a data set.
+	 * @param id The data set ID.
+	 * @throws IOException The data set could not be deleted. An error is logged, and the data set is kept
+	 */
+	private void removeDataSet(String id) throws IOException
+	{
+		if (ServerUtils.checkFileName(id) == FileNameCheck.Ok)
+		{
+			Lock lock = this.dataSetLocks.get(id).writeLock();
+			lock.lock();
+			
+			try
+			{
+				if (!this.logDataSetUpdate(id, null))
+				{
+					try
+					{
+						this.dataSetStore.delete(id);
+					}
+					catch (IOException x)
+					{
+						this.log.logMessage(
+								LogEventId.E10,
+								LogLevel.Error,
+								TextProperties.getMessageText(TextProperties.DataSetDeleteFailed(id, x.toString())));
+						
+						// The store may have been changed partly, so the data set is read from the store again
+						this.dataSetCache.remove(id);
+						throw x;
+					}
+				}
+				
+				DataSetInfo dataSetInfo = this.dataSetInfos.remove(id);
+				
+				if (dataSetInfo != null)
+				{
+					this.userDataSetIndex.update(id, dataSetInfo.getUserIds(), null);
+				}
+				
+				this.dataSetCache.remove(id);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+	
+	private void removeNotificationConnection(String userId, NotificationConnection notificationConnection)
 	{
-		synchronized(this.notificationThreads)
+		synchronized(this.notificationConnections)
 		{
-			this.notificationThreads.remove(userId);
+			// Only remove the connection if it has not been replaced by a newer connection of the same user
+			this.notificationConnections.remove(userId, notificationConnection);
 		}
 	}
 	
-	private void sendSingleNotification(String userId, Notification notification)
+	private void runAcceptLoop()
 	{
-		notification.writeToFile(
-				Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_NOTIFICATIONS).toString(),
-				userId);
-		
-		synchronized(this.notificationThreads)
+		while (true)
 		{
-			NotificationThread notificationThread = this.notificationThreads.get(userId);
-			
-			if (notificationThread != null && notificationThread.isAlive())
+			try
+			{
+			    Socket clientSocket = this.serverSocket.accept();
+			    clientSocket.setSoTimeout(SOCKET_TIMEOUT);
+			    
+			    if (this.shutdown)
+			    {
+			    	clientSocket.close();
+			    	break;
+			    }
+			    
+			    ServerThread serverThread = this.new ServerThread(
+			    									clientSocket,
+			    									clientSocket.getInetAddress().toString());
+
+			    this.executor.execute(serverThread);
+			}
+			catch (SocketException x)
+			{
+				break;
+			}
+			catch (Exception x)
 			{
-				notificationThread.pushNotification(notification);
+				this.log.logMessage(
+						LogEventId.E1,
+						LogLevel.Error,
+						TextProperties.getMessageText(TextProperties.ServerSocketAcceptError(x.getMessage())));
+				break;
 			}
 		}
 	}
 	
-	private void setCiphers(String sessionId, Ciphers ciphers)
+	private void runSelectorLoops()
 	{
-		if (sessionId == null || 
-			sessionId.equals(CryptoLib.NULL_UUID) ||
-			ciphers == null)
+		SelectorLoopEventHandler eventHandler = this.new SelectorLoopEventHandler();
+		this.selectorLoops = new SelectorLoop[this.config.getIoThreads()];
+		
+		try
+		{
+			for (int i = 0; i < this.selectorLoops.length; i++)
+			{
+				this.selectorLoops[i] = new SelectorLoop(eventHandler);
+			}
+		}
+		catch (IOException x)
 		{
+			this.log.logMessage(
+					LogEventId.E1,
+					LogLevel.Error,
+					TextProperties.getMessageText(TextProperties.ServerSocketAcceptError(x.getMessage())));
 			return;
 		}
 		
-		synchronized (this.ciphersPerSession)
+		// The first loop accepts new connections and runs on the thread which started the server.
+		this.selectorLoops[0].accept(this.serverSocketChannel);
+		
+		for (int i = 1; i < this.selectorLoops.length; i++)
 		{
-			ciphers.lastUsed = System.currentTimeMillis();
-			
-			if (ciphers.created == 0)
-				ciphers.created = ciphers.lastUsed;
-			
-			this.ciphersPerSession.put(sessionId, ciphers);
+			Thread thread = new Thread(this.selectorLoops[i], "SelectorLoop-" + i);
+			thread.setDaemon(true);
+			thread.start();
 		}
+		
+		this.selectorLoops[0].run();
 	}
 	
-	private void setDataSetInfoFromDataSet(DataSet dataSet)
+	private SelectorLoop selectSelectorLoop()
 	{
-		DataSetInfo dataSetInfo = this.getDataSetInfo(dataSet.getId());
-		
-		Object newPayloadObject = this.setDataSetInfoPayloadObject(
-											dataSet.getId(), 
-											dataSet.getUserIds(),
-											dataSet.getPayloadObject(),
-											dataSetInfo != null ?
-													dataSetInfo.getPayloadObject() :
-													null);
-		
-		if (dataSetInfo == null)
+		return this.selectorLoops[
+		            Math.floorMod(this.nextSelectorLoop.getAndIncrement(), this.selectorLoops.length)];
+	}
+	
+	/**
+	 * Write notifications to a notification socket.
+	 * @param out The output stream of the notification socket
+	 * @param notifications The notifications
+	 * @param userId The user ID of the recipient
+	 * @param ciphers The AES ciphers of the session which opened the notification socket. Null, if the notifications are RSA encrypted
+	 * @param encoding The message encoding of the connection which opened the notification socket
+	 * @throws Exception
+	 */
+	private void sendNotifications(
+			OutputStream out, 
+			Notifications notifications, 
+			String userId, 
+			Ciphers ciphers,
+			MessageEncoding encoding) throws Exception
+	{
+		if (ciphers != null && encoding.binaryMessages)
+		{
+			CryptoLib.sendBytesAesEncrypted(
+					out, 
+					notifications.serializeBinary(), 
+					ciphers,
+					encoding);
+		}
+		else if (ciphers != null)
 		{
-			dataSetInfo = new DataSetInfo(dataSet.getId(), dataSet.getUserIds(), newPayloadObject);
+			CryptoLib.sendStringAesEncrypted(
+					out, 
+					notifications.serialize(), 
+					ciphers,
+					encoding);
 		}
 		else
 		{
-			dataSetInfo.setUserIds(dataSet.getUserIds());
-			dataSetInfo.setPayloadObject(newPayloadObject);
+			CryptoLib.sendStringRsaEncrypted(
+					out, 
+					notifications.serialize(), 
+					getUser(userId).getUserPublicKeyObject());
 		}
-		
-		this.dataSetInfos.put(dataSet.getId(), dataSetInfo);
 	}
 	
-	private void shutdown(MessageProcessingContainer container)
+	private void sendSingleNotification(String userId, Notification notification)
 	{
-		if (!container.getUserId().equals(User.ADMIN_USER_ID))
+		synchronized(this.notificationConnections)
 		{
-			container.setResponseMessage(this.getResponseMessageNotAuthorized(container.getUserId()));
+			// A notification connection which is started at the same time either reads the notification 
+			// from the file or receives it from here, but not both
+			notification.writeToFile(
+					Paths.get(homeDir, FOLDER_NAME_ROOT, FOLDER_NAME_NOTIFICATIONS).toString(),
+					userId);
+			
+			NotificationConnection notificationConnection = this.notificationConnections.get(userId);
+			
+			if (notificationConnection != null && notificationConnection.isAlive())
+			{
+				notificationConnection.pushNotification(notification);
+			}
+		}
+	}
+	
+	private void setCiphers(String sessionId, Ciphers ciphers)
+	{
+		this.sessionCache.put(sessionId, ciphers);
+	}
+	
+	private void setDataSetInfoFromDataSet(DataSet dataSet)
+	{
+		DataSetInfo dataSetInfo = this.getDataSetInfo(dataSet.getId());
+		
+		Object newPayloadObject = this.setDataSetInfoPayloadObject(
+											dataSet.getId(), 
+											dataSet.getUserIds(),
+											dataSet.getPayloadObject(),
+											dataSetInfo != null ?
+													dataSetInfo.getPayloadObject() :
+													null);
+		
+		// The data set info gets a copy of the user IDs, so that the user data set index stays correct
+		// if the caller changes the data set afterwards
+		HashSet<String> userIds = dataSet.getUserIds() != null ?
+				new HashSet<String>(dataSet.getUserIds()) :
+				new HashSet<String>();
+		
+		DataSetInfo dataSetInfoNew = new DataSetInfo(dataSet.getId(), userIds, newPayloadObject);
+		dataSetInfoNew.setVersion(dataSet.getVersion());
+		
+		// Replace the data set info instead of changing it, because it is read without a lock
+		this.dataSetInfos.put(dataSet.getId(), dataSetInfoNew);
+		
+		this.userDataSetIndex.update(
+				dataSet.getId(), 
+				dataSetInfo != null ? dataSetInfo.getUserIds() : null, 
+				userIds);
+	}
+	
+	private void shutdown(MessageProcessingContainer container)
+	{
+		if (!container.getUserId().equals(User.ADMIN_USER_ID))
+		{
+			container.setResponseMessage(this.getResponseMessageNotAuthorized(container.getUserId()));
 			return;
 		}
 		
-		synchronized(this.notificationThreads)
+		synchronized(this.notificationConnections)
 		{
-			for (NotificationThread t: this.notificationThreads.values())
+			for (NotificationConnection t: this.notificationConnections.values())
 			{
 				t.shutdownServer();
 			}
@@ -1383,190 +2136,682 @@ public abstract class Server
 		}
 	}
 	
-	// =============================================
+	/**
+	 * Add or update a data set. The server assigns a new version to the data set.
+	 * @param dataSet The data set
+	 * @return The result of the ID check
+	 * @throws IOException The data set could not be written. An error is logged, and the data set on the server is unchanged
+	 */
+	private FileNameCheck writeDataSet(DataSet dataSet) throws IOException
+	{
+		if (dataSet == null)
+		{
+			return FileNameCheck.InvalidCharacters;
+		}
+		
+		FileNameCheck fileNameCheck = ServerUtils.checkFileName(dataSet.getId());
+		
+		if (fileNameCheck == FileNameCheck.Ok)
+		{
+			Lock lock = this.dataSetLocks.get(dataSet.getId()).writeLock();
+			lock.lock();
+			
+			try
+			{
+				DataSet dataSetStored = dataSet.copy();
+				dataSetStored.setVersion(this.dataSetVersionCounter.next());
+				
+				if (!this.logDataSetUpdate(dataSet.getId(), dataSetStored))
+				{
+					try
+					{
+						this.dataSetStore.put(dataSetStored);
+					}
+					catch (IOException x)
+					{
+						this.log.logMessage(
+								LogEventId.E9,
+								LogLevel.Error,
+								TextProperties.getMessageText(TextProperties.DataSetWriteFailed(dataSet.getId(), x.toString())));
+						
+						// The store may have been changed partly, so the data set is read from the store again
+						this.dataSetCache.remove(dataSet.getId());
+						throw x;
+					}
+				}
+				
+				// The new version is published only after the data set is stored
+				this.dataSetCache.put(dataSetStored);
+				this.setDataSetInfoFromDataSet(dataSetStored);
+				dataSet.setVersion(dataSetStored.getVersion());
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		
+		return fileNameCheck;
+	}
+	
+	// =============================================
+	
+	private interface NotificationConnection
+	{
+		boolean isAlive();
+		void pulseCheck();
+		void pushNotification(Notification notification);
+		void shutdownServer();
+		void start();
+	}
+	
+	// =============================================
+	
+	private class NotificationThread implements Runnable, NotificationConnection
+	{
+		private String userId;
+		private Socket socket;
+		private OutputStream out;
+		private Ciphers ciphers;
+		private MessageEncoding encoding;
+		private Thread thread;
+		
+		private NotificationSocketCommunicationStructure commStruct;
+		
+		NotificationThread(String userId, Socket socket, OutputStream out, Ciphers ciphers, MessageEncoding encoding)
+		{
+			this.userId = userId;
+			this.socket = socket;
+			this.out = out;
+			this.ciphers = ciphers;
+			this.encoding = encoding;
+			
+			this.commStruct = new NotificationSocketCommunicationStructure();
+		}
+		
+		public boolean isAlive()
+		{
+			return this.thread != null && this.thread.isAlive();
+		}
+		
+		public void run()
+		{
+			try
+			{
+				this.socket.setSoTimeout(0);
+			}
+			catch (Exception x)
+			{
+				return;
+			}
+			
+			boolean closeSocket = false;
+			
+			while (!closeSocket)
+			{
+				ArrayList<Notification> pendingNotifications = null;
+				
+				this.commStruct.lock.lock();
+				
+				try
+				{
+					while (this.commStruct.notifications.size() == 0 && !this.commStruct.closeSocket)
+					{
+						this.commStruct.changed.await();
+					}
+					
+					if (this.commStruct.closeSocket)
+					{
+						closeSocket = true;
+					}
+					else
+					{
+						pendingNotifications = this.commStruct.notifications;
+						this.commStruct.notifications = new ArrayList<Notification>();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					closeSocket = true;
+				}
+				finally
+				{
+					this.commStruct.lock.unlock();
+				}
+				
+				if (pendingNotifications == null)
+				{
+					continue;
+				}
+				
+				try
+				{
+					this.executePushNotifications(
+							new Notifications(pendingNotifications), 
+							out);
+				}
+				catch (SocketException e)
+				{
+					closeSocket = true;
+				}
+				catch (Exception e)
+				{
+					getLog().logMessage(
+							LogEventId.E7, 
+							LogLevel.Error,
+							TextProperties.getMessageText(
+								TextProperties.NotificationSocketUnexpectedError(
+										this.userId, 
+										e.getMessage())));
+				}
+			}
+			
+			removeNotificationConnection(userId, this);
+			
+			try {
+				this.socket.close();
+			} catch (IOException x)
+			{
+			}
+		}
+		
+		public void pulseCheck()
+		{
+			this.pushNotification(new Notification());
+		}
+		
+		public void pushNotification(Notification notification)
+		{
+			this.commStruct.lock.lock();
+			
+			try
+			{
+				this.commStruct.notifications.add(notification);
+				this.commStruct.changed.signal();
+			}
+			finally
+			{
+				this.commStruct.lock.unlock();
+			}
+		}
+		
+		public void shutdownServer()
+		{
+			this.commStruct.lock.lock();
+			
+			try
+			{
+				this.commStruct.closeSocket = true;
+				this.commStruct.changed.signal();
+			}
+			finally
+			{
+				this.commStruct.lock.unlock();
+			}
+		}
+		
+		public void start()
+		{
+			// The stored notifications are sent first, in one batch. They are read while the connection
+			// is registered, so that a notification pushed at the same time is not sent twice.
+			this.commStruct.notifications.addAll(
+					Notification.getAllNotificationsMessagesOfUserFromFile(
+							getPathToNotificatiosFolder(), 
+							userId));
+			
+			this.thread = ExecutionThreads.start(this, getConfig().getExecutionMode());
+		}
+		
+		private void executePushNotifications(Notifications notifications, OutputStream out) throws Exception
+		{
+			sendNotifications(out, notifications, this.userId, this.ciphers, this.encoding);
+		}
+	}
+
+	// ==========================================================
+	
+	private class NotificationThreadPulseCheckThread extends Thread
+	{
+		public void run()
+		{
+			do
+			{
+				try {
+					Thread.sleep(30000);
+				} catch (Exception e)
+				{
+					break;
+				}
+				
+				pulseCheckNotificationConnections();
+				sessionCache.removeExpired();
+				
+			} while (true);
+		}
+	}
+	
+	// ==========================================================
+	
+	private class SelectorNotificationConnection implements NotificationConnection
+	{
+		private String userId;
+		private SocketChannel channel;
+		private Ciphers ciphers;
+		private MessageEncoding encoding;
+		private SelectorLoop.PushConnection pushConnection;
+		
+		SelectorNotificationConnection(String userId, SocketChannel channel, Ciphers ciphers, MessageEncoding encoding)
+		{
+			this.userId = userId;
+			this.channel = channel;
+			this.ciphers = ciphers;
+			this.encoding = encoding;
+		}
+		
+		public boolean isAlive()
+		{
+			return this.pushConnection != null && this.pushConnection.isOpen();
+		}
+		
+		public void pulseCheck()
+		{
+			this.pushNotification(new Notification());
+		}
+		
+		public void pushNotification(Notification notification)
+		{
+			this.pushNotifications(new Notifications(notification));
+		}
+		
+		public void shutdownServer()
+		{
+			if (this.pushConnection != null)
+			{
+				this.pushConnection.close();
+			}
+		}
+		
+		public void start()
+		{
+			this.pushConnection = selectSelectorLoop().registerPushConnection(this.channel, this);
+			
+			this.pushNotifications(
+					new Notifications(
+							Notification.getAllNotificationsMessagesOfUserFromFile(
+									getPathToNotificatiosFolder(), 
+									userId)));
+		}
+		
+		private synchronized void pushNotifications(Notifications notifications)
+		{
+			try
+			{
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				
+				sendNotifications(out, notifications, this.userId, this.ciphers, this.encoding);
+				
+				this.pushConnection.send(out.toByteArray());
+			}
+			catch (Exception e)
+			{
+				getLog().logMessage(
+						LogEventId.E7, 
+						LogLevel.Error,
+						TextProperties.getMessageText(
+							TextProperties.NotificationSocketUnexpectedError(
+									this.userId, 
+									e.getMessage())));
+				
+				this.shutdownServer();
+				removeNotificationConnection(this.userId, this);
+			}
+		}
+	}
+	
+	// ==========================================================
+	
+	private class ServerBusyHandler implements RejectedExecutionHandler
+	{
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+		{
+			requestsRejected.incrementAndGet();
+			
+			Socket socket = ((ServerThread)runnable).socket;
+			
+			try
+			{
+				serverBusyResponder.execute(new ServerBusyResponse(socket, false));
+			}
+			catch (RejectedExecutionException x)
+			{
+				try
+				{
+					socket.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+	}
+	
+	// ==========================================================
+	
+	private static class ServerBusyResponse implements Runnable
+	{
+		private Socket socket;
+		private boolean idle;
+		
+		/**
+		 * Constructor.
+		 * @param socket The connection
+		 * @param idle True, if an idle kept-alive connection is closed instead of rejecting a request
+		 */
+		ServerBusyResponse(Socket socket, boolean idle)
+		{
+			this.socket = socket;
+			this.idle = idle;
+		}
+		
+		public void run()
+		{
+			try
+			{
+				this.socket.setSoTimeout(SERVER_BUSY_SOCKET_TIMEOUT);
+				
+				if (this.idle)
+				{
+					CryptoLib.sendConnectionClosedIdle(this.socket.getOutputStream());
+				}
+				else
+				{
+					CryptoLib.sendServerBusy(this.socket.getOutputStream());
+				}
+				
+				this.socket.shutdownOutput();
+				
+				// Discard what the client has sent until the client closes the connection. Closing a socket 
+				// with unread data resets the connection, and the client might miss the response.
+				InputStream in = this.socket.getInputStream();
+				byte[] buffer = new byte[1024];
+				int bytesDiscarded = 0;
+				int length = 0;
+				
+				while (bytesDiscarded < SERVER_BUSY_MAX_BYTES_DISCARDED && 
+					   (length = in.read(buffer)) >= 0)
+				{
+					bytesDiscarded += length;
+				}
+			}
+			catch (Exception x)
+			{
+			}
+			
+			try
+			{
+				this.socket.close();
+			}
+			catch (IOException x)
+			{
+			}
+		}
+	}
+	
+	// ==========================================================
+	
+	private class SelectorLoopEventHandler implements SelectorLoopListener
+	{
+		public void onConnectionAccepted(SocketChannel channel)
+		{
+			try
+			{
+				if (shutdown)
+				{
+					channel.close();
+					return;
+				}
+				
+				channel.socket().setSoTimeout(SOCKET_TIMEOUT);
+				
+				executor.execute(new ServerThread(
+									channel.socket(),
+									channel.socket().getInetAddress().toString()));
+			}
+			catch (Exception x)
+			{
+				getLog().logMessage(
+						LogEventId.E1,
+						LogLevel.Error,
+						TextProperties.getMessageText(TextProperties.ServerSocketAcceptError(x.getMessage())));
+				
+				try
+				{
+					channel.close();
+				}
+				catch (IOException e)
+				{
+				}
+			}
+		}
+		
+		public void onConnectionClosed(Object attachment)
+		{
+			if (attachment instanceof SelectorNotificationConnection)
+			{
+				SelectorNotificationConnection notificationConnection = (SelectorNotificationConnection)attachment;
+				removeNotificationConnection(notificationConnection.userId, notificationConnection);
+			}
+		}
+		
+		public void onConnectionReadable(SocketChannel channel, Object attachment)
+		{
+			executor.execute((ServerThread)attachment);
+		}
+	}
+	
+	// ==========================================================
 	
-	private class NotificationThread extends Thread
+	private enum RequestProcessingResult
+	{
+		CLOSE_SOCKET,
+		KEEP_SOCKET_OPEN,
+		WAIT_FOR_NEXT_REQUEST
+	}
+	
+	// ==========================================================
+	
+	private class ServerThread implements Runnable
 	{
-		private String userId;
 		private Socket socket;
+		private String ipAddress;
+		private String userId;
+		private String sessionId;
+		private String token;
+		private Ciphers ciphers;
+		private MessageEncoding encoding = MessageEncoding.LEGACY;
+		private boolean keepAlive;
+		private boolean notificationsAes;
+		private boolean handshakeDone;
+		
+		private PushbackInputStream inPushback;
+		private DataInputStream in;
 		private OutputStream out;
 		
-		private NotificationSocketCommunicationStructure commStruct;
-		
-		NotificationThread(String userId, Socket socket, OutputStream out)
+		ServerThread(Socket socket, String ipAddress)
 		{
-			this.userId = userId;
 			this.socket = socket;
-			this.out = out;
-			
-			this.commStruct = new NotificationSocketCommunicationStructure();
+			this.ipAddress = ipAddress;
 		}
 		
 		public void run()
 		{
-			try
-			{
-				this.socket.setSoTimeout(0);
-			}
-			catch (Exception x)
-			{
-				return;
-			}
-			
-			boolean closeSocket = false;
+			boolean firstRequest = !this.handshakeDone;
 			
-			ArrayList<Notification> notifications = Notification.getAllNotificationsMessagesOfUserFromFile(
-																		getPathToNotificatiosFolder(), 
-																		userId);
-			
-			try
-			{
-				this.executePushNotifications(new Notifications(notifications), out);
-			}
-			catch (Exception e)
+			if (firstRequest)
 			{
-				closeSocket = true;
+				if (!this.handshake())
+				{
+					this.closeSocket();
+					return;
+				}
+				
+				this.handshakeDone = true;
 			}
 			
-			while (!closeSocket)
+			RequestProcessingResult result = this.processRequest(firstRequest);
+			
+			if (result == RequestProcessingResult.WAIT_FOR_NEXT_REQUEST)
 			{
-				synchronized(this.commStruct)
+				// Do not block a worker thread while the connection is idle. 
+				// The thread is run again as soon as the client sends its next request.
+				if (this.socket.getChannel() != null)
+				{
+					selectSelectorLoop().park(
+							this.socket.getChannel(), 
+							this, 
+							SOCKET_TIMEOUT,
+							CryptoLib.getConnectionClosedIdleFrame());
+				}
+				else
 				{
 					try
 					{
-						this.commStruct.wait();
-						
-						if (this.commStruct.closeSocket)
-						{
-							closeSocket = true;
-						}
-						else
-						{
-							this.executePushNotifications(
-									new Notifications(this.commStruct.notification), 
-									out);
-						}
-					}
-					catch (SocketException e)
-					{
-						closeSocket = true;
-					}
-					catch (InterruptedException e)
-					{
-						closeSocket = true;
+						idleConnectionThreads.execute(() -> this.waitForNextRequest());
 					}
-					catch (Exception e)
+					catch (RejectedExecutionException x)
 					{
-						getLog().logMessage(
-								LogEventId.E7, 
-								LogLevel.Error,
-								TextProperties.getMessageText(
-									TextProperties.NotificationSocketUnexpectedError(
-											this.userId, 
-											e.getMessage())));
+						this.closeIdleSocket(true);
 					}
 				}
 			}
-			
-			removeNotificationThread(userId);
-			
-			try {
-				this.socket.close();
-			} catch (IOException x)
+			else if (result == RequestProcessingResult.CLOSE_SOCKET)
 			{
+				this.closeSocket();
 			}
 		}
 		
-		void pulseCheck()
-		{
-			this.pushNotification(new Notification());
-		}
-		
-		void pushNotification(Notification notification)
+		/**
+		 * Blocking engine: wait for the next request of a kept-alive connection on a thread of the 
+		 * idle connection pool, and then process it on a worker thread again.
+		 */
+		private void waitForNextRequest()
 		{
-			synchronized(this.commStruct)
+			try
+			{
+				int firstByte = this.inPushback.read();
+				
+				if (firstByte < 0)
+				{
+					this.closeSocket();
+					return;
+				}
+				
+				if (shutdown)
+				{
+					this.closeIdleSocket(false);
+					return;
+				}
+				
+				this.inPushback.unread(firstByte);
+			}
+			catch (SocketTimeoutException x)
+			{
+				this.closeIdleSocket(false);
+				return;
+			}
+			catch (IOException x)
 			{
-				this.commStruct.notification = notification;
-				this.commStruct.notify();
+				// The connection was closed
+				this.closeSocket();
+				return;
 			}
+			
+			executor.execute(this);
 		}
 		
-		void shutdownServer()
+		/**
+		 * Close a kept-alive connection without processing a request from it. The client is told so, 
+		 * because it can send a request which it has sent at the same time again on a new connection.
+		 * @param handOver True, if the connection is closed on another thread, so that the calling thread 
+		 * does not wait for the client
+		 */
+		private void closeIdleSocket(boolean handOver)
 		{
-			synchronized(this.commStruct)
+			ServerBusyResponse response = new ServerBusyResponse(this.socket, true);
+			
+			if (!handOver)
 			{
-				this.commStruct.closeSocket = true;
-				this.commStruct.notify();
+				response.run();
+				return;
+			}
+			
+			try
+			{
+				serverBusyResponder.execute(response);
+			}
+			catch (RejectedExecutionException x)
+			{
+				this.closeSocket();
 			}
 		}
 		
-		private void executePushNotifications(Notifications notifications, OutputStream out) throws Exception
-		{
-			CryptoLib.sendStringRsaEncrypted(
-					out, 
-					notifications.serialize(), 
-					getUser(this.userId).getUserPublicKeyObject());
-		}
-	}
-
-	// ==========================================================
-	
-	private class NotificationThreadPulseCheckThread extends Thread
-	{
-		public void run()
+		private void closeSocket()
 		{
-			do
+		    try {
+				this.socket.close();
+			} catch (IOException x)
 			{
-				try {
-					Thread.sleep(30000);
-				} catch (Exception e)
-				{
-					break;
-				}
-				
-				pulseCheckNotificationThreads();
-				
-			} while (true);
+			}
 		}
-	}
-	
-	// ==========================================================
-	
-	private class ServerThread implements Runnable
-	{
-		private Socket socket;
-		private String ipAddress;
-		private String userId;
 		
-		ServerThread(Socket socket, String ipAddress)
+		private String getErrorMessageFromException(Exception x)
 		{
-			this.socket = socket;
-			this.ipAddress = ipAddress;
+			StringBuilder sb = new StringBuilder();
+			
+			sb.append(x.toString());
+			sb.append('\n');
+			
+			for (StackTraceElement stackTraceElement: x.getStackTrace())
+			{
+				sb.append(stackTraceElement.toString());
+				sb.append('\n');
+			}
+			
+			return sb.toString();
 		}
 		
-		public void run()
+		/**
+		 * Receive the user ID, negotiate the token, the protocol features, and the AES ciphers.
+		 * @return True, if the client can send its request now
+		 */
+		private boolean handshake()
 		{
-			String sessionId = null;
-			OutputStream out = null;
-			DataInputStream in = null;
 			ServerClientBuildCheckResult serverClientBuildCheck = null;
 			String clientBuild = null;
-			
-			boolean establishNotificationSocket = false;
+			ArrayList<ProtocolFeature> featuresAccepted = new ArrayList<ProtocolFeature>();
 			
 			try
 			{
-			    in = new DataInputStream(this.socket.getInputStream());
-			    out = this.socket.getOutputStream();
+			    this.inPushback = new PushbackInputStream(this.socket.getInputStream());
+			    this.in = new DataInputStream(this.inPushback);
+			    this.out = this.socket.getOutputStream();
+			    
+			    int frameLength = CryptoLib.receiveFrameLength(in);
+			    
+			    if (frameLength == CryptoLib.FRAME_LENGTH_SESSION_RESUMPTION)
+			    {
+			    	return this.resumeSession();
+			    }
 			    
 			    RequestMessageBase reqMsgUserId = 
 			    		(RequestMessageBase) RequestMessageBase.deserialize(
 			    					CryptoLib.receiveStringRsaEncrypted(
 			    					in,
+			    					frameLength,
 			    					getConfig().getServerPrivateKeyObject()));
 			    
 			    this.userId = (String) reqMsgUserId.getPayloadObject();
-			    sessionId = reqMsgUserId.getSessionId();
+			    this.sessionId = reqMsgUserId.getSessionId();
 			    
 			    if (!userExists(userId))
 			    {
@@ -1579,8 +2824,7 @@ public abstract class Server
 							null,
 							TextProperties.getMessageText(TextProperties.LogOnWithInvalidUserNameLength(Integer.toString(userId.length()))));
 			    	
-			    	this.closeSocket();
-				    return;
+				    return false;
 			    }
 			    
 			    if (getBuild() != null && reqMsgUserId.getClientBuild() != null)
@@ -1588,6 +2832,45 @@ public abstract class Server
 			    	serverClientBuildCheck = checkServerClientBuild(reqMsgUserId.getClientBuild());
 			    	clientBuild = reqMsgUserId.getClientBuild(); 
 			    }
+			    
+			    if (!this.userId.equals(User.ACTIVATION_USER_ID) &&
+			    	reqMsgUserId.getFeatures().contains(ProtocolFeature.KEEP_ALIVE))
+			    {
+			    	featuresAccepted.add(ProtocolFeature.KEEP_ALIVE);
+			    	this.keepAlive = true;
+			    }
+			    
+			    if (!this.userId.equals(User.ACTIVATION_USER_ID) &&
+			    	reqMsgUserId.getFeatures().contains(ProtocolFeature.SESSION_RESUMPTION))
+			    {
+			    	featuresAccepted.add(ProtocolFeature.SESSION_RESUMPTION);
+			    }
+			    
+			    if (!this.userId.equals(User.ACTIVATION_USER_ID) &&
+			    	reqMsgUserId.getFeatures().contains(ProtocolFeature.NOTIFICATIONS_AES))
+			    {
+			    	featuresAccepted.add(ProtocolFeature.NOTIFICATIONS_AES);
+			    	this.notificationsAes = true;
+			    }
+			    
+			    if (!this.userId.equals(User.ACTIVATION_USER_ID) &&
+			    	reqMsgUserId.getFeatures().contains(ProtocolFeature.KEY_AGREEMENT_X25519) &&
+			    	CryptoLib.isX25519Supported())
+			    {
+			    	featuresAccepted.add(ProtocolFeature.KEY_AGREEMENT_X25519);
+			    }
+			    
+			    if (!this.userId.equals(User.ACTIVATION_USER_ID) &&
+			    	reqMsgUserId.getFeatures().contains(ProtocolFeature.FLAGGED_COMPRESSION))
+			    {
+			    	featuresAccepted.add(ProtocolFeature.FLAGGED_COMPRESSION);
+			    }
+			    
+			    if (!this.userId.equals(User.ACTIVATION_USER_ID) &&
+			    	reqMsgUserId.getFeatures().contains(ProtocolFeature.BINARY_MESSAGES))
+			    {
+			    	featuresAccepted.add(ProtocolFeature.BINARY_MESSAGES);
+			    }
 			}
 			catch (Exception x)
 			{
@@ -1600,8 +2883,7 @@ public abstract class Server
 						null,
 						TextProperties.getMessageText(TextProperties.RequestReceiveError(x.getMessage())));
 				
-				this.closeSocket();
-				return;
+				return false;
 			}
 			
 			User user = getUser(this.userId);
@@ -1617,25 +2899,31 @@ public abstract class Server
 						null,
 						TextProperties.getMessageText(TextProperties.LogOnWithInactiveUser(user.getId())));
 				
-				this.closeSocket();
-				return;
+				return false;
 			}
 			
-			String token = 
+			this.token = 
 					this.userId.equals(User.ACTIVATION_USER_ID) ?
 							CryptoLib.NULL_UUID :
 							UUID.randomUUID().toString();
 			
-			Ciphers ciphers = getCiphers(sessionId);
+			this.ciphers = getCiphers(this.sessionId);
+			
+			if (this.ciphers != null && !this.userId.equals(this.ciphers.userId))
+			{
+				// A session belongs to the user who established it
+				this.ciphers = null;
+			}
 			
 			try
 			{
 				if (!this.userId.equals(User.ACTIVATION_USER_ID))
 				{
 					PayloadResponseMessageUserId payload = new PayloadResponseMessageUserId(
-																token,
-																ciphers != null,
-																serverClientBuildCheck);
+																this.token,
+																this.ciphers != null,
+																serverClientBuildCheck,
+																featuresAccepted);
 					
 					ResponseMessage respMsg = new ResponseMessage(
 													new Payload(payload),
@@ -1651,17 +2939,24 @@ public abstract class Server
 							user.getUserPublicKeyObject());
 				}
 				
-				if (ciphers == null &&
+				if (this.ciphers == null &&
 					!(serverClientBuildCheck != null && !serverClientBuildCheck.areBuildsCompatible()))
 				{
-					ciphers = CryptoLib.diffieHellmanKeyAgreementServer(in, out);
-					sessionId = ciphers.sessionId;
+					this.ciphers = 
+							featuresAccepted.contains(ProtocolFeature.KEY_AGREEMENT_X25519) ?
+									CryptoLib.x25519KeyAgreementServer(in, out, keyPairPoolX25519) :
+									CryptoLib.diffieHellmanKeyAgreementServer(in, out, keyPairPoolDiffieHellman);
+					this.ciphers.userId = this.userId;
+					this.sessionId = this.ciphers.sessionId;
 					
 					if (!this.userId.equals(User.ACTIVATION_USER_ID))
 					{
-						setCiphers(sessionId, ciphers);
+						setCiphers(this.sessionId, this.ciphers);
 					}
 				}
+				
+				// The encoding belongs to this connection. Other connections of the same session may have agreed on other features.
+				this.encoding = MessageEncoding.fromFeatures(featuresAccepted, messageCompression);
 			}
 			catch (Exception x)
 			{
@@ -1674,8 +2969,7 @@ public abstract class Server
 						null,
 						TextProperties.getMessageText(TextProperties.DiffieHellmanKeyExchangeFailed(x.getMessage())));
 				
-				this.closeSocket();
-				return;
+				return false;
 			}
 			
 			if (serverClientBuildCheck != null && !serverClientBuildCheck.areBuildsCompatible())
@@ -1692,22 +2986,39 @@ public abstract class Server
 				    					serverClientBuildCheck.getMinimumComptabileBuild(),
 				    					clientBuild)));
 				
-				this.closeSocket();
-				return;
+				return false;
 			}
 			
+			return true;
+		}
+		
+		/**
+		 * Receive a request message, process it, and send the response message.
+		 * @param firstRequest True, if this is the first request after the handshake
+		 * @return What happens with the socket after the response was sent
+		 */
+		private RequestProcessingResult processRequest(boolean firstRequest)
+		{
 			RequestMessage requestMessage = null;
 			
 			try
 			{
-				requestMessage = (RequestMessage)RequestMessage.deserialize(
-						CryptoLib.receiveStringAesEncrypted(in, ciphers.cipherDecrypt));
+				requestMessage = (RequestMessage) CryptoLib.receiveMessageAesEncrypted(in, this.ciphers);
 			    
-			    if (token!= null && !token.equals(requestMessage.getToken()))
+			    if (this.token != null && !this.token.equals(requestMessage.getToken()))
 			    	throw new Exception (TextProperties.getMessageText(TextProperties.InvalidToken()));
 			}
 			catch (Exception x)
 			{
+				if (!firstRequest &&
+					(x instanceof EOFException || 
+					 x instanceof SocketException ||
+					 x instanceof SocketTimeoutException))
+				{
+					// The client closed the idle connection, or the connection timed out.
+					return RequestProcessingResult.CLOSE_SOCKET;
+				}
+				
 				getLog().logMessage(
 						LogEventId.E5,
 						LogLevel.Error,
@@ -1717,8 +3028,7 @@ public abstract class Server
 						null,
 						TextProperties.getMessageText(TextProperties.RequestDecryptionError(x.getMessage())));
 				
-				this.closeSocket();
-				return;
+				return RequestProcessingResult.CLOSE_SOCKET;
 			}
 			
 			MessageProcessingContainer container = new MessageProcessingContainer(userId, requestMessage); 
@@ -1759,18 +3069,18 @@ public abstract class Server
 						requestMessage.serialize(),
 						TextProperties.getMessageText(TextProperties.ResponseMessageNotSet()));
 		    	
-		    	this.closeSocket();
-		    	return;
+		    	return RequestProcessingResult.CLOSE_SOCKET;
 		    }
 		    
 			try
 			{
 				 container.getResponseMessage().setServerBuild(getBuild());
 				
-				 CryptoLib.sendStringAesEncrypted(
+				 CryptoLib.sendMessageAesEncrypted(
 						 out, 
-						 container.getResponseMessage().serialize(), 
-						 ciphers.cipherEncrypt);
+						 container.getResponseMessage(), 
+						 this.ciphers,
+						 this.encoding);
 				 
 				 String logMessageText = TextProperties.getMessageText(TextProperties.Ok());
 				 LogLevel logLevel =
@@ -1805,11 +3115,7 @@ public abstract class Server
 								 requestMessage.getPayload().toString() : "",
 								 logMessageText);
 		    	 
-		    	 if (requestMessage.getType() == RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET)
-		    	 {
-		    		 establishNotificationSocket = true;
-		    	 }
-		    	 else
+		    	 if (requestMessage.getType() != RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET)
 		    	 {
 		    		 afterResponseMessageSent(container);
 		    	 }
@@ -1832,47 +3138,143 @@ public abstract class Server
 				
 				afterResponseMessageSent(container);
 				
-				this.closeSocket();
-				return;
+				return RequestProcessingResult.CLOSE_SOCKET;
 			}
 			
-			if (establishNotificationSocket)
+			if (requestMessage.getType() == RequestMessageType.ESTABLISH_NOTIFICATION_SOCKET)
+			{
+				if (this.socket.getChannel() != null)
+				{
+					addNotificationConnection(
+							this.userId, 
+							new SelectorNotificationConnection(
+									this.userId, 
+									this.socket.getChannel(),
+									this.notificationsAes ? this.ciphers : null,
+									this.encoding));
+				}
+				else
+				{
+					addNotificationConnection(
+							this.userId, 
+							new NotificationThread(
+									this.userId, 
+									this.socket, 
+									out,
+									this.notificationsAes ? this.ciphers : null,
+									this.encoding));
+				}
+				
+				return RequestProcessingResult.KEEP_SOCKET_OPEN;
+			}
+			else if (this.keepAlive && 
+					 !shutdown &&
+					 getCiphers(this.sessionId) == this.ciphers)
 			{
-				NotificationThread notificationThread = new NotificationThread(
-						this.userId,
-						this.socket,
-						out);
-				addNotificationThread(this.userId, notificationThread);
+				return RequestProcessingResult.WAIT_FOR_NEXT_REQUEST;
 			}
 			else
 			{
-				this.closeSocket();
+				return RequestProcessingResult.CLOSE_SOCKET;
 			}
 		}
 		
-		private void closeSocket()
+		private boolean rejectSessionResumption()
 		{
-		    try {
-				this.socket.close();
-			} catch (IOException x)
+			getLog().logMessage(
+					LogEventId.V2,
+					LogLevel.Verbose,
+					this.ipAddress,
+					this.userId,
+					null,
+					null,
+					TextProperties.getMessageText(TextProperties.SessionResumptionRejected()));
+			
+			try
+			{
+				// Read the request which the client has already sent, so that it receives the answer 
+				// and falls back to the full handshake.
+				CryptoLib.skipFrame(in);
+				CryptoLib.sendSessionResumptionRejected(out);
+			}
+			catch (Exception x)
 			{
 			}
+			
+			return false;
 		}
 		
-		private String getErrorMessageFromException(Exception x)
+		/**
+		 * Resume an existing session without RSA encryption and key agreement. The request of the client
+		 * follows the session resumption message right away.
+		 * @return True, if the client's request can be processed now
+		 */
+		private boolean resumeSession()
 		{
-			StringBuilder sb = new StringBuilder();
+			RequestMessageSessionResumption reqMsgResumption = null;
+			Ciphers ciphers = null;
 			
-			sb.append(x.toString());
-			sb.append('\n');
+			try
+			{
+				this.sessionId = CryptoLib.receiveSessionResumptionSessionId(in);
+				
+				ciphers = getCiphers(this.sessionId);
+				
+				if (ciphers == null)
+				{
+					return this.rejectSessionResumption();
+				}
+				
+				reqMsgResumption = (RequestMessageSessionResumption) CryptoLib.receiveMessageAesEncrypted(in, ciphers);
+				
+				this.userId = (String) reqMsgResumption.getPayloadObject();
+				
+				if (this.userId == null ||
+					!this.userId.equals(ciphers.userId) ||
+					!this.sessionId.equals(reqMsgResumption.getSessionId()) ||
+					reqMsgResumption.getToken() == null ||
+					!CryptoLib.isSessionResumptionMacValid(
+							reqMsgResumption.getMac(), 
+							ciphers.macKey, 
+							this.sessionId, 
+							this.userId, 
+							reqMsgResumption.getSequenceNumber(), 
+							reqMsgResumption.getToken()) ||
+					!ciphers.acceptResumptionSequenceNumber(reqMsgResumption.getSequenceNumber()))
+				{
+					return this.rejectSessionResumption();
+				}
+			}
+			catch (Exception x)
+			{
+				return this.rejectSessionResumption();
+			}
 			
-			for (StackTraceElement stackTraceElement: x.getStackTrace())
+			User user = getUser(this.userId);
+			
+			if (user == null || !user.isActive())
 			{
-				sb.append(stackTraceElement.toString());
-				sb.append('\n');
+				return this.rejectSessionResumption();
 			}
 			
-			return sb.toString();
+			if (getBuild() != null && reqMsgResumption.getClientBuild() != null)
+			{
+				ServerClientBuildCheckResult serverClientBuildCheck = checkServerClientBuild(reqMsgResumption.getClientBuild());
+				
+				if (!serverClientBuildCheck.areBuildsCompatible())
+				{
+					// The full handshake tells the client about the incompatible builds
+					return this.rejectSessionResumption();
+				}
+			}
+			
+			this.ciphers = ciphers;
+			this.token = reqMsgResumption.getToken();
+			this.keepAlive = reqMsgResumption.getFeatures().contains(ProtocolFeature.KEEP_ALIVE);
+			this.notificationsAes = reqMsgResumption.getFeatures().contains(ProtocolFeature.NOTIFICATIONS_AES);
+			this.encoding = MessageEncoding.fromFeatures(reqMsgResumption.getFeatures(), messageCompression);
+			
+			return true;
 		}
 	}
 }
@@ -35,6 +35,38 @@ public class ServerConfiguration extends FileBasedSerializableEntity
 	 * The default server port (56084)
 	 */
 	public static final int SERVER_PORT = 56084;
+	/**
+	 * The default number of selector threads if the server uses the I/O engine "Selector" (2)
+	 */
+	public static final int SERVER_DEFAULT_IO_THREADS = 2;
+	/**
+	 * The default maximum number of threads processing requests at the same time (200)
+	 */
+	public static final int SERVER_DEFAULT_MAX_WORKER_THREADS = 200;
+	/**
+	 * The default maximum number of requests waiting for a free worker thread (500)
+	 */
+	public static final int SERVER_DEFAULT_MAX_QUEUED_REQUESTS = 500;
+	/**
+	 * The default maximum number of sessions which the server keeps in memory (10000)
+	 */
+	public static final int SERVER_DEFAULT_MAX_SESSIONS = 10000;
+	/**
+	 * The default number of key pairs per key agreement algorithm which the server generates ahead of time (8)
+	 */
+	public static final int SERVER_DEFAULT_KEY_PAIR_POOL_SIZE = 8;
+	/**
+	 * The default deflate level of messages which the server compresses (6)
+	 */
+	public static final int SERVER_DEFAULT_COMPRESSION_LEVEL = 6;
+	/**
+	 * The default maximum number of data sets which the server caches in memory (1000)
+	 */
+	public static final int SERVER_DEFAULT_DATA_SET_CACHE_MAX_ENTRIES = 1000;
+	/**
+	 * The default maximum estimated size of the data sets which the server caches in memory, in megabytes (64)
+	 */
+	public static final int SERVER_DEFAULT_DATA_SET_CACHE_MAX_MEGABYTES = 64;
 	/**
 	 * Read a server configuration from a file.
 	 * @param fileName File name
@@ -64,6 +96,30 @@ public class ServerConfiguration extends FileBasedSerializableEntity
 	
 	private String locale;
 	
+	private ServerIoEngine ioEngine;
+	
+	private int ioThreads;
+	
+	private ExecutionMode executionMode;
+	
+	private int maxWorkerThreads;
+	
+	private int maxQueuedRequests;
+	
+	private int maxSessions;
+	
+	private Integer keyPairPoolSize;
+	
+	private Integer compressionLevel;
+	
+	private Integer dataSetCacheMaxEntries;
+	
+	private int dataSetCacheMaxMegabytes;
+	
+	private DataSetStorage dataSetStorage;
+	
+	private PersistenceMode persistenceMode;
+	
 	private transient PrivateKey serverPrivateKeyObject;
 
 	/**
@@ -104,6 +160,76 @@ public class ServerConfiguration extends FileBasedSerializableEntity
 		return adminEmail;
 	}
 
+	/**
+	 * Get the deflate level with which the server compresses messages to clients (0 to 9). The default is 6.
+	 * @return The compression level
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel != null && compressionLevel >= 0 && compressionLevel <= 9 ? 
+				compressionLevel : 
+				SERVER_DEFAULT_COMPRESSION_LEVEL;
+	}
+
+	/**
+	 * Get the maximum number of data sets which the server caches in memory, so that data sets which are read often
+	 * are not read from their files again and again. The default is 1000.
+	 * @return The maximum number of cached data sets
+	 */
+	public int getDataSetCacheMaxEntries() {
+		return dataSetCacheMaxEntries != null && dataSetCacheMaxEntries >= 0 ? 
+				dataSetCacheMaxEntries : 
+				SERVER_DEFAULT_DATA_SET_CACHE_MAX_ENTRIES;
+	}
+	
+	/**
+	 * Get the maximum estimated size of the data sets which the server caches in memory. The default is 64 megabytes.
+	 * @return The maximum size of the cached data sets in megabytes
+	 */
+	public int getDataSetCacheMaxMegabytes() {
+		return dataSetCacheMaxMegabytes > 0 ? dataSetCacheMaxMegabytes : SERVER_DEFAULT_DATA_SET_CACHE_MAX_MEGABYTES;
+	}
+
+	/**
+	 * Get the way the server stores the data sets. The default is "Files".
+	 * @return The data set storage
+	 */
+	public DataSetStorage getDataSetStorage() {
+		return dataSetStorage != null ? dataSetStorage : DataSetStorage.Files;
+	}
+
+	/**
+	 * Get the kind of threads on which the server processes requests and pushes notifications. The default is platform threads.
+	 * @return The execution mode
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode != null ? executionMode : ExecutionMode.PlatformThreads;
+	}
+
+	/**
+	 * Get the I/O engine of the server. The default is "Blocking".
+	 * @return The I/O engine
+	 */
+	public ServerIoEngine getIoEngine() {
+		return ioEngine != null ? ioEngine : ServerIoEngine.Blocking;
+	}
+
+	/**
+	 * Get the number of selector threads if the server uses the I/O engine "Selector".
+	 * @return The number of selector threads
+	 */
+	public int getIoThreads() {
+		return ioThreads > 0 ? ioThreads : SERVER_DEFAULT_IO_THREADS;
+	}
+
+	/**
+	 * Get the number of key pairs per key agreement algorithm which the server generates ahead of time 
+	 * in the background, so that new sessions do not wait for the generation of a key pair. The default is 8.
+	 * @return The size of the key pair pools
+	 */
+	public int getKeyPairPoolSize() {
+		return keyPairPoolSize != null && keyPairPoolSize >= 0 ? keyPairPoolSize : SERVER_DEFAULT_KEY_PAIR_POOL_SIZE;
+	}
+
 	/**
 	 * Get the language into which the server converts log messages and console outputs. "de-DE" or "en-US"
 	 * @return The language into which the server converts log messages and console outputs. "de-DE" or "en-US"
@@ -120,6 +246,41 @@ public class ServerConfiguration extends FileBasedSerializableEntity
 		return logLevel;
 	}
 	
+	/**
+	 * Get the maximum number of requests waiting for a free worker thread. If the queue is full,
+	 * the server rejects further requests with the response "server busy".
+	 * @return The maximum number of queued requests
+	 */
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests > 0 ? maxQueuedRequests : SERVER_DEFAULT_MAX_QUEUED_REQUESTS;
+	}
+
+	/**
+	 * Get the maximum number of sessions which the server keeps in memory. If there are more sessions,
+	 * the sessions used least recently are dropped, and their clients agree on a new session key.
+	 * @return The maximum number of sessions
+	 */
+	public int getMaxSessions() {
+		return maxSessions > 0 ? maxSessions : SERVER_DEFAULT_MAX_SESSIONS;
+	}
+
+	/**
+	 * Get the maximum number of threads processing requests at the same time.
+	 * @return The maximum number of worker threads
+	 */
+	public int getMaxWorkerThreads() {
+		return maxWorkerThreads > 0 ? maxWorkerThreads : SERVER_DEFAULT_MAX_WORKER_THREADS;
+	}
+	
+	/**
+	 * Get the way the server writes updated data sets to the disk. The default is "Synchronous".
+	 * The write-ahead log is not used if the data sets are kept in memory.
+	 * @return The persistence mode
+	 */
+	public PersistenceMode getPersistenceMode() {
+		return persistenceMode != null ? persistenceMode : PersistenceMode.Synchronous;
+	}
+
 	/**
 	 * Get the server port.
 	 * @return The server port
@@ -160,6 +321,127 @@ public class ServerConfiguration extends FileBasedSerializableEntity
 		return serverPublicKey;
 	}
 
+	/**
+	 * Set the deflate level with which the server compresses messages to clients.
+	 * 0 disables compression, 1 is the fastest and 9 the strongest level. Short messages are never compressed.
+	 * The change takes effect the next time the server is started.
+	 * @param compressionLevel The compression level (0 to 9)
+	 */
+	public void setCompressionLevel(int compressionLevel)
+	{
+		this.compressionLevel = compressionLevel;
+	}
+	
+	/**
+	 * Set the maximum number of data sets which the server caches in memory. 0 disables the cache.
+	 * The change takes effect the next time the server is started.
+	 * @param dataSetCacheMaxEntries The maximum number of cached data sets
+	 */
+	public void setDataSetCacheMaxEntries(int dataSetCacheMaxEntries)
+	{
+		this.dataSetCacheMaxEntries = dataSetCacheMaxEntries;
+	}
+	
+	/**
+	 * Set the maximum estimated size of the data sets which the server caches in memory. The size of a data set
+	 * is estimated from the length of its JSON representation.
+	 * The change takes effect the next time the server is started.
+	 * @param dataSetCacheMaxMegabytes The maximum size of the cached data sets in megabytes
+	 */
+	public void setDataSetCacheMaxMegabytes(int dataSetCacheMaxMegabytes)
+	{
+		this.dataSetCacheMaxMegabytes = dataSetCacheMaxMegabytes;
+	}
+	
+	/**
+	 * Set the way the server stores the data sets. When the storage is changed between "Files" and "Segments", 
+	 * the server moves the data sets the next time it starts. The change takes effect the next time the server is started.
+	 * @param dataSetStorage The data set storage
+	 */
+	public void setDataSetStorage(DataSetStorage dataSetStorage)
+	{
+		this.dataSetStorage = dataSetStorage;
+	}
+	
+	/**
+	 * Set the kind of threads on which the server processes requests and pushes notifications.
+	 * The change takes effect the next time the server is started.
+	 * @param executionMode The execution mode
+	 */
+	public void setExecutionMode(ExecutionMode executionMode)
+	{
+		this.executionMode = executionMode;
+	}
+	
+	/**
+	 * Set the I/O engine of the server. The change takes effect the next time the server is started.
+	 * @param ioEngine The I/O engine
+	 */
+	public void setIoEngine(ServerIoEngine ioEngine)
+	{
+		this.ioEngine = ioEngine;
+	}
+	
+	/**
+	 * Set the number of selector threads if the server uses the I/O engine "Selector".
+	 * The change takes effect the next time the server is started.
+	 * @param ioThreads The number of selector threads
+	 */
+	public void setIoThreads(int ioThreads)
+	{
+		this.ioThreads = ioThreads;
+	}
+	
+	/**
+	 * Set the number of key pairs per key agreement algorithm which the server generates ahead of time.
+	 * 0 disables the pools. The change takes effect the next time the server is started.
+	 * @param keyPairPoolSize The size of the key pair pools
+	 */
+	public void setKeyPairPoolSize(int keyPairPoolSize)
+	{
+		this.keyPairPoolSize = keyPairPoolSize;
+	}
+	
+	/**
+	 * Set the maximum number of requests waiting for a free worker thread.
+	 * The change takes effect the next time the server is started.
+	 * @param maxQueuedRequests The maximum number of queued requests
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests)
+	{
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+	
+	/**
+	 * Set the maximum number of sessions which the server keeps in memory.
+	 * The change takes effect the next time the server is started.
+	 * @param maxSessions The maximum number of sessions
+	 */
+	public void setMaxSessions(int maxSessions)
+	{
+		this.maxSessions = maxSessions;
+	}
+	
+	/**
+	 * Set the maximum number of threads processing requests at the same time.
+	 * The change takes effect the next time the server is started.
+	 * @param maxWorkerThreads The maximum number of worker threads
+	 */
+	public void setMaxWorkerThreads(int maxWorkerThreads)
+	{
+		this.maxWorkerThreads = maxWorkerThreads;
+	}
+	
+	/**
+	 * Set the way the server writes updated data sets to the disk. 
+	 * The change takes effect the next time the server is started.
+	 * @param persistenceMode The persistence mode
+	 */
+	public void setPersistenceMode(PersistenceMode persistenceMode)
+	{
+		this.persistenceMode = persistenceMode;
+	}
+	
 	/**
 	 * Set or change the minimum log level. 
 	 * @param logLevel The minimum log level.
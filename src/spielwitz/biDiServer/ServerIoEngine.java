@@ -0,0 +1,39 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+/**
+ * The way the server handles its client connections.
+ * @author spielwitz
+ *
+ */
+public enum ServerIoEngine
+{
+	/**
+	 * Engine "Blocking". Every client connection occupies a thread of its own, including idle 
+	 * kept-alive connections and notification connections.
+	 */
+	Blocking,
+	
+	/**
+	 * Engine "Selector". Connections are accepted and watched by a small, fixed number of selector threads. 
+	 * A thread is only occupied while a request is processed. Idle kept-alive connections and
+	 * notification connections do not occupy a thread.
+	 */
+	Selector
+}
@@ -0,0 +1,236 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The AES ciphers of the sessions known to the server. Lookups do not lock. Expired sessions are removed 
+ * when they are looked up and by a periodic sweep. If the cache exceeds its capacity, the sessions which 
+ * were used least recently are evicted.
+ * @author spielwitz
+ *
+ */
+class SessionCache
+{
+	// When the capacity is exceeded, evict down to this share of the capacity, so that a full cache
+	// is not scanned for every new session.
+	private static final double EVICTION_TARGET_RATIO = 0.9;
+	
+	private ConcurrentHashMap<String, Ciphers> ciphersPerSession = new ConcurrentHashMap<String, Ciphers>();
+	private int capacity;
+	private AtomicBoolean evicting = new AtomicBoolean();
+	
+	private AtomicLong sessionsEvicted = new AtomicLong();
+	private AtomicLong sessionsExpired = new AtomicLong();
+	
+	/**
+	 * Constructor.
+	 * @param capacity Maximum number of sessions
+	 */
+	SessionCache(int capacity)
+	{
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Get the ciphers of a session and mark the session as used.
+	 * @param sessionId The session ID
+	 * @return The ciphers, or null if the session is unknown or has expired
+	 */
+	Ciphers get(String sessionId)
+	{
+		if (sessionId == null || 
+			sessionId.equals(CryptoLib.NULL_UUID))
+		{
+			return null;
+		}
+		
+		Ciphers ciphers = this.ciphersPerSession.get(sessionId);
+		
+		if (ciphers == null)
+			return null;
+		
+		long timeNow = System.currentTimeMillis();
+		
+		if (isExpired(ciphers, timeNow))
+		{
+			if (this.ciphersPerSession.remove(sessionId, ciphers))
+			{
+				this.sessionsExpired.incrementAndGet();
+			}
+			
+			return null;
+		}
+		
+		ciphers.lastUsed = timeNow;
+		return ciphers;
+	}
+	
+	/**
+	 * Get the number of sessions in the cache.
+	 * @return The number of sessions
+	 */
+	int getSessionsCached()
+	{
+		return this.ciphersPerSession.size();
+	}
+	
+	/**
+	 * Get the number of sessions which were evicted because the cache exceeded its capacity.
+	 * @return The number of evicted sessions
+	 */
+	long getSessionsEvicted()
+	{
+		return this.sessionsEvicted.get();
+	}
+	
+	/**
+	 * Get the number of sessions which were removed because they expired.
+	 * @return The number of expired sessions
+	 */
+	long getSessionsExpired()
+	{
+		return this.sessionsExpired.get();
+	}
+	
+	/**
+	 * Add the ciphers of a session. If the cache exceeds its capacity, the sessions used least recently are evicted.
+	 * @param sessionId The session ID
+	 * @param ciphers The ciphers
+	 */
+	void put(String sessionId, Ciphers ciphers)
+	{
+		if (sessionId == null || 
+			sessionId.equals(CryptoLib.NULL_UUID) ||
+			ciphers == null)
+		{
+			return;
+		}
+		
+		ciphers.lastUsed = System.currentTimeMillis();
+		
+		if (ciphers.created == 0)
+			ciphers.created = ciphers.lastUsed;
+		
+		this.ciphersPerSession.put(sessionId, ciphers);
+		
+		if (this.ciphersPerSession.size() > this.capacity)
+		{
+			this.evictLeastRecentlyUsed();
+		}
+	}
+	
+	/**
+	 * Remove all expired sessions.
+	 */
+	void removeExpired()
+	{
+		long timeNow = System.currentTimeMillis();
+		
+		for (Map.Entry<String, Ciphers> entry: this.ciphersPerSession.entrySet())
+		{
+			if (isExpired(entry.getValue(), timeNow) &&
+				this.ciphersPerSession.remove(entry.getKey(), entry.getValue()))
+			{
+				this.sessionsExpired.incrementAndGet();
+			}
+		}
+	}
+	
+	private static boolean isExpired(Ciphers ciphers, long timeNow)
+	{
+		return timeNow - ciphers.lastUsed > CryptoLib.CIPHERS_MAX_INACTIVITY_MILLISECONDS ||
+			   timeNow - ciphers.created > CryptoLib.CIPHERS_MAX_VALIDITY_MILLISECONDS;
+	}
+	
+	private void evictLeastRecentlyUsed()
+	{
+		// Only one thread scans the cache. Other threads add their session and carry on.
+		if (!this.evicting.compareAndSet(false, true))
+		{
+			return;
+		}
+		
+		try
+		{
+			this.removeExpired();
+			
+			int sessionsToEvict = this.ciphersPerSession.size() - (int)(this.capacity * EVICTION_TARGET_RATIO);
+			
+			if (sessionsToEvict <= 0)
+			{
+				return;
+			}
+			
+			// Take a snapshot of the last usage, because it changes while the entries are sorted.
+			ArrayList<SessionUsage> usages = new ArrayList<SessionUsage>(this.ciphersPerSession.size());
+			
+			for (Map.Entry<String, Ciphers> entry: this.ciphersPerSession.entrySet())
+			{
+				usages.add(new SessionUsage(entry.getKey(), entry.getValue()));
+			}
+			
+			Collections.sort(usages, new Comparator<SessionUsage>()
+			{
+				public int compare(SessionUsage usage1, SessionUsage usage2)
+				{
+					return Long.compare(usage1.lastUsed, usage2.lastUsed);
+				}
+			});
+			
+			for (int i = 0; i < usages.size() && sessionsToEvict > 0; i++)
+			{
+				SessionUsage usage = usages.get(i);
+				
+				if (this.ciphersPerSession.remove(usage.sessionId, usage.ciphers))
+				{
+					this.sessionsEvicted.incrementAndGet();
+					sessionsToEvict--;
+				}
+			}
+		}
+		finally
+		{
+			this.evicting.set(false);
+		}
+	}
+	
+	// ==========================================================
+	
+	private static class SessionUsage
+	{
+		private String sessionId;
+		private Ciphers ciphers;
+		private long lastUsed;
+		
+		private SessionUsage(String sessionId, Ciphers ciphers)
+		{
+			this.sessionId = sessionId;
+			this.ciphers = ciphers;
+			this.lastUsed = ciphers.lastUsed;
+		}
+	}
+}
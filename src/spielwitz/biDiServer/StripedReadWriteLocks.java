@@ -0,0 +1,65 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package spielwitz.biDiServer;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed number of read/write locks, which are assigned to keys by the hash code of the key. 
+ * Operations on different keys usually get different locks and do not block each other, while the number
+ * of locks does not grow with the number of keys. Readers of the same key share their lock.
+ * @author spielwitz
+ *
+ */
+class StripedReadWriteLocks
+{
+	private ReadWriteLock[] locks;
+	private int mask;
+	
+	/**
+	 * Constructor.
+	 * @param stripes The number of locks. Rounded up to a power of two
+	 */
+	StripedReadWriteLocks(int stripes)
+	{
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		
+		this.locks = new ReadWriteLock[size];
+		this.mask = size - 1;
+		
+		for (int i = 0; i < size; i++)
+		{
+			this.locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+	
+	/**
+	 * Get the lock of a key.
+	 * @param key The key
+	 * @return The lock of the key
+	 */
+	ReadWriteLock get(String key)
+	{
+		int hash = key.hashCode();
+		
+		// Spread the upper bits, so that keys which differ only there get different locks
+		return this.locks[(hash ^ (hash >>> 16)) & this.mask];
+	}
+}
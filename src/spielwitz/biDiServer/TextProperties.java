@@ -45,6 +45,13 @@ class TextProperties
 		return new TextProperty("ApplicationError", new String[] {arg0});
 	}
 
+	/**
+	   * Request type {0} is not allowed in a batch.
+	   */
+	static TextProperty BatchRequestTypeNotAllowed(String arg0) {
+		return new TextProperty("BatchRequestTypeNotAllowed", new String[] {arg0});
+	}
+
 	/**
 	   * Closing server socket.
 	   */
@@ -73,6 +80,13 @@ class TextProperties
 		return new TextProperty("CreatingFolder", new String[] {arg0});
 	}
 
+	/**
+	   * Data set {0} could not be deleted: {1}
+	   */
+	static TextProperty DataSetDeleteFailed(String arg0, String arg1) {
+		return new TextProperty("DataSetDeleteFailed", new String[] {arg0, arg1});
+	}
+
 	/**
 	   * A data set with the ID {0} already exists.
 	   */
@@ -108,6 +122,13 @@ class TextProperties
 		return new TextProperty("DataSetIdTooShort", new String[] {arg0});
 	}
 
+	/**
+	   * Data set {0} could not be read: {1}
+	   */
+	static TextProperty DataSetReadFailed(String arg0, String arg1) {
+		return new TextProperty("DataSetReadFailed", new String[] {arg0, arg1});
+	}
+
 	/**
 	   * User {0} is not authorized to read data set {1}.
 	   */
@@ -129,6 +150,20 @@ class TextProperties
 		return new TextProperty("DataSetUserNotAuthorizedUpdate", new String[] {arg0, arg1});
 	}
 
+	/**
+	   * Data set {0} was changed in the meantime. The change is based on version {1}, but the current version is {2}.
+	   */
+	static TextProperty DataSetVersionConflict(String arg0, String arg1, String arg2) {
+		return new TextProperty("DataSetVersionConflict", new String[] {arg0, arg1, arg2});
+	}
+
+	/**
+	   * Data set {0} could not be written: {1}
+	   */
+	static TextProperty DataSetWriteFailed(String arg0, String arg1) {
+		return new TextProperty("DataSetWriteFailed", new String[] {arg0, arg1});
+	}
+
 	/**
 	   * {1}/{0}/{2} {3}:{4}:{5}
 	   */
@@ -304,6 +339,13 @@ class TextProperties
 		return new TextProperty("ResponseMessageNotSet");
 	}
 
+	/**
+	   * The data set segment {0} is damaged at offset {1}.
+	   */
+	static TextProperty SegmentDamaged(String arg0, String arg1) {
+		return new TextProperty("SegmentDamaged", new String[] {arg0, arg1});
+	}
+
 	/**
 	   * The server is using build {0}. Your client expects a server build of at least {1}.
 	   */
@@ -311,6 +353,13 @@ class TextProperties
 		return new TextProperty("ServerBuildOutdated", new String[] {arg0, arg1});
 	}
 
+	/**
+	   * The server is busy. Please try again later.
+	   */
+	static TextProperty ServerBusy() {
+		return new TextProperty("ServerBusy");
+	}
+
 	/**
 	   * Server cannot be started on port {0}. The port might already be in use. Application terminated.
 	   */
@@ -332,6 +381,13 @@ class TextProperties
 		return new TextProperty("ServerStarted", new String[] {arg0});
 	}
 
+	/**
+	   * The server cannot resume the session.
+	   */
+	static TextProperty SessionResumptionRejected() {
+		return new TextProperty("SessionResumptionRejected");
+	}
+
 	/**
 	   * The server was shut down down successfully.
 	   */
@@ -408,4 +464,25 @@ class TextProperties
 	static TextProperty UserIdTooShort(String arg0) {
 		return new TextProperty("UserIdTooShort", new String[] {arg0});
 	}
+
+	/**
+	   * Virtual threads are not supported by this Java runtime. Platform threads are used instead.
+	   */
+	static TextProperty VirtualThreadsNotSupported() {
+		return new TextProperty("VirtualThreadsNotSupported");
+	}
+
+	/**
+	   * The write-ahead log failed and is closed. Data sets are written synchronously: {0}
+	   */
+	static TextProperty WriteAheadLogFailed(String arg0) {
+		return new TextProperty("WriteAheadLogFailed", new String[] {arg0});
+	}
+
+	/**
+	   * {0} records of the write-ahead log were replayed.
+	   */
+	static TextProperty WriteAheadLogReplayed(String arg0) {
+		return new TextProperty("WriteAheadLogReplayed", new String[] {arg0});
+	}
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package spielwitz.biDiServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index from the user IDs to the IDs of the data sets of the users, so that the data sets of a user are
+ * found without looking at the data sets of all other users. Updates of different data sets may run at the same time;
+ * updates of the same data set must not.
+ * @author spielwitz
+ *
+ */
+class UserDataSetIndex
+{
+	private ConcurrentHashMap<String, Set<String>> dataSetIdsByUserId = new ConcurrentHashMap<String, Set<String>>();
+	
+	/**
+	 * Get the IDs of the data sets of a user. The result may be outdated by updates running at the same time.
+	 * @param userId The user ID
+	 * @return The data set IDs
+	 */
+	ArrayList<String> getDataSetIds(String userId)
+	{
+		Set<String> dataSetIds = this.dataSetIdsByUserId.get(userId);
+		
+		return dataSetIds != null ?
+				new ArrayList<String>(dataSetIds) :
+				new ArrayList<String>();
+	}
+	
+	/**
+	 * Update the index after the users of a data set were changed.
+	 * @param dataSetId The data set ID
+	 * @param userIdsBefore The users of the data set before, or null if the data set was created
+	 * @param userIdsAfter The users of the data set now, or null if the data set was deleted
+	 */
+	void update(String dataSetId, Set<String> userIdsBefore, Set<String> userIdsAfter)
+	{
+		if (userIdsBefore == null)
+		{
+			userIdsBefore = Collections.emptySet();
+		}
+		
+		if (userIdsAfter == null)
+		{
+			userIdsAfter = Collections.emptySet();
+		}
+		
+		for (String userId: userIdsAfter)
+		{
+			if (!userIdsBefore.contains(userId))
+			{
+				this.dataSetIdsByUserId.compute(userId, (key, dataSetIds) ->
+				{
+					if (dataSetIds == null)
+					{
+						dataSetIds = ConcurrentHashMap.newKeySet();
+					}
+					
+					dataSetIds.add(dataSetId);
+					return dataSetIds;
+				});
+			}
+		}
+		
+		for (String userId: userIdsBefore)
+		{
+			if (!userIdsAfter.contains(userId))
+			{
+				// Users without data sets are dropped, so that deleted users do not stay in the index
+				this.dataSetIdsByUserId.computeIfPresent(userId, (key, dataSetIds) ->
+				{
+					dataSetIds.remove(dataSetId);
+					return dataSetIds.isEmpty() ? null : dataSetIds;
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class AdmissionControlTests
+{
+	private static final String SERVER_BUSY = "The server is busy. Please try again later.";
+	private static final int REQUESTS = 6;
+	
+	@Test
+	void rejectRequestsBeyondQueue() throws Exception
+	{
+		JUnitTestServer server = startServerWithOneWorkerThread();
+		
+		JUnitTestClient client = server.createUserClient(
+				config -> config.setMaxConcurrentRequests(REQUESTS), 
+				false);
+		
+		// One request is processed, one is queued, and the others are rejected
+		ArrayList<CompletableFuture<Response<Integer>>> futures = new ArrayList<CompletableFuture<Response<Integer>>>();
+		
+		for (int i = 0; i < REQUESTS; i++)
+		{
+			futures.add(client.sendCustomRequestMessageAsync(1000));
+		}
+		
+		int successes = 0;
+		int rejections = 0;
+		
+		for (CompletableFuture<Response<Integer>> future: futures)
+		{
+			Response<Integer> response = future.get();
+			
+			if (response.getResponseInfo().isSuccess())
+			{
+				assertEquals(1000, (int)response.getPayload());
+				successes++;
+			}
+			else
+			{
+				assertEquals(SERVER_BUSY, response.getResponseInfo().getMessage());
+				rejections++;
+			}
+		}
+		
+		assertTrue(successes >= 1);
+		assertTrue(rejections >= 1);
+		
+		// The server accepts requests again as soon as it has finished the others
+		assertTrue(client.pingServer().isSuccess());
+		
+		PayloadResponseMessageGetServerStatus status = server.getAdminClient().getServerStatus().getPayload();
+		
+		assertEquals(1, status.getWorkerThreadsMax());
+		assertEquals(1, status.getRequestsQueuedMax());
+		assertTrue(status.getRequestsRejected() >= rejections);
+		
+		client.disconnect();
+	}
+	
+	@Test
+	void rejectRequestOnKeptAliveConnection() throws Exception
+	{
+		JUnitTestServer server = startServerWithOneWorkerThread();
+		
+		JUnitTestClient clientKeepAlive = server.createUserClient(config -> config.setKeepAlive(true), false);
+		JUnitTestClient clientBusy = server.createUserClient(config -> config.setMaxConcurrentRequests(2), false);
+		
+		assertTrue(clientKeepAlive.pingServer().isSuccess());
+		
+		// Take the worker thread and the place in the queue
+		CompletableFuture<Response<Integer>> future1 = clientBusy.sendCustomRequestMessageAsync(2000);
+		Thread.sleep(300);
+		CompletableFuture<Response<Integer>> future2 = clientBusy.sendCustomRequestMessageAsync(2000);
+		Thread.sleep(300);
+		
+		assertEquals(SERVER_BUSY, clientKeepAlive.pingServer().getMessage());
+		
+		assertTrue(future1.get().getResponseInfo().isSuccess());
+		assertTrue(future2.get().getResponseInfo().isSuccess());
+		
+		assertTrue(clientKeepAlive.pingServer().isSuccess());
+		
+		clientKeepAlive.disconnect();
+		clientBusy.disconnect();
+	}
+	
+	private static JUnitTestServer startServerWithOneWorkerThread() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setMaxWorkerThreads(1);
+		config.setMaxQueuedRequests(1);
+		
+		return JUnitTestServer.start(config);
+	}
+}
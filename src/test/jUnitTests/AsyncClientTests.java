@@ -0,0 +1,129 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ResponseInfo;
+
+public class AsyncClientTests
+{
+	private static final int CONCURRENT_REQUESTS = 4;
+	private static final int SLEEP_MILLISECONDS = 1000;
+	
+	@Test
+	void requestsRunConcurrently() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(
+				config -> config.setMaxConcurrentRequests(CONCURRENT_REQUESTS), 
+				false);
+		
+		long start = System.currentTimeMillis();
+		
+		ArrayList<CompletableFuture<Response<Integer>>> futures = new ArrayList<CompletableFuture<Response<Integer>>>();
+		
+		for (int i = 0; i < CONCURRENT_REQUESTS; i++)
+		{
+			futures.add(client.sendCustomRequestMessageAsync(SLEEP_MILLISECONDS + i));
+		}
+		
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		
+		long duration = System.currentTimeMillis() - start;
+		
+		for (int i = 0; i < CONCURRENT_REQUESTS; i++)
+		{
+			assertTrue(futures.get(i).get().getResponseInfo().isSuccess());
+			assertEquals(SLEEP_MILLISECONDS + i, (int)futures.get(i).get().getPayload());
+		}
+		
+		// One after the other, the requests would have taken at least four seconds
+		assertTrue(duration < SLEEP_MILLISECONDS * CONCURRENT_REQUESTS - SLEEP_MILLISECONDS);
+		
+		client.disconnect();
+	}
+	
+	@Test
+	void requestsBeyondLimitWait() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(
+				config -> config.setMaxConcurrentRequests(2), 
+				false);
+		
+		// Create, read, update, and delete data sets with more futures than requests may run at once
+		ArrayList<CompletableFuture<ResponseInfo>> futures = new ArrayList<CompletableFuture<ResponseInfo>>();
+		
+		for (int i = 0; i < 10; i++)
+		{
+			String id = "ds" + i;
+			DataSet dataSet = new DataSet(id, new HashSet<String>(Arrays.asList(client.getUserId())), "v1");
+			
+			futures.add(client.createDataSetAsync(dataSet).
+					thenCompose(info -> 
+					{
+						assertTrue(info.isSuccess());
+						dataSet.setPayloadObject("v2");
+						return client.updateDataSetAsync(dataSet);
+					}));
+		}
+		
+		for (CompletableFuture<ResponseInfo> future: futures)
+		{
+			assertTrue(future.get().isSuccess());
+		}
+		
+		ArrayList<CompletableFuture<Response<DataSet>>> futuresGet = new ArrayList<CompletableFuture<Response<DataSet>>>();
+		
+		for (int i = 0; i < 10; i++)
+		{
+			futuresGet.add(client.getDataSetAsync("ds" + i));
+		}
+		
+		for (int i = 0; i < 10; i++)
+		{
+			Response<DataSet> response = futuresGet.get(i).get();
+			
+			assertTrue(response.getResponseInfo().isSuccess());
+			assertEquals("ds" + i, response.getPayload().getId());
+			assertEquals("v2", response.getPayload().getPayloadObject());
+		}
+		
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(client.deleteDataSetAsync("ds" + i).get().isSuccess());
+		}
+		
+		assertEquals(0, client.getDataSetInfosOfUserAsync(client.getUserId()).get().getPayload().getDataSetInfos().size());
+		
+		client.disconnect();
+	}
+}
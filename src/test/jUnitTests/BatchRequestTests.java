@@ -0,0 +1,146 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.PayloadRequestMessageBatch;
+import spielwitz.biDiServer.PayloadResponseMessageBatch;
+import spielwitz.biDiServer.Response;
+
+public class BatchRequestTests
+{
+	@Test
+	void processRequestsInOrder() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(null, false);
+		JUnitTestClient recipient = server.createUserClient(null, true);
+		
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		PayloadRequestMessageBatch batch = new PayloadRequestMessageBatch();
+		
+		int indexCreate = batch.addCreateDataSet(new DataSet("ds1", userIds, "v1"));
+		int indexGet1 = batch.addGetDataSet("ds1");
+		int indexGetUnknown = batch.addGetDataSet("unknown");
+		int indexUpdate = batch.addUpdateDataSet(new DataSet("ds1", userIds, "v2"));
+		int indexCustom = batch.addCustomRequest("Echo");
+		int indexPush = batch.addPushNotification(
+				new ArrayList<String>(Arrays.asList(recipient.getUserId())), 
+				"Notification");
+		int indexGet2 = batch.addGetDataSet("ds1");
+		int indexDelete = batch.addDeleteDataSet("ds1");
+		
+		assertEquals(8, batch.size());
+		
+		Response<PayloadResponseMessageBatch> response = client.sendBatchRequest(batch);
+		
+		assertTrue(response.getResponseInfo().isSuccess());
+		
+		PayloadResponseMessageBatch responses = response.getPayload();
+		
+		assertEquals(batch.size(), responses.size());
+		
+		assertTrue(responses.getResponseInfo(indexCreate).isSuccess());
+		
+		Response<DataSet> responseGet1 = responses.getResponse(indexGet1);
+		assertTrue(responseGet1.getResponseInfo().isSuccess());
+		assertEquals("v1", responseGet1.getPayload().getPayloadObject());
+		
+		// A failed request does not stop the batch
+		assertFalse(responses.getResponseInfo(indexGetUnknown).isSuccess());
+		assertNotNull(responses.getResponseInfo(indexGetUnknown).getMessage());
+		
+		assertTrue(responses.getResponseInfo(indexUpdate).isSuccess());
+		
+		Response<String> responseCustom = responses.getResponse(indexCustom);
+		assertEquals("Echo", responseCustom.getPayload());
+		
+		assertTrue(responses.getResponseInfo(indexPush).isSuccess());
+		assertEquals("Notification", recipient.pollNotification(10000));
+		
+		// The later requests see the changes of the earlier ones
+		Response<DataSet> responseGet2 = responses.getResponse(indexGet2);
+		assertEquals("v2", responseGet2.getPayload().getPayloadObject());
+		assertTrue(responseGet2.getPayload().getVersion() > responseGet1.getPayload().getVersion());
+		
+		assertTrue(responses.getResponseInfo(indexDelete).isSuccess());
+		assertFalse(client.getDataSet("ds1").getResponseInfo().isSuccess());
+		
+		client.disconnect();
+		recipient.disconnect();
+	}
+	
+	@Test
+	void concurrentBatches() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(config -> config.setMaxConcurrentRequests(4), false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		ArrayList<PayloadRequestMessageBatch> batches = new ArrayList<PayloadRequestMessageBatch>();
+		
+		for (int i = 0; i < 4; i++)
+		{
+			PayloadRequestMessageBatch batch = new PayloadRequestMessageBatch();
+			
+			for (int j = 0; j < 10; j++)
+			{
+				batch.addCreateDataSet(new DataSet("ds" + i + "_" + j, userIds, i * 100 + j));
+			}
+			
+			batches.add(batch);
+		}
+		
+		ArrayList<CompletableFuture<Response<PayloadResponseMessageBatch>>> futures = 
+				new ArrayList<CompletableFuture<Response<PayloadResponseMessageBatch>>>();
+		
+		for (PayloadRequestMessageBatch batch: batches)
+		{
+			futures.add(client.sendBatchRequestAsync(batch));
+		}
+		
+		for (CompletableFuture<Response<PayloadResponseMessageBatch>> future: futures)
+		{
+			Response<PayloadResponseMessageBatch> response = future.get();
+			
+			assertTrue(response.getResponseInfo().isSuccess());
+			
+			for (int j = 0; j < response.getPayload().size(); j++)
+			{
+				assertTrue(response.getPayload().getResponseInfo(j).isSuccess());
+			}
+		}
+		
+		assertEquals(40, client.getDataSetInfosOfUser(client.getUserId()).getPayload().getDataSetInfos().size());
+		
+		client.disconnect();
+	}
+}
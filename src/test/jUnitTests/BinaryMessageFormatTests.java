@@ -0,0 +1,130 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.MessageFormat;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class BinaryMessageFormatTests
+{
+	@Test
+	void binaryAndJsonClientsShareDataSets() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient clientBinary = server.createUserClient(
+				config -> config.setMessageFormat(MessageFormat.Binary), 
+				true);
+		JUnitTestClient clientJson = server.createUserClient(
+				config -> config.setMessageFormat(MessageFormat.Json), 
+				true);
+		
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(clientBinary.getUserId(), clientJson.getUserId()));
+		
+		PayloadTestClass payload = new PayloadTestClass();
+		assertTrue(clientBinary.createDataSet(new DataSet("ds1", userIds, payload)).isSuccess());
+		
+		for (JUnitTestClient client: Arrays.asList(clientBinary, clientJson))
+		{
+			PayloadTestClass payloadRead = (PayloadTestClass)client.getDataSet("ds1").getPayload().getPayloadObject();
+			
+			assertEquals(payload.getId(), payloadRead.getId());
+			assertEquals(payload.subObjects.size(), payloadRead.subObjects.size());
+			
+			for (int i = 0; i < payload.subObjects.size(); i++)
+			{
+				assertTrue(payload.subObjects.get(i).equals(payloadRead.subObjects.get(i)));
+			}
+		}
+		
+		// Strings and numbers which need care in a binary encoding
+		String text = "\u00E4\u00F6\u00FC\u20AC \uD83D\uDE00 \"quoted\" \\ \n" + TestUtils.newRandomText(20000);
+		
+		for (Object value: Arrays.asList(text, "", Long.MAX_VALUE, -1.5e300, 0.1, true))
+		{
+			assertEquals(value, clientBinary.sendCustomRequestMessage(value).getPayload());
+		}
+		
+		// Notifications in both directions between the formats
+		assertTrue(clientBinary.pushNotification(
+				new ArrayList<String>(Arrays.asList(clientJson.getUserId())), text).isSuccess());
+		assertEquals(text, clientJson.pollNotification(10000));
+		
+		assertTrue(clientJson.pushNotification(
+				new ArrayList<String>(Arrays.asList(clientBinary.getUserId())), text).isSuccess());
+		assertEquals(text, clientBinary.pollNotification(10000));
+		
+		clientBinary.disconnect();
+		clientJson.disconnect();
+	}
+	
+	@Test
+	void binaryMessagesAreShorter() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setCompressionLevel(0);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		assertTrue(sendDataSets(server, config, MessageFormat.Binary) < sendDataSets(server, config, MessageFormat.Json));
+	}
+	
+	/**
+	 * Create data sets with many objects and return the number of bytes which the client sent for them.
+	 */
+	private static int sendDataSets(JUnitTestServer server, ServerConfiguration config, MessageFormat messageFormat) throws Exception
+	{
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> 
+					{
+						clientConfig.setCompressionLevel(0);
+						clientConfig.setKeepAlive(true);
+						clientConfig.setMessageFormat(messageFormat);
+						clientConfig.setPort(proxy.getPort());
+					}, 
+					false);
+			
+			assertTrue(client.pingServer().isSuccess());
+			int bytesBefore = proxy.getClientBytes(0).length;
+			
+			HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+			
+			for (int i = 0; i < 10; i++)
+			{
+				assertTrue(client.createDataSet(new DataSet(messageFormat + "_" + i, userIds, new PayloadTestClass())).isSuccess());
+			}
+			
+			int clientBytes = proxy.getClientBytes(0).length - bytesBefore;
+			
+			client.disconnect();
+			
+			return clientBytes;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.Response;
+
+public class ConcurrentSessionTests
+{
+	private static final int REQUESTS = 200;
+	
+	@Test
+	void concurrentRequestsOnKeptAliveConnections() throws Exception
+	{
+		sendConcurrentRequests(true);
+	}
+	
+	@Test
+	void concurrentRequestsOnNewConnections() throws Exception
+	{
+		sendConcurrentRequests(false);
+	}
+	
+	/**
+	 * All requests of the client share the ciphers of one session.
+	 */
+	private static void sendConcurrentRequests(boolean keepAlive) throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(
+				config -> 
+				{
+					config.setKeepAlive(keepAlive);
+					config.setMaxConcurrentRequests(16);
+				}, 
+				false);
+		
+		ArrayList<CompletableFuture<Response<String>>> futures = new ArrayList<CompletableFuture<Response<String>>>();
+		
+		for (int i = 0; i < REQUESTS; i++)
+		{
+			// Payloads of different lengths, so that the messages differ in size and timing
+			futures.add(client.sendCustomRequestMessageAsync(i + ":" + TestUtils.newRandomText(i * 50)));
+		}
+		
+		for (int i = 0; i < REQUESTS; i++)
+		{
+			Response<String> response = futures.get(i).get();
+			
+			assertTrue(response.getResponseInfo().isSuccess());
+			assertEquals(i + ":" + TestUtils.newRandomText(i * 50), response.getPayload());
+		}
+		
+		client.disconnect();
+	}
+}
@@ -0,0 +1,160 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.PayloadRequestMessageBatch;
+import spielwitz.biDiServer.PayloadResponseMessageBatch;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class ConditionalRequestTests
+{
+	@Test
+	void batchWithConditionalRequests() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		JUnitTestClient client = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		assertTrue(client.createDataSet(new DataSet("ds", userIds, "v1")).isSuccess());
+		long version = client.getDataSet("ds").getPayload().getVersion();
+		
+		PayloadRequestMessageBatch batch = new PayloadRequestMessageBatch();
+		
+		int indexGetNotModified = batch.addGetDataSet("ds", version);
+		int indexUpdate = batch.addUpdateDataSet(new DataSet("ds", userIds, "v2"), version);
+		int indexGetModified = batch.addGetDataSet("ds", version);
+		int indexUpdateConflict = batch.addUpdateDataSet(new DataSet("ds", userIds, "v3"), version);
+		
+		Response<PayloadResponseMessageBatch> response = client.sendBatchRequest(batch);
+		assertTrue(response.getResponseInfo().isSuccess());
+		
+		PayloadResponseMessageBatch responses = response.getPayload();
+		
+		assertTrue(responses.getResponseInfo(indexGetNotModified).isSuccess());
+		assertTrue(responses.getResponseInfo(indexGetNotModified).isNotModified());
+		
+		Response<Long> responseUpdate = responses.getResponse(indexUpdate);
+		assertTrue(responseUpdate.getResponseInfo().isSuccess());
+		assertEquals(version + 1, (long)responseUpdate.getPayload());
+		
+		Response<DataSet> responseGet = responses.getResponse(indexGetModified);
+		assertFalse(responseGet.getResponseInfo().isNotModified());
+		assertEquals("v2", responseGet.getPayload().getPayloadObject());
+		
+		assertFalse(responses.getResponseInfo(indexUpdateConflict).isSuccess());
+		
+		assertEquals("v2", client.getDataSet("ds").getPayload().getPayloadObject());
+	}
+	
+	@Test
+	void conditionalGet() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		
+		// Without the cache, every read of a data set goes to the store
+		config.setDataSetCacheMaxEntries(0);
+		
+		FailingDataSetStore failingDataSetStore = new FailingDataSetStore(false);
+		FailingStoreServer server = FailingStoreServer.start(config, failingDataSetStore);
+		
+		JUnitTestClient client1 = server.createUserClient(null, false);
+		JUnitTestClient client2 = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client1.getUserId(), client2.getUserId()));
+		
+		assertTrue(client1.createDataSet(new DataSet("ds", userIds, "v1")).isSuccess());
+		long version = client1.getDataSet("ds").getPayload().getVersion();
+		
+		Response<DataSet> response = client1.getDataSet("ds", version);
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertTrue(response.getResponseInfo().isNotModified());
+		assertNull(response.getPayload());
+		
+		// Polling an unchanged data set does not read it from the store
+		failingDataSetStore.setFailing(true);
+		
+		assertTrue(client1.getDataSet("ds", version).getResponseInfo().isNotModified());
+		assertFalse(client1.getDataSet("ds", version - 1).getResponseInfo().isSuccess());
+		
+		failingDataSetStore.setFailing(false);
+		
+		assertTrue(client2.updateDataSet(new DataSet("ds", userIds, "v2")).isSuccess());
+		
+		response = client1.getDataSet("ds", version);
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertFalse(response.getResponseInfo().isNotModified());
+		assertEquals("v2", response.getPayload().getPayloadObject());
+		assertEquals(version + 1, response.getPayload().getVersion());
+		
+		// Users who are not allowed to read the data set learn nothing about its version
+		JUnitTestClient client3 = server.createUserClient(null, false);
+		response = client3.getDataSet("ds", version + 1);
+		assertFalse(response.getResponseInfo().isSuccess());
+		assertFalse(response.getResponseInfo().isNotModified());
+		
+		assertTrue(client2.deleteDataSet("ds").isSuccess());
+		response = client1.getDataSet("ds", version + 1);
+		assertFalse(response.getResponseInfo().isSuccess());
+		assertFalse(response.getResponseInfo().isNotModified());
+	}
+	
+	@Test
+	void versionCheckedUpdate() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		JUnitTestClient client1 = server.createUserClient(null, false);
+		JUnitTestClient client2 = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client1.getUserId(), client2.getUserId()));
+		
+		assertTrue(client1.createDataSet(new DataSet("ds", userIds, "v1")).isSuccess());
+		long version = client1.getDataSet("ds").getPayload().getVersion();
+		
+		Response<Long> response = client2.updateDataSet(new DataSet("ds", userIds, "v2"), version);
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertEquals(version + 1, (long)response.getPayload());
+		
+		// The first client still expects the version which it read before
+		response = client1.updateDataSet(new DataSet("ds", userIds, "v3"), version);
+		assertFalse(response.getResponseInfo().isSuccess());
+		assertTrue(response.getResponseInfo().getMessage().startsWith("Data set ds was changed in the meantime"));
+		assertNull(response.getPayload());
+		
+		DataSet dataSet = client1.getDataSet("ds").getPayload();
+		assertEquals("v2", dataSet.getPayloadObject());
+		assertEquals(version + 1, dataSet.getVersion());
+		
+		dataSet.setPayloadObject("v3");
+		response = client1.updateDataSet(dataSet, dataSet.getVersion());
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertEquals(version + 2, (long)response.getPayload());
+		
+		// A data set which was deleted in the meantime is not created again
+		assertTrue(client2.deleteDataSet("ds").isSuccess());
+		assertFalse(client1.updateDataSet(dataSet, version + 2).getResponseInfo().isSuccess());
+		assertFalse(client1.getDataSet("ds").getResponseInfo().isSuccess());
+	}
+}
@@ -0,0 +1,122 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class DataSetCacheTests
+{
+	@Test
+	void cacheBoundedByEntries() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setDataSetCacheMaxEntries(5);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		JUnitTestClient clientAdmin = server.getAdminClient();
+		
+		JUnitTestClient client = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(client.createDataSet(new DataSet("ds" + i, userIds, "v" + i)).isSuccess());
+		}
+		
+		PayloadResponseMessageGetServerStatus statusBefore = clientAdmin.getServerStatus().getPayload();
+		
+		// The data sets which were read last are still in the cache
+		for (int i = 0; i < 10; i++)
+		{
+			assertEquals("v" + i, client.getDataSet("ds" + i).getPayload().getPayloadObject());
+		}
+		
+		for (int i = 9; i >= 5; i--)
+		{
+			assertEquals("v" + i, client.getDataSet("ds" + i).getPayload().getPayloadObject());
+		}
+		
+		PayloadResponseMessageGetServerStatus status = clientAdmin.getServerStatus().getPayload();
+		
+		assertEquals(5, status.getDataSetsCachedMax());
+		assertTrue(status.getDataSetsCached() <= 5);
+		assertTrue(status.getDataSetCacheHits() - statusBefore.getDataSetCacheHits() >= 5);
+		assertTrue(status.getDataSetCacheMisses() > statusBefore.getDataSetCacheMisses());
+		
+		client.disconnect();
+	}
+	
+	@Test
+	void cacheBoundedBySize() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setDataSetCacheMaxMegabytes(1);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		JUnitTestClient client = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		for (int i = 0; i < 5; i++)
+		{
+			String payload = TestUtils.newRandomText(400000 + i);
+			
+			assertTrue(client.createDataSet(new DataSet("ds" + i, userIds, payload)).isSuccess());
+			assertEquals(payload, client.getDataSet("ds" + i).getPayload().getPayloadObject());
+		}
+		
+		PayloadResponseMessageGetServerStatus status = server.getAdminClient().getServerStatus().getPayload();
+		
+		assertTrue(status.getDataSetCacheBytes() <= 1024 * 1024);
+		assertTrue(status.getDataSetsCached() < 5);
+		
+		client.disconnect();
+	}
+	
+	@Test
+	void cacheFollowsChanges() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		assertTrue(client.createDataSet(new DataSet("ds1", userIds, "v1")).isSuccess());
+		assertEquals("v1", client.getDataSet("ds1").getPayload().getPayloadObject());
+		
+		assertTrue(client.updateDataSet(new DataSet("ds1", userIds, "v2")).isSuccess());
+		assertEquals("v2", client.getDataSet("ds1").getPayload().getPayloadObject());
+		
+		DataSet dataSet = client.getDataSet("ds1").getPayload();
+		assertTrue(client.patchDataSet(dataSet, "v3").getResponseInfo().isSuccess());
+		assertEquals("v3", client.getDataSet("ds1").getPayload().getPayloadObject());
+		
+		assertTrue(client.deleteDataSet("ds1").isSuccess());
+		assertFalse(client.getDataSet("ds1").getResponseInfo().isSuccess());
+		
+		client.disconnect();
+	}
+}
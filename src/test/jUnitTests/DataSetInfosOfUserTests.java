@@ -0,0 +1,192 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.DataSetInfo;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class DataSetInfosOfUserTests
+{
+	private static final int CLIENTS = 4;
+	private static final int DATA_SETS_PER_CLIENT = 20;
+	
+	@Test
+	void concurrentChanges() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		JUnitTestClient clientShared = server.createUserClient(null, false);
+		
+		ArrayList<JUnitTestClient> clients = new ArrayList<JUnitTestClient>();
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			clients.add(server.createUserClient(null, false));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		
+		try
+		{
+			ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			
+			// Every client creates its own data sets, shares them, and deletes every other one again
+			for (int i = 0; i < CLIENTS; i++)
+			{
+				JUnitTestClient client = clients.get(i);
+				String prefix = "c" + i + "_";
+				
+				futures.add(executor.submit(() -> 
+				{
+					HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+					
+					for (int j = 0; j < DATA_SETS_PER_CLIENT; j++)
+					{
+						if (!client.createDataSet(new DataSet(prefix + j, userIds, j)).isSuccess())
+						{
+							return false;
+						}
+					}
+					
+					userIds.add(clientShared.getUserId());
+					
+					for (int j = 0; j < DATA_SETS_PER_CLIENT; j++)
+					{
+						boolean success = j % 2 == 0 ?
+								client.updateDataSet(new DataSet(prefix + j, userIds, j)).isSuccess() :
+								client.deleteDataSet(prefix + j).isSuccess();
+						
+						if (!success)
+						{
+							return false;
+						}
+					}
+					
+					return true;
+				}));
+			}
+			
+			for (Future<Boolean> future: futures)
+			{
+				assertTrue(future.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		ArrayList<String> dataSetIdsShared = new ArrayList<String>();
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			ArrayList<String> dataSetIds = new ArrayList<String>();
+			
+			for (int j = 0; j < DATA_SETS_PER_CLIENT; j += 2)
+			{
+				dataSetIds.add("c" + i + "_" + j);
+			}
+			
+			JUnitTestClient client = clients.get(i);
+			assertEquals(sorted(dataSetIds), getDataSetIds(client, client.getUserId()));
+			
+			dataSetIdsShared.addAll(dataSetIds);
+		}
+		
+		assertEquals(sorted(dataSetIdsShared), getDataSetIds(clientShared, clientShared.getUserId()));
+	}
+	
+	@Test
+	void dataSetInfosFollowChanges() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		JUnitTestClient client1 = server.createUserClient(null, false);
+		JUnitTestClient client2 = server.createUserClient(null, false);
+		String userId1 = client1.getUserId();
+		String userId2 = client2.getUserId();
+		
+		assertTrue(client1.createDataSet(new DataSet("a", new HashSet<String>(Arrays.asList(userId1)), "a1")).isSuccess());
+		assertTrue(client1.createDataSet(new DataSet("b", new HashSet<String>(Arrays.asList(userId1, userId2)), "b1")).isSuccess());
+		assertTrue(client2.createDataSet(new DataSet("c", new HashSet<String>(Arrays.asList(userId2)), "c1")).isSuccess());
+		
+		assertEquals(Arrays.asList("a", "b"), getDataSetIds(client1, userId1));
+		assertEquals(Arrays.asList("b", "c"), getDataSetIds(client2, userId2));
+		
+		// The second user drops the first one from data set b, the first one adds the second one to data set a
+		assertTrue(client2.updateDataSet(new DataSet("b", new HashSet<String>(Arrays.asList(userId2)), "b2")).isSuccess());
+		assertTrue(client1.updateDataSet(new DataSet("a", new HashSet<String>(Arrays.asList(userId1, userId2)), "a2")).isSuccess());
+		
+		assertEquals(Arrays.asList("a"), getDataSetIds(client1, userId1));
+		assertEquals(Arrays.asList("a", "b", "c"), getDataSetIds(client2, userId2));
+		
+		for (DataSetInfo info: client2.getDataSetInfosOfUser(userId2).getPayload().getDataSetInfos())
+		{
+			assertTrue(info.getUserIds().contains(userId2));
+		}
+		
+		assertTrue(client2.deleteDataSet("a").isSuccess());
+		
+		assertEquals(Arrays.asList(), getDataSetIds(client1, userId1));
+		assertEquals(Arrays.asList("b", "c"), getDataSetIds(client2, userId2));
+		
+		// Deleting a user removes it from all of its data sets
+		JUnitTestClient clientAdmin = server.getAdminClient();
+		assertTrue(clientAdmin.deleteUser(userId2).isSuccess());
+		
+		assertEquals(Arrays.asList(), getDataSetIds(clientAdmin, userId2));
+		assertTrue(clientAdmin.getDataSet("b").getPayload().getUserIds().isEmpty());
+		assertTrue(clientAdmin.getDataSet("c").getPayload().getUserIds().isEmpty());
+		
+		// The data sets of the remaining user are not affected
+		assertTrue(client1.createDataSet(new DataSet("d", new HashSet<String>(Arrays.asList(userId1)), "d1")).isSuccess());
+		assertEquals(Arrays.asList("d"), getDataSetIds(client1, userId1));
+	}
+	
+	private static ArrayList<String> getDataSetIds(JUnitTestClient client, String userId)
+	{
+		ArrayList<String> dataSetIds = new ArrayList<String>();
+		
+		for (DataSetInfo info: client.getDataSetInfosOfUser(userId).getPayload().getDataSetInfos())
+		{
+			dataSetIds.add(info.getId());
+		}
+		
+		return sorted(dataSetIds);
+	}
+	
+	private static ArrayList<String> sorted(ArrayList<String> list)
+	{
+		Collections.sort(list);
+		return list;
+	}
+}
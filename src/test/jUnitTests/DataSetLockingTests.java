@@ -0,0 +1,203 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class DataSetLockingTests
+{
+	private static final int CLIENTS = 4;
+	private static final int INCREMENTS_PER_CLIENT = 25;
+	
+	@Test
+	void compareAndSetCounterCached() throws Exception
+	{
+		incrementCounterConcurrently(JUnitTestServer.newConfiguration());
+	}
+	
+	@Test
+	void compareAndSetCounterUncached() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setDataSetCacheMaxEntries(0);
+		
+		incrementCounterConcurrently(config);
+	}
+	
+	@Test
+	void readersSeeCompleteUpdates() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		ArrayList<JUnitTestClient> clients = createClients(server);
+		HashSet<String> userIds = getUserIds(clients);
+		
+		assertTrue(clients.get(0).createDataSet(new DataSet("ds", userIds, newPair(0))).isSuccess());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		
+		try
+		{
+			ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			
+			// One writer, the other clients read at the same time
+			futures.add(executor.submit(() -> 
+			{
+				for (int i = 1; i <= 50; i++)
+				{
+					if (!clients.get(0).updateDataSet(new DataSet("ds", userIds, newPair(i))).isSuccess())
+					{
+						return false;
+					}
+				}
+				
+				return true;
+			}));
+			
+			for (int i = 1; i < CLIENTS; i++)
+			{
+				JUnitTestClient client = clients.get(i);
+				
+				futures.add(executor.submit(() -> 
+				{
+					for (int j = 0; j < 50; j++)
+					{
+						String[] pair = ((String)client.getDataSet("ds").getPayload().getPayloadObject()).split("\\|");
+						
+						if (!pair[0].equals(pair[1]))
+						{
+							return false;
+						}
+					}
+					
+					return true;
+				}));
+			}
+			
+			for (Future<Boolean> future: futures)
+			{
+				assertTrue(future.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		assertEquals(newPair(50), clients.get(0).getDataSet("ds").getPayload().getPayloadObject());
+	}
+	
+	private static ArrayList<JUnitTestClient> createClients(JUnitTestServer server)
+	{
+		ArrayList<JUnitTestClient> clients = new ArrayList<JUnitTestClient>();
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			clients.add(server.createUserClient(null, false));
+		}
+		
+		return clients;
+	}
+	
+	private static HashSet<String> getUserIds(ArrayList<JUnitTestClient> clients)
+	{
+		HashSet<String> userIds = new HashSet<String>();
+		
+		for (JUnitTestClient client: clients)
+		{
+			userIds.add(client.getUserId());
+		}
+		
+		return userIds;
+	}
+	
+	/**
+	 * Every client increments the counter with compare-and-set. On a conflict, it reads the counter again
+	 * and retries, so that no increment is lost.
+	 */
+	private static void incrementCounterConcurrently(ServerConfiguration config) throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(config);
+		ArrayList<JUnitTestClient> clients = createClients(server);
+		HashSet<String> userIds = getUserIds(clients);
+		
+		assertTrue(clients.get(0).createDataSet(new DataSet("counter", userIds, 0)).isSuccess());
+		long versionStart = clients.get(0).getDataSet("counter").getPayload().getVersion();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		
+		try
+		{
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			
+			for (JUnitTestClient client: clients)
+			{
+				futures.add(executor.submit(() -> 
+				{
+					for (int i = 0; i < INCREMENTS_PER_CLIENT; i++)
+					{
+						while (true)
+						{
+							DataSet counter = client.getDataSet("counter").getPayload();
+							long version = counter.getVersion();
+							counter.setPayloadObject((Integer)counter.getPayloadObject() + 1);
+							
+							Response<Long> response = client.updateDataSet(counter, version);
+							
+							if (response.getResponseInfo().isSuccess())
+							{
+								break;
+							}
+						}
+					}
+				}));
+			}
+			
+			for (Future<?> future: futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		DataSet counter = clients.get(0).getDataSet("counter").getPayload();
+		
+		assertEquals(CLIENTS * INCREMENTS_PER_CLIENT, (int)(Integer)counter.getPayloadObject());
+		assertEquals(versionStart + CLIENTS * INCREMENTS_PER_CLIENT, counter.getVersion());
+	}
+	
+	private static String newPair(int i)
+	{
+		return i + "|" + i;
+	}
+}
@@ -0,0 +1,166 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.DataSetStore;
+import spielwitz.biDiServer.FileDataSetStore;
+import spielwitz.biDiServer.FileNameCheck;
+import spielwitz.biDiServer.InMemoryDataSetStore;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ResponseInfo;
+import spielwitz.biDiServer.SegmentedDataSetStore;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class DataSetStoreTests
+{
+	@Test
+	void fileDataSetStore() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSets");
+		
+		try
+		{
+			checkStore(new FileDataSetStore(folder));
+			checkStoreReopened(new FileDataSetStore(folder));
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Test
+	void inMemoryDataSetStore() throws Exception
+	{
+		checkStore(new InMemoryDataSetStore());
+	}
+	
+	@Test
+	void segmentedDataSetStore() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSetSegments");
+		
+		try
+		{
+			checkStore(new SegmentedDataSetStore(folder));
+			checkStoreReopened(new SegmentedDataSetStore(folder));
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Test
+	void storeFailuresKeepDataSets() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		
+		// Without the cache, every read goes to the store
+		config.setDataSetCacheMaxEntries(0);
+		
+		FailingDataSetStore failingDataSetStore = new FailingDataSetStore(false);
+		FailingStoreServer server = FailingStoreServer.start(config, failingDataSetStore);
+		
+		JUnitTestClient client = server.createUserClient(null, false);
+		
+		DataSet dataSet = TestUtils.newDataSet("ds1", "v1");
+		dataSet.getUserIds().add(client.getUserId());
+		assertTrue(client.createDataSet(dataSet).isSuccess());
+		
+		long version = client.getDataSet("ds1").getPayload().getVersion();
+		
+		failingDataSetStore.setFailing(true);
+		
+		dataSet.setPayloadObject("v2");
+		ResponseInfo info = client.updateDataSet(dataSet);
+		assertFalse(info.isSuccess());
+		assertTrue(info.getMessage().startsWith("Data set ds1 could not be written"));
+		
+		info = client.deleteDataSet("ds1");
+		assertFalse(info.isSuccess());
+		assertTrue(info.getMessage().startsWith("Data set ds1 could not be deleted"));
+		
+		Response<DataSet> response = client.getDataSet("ds1");
+		assertFalse(response.getResponseInfo().isSuccess());
+		assertTrue(response.getResponseInfo().getMessage().startsWith("Data set ds1 could not be read"));
+		
+		// Subclasses learn about the failure from the return value
+		assertNull(server.setDataSetOfSubclass(TestUtils.newDataSet("ds1", "v3")));
+		assertNull(server.getDataSetOfSubclass("ds1"));
+		
+		failingDataSetStore.setFailing(false);
+		
+		// Neither the data set nor its version were changed
+		response = client.getDataSet("ds1");
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertTrue(response.getPayload().getPayloadObject().equals("v1"));
+		assertTrue(response.getPayload().getVersion() == version);
+		assertTrue(client.getDataSetInfosOfUser(client.getUserId()).getPayload().getDataSetInfos().size() == 1);
+		
+		dataSet.setPayloadObject("v3");
+		assertTrue(server.setDataSetOfSubclass(dataSet) == FileNameCheck.Ok);
+		assertTrue(client.getDataSet("ds1").getPayload().getPayloadObject().equals("v3"));
+		assertTrue(client.deleteDataSet("ds1").isSuccess());
+		assertFalse(client.getDataSet("ds1").getResponseInfo().isSuccess());
+	}
+	
+	private static void checkStore(DataSetStore store) throws IOException
+	{
+		store.put(TestUtils.newDataSet("a", "a1"));
+		store.put(TestUtils.newDataSet("b", "b1"));
+		store.put(TestUtils.newDataSet("a", "a2"));
+		store.put(TestUtils.newDataSet("c", "c1"));
+		store.delete("b");
+		store.delete("unknown");
+		store.sync();
+		
+		assertTrue(store.get("a").getPayload().getObject().equals("a2"));
+		assertNull(store.get("b"));
+		assertEquals(Arrays.asList("a", "c"), TestUtils.getDataSetIds(store));
+		
+		ArrayList<DataSet> dataSets = new ArrayList<DataSet>();
+		store.loadAll(dataSet -> dataSets.add(dataSet));
+		
+		for (DataSet dataSet: dataSets)
+		{
+			assertTrue(dataSet.getUserIds().contains("user"));
+			assertTrue(dataSet.getPayload().getObject().equals(dataSet.getId() + (dataSet.getId().equals("a") ? "2" : "1")));
+		}
+		
+		store.close();
+	}
+	
+	private static void checkStoreReopened(DataSetStore store) throws IOException
+	{
+		assertEquals(Arrays.asList("a", "c"), TestUtils.getDataSetIds(store));
+		assertTrue(store.get("a").getPayload().getObject().equals("a2"));
+		
+		store.close();
+	}
+}
@@ -0,0 +1,97 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.ExecutionMode;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.ServerIoEngine;
+
+public class ExecutionModeTests
+{
+	@Test
+	void virtualThreadsBlockingEngine() throws Exception
+	{
+		runRequestsAndNotifications(ServerIoEngine.Blocking);
+	}
+	
+	@Test
+	void virtualThreadsSelectorEngine() throws Exception
+	{
+		runRequestsAndNotifications(ServerIoEngine.Selector);
+	}
+	
+	/**
+	 * Virtual threads are used on Java 21 and later. On older runtimes, the server and the client
+	 * fall back to platform threads, so the results must be the same.
+	 */
+	private static void runRequestsAndNotifications(ServerIoEngine ioEngine) throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setExecutionMode(ExecutionMode.VirtualThreads);
+		config.setIoEngine(ioEngine);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		JUnitTestClient sender = server.createUserClient(
+				clientConfig -> 
+				{
+					clientConfig.setExecutionMode(ExecutionMode.VirtualThreads);
+					clientConfig.setKeepAlive(true);
+					clientConfig.setMaxConcurrentRequests(20);
+				}, 
+				false);
+		
+		JUnitTestClient recipient = server.createUserClient(
+				clientConfig -> clientConfig.setExecutionMode(ExecutionMode.VirtualThreads), 
+				true);
+		
+		// Requests which block their server threads for a while at the same time
+		ArrayList<CompletableFuture<Response<Integer>>> futures = new ArrayList<CompletableFuture<Response<Integer>>>();
+		
+		for (int i = 0; i < 20; i++)
+		{
+			futures.add(sender.sendCustomRequestMessageAsync(100 + i));
+		}
+		
+		for (int i = 0; i < futures.size(); i++)
+		{
+			Response<Integer> response = futures.get(i).get();
+			
+			assertTrue(response.getResponseInfo().isSuccess());
+			assertEquals(100 + i, (int)response.getPayload());
+		}
+		
+		assertTrue(sender.pushNotification(
+				new ArrayList<String>(Arrays.asList(recipient.getUserId())), 
+				"Notification").isSuccess());
+		
+		assertEquals("Notification", recipient.pollNotification(10000));
+		
+		sender.disconnect();
+		recipient.disconnect();
+	}
+}
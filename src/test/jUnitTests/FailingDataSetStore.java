@@ -0,0 +1,99 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package test.jUnitTests;
+
+import java.io.IOException;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.DataSetStore;
+import spielwitz.biDiServer.InMemoryDataSetStore;
+
+/**
+ * Data set store in memory which can be switched to fail like a store which is not available.
+ * @author spielwitz
+ *
+ */
+public class FailingDataSetStore implements DataSetStore
+{
+	private InMemoryDataSetStore store = new InMemoryDataSetStore();
+	private volatile boolean failing;
+	
+	/**
+	 * Constructor.
+	 * @param failing True, if the store fails from the start
+	 */
+	public FailingDataSetStore(boolean failing)
+	{
+		this.failing = failing;
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+	
+	@Override
+	public void delete(String id) throws IOException
+	{
+		this.checkAvailable();
+		this.store.delete(id);
+	}
+	
+	@Override
+	public DataSet get(String id) throws IOException
+	{
+		this.checkAvailable();
+		return this.store.get(id);
+	}
+	
+	@Override
+	public void loadAll(DataSetConsumer consumer) throws IOException
+	{
+		this.store.loadAll(consumer);
+	}
+	
+	@Override
+	public void put(DataSet dataSet) throws IOException
+	{
+		this.checkAvailable();
+		this.store.put(dataSet);
+	}
+	
+	/**
+	 * Let the store fail, or make it available again.
+	 * @param failing True, if all methods except loadAll fail
+	 */
+	public void setFailing(boolean failing)
+	{
+		this.failing = failing;
+	}
+	
+	@Override
+	public void sync() throws IOException
+	{
+		this.checkAvailable();
+	}
+	
+	private void checkAvailable() throws IOException
+	{
+		if (this.failing)
+		{
+			throw new IOException("The store is not available.");
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import java.io.File;
+import java.io.IOException;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.DataSetStore;
+import spielwitz.biDiServer.FileNameCheck;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.ServerException;
+
+/**
+ * Test server which keeps its data sets in a {@link FailingDataSetStore}.
+ * @author spielwitz
+ *
+ */
+public class FailingStoreServer extends JUnitTestServer
+{
+	// The server creates its data set store in its constructor, before the fields of the subclass are set
+	private static FailingDataSetStore nextDataSetStore;
+	
+	/**
+	 * Start a test server with a data set store in a temporary home folder, and wait until it accepts requests.
+	 * @param config The server configuration
+	 * @param dataSetStore The data set store
+	 * @return The server
+	 * @throws Exception
+	 */
+	public static synchronized FailingStoreServer start(ServerConfiguration config, FailingDataSetStore dataSetStore) throws Exception
+	{
+		nextDataSetStore = dataSetStore;
+		
+		try
+		{
+			FailingStoreServer server = new FailingStoreServer(config, TestUtils.createTempFolder("JUnitTestServer"));
+			server.startInBackground();
+			
+			return server;
+		}
+		finally
+		{
+			nextDataSetStore = null;
+		}
+	}
+	
+	private FailingStoreServer(ServerConfiguration config, File homeDir) throws ServerException
+	{
+		super(config, homeDir);
+	}
+	
+	/**
+	 * Get a data set like a subclass of the server does.
+	 * @param id The data set ID
+	 * @return The data set, or null
+	 */
+	public DataSet getDataSetOfSubclass(String id)
+	{
+		return this.getDataSet(id);
+	}
+	
+	/**
+	 * Set a data set like a subclass of the server does.
+	 * @param dataSet The data set
+	 * @return The result of the file name check, or null if the data set could not be written
+	 */
+	public FileNameCheck setDataSetOfSubclass(DataSet dataSet)
+	{
+		return this.setDataSet(dataSet);
+	}
+	
+	@Override
+	protected DataSetStore createDataSetStore() throws IOException
+	{
+		return nextDataSetStore;
+	}
+}
@@ -0,0 +1,85 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package test.jUnitTests;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import spielwitz.biDiServer.Client;
+import spielwitz.biDiServer.ClientConfiguration;
+import spielwitz.biDiServer.ServerClientBuildCheckResult;
+
+/**
+ * Client for tests which run requests against a {@link JUnitTestServer}. It collects the payloads 
+ * of the notifications it receives.
+ * @author spielwitz
+ *
+ */
+public class JUnitTestClient extends Client
+{
+	private LinkedBlockingQueue<Object> notifications = new LinkedBlockingQueue<Object>();
+	
+	/**
+	 * Constructor.
+	 * @param config The client configuration
+	 * @param establishNotificationSocket True, if the client receives notifications
+	 */
+	public JUnitTestClient(ClientConfiguration config, boolean establishNotificationSocket)
+	{
+		super(config, establishNotificationSocket, JUnitTestServer.LOCALE);
+	}
+	
+	/**
+	 * Wait for the next notification.
+	 * @param timeoutMilliseconds Maximum time to wait
+	 * @return The payload of the notification, or null if no notification was received in time
+	 * @throws InterruptedException
+	 */
+	public Object pollNotification(long timeoutMilliseconds) throws InterruptedException
+	{
+		return this.notifications.poll(timeoutMilliseconds, TimeUnit.MILLISECONDS);
+	}
+	
+	@Override
+	protected ServerClientBuildCheckResult checkServerClientBuild(String serverBuild)
+	{
+		return new ServerClientBuildCheckResult(true, this.getBuild());
+	}
+	
+	@Override
+	protected String getBuild()
+	{
+		return JUnitTestServer.BUILD;
+	}
+	
+	@Override
+	protected void onConnectionStatusChanged(boolean connected)
+	{
+	}
+	
+	@Override
+	protected void onNotificationReceived(
+			String sender,
+			ArrayList<String> recipients,
+			long dateCreated,
+			Object payload)
+	{
+		this.notifications.add(payload);
+	}
+}
@@ -0,0 +1,258 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package test.jUnitTests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonElement;
+
+import spielwitz.biDiServer.ClientConfiguration;
+import spielwitz.biDiServer.LogLevel;
+import spielwitz.biDiServer.PayloadRequestMessageChangeUser;
+import spielwitz.biDiServer.PayloadResponseMessageChangeUser;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ResponseInfo;
+import spielwitz.biDiServer.Server;
+import spielwitz.biDiServer.ServerClientBuildCheckResult;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.ServerException;
+import spielwitz.biDiServer.Tuple;
+import spielwitz.biDiServer.User;
+
+/**
+ * Server for tests which run requests against a real server. Every server gets a temporary home folder
+ * and a free port. A server cannot be stopped without stopping the process, so it keeps running 
+ * until the tests are finished.
+ * <p>
+ * Custom requests: an Integer payload keeps a worker thread busy for so many milliseconds and is returned. 
+ * Any other payload is returned as it is.
+ * </p>
+ * @author spielwitz
+ *
+ */
+public class JUnitTestServer extends Server
+{
+	public static final String BUILD = "1234";
+	public static final String LOCALE = "en-US";
+	
+	private static final long START_TIMEOUT_MILLISECONDS = 30000;
+	
+	private File homeDir;
+	
+	/**
+	 * Create a configuration for a test server on a free port.
+	 * @return The server configuration
+	 * @throws IOException
+	 */
+	public static ServerConfiguration newConfiguration() throws IOException
+	{
+		int port;
+		
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+		
+		return new ServerConfiguration("localhost", port, "", LogLevel.Error, LOCALE);
+	}
+	
+	/**
+	 * Start a test server in a temporary home folder and wait until it accepts requests.
+	 * @param config The server configuration
+	 * @return The server
+	 * @throws Exception
+	 */
+	public static JUnitTestServer start(ServerConfiguration config) throws Exception
+	{
+		return new JUnitTestServer(config, TestUtils.createTempFolder("JUnitTestServer")).startInBackground();
+	}
+	
+	/**
+	 * Constructor.
+	 * @param config The server configuration
+	 * @param homeDir The home folder of the server
+	 * @throws ServerException
+	 */
+	protected JUnitTestServer(ServerConfiguration config, File homeDir) throws ServerException
+	{
+		super(config, homeDir.toString());
+		this.homeDir = homeDir;
+	}
+	
+	/**
+	 * Create a new user and a started client of the user.
+	 * @param configure Changes the client configuration before the client is created, or null
+	 * @param establishNotificationSocket True, if the client receives notifications
+	 * @return The client
+	 */
+	public JUnitTestClient createUserClient(Consumer<ClientConfiguration> configure, boolean establishNotificationSocket)
+	{
+		JUnitTestClient clientAdmin = this.getAdminClient();
+		
+		Response<PayloadResponseMessageChangeUser> response = clientAdmin.changeUser(
+				new PayloadRequestMessageChangeUser(
+						UUID.randomUUID().toString(), 
+						new Hashtable<String,String>(), 
+						"Test user", 
+						true,
+						true));
+		
+		if (!response.getResponseInfo().isSuccess())
+		{
+			throw new IllegalStateException(response.getResponseInfo().getMessage());
+		}
+		
+		Tuple<ClientConfiguration,ResponseInfo> responseActivateUser = 
+				JUnitTestClient.activateUser(response.getPayload(), LOCALE, BUILD);
+		
+		if (!responseActivateUser.getE2().isSuccess())
+		{
+			throw new IllegalStateException(responseActivateUser.getE2().getMessage());
+		}
+		
+		ClientConfiguration config = responseActivateUser.getE1();
+		
+		if (configure != null)
+		{
+			configure.accept(config);
+		}
+		
+		JUnitTestClient client = new JUnitTestClient(config, establishNotificationSocket);
+		client.start();
+		
+		return client;
+	}
+	
+	/**
+	 * Get a new client of the administrator.
+	 * @return The client
+	 */
+	public JUnitTestClient getAdminClient()
+	{
+		return new JUnitTestClient(this.getAdminClientConfiguration(), false);
+	}
+	
+	/**
+	 * Get the configuration of the administrator client, which the server wrote when it was created.
+	 * @return The client configuration
+	 */
+	public ClientConfiguration getAdminClientConfiguration()
+	{
+		return ClientConfiguration.readFromFile(
+				Paths.get(
+						this.homeDir.toString(),
+						FOLDER_NAME_ROOT,
+						ClientConfiguration.getFileName(
+								User.ADMIN_USER_ID, 
+								"localhost", 
+								this.getConfig().getPort())).
+				toString());
+	}
+	
+	/**
+	 * Start the server on a thread of its own, and wait until it accepts requests.
+	 * @return The server
+	 * @throws Exception
+	 */
+	public JUnitTestServer startInBackground() throws Exception
+	{
+		Thread serverThread = new Thread(() -> this.start());
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		long timeout = System.currentTimeMillis() + START_TIMEOUT_MILLISECONDS;
+		
+		while (!this.getAdminClient().pingServer().isSuccess())
+		{
+			if (System.currentTimeMillis() > timeout)
+			{
+				throw new IOException("The test server did not start.");
+			}
+			
+			Thread.sleep(100);
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Get the home folder of the server.
+	 * @return The home folder
+	 */
+	public File getHomeDir()
+	{
+		return this.homeDir;
+	}
+	
+	@Override
+	protected ServerClientBuildCheckResult checkServerClientBuild(String clientBuild)
+	{
+		return new ServerClientBuildCheckResult(true, this.getBuild());
+	}
+	
+	@Override
+	protected String getBuild()
+	{
+		return BUILD;
+	}
+	
+	@Override
+	protected JsonElement migrateDataSet(String className, JsonElement jsonElementBeforeMigration)
+	{
+		return null;
+	}
+	
+	@Override
+	protected void onConfigurationUpdated(ServerConfiguration config)
+	{
+	}
+	
+	@Override
+	protected Tuple<ResponseInfo, Object> onCustomRequestMessageReceived(String userId, Object payloadRequest)
+	{
+		if (payloadRequest instanceof Integer)
+		{
+			try
+			{
+				Thread.sleep((Integer)payloadRequest);
+			}
+			catch (InterruptedException x)
+			{
+			}
+		}
+		
+		return new Tuple<ResponseInfo, Object>(new ResponseInfo(true), payloadRequest);
+	}
+	
+	@Override
+	protected Object setDataSetInfoPayloadObject(
+			String dataId, 
+			HashSet<String> userIds, 
+			Object dataSetPayloadObject,
+			Object currentDataSetInfoPayloadObject)
+	{
+		return null;
+	}
+}
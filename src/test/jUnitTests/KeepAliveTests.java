@@ -0,0 +1,123 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class KeepAliveTests
+{
+	@Test
+	void reuseKeptAliveConnection() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> 
+					{
+						clientConfig.setKeepAlive(true);
+						clientConfig.setPort(proxy.getPort());
+					}, 
+					false);
+			
+			for (int i = 0; i < 10; i++)
+			{
+				assertTrue(client.pingServer().isSuccess());
+			}
+			
+			assertEquals(1, proxy.getConnections());
+			
+			client.disconnect();
+		}
+	}
+	
+	@Test
+	void newConnectionPerRequestWithoutKeepAlive() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> 
+					{
+						clientConfig.setKeepAlive(false);
+						clientConfig.setPort(proxy.getPort());
+					}, 
+					false);
+			
+			for (int i = 0; i < 10; i++)
+			{
+				assertTrue(client.pingServer().isSuccess());
+			}
+			
+			assertTrue(proxy.getConnections() >= 10);
+			
+			client.disconnect();
+		}
+	}
+	
+	@Test
+	void retryAfterIdleClose() throws Exception
+	{
+		// The only idle connection thread is taken by the connection of the first client,
+		// so that the server closes the kept-alive connection of the second client right away.
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setMaxWorkerThreads(1);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		JUnitTestClient clientIdle = server.createUserClient(
+				clientConfig -> clientConfig.setKeepAlive(true), 
+				false);
+		
+		assertTrue(clientIdle.pingServer().isSuccess());
+		
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> 
+					{
+						clientConfig.setKeepAlive(true);
+						clientConfig.setPort(proxy.getPort());
+					}, 
+					false);
+			
+			assertTrue(client.pingServer().isSuccess());
+			int connections = proxy.getConnections();
+			
+			// Send the next request while the server closes the connection, and after it has closed it 
+			assertTrue(client.pingServer().isSuccess());
+			Thread.sleep(500);
+			assertTrue(client.pingServer().isSuccess());
+			
+			assertTrue(proxy.getConnections() > connections);
+			
+			client.disconnect();
+		}
+		
+		clientIdle.disconnect();
+	}
+}
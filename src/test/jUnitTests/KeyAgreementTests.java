@@ -0,0 +1,97 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.KeyAgreementAlgorithm;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class KeyAgreementTests
+{
+	@Test
+	void diffieHellman() throws Exception
+	{
+		runSession(KeyAgreementAlgorithm.DiffieHellman);
+	}
+	
+	@Test
+	void x25519() throws Exception
+	{
+		runSession(KeyAgreementAlgorithm.X25519);
+	}
+	
+	@Test
+	void x25519ExchangesShorterKeys() throws Exception
+	{
+		assertTrue(runSession(KeyAgreementAlgorithm.X25519) < runSession(KeyAgreementAlgorithm.DiffieHellman));
+	}
+	
+	/**
+	 * Run a session with the key agreement algorithm.
+	 * @return The number of bytes which the client sent on the connection of the full handshake
+	 */
+	private static int runSession(KeyAgreementAlgorithm algorithm) throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> 
+					{
+						clientConfig.setKeyAgreementAlgorithm(algorithm);
+						clientConfig.setPort(proxy.getPort());
+					}, 
+					false);
+			
+			JUnitTestClient recipient = server.createUserClient(
+					clientConfig -> clientConfig.setKeyAgreementAlgorithm(algorithm), 
+					true);
+			
+			assertTrue(client.pingServer().isSuccess());
+			
+			// The first connection of the client carries the full handshake
+			int handshakeBytes = proxy.getClientBytes(0).length;
+			
+			DataSet dataSet = new DataSet("ds1", new HashSet<String>(Arrays.asList(client.getUserId())), "v1");
+			assertTrue(client.createDataSet(dataSet).isSuccess());
+			assertEquals("v1", client.getDataSet("ds1").getPayload().getPayloadObject());
+			
+			assertTrue(client.pushNotification(
+					new ArrayList<String>(Arrays.asList(recipient.getUserId())), 
+					"Notification").isSuccess());
+			
+			assertEquals("Notification", recipient.pollNotification(10000));
+			
+			client.disconnect();
+			recipient.disconnect();
+			
+			return handshakeBytes;
+		}
+	}
+}
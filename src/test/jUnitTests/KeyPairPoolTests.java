@@ -0,0 +1,84 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.KeyAgreementAlgorithm;
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class KeyPairPoolTests
+{
+	private static final int CLIENTS = 10;
+	
+	@Test
+	void handshakesTakeKeyPairsFromPool() throws Exception
+	{
+		PayloadResponseMessageGetServerStatus status = runHandshakes(4);
+		
+		assertEquals(4, status.getKeyPairPoolSize());
+		assertTrue(status.getKeyPairsFromPool() > 0);
+		
+		// More handshakes than key pairs in the pools: the rest were generated or taken after a refill
+		assertTrue(status.getKeyPairsFromPool() + status.getKeyPairsGenerated() >= CLIENTS);
+	}
+	
+	@Test
+	void poolDisabled() throws Exception
+	{
+		PayloadResponseMessageGetServerStatus status = runHandshakes(0);
+		
+		assertEquals(0, status.getKeyPairPoolSize());
+		assertEquals(0, status.getKeyPairsFromPool());
+		assertTrue(status.getKeyPairsGenerated() >= CLIENTS);
+	}
+	
+	/**
+	 * Start a server and run a full handshake with both key agreement algorithms for a number of new clients.
+	 * @return The status of the server afterwards
+	 */
+	private static PayloadResponseMessageGetServerStatus runHandshakes(int keyPairPoolSize) throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setKeyPairPoolSize(keyPairPoolSize);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		// Let the server fill its pools
+		Thread.sleep(1000);
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			KeyAgreementAlgorithm algorithm = i % 2 == 0 ? 
+					KeyAgreementAlgorithm.X25519 : 
+					KeyAgreementAlgorithm.DiffieHellman;
+			
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> clientConfig.setKeyAgreementAlgorithm(algorithm), 
+					false);
+			
+			assertTrue(client.pingServer().isSuccess());
+			client.disconnect();
+		}
+		
+		return server.getAdminClient().getServerStatus().getPayload();
+	}
+}
@@ -0,0 +1,85 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.MessageFormat;
+import spielwitz.biDiServer.Response;
+
+public class LargeMessageTests
+{
+	private static final int PAYLOAD_LENGTH = 8 * 1024 * 1024;
+	
+	@Test
+	void largeDataSetJson() throws Exception
+	{
+		roundTripLargeDataSet(MessageFormat.Json, 6);
+	}
+	
+	@Test
+	void largeDataSetBinary() throws Exception
+	{
+		roundTripLargeDataSet(MessageFormat.Binary, 6);
+	}
+	
+	@Test
+	void largeDataSetUncompressed() throws Exception
+	{
+		roundTripLargeDataSet(MessageFormat.Json, 0);
+	}
+	
+	private static void roundTripLargeDataSet(MessageFormat messageFormat, int compressionLevel) throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient client = server.createUserClient(
+				config -> 
+				{
+					config.setCompressionLevel(compressionLevel);
+					config.setKeepAlive(true);
+					config.setMessageFormat(messageFormat);
+				}, 
+				false);
+		
+		String payload = TestUtils.newRandomText(PAYLOAD_LENGTH);
+		
+		DataSet dataSet = new DataSet("ds1", new HashSet<String>(Arrays.asList(client.getUserId())), payload);
+		assertTrue(client.createDataSet(dataSet).isSuccess());
+		
+		Response<DataSet> response = client.getDataSet("ds1");
+		
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertEquals(payload, response.getPayload().getPayloadObject());
+		
+		// A large custom request and its response on the same kept-alive connection
+		Response<String> responseCustom = client.sendCustomRequestMessage(payload);
+		assertEquals(payload, responseCustom.getPayload());
+		
+		assertTrue(client.pingServer().isSuccess());
+		
+		client.disconnect();
+	}
+}
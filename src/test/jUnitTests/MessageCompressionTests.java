@@ -0,0 +1,130 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class MessageCompressionTests
+{
+	private static final int LARGE_PAYLOAD_LENGTH = 200000;
+	
+	@Test
+	void compressLargeMessages() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		JUnitTestServer server = JUnitTestServer.start(config);
+		JUnitTestClient clientAdmin = server.getAdminClient();
+		
+		int clientBytes = sendLargeDataSet(server, config, 9);
+		
+		PayloadResponseMessageGetServerStatus status = clientAdmin.getServerStatus().getPayload();
+		
+		// The large data set was compressed in the response, the short responses were not
+		assertTrue(status.getMessagesCompressed() > 0);
+		assertTrue(status.getMessagesUncompressed() > 0);
+		assertTrue(status.getBytesAfterCompression() < status.getBytesBeforeCompression());
+		
+		// The client compressed its request as well
+		assertTrue(clientBytes < LARGE_PAYLOAD_LENGTH);
+	}
+	
+	@Test
+	void compressionDisabled() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setCompressionLevel(0);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		JUnitTestClient clientAdmin = server.getAdminClient();
+		
+		int clientBytes = sendLargeDataSet(server, config, 0);
+		
+		PayloadResponseMessageGetServerStatus status = clientAdmin.getServerStatus().getPayload();
+		
+		assertEquals(0, status.getMessagesCompressed());
+		assertTrue(status.getMessagesUncompressed() > 0);
+		assertTrue(clientBytes > LARGE_PAYLOAD_LENGTH);
+	}
+	
+	@Test
+	void mixedCompressionLevels() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setCompressionLevel(1);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		// Each side decodes the messages of the other side whatever level they were compressed with
+		assertTrue(sendLargeDataSet(server, config, 0) > sendLargeDataSet(server, config, 9));
+	}
+	
+	/**
+	 * Create a large data set, read it back, and return the number of bytes which the client sent.
+	 */
+	private static int sendLargeDataSet(JUnitTestServer server, ServerConfiguration config, int compressionLevel) throws Exception
+	{
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> 
+					{
+						clientConfig.setCompressionLevel(compressionLevel);
+						clientConfig.setKeepAlive(true);
+						clientConfig.setPort(proxy.getPort());
+					}, 
+					false);
+			
+			assertTrue(client.pingServer().isSuccess());
+			int bytesBefore = proxy.getClientBytes(0).length;
+			
+			String payload = newCompressibleText(LARGE_PAYLOAD_LENGTH);
+			
+			String id = "ds" + compressionLevel;
+			DataSet dataSet = new DataSet(id, new HashSet<String>(Arrays.asList(client.getUserId())), payload);
+			assertTrue(client.createDataSet(dataSet).isSuccess());
+			
+			int clientBytes = proxy.getClientBytes(0).length - bytesBefore;
+			
+			assertEquals(payload, client.getDataSet(id).getPayload().getPayloadObject());
+			
+			client.disconnect();
+			
+			return clientBytes;
+		}
+	}
+	
+	private static String newCompressibleText(int length)
+	{
+		StringBuilder sb = new StringBuilder();
+		
+		for (int i = 0; sb.length() < length; i++)
+		{
+			sb.append("{\"id\":" + i + ",\"name\":\"Data set " + i + "\"},");
+		}
+		
+		return sb.substring(0, length);
+	}
+}
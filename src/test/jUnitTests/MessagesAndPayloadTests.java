@@ -19,8 +19,15 @@ package test.jUnitTests;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.jupiter.api.Test;
 
+import com.google.gson.Gson;
+
 import spielwitz.biDiServer.Payload;
 
 public class MessagesAndPayloadTests
@@ -65,4 +72,78 @@ public class MessagesAndPayloadTests
 		
 		assertTrue(result);
 	}
+	
+	@Test
+	void getObjectRepeatedly()
+	{
+		PayloadTestClass payloadClassObj = new PayloadTestClass();
+		Payload payload = new Payload(payloadClassObj);
+		
+		PayloadTestClass object1 = (PayloadTestClass)payload.getObject();
+		PayloadTestClass object2 = (PayloadTestClass)payload.getObject();
+		
+		// Every call returns a new object, even if the class was resolved before
+		assertTrue(object1 != object2);
+		assertEquals(payloadClassObj.getId(), object1.getId());
+		assertEquals(payloadClassObj.getId(), object2.getId());
+		
+		object1.subObjects.clear();
+		assertEquals(5, ((PayloadTestClass)payload.getObject()).subObjects.size());
+	}
+	
+	@Test
+	void getObjectConcurrently() throws Exception
+	{
+		Payload payload1 = new Payload(new PayloadTestClass());
+		Payload payload2 = new Payload(new PayloadTestClass2());
+		Payload payload3 = new Payload("Text");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		
+		try
+		{
+			ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			
+			for (int i = 0; i < 8; i++)
+			{
+				futures.add(executor.submit(() -> 
+				{
+					for (int j = 0; j < 1000; j++)
+					{
+						if (!(payload1.getObject() instanceof PayloadTestClass) ||
+							!(payload2.getObject() instanceof PayloadTestClass2) ||
+							!payload3.getObject().equals("Text"))
+						{
+							return false;
+						}
+					}
+					
+					return true;
+				}));
+			}
+			
+			for (Future<Boolean> future: futures)
+			{
+				assertTrue(future.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	void getObjectOfUnknownClass()
+	{
+		Payload payload = new Gson().fromJson(
+				"{\"className\":\"test.jUnitTests.UnknownClass\",\"jsonElement\":{\"a\":1}}", 
+				Payload.class);
+		
+		// The class cannot be resolved, also not the second time
+		assertNull(payload.getObject());
+		assertNull(payload.getObject());
+		
+		assertTrue(new Payload(true).getObject().equals(true));
+	}
 }
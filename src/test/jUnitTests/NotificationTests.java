@@ -0,0 +1,128 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.ResponseInfo;
+
+public class NotificationTests
+{
+	@Test
+	void concurrentSenders() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient recipient = server.createUserClient(null, true);
+		ArrayList<String> recipients = new ArrayList<String>(Arrays.asList(recipient.getUserId()));
+		
+		ArrayList<CompletableFuture<ResponseInfo>> futures = new ArrayList<CompletableFuture<ResponseInfo>>();
+		HashSet<String> expected = new HashSet<String>();
+		
+		for (int i = 0; i < 4; i++)
+		{
+			JUnitTestClient sender = server.createUserClient(config -> config.setMaxConcurrentRequests(4), false);
+			
+			for (int j = 0; j < 25; j++)
+			{
+				String payload = "Sender " + i + " notification " + j;
+				expected.add(payload);
+				futures.add(sender.pushNotificationAsync(recipients, payload));
+			}
+		}
+		
+		for (CompletableFuture<ResponseInfo> future: futures)
+		{
+			assertTrue(future.get().isSuccess());
+		}
+		
+		HashSet<Object> received = new HashSet<Object>();
+		
+		for (int i = 0; i < expected.size(); i++)
+		{
+			received.add(recipient.pollNotification(10000));
+		}
+		
+		assertEquals(expected, received);
+		
+		recipient.disconnect();
+	}
+	
+	@Test
+	void deliverStoredNotificationsOnConnect() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient sender = server.createUserClient(null, false);
+		JUnitTestClient recipientOffline = server.createUserClient(null, false);
+		
+		ArrayList<String> recipients = new ArrayList<String>(Arrays.asList(recipientOffline.getUserId()));
+		
+		for (int i = 0; i < 20; i++)
+		{
+			assertTrue(sender.pushNotification(recipients, "Notification " + i).isSuccess());
+		}
+		
+		// The stored notifications are sent together when the recipient opens its notification socket
+		JUnitTestClient recipient = new JUnitTestClient(recipientOffline.getConfig(), true);
+		recipient.start();
+		
+		for (int i = 0; i < 20; i++)
+		{
+			assertEquals("Notification " + i, recipient.pollNotification(10000));
+		}
+		
+		// Later notifications follow on the same socket
+		assertTrue(sender.pushNotification(recipients, "Notification 20").isSuccess());
+		assertEquals("Notification 20", recipient.pollNotification(10000));
+		
+		sender.disconnect();
+		recipient.disconnect();
+	}
+	
+	@Test
+	void largePayloads() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient sender = server.createUserClient(null, false);
+		JUnitTestClient recipient = server.createUserClient(null, true);
+		
+		ArrayList<String> recipients = new ArrayList<String>(Arrays.asList(recipient.getUserId()));
+		
+		// Far beyond what fits into one RSA block
+		for (int length: new int[] {1, 1000, 100000, 1000000})
+		{
+			String payload = TestUtils.newRandomText(length) + "\u00E4\u00F6\u00FC\u20AC";
+			
+			assertTrue(sender.pushNotification(recipients, payload).isSuccess());
+			assertEquals(payload, recipient.pollNotification(10000));
+		}
+		
+		sender.disconnect();
+		recipient.disconnect();
+	}
+}
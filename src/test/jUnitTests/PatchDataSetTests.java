@@ -0,0 +1,224 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.Response;
+
+public class PatchDataSetTests
+{
+	private static final int CLIENTS = 4;
+	private static final int MOVES_PER_CLIENT = 10;
+	
+	@Test
+	void concurrentPatches() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		ArrayList<JUnitTestClient> clients = new ArrayList<JUnitTestClient>();
+		HashSet<String> userIds = new HashSet<String>();
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			JUnitTestClient client = server.createUserClient(null, false);
+			clients.add(client);
+			userIds.add(client.getUserId());
+		}
+		
+		assertTrue(clients.get(0).createDataSet(new DataSet("game", userIds, newGame())).isSuccess());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		
+		try
+		{
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			
+			for (int i = 0; i < CLIENTS; i++)
+			{
+				JUnitTestClient client = clients.get(i);
+				String player = "p" + i;
+				
+				// On a conflict, the client reads the data set again and patches the new version
+				futures.add(executor.submit(() -> 
+				{
+					for (int j = 0; j < MOVES_PER_CLIENT; j++)
+					{
+						while (true)
+						{
+							DataSet dataSet = client.getDataSet("game").getPayload();
+							Game game = (Game)dataSet.getPayloadObject();
+							game.moves.add(player + "_" + j);
+							game.board.lastMove = player + "_" + j;
+							
+							if (client.patchDataSet(dataSet, game).getResponseInfo().isSuccess())
+							{
+								break;
+							}
+						}
+					}
+				}));
+			}
+			
+			for (Future<?> future: futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		Game game = (Game)clients.get(0).getDataSet("game").getPayload().getPayloadObject();
+		
+		assertEquals(CLIENTS * MOVES_PER_CLIENT, game.moves.size());
+		assertEquals(CLIENTS * MOVES_PER_CLIENT, new HashSet<String>(game.moves).size());
+		assertEquals(game.moves.get(game.moves.size() - 1), game.board.lastMove);
+	}
+	
+	@Test
+	void patchConflict() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		JUnitTestClient client1 = server.createUserClient(null, false);
+		JUnitTestClient client2 = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client1.getUserId(), client2.getUserId()));
+		
+		assertTrue(client1.createDataSet(new DataSet("game", userIds, newGame())).isSuccess());
+		
+		DataSet dataSet1 = client1.getDataSet("game").getPayload();
+		DataSet dataSet2 = client2.getDataSet("game").getPayload();
+		
+		Game game1 = (Game)dataSet1.getPayloadObject();
+		game1.name = "Renamed";
+		assertTrue(client1.patchDataSet(dataSet1, game1).getResponseInfo().isSuccess());
+		
+		// The second client patches the version which it read before the first client changed it
+		Game game2 = (Game)dataSet2.getPayloadObject();
+		game2.board.cells[0] = 2;
+		
+		Response<Long> response = client2.patchDataSet(dataSet2, game2);
+		assertFalse(response.getResponseInfo().isSuccess());
+		assertNull(response.getPayload());
+		
+		Game game = (Game)client2.getDataSet("game").getPayload().getPayloadObject();
+		assertEquals("Renamed", game.name);
+		assertEquals(0, game.board.cells[0]);
+		
+		// Patched again on the current version, both changes are kept
+		dataSet2 = client2.getDataSet("game").getPayload();
+		game2 = (Game)dataSet2.getPayloadObject();
+		game2.board.cells[0] = 2;
+		assertTrue(client2.patchDataSet(dataSet2, game2).getResponseInfo().isSuccess());
+		
+		game = (Game)client1.getDataSet("game").getPayload().getPayloadObject();
+		assertEquals("Renamed", game.name);
+		assertEquals(2, game.board.cells[0]);
+	}
+	
+	@Test
+	void patchNestedObjects() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		JUnitTestClient client = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		assertTrue(client.createDataSet(new DataSet("game", userIds, newGame())).isSuccess());
+		
+		DataSet dataSet = client.getDataSet("game").getPayload();
+		Game game = (Game)dataSet.getPayloadObject();
+		
+		game.board.cells[4] = 1;
+		game.board.lastMove = "e5";
+		game.board.next = null;
+		game.moves.add("e5");
+		game.winner = "nobody";
+		
+		Response<Long> response = client.patchDataSet(dataSet, game);
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertEquals(dataSet.getVersion() + 1, (long)response.getPayload());
+		
+		DataSet dataSetPatched = client.getDataSet("game").getPayload();
+		Game gamePatched = (Game)dataSetPatched.getPayloadObject();
+		
+		assertEquals(response.getPayload(), (Long)dataSetPatched.getVersion());
+		assertEquals("Game", gamePatched.name);
+		assertArrayEquals(new int[] {0, 0, 0, 0, 1, 0, 0, 0, 0}, gamePatched.board.cells);
+		assertEquals("e5", gamePatched.board.lastMove);
+		assertEquals(Arrays.asList("e5"), gamePatched.moves);
+		assertEquals("nobody", gamePatched.winner);
+		
+		// Members which were set to null are removed from the data set
+		assertNull(gamePatched.board.next);
+		
+		gamePatched.board = null;
+		gamePatched.winner = null;
+		
+		response = client.patchDataSet(dataSetPatched, gamePatched);
+		assertTrue(response.getResponseInfo().isSuccess());
+		
+		gamePatched = (Game)client.getDataSet("game").getPayload().getPayloadObject();
+		assertNull(gamePatched.board);
+		assertNull(gamePatched.winner);
+		assertEquals(Arrays.asList("e5"), gamePatched.moves);
+		
+		// A patch without changes keeps the version
+		dataSetPatched = client.getDataSet("game").getPayload();
+		response = client.patchDataSet(dataSetPatched, dataSetPatched.getPayloadObject());
+		assertTrue(response.getResponseInfo().isSuccess());
+		assertEquals(dataSetPatched.getVersion(), (long)response.getPayload());
+	}
+	
+	private static Game newGame()
+	{
+		Game game = new Game();
+		game.name = "Game";
+		game.board = new Board();
+		game.board.cells = new int[9];
+		game.board.next = "p0";
+		game.moves = new ArrayList<String>();
+		
+		return game;
+	}
+	
+	static class Board
+	{
+		int[] cells;
+		String lastMove;
+		String next;
+	}
+	
+	static class Game
+	{
+		String name;
+		Board board;
+		ArrayList<String> moves;
+		String winner;
+	}
+}
@@ -0,0 +1,294 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.SegmentedDataSetStore;
+
+public class SegmentedDataSetStoreTests
+{
+	private static final long COMPACTION_TIMEOUT_MILLISECONDS = 60000;
+	
+	@Test
+	void rebuildIndex() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSetSegments");
+		
+		try
+		{
+			SegmentedDataSetStore store = new SegmentedDataSetStore(folder);
+			
+			for (int i = 0; i < 10; i++)
+			{
+				store.put(TestUtils.newDataSet("ds" + i, "v1"));
+			}
+			
+			store.put(TestUtils.newDataSet("ds3", "v2"));
+			store.delete("ds5");
+			store.delete("ds7");
+			store.put(TestUtils.newDataSet("ds7", "v3"));
+			store.delete("unknown");
+			store.close();
+			
+			store = new SegmentedDataSetStore(folder);
+			
+			assertEquals(
+					Arrays.asList("ds0", "ds1", "ds2", "ds3", "ds4", "ds6", "ds7", "ds8", "ds9"), 
+					TestUtils.getDataSetIds(store));
+			assertTrue(store.get("ds0").getPayload().getObject().equals("v1"));
+			assertTrue(store.get("ds3").getPayload().getObject().equals("v2"));
+			assertTrue(store.get("ds7").getPayload().getObject().equals("v3"));
+			assertNull(store.get("ds5"));
+			
+			store.close();
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Test
+	void truncateNewestSegment() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSetSegments");
+		
+		try
+		{
+			SegmentedDataSetStore store = new SegmentedDataSetStore(folder);
+			store.put(TestUtils.newDataSet("ds1", "v1"));
+			store.put(TestUtils.newDataSet("ds2", "v1"));
+			store.close();
+			
+			File[] segments = folder.listFiles();
+			assertTrue(segments.length == 1);
+			long segmentLength = segments[0].length();
+			
+			// The server stopped while it appended the next record
+			try (FileOutputStream out = new FileOutputStream(segments[0], true))
+			{
+				out.write(new byte[] {0, 0, 1, 0, 1, 0, 3});
+			}
+			
+			store = new SegmentedDataSetStore(folder);
+			
+			assertTrue(segments[0].length() == segmentLength);
+			assertTrue(TestUtils.getDataSetIds(store).size() == 2);
+			
+			store.put(TestUtils.newDataSet("ds3", "v1"));
+			store.close();
+			
+			store = new SegmentedDataSetStore(folder);
+			
+			assertTrue(TestUtils.getDataSetIds(store).size() == 3);
+			assertTrue(store.get("ds1").getPayload().getObject().equals("v1"));
+			assertTrue(store.get("ds3").getPayload().getObject().equals("v1"));
+			
+			store.close();
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Test
+	void compactSegmentsWithTombstones() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSetSegments");
+		
+		try
+		{
+			// Segment 1: mostly current, because the deleted data set is small
+			SegmentedDataSetStore store = new SegmentedDataSetStore(folder);
+			store.put(TestUtils.newDataSet("small", "v1"));
+			store.put(TestUtils.newDataSet("large", TestUtils.newRandomText(5000)));
+			store.close();
+			
+			// Segment 2: mostly outdated, but with the tombstone of a data set in segment 1
+			store = new SegmentedDataSetStore(folder);
+			store.delete("small");
+			
+			for (int i = 1; i <= 3; i++)
+			{
+				store.put(TestUtils.newDataSet("updated", "v" + i));
+			}
+			
+			store.close();
+			
+			store = new SegmentedDataSetStore(folder);
+			assertTrue(folder.listFiles().length == 3);
+			
+			waitForCompaction(segmentFile(folder, 2));
+			
+			assertTrue(segmentFile(folder, 1).exists());
+			store.close();
+			
+			// The tombstone was copied, so that the data set in segment 1 stays deleted
+			store = new SegmentedDataSetStore(folder);
+			
+			assertEquals(Arrays.asList("large", "updated"), TestUtils.getDataSetIds(store));
+			assertNull(store.get("small"));
+			assertTrue(store.get("updated").getPayload().getObject().equals("v3"));
+			
+			store.close();
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Test
+	void skipDamagedRecordInOlderSegment() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSetSegments");
+		
+		try
+		{
+			long[] recordOffsets = writeSegmentsWithDamageCandidate(folder);
+			
+			// Damage the content of the record of ds2 in segment 2, which is not the newest segment
+			damageSegment(segmentFile(folder, 2), (recordOffsets[0] + recordOffsets[1]) / 2);
+			
+			SegmentedDataSetStore store = new SegmentedDataSetStore(folder);
+			
+			// The records after the damaged record are still found
+			assertTrue(store.get("ds1").getPayload().getObject().equals("v2"));
+			assertTrue(store.get("ds2").getPayload().getObject().equals("v1"));
+			assertTrue(store.get("ds3").getPayload().getObject().equals("v2"));
+			assertTrue(store.get("other").getPayload().getObject().equals("v1"));
+			
+			// Compaction copies the records after the damaged record as well
+			waitForCompaction(segmentFile(folder, 2));
+			store.close();
+			
+			store = new SegmentedDataSetStore(folder);
+			
+			assertEquals(Arrays.asList("ds1", "ds2", "ds3", "filler", "other"), TestUtils.getDataSetIds(store));
+			assertTrue(store.get("ds1").getPayload().getObject().equals("v2"));
+			assertTrue(store.get("ds2").getPayload().getObject().equals("v1"));
+			assertTrue(store.get("ds3").getPayload().getObject().equals("v2"));
+			assertTrue(store.get("filler").getPayload().getObject().equals("v5"));
+			
+			store.close();
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	@Test
+	void rejectUnreadableRecordInOlderSegment() throws Exception
+	{
+		File folder = TestUtils.createTempFolder("DataSetSegments");
+		
+		try
+		{
+			long[] recordOffsets = writeSegmentsWithDamageCandidate(folder);
+			
+			// Damage the length of the record of ds2 in segment 2, so that the records after it cannot be found
+			damageSegment(segmentFile(folder, 2), recordOffsets[0]);
+			
+			assertThrows(IOException.class, () -> new SegmentedDataSetStore(folder));
+			
+			assertTrue(segmentFile(folder, 2).exists());
+		}
+		finally
+		{
+			TestUtils.deleteFolder(folder);
+		}
+	}
+	
+	private static void damageSegment(File segmentFile, long position) throws IOException
+	{
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw"))
+		{
+			file.seek(position);
+			int value = file.read();
+			file.seek(position);
+			file.write(value ^ 0x7F);
+		}
+	}
+	
+	private static File segmentFile(File folder, long segmentNumber)
+	{
+		return new File(folder, String.format("%016d.seg", segmentNumber));
+	}
+	
+	private static void waitForCompaction(File segmentFile) throws InterruptedException
+	{
+		long timeout = System.currentTimeMillis() + COMPACTION_TIMEOUT_MILLISECONDS;
+		
+		while (segmentFile.exists())
+		{
+			assertTrue(System.currentTimeMillis() < timeout);
+			Thread.sleep(100);
+		}
+	}
+	
+	/**
+	 * Write three segments. Segment 2 holds newer versions of ds1, ds2, and ds3, followed by mostly outdated 
+	 * records, so that it is compacted.
+	 * @return The offsets of the records of ds2 and ds3 in segment 2
+	 */
+	private static long[] writeSegmentsWithDamageCandidate(File folder) throws IOException
+	{
+		SegmentedDataSetStore store = new SegmentedDataSetStore(folder);
+		
+		for (int i = 1; i <= 3; i++)
+		{
+			store.put(TestUtils.newDataSet("ds" + i, "v1"));
+		}
+		
+		store.close();
+		
+		store = new SegmentedDataSetStore(folder);
+		File segment = segmentFile(folder, 2);
+		
+		store.put(TestUtils.newDataSet("ds1", "v2"));
+		long offsetDs2 = segment.length();
+		store.put(TestUtils.newDataSet("ds2", "v2"));
+		long offsetDs3 = segment.length();
+		store.put(TestUtils.newDataSet("ds3", "v2"));
+		
+		for (int i = 1; i <= 5; i++)
+		{
+			store.put(TestUtils.newDataSet("filler", "v" + i));
+		}
+		
+		store.close();
+		
+		store = new SegmentedDataSetStore(folder);
+		store.put(TestUtils.newDataSet("other", "v1"));
+		store.close();
+		
+		return new long[] {offsetDs2, offsetDs3};
+	}
+}
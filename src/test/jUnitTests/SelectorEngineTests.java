@@ -0,0 +1,143 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.ServerIoEngine;
+
+public class SelectorEngineTests
+{
+	private static final int CLIENTS = 8;
+	private static final int REQUESTS_PER_CLIENT = 20;
+	
+	@Test
+	void concurrentRequests() throws Exception
+	{
+		JUnitTestServer server = startSelectorServer();
+		ArrayList<JUnitTestClient> clients = new ArrayList<JUnitTestClient>();
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			boolean keepAlive = i % 2 == 0;
+			clients.add(server.createUserClient(config -> config.setKeepAlive(keepAlive), false));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		
+		try
+		{
+			ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			
+			for (int i = 0; i < CLIENTS; i++)
+			{
+				JUnitTestClient client = clients.get(i);
+				String prefix = "Client " + i + " request ";
+				
+				futures.add(executor.submit(() -> 
+				{
+					int successes = 0;
+					
+					for (int j = 0; j < REQUESTS_PER_CLIENT; j++)
+					{
+						Response<String> response = client.sendCustomRequestMessage(prefix + j);
+						
+						if (response.getResponseInfo().isSuccess() && 
+							response.getPayload().equals(prefix + j))
+						{
+							successes++;
+						}
+					}
+					
+					return successes;
+				}));
+			}
+			
+			for (Future<Integer> future: futures)
+			{
+				assertEquals(REQUESTS_PER_CLIENT, (int)future.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		// Parked kept-alive connections are woken up by the next request
+		Thread.sleep(500);
+		
+		for (JUnitTestClient client: clients)
+		{
+			assertTrue(client.pingServer().isSuccess());
+			client.disconnect();
+		}
+	}
+	
+	@Test
+	void notifications() throws Exception
+	{
+		JUnitTestServer server = startSelectorServer();
+		
+		JUnitTestClient sender = server.createUserClient(config -> config.setKeepAlive(true), false);
+		JUnitTestClient recipient1 = server.createUserClient(null, true);
+		JUnitTestClient recipient2 = server.createUserClient(null, true);
+		
+		ArrayList<String> recipients = new ArrayList<String>(
+				Arrays.asList(recipient1.getUserId(), recipient2.getUserId()));
+		
+		for (int i = 0; i < 5; i++)
+		{
+			assertTrue(sender.pushNotification(recipients, "Notification " + i).isSuccess());
+		}
+		
+		for (JUnitTestClient recipient: Arrays.asList(recipient1, recipient2))
+		{
+			for (int i = 0; i < 5; i++)
+			{
+				assertEquals("Notification " + i, recipient.pollNotification(10000));
+			}
+			
+			assertTrue(recipient.pingServer().isSuccess());
+		}
+		
+		sender.disconnect();
+		recipient1.disconnect();
+		recipient2.disconnect();
+	}
+	
+	private static JUnitTestServer startSelectorServer() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setIoEngine(ServerIoEngine.Selector);
+		config.setIoThreads(2);
+		config.setMaxWorkerThreads(4);
+		
+		return JUnitTestServer.start(config);
+	}
+}
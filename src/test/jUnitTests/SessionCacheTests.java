@@ -0,0 +1,80 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.ResponseInfo;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class SessionCacheTests
+{
+	private static final int MAX_SESSIONS = 3;
+	private static final int CLIENTS = 8;
+	
+	@Test
+	void evictedSessionsAreRenewed() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setMaxSessions(MAX_SESSIONS);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		ArrayList<JUnitTestClient> clients = new ArrayList<JUnitTestClient>();
+		
+		for (int i = 0; i < CLIENTS; i++)
+		{
+			JUnitTestClient client = server.createUserClient(clientConfig -> clientConfig.setMaxConcurrentRequests(4), false);
+			assertTrue(client.pingServer().isSuccess());
+			clients.add(client);
+		}
+		
+		// The sessions of the clients evict each other. The clients fall back to a full handshake.
+		ArrayList<CompletableFuture<ResponseInfo>> futures = new ArrayList<CompletableFuture<ResponseInfo>>();
+		
+		for (int i = 0; i < 5; i++)
+		{
+			for (JUnitTestClient client: clients)
+			{
+				futures.add(client.pingServerAsync());
+			}
+		}
+		
+		for (CompletableFuture<ResponseInfo> future: futures)
+		{
+			assertTrue(future.get().isSuccess());
+		}
+		
+		PayloadResponseMessageGetServerStatus status = server.getAdminClient().getServerStatus().getPayload();
+		
+		assertEquals(MAX_SESSIONS, status.getSessionsMax());
+		assertTrue(status.getSessionsCached() <= MAX_SESSIONS);
+		assertTrue(status.getSessionsEvicted() >= CLIENTS - MAX_SESSIONS);
+		
+		for (JUnitTestClient client: clients)
+		{
+			client.disconnect();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.ResponseInfo;
+import spielwitz.biDiServer.ServerConfiguration;
+
+public class SessionResumptionTests
+{
+	private static final int FRAME_LENGTH_SESSION_RESUMPTION_REJECTED = -3;
+	
+	@Test
+	void resumedRequestsUseNoKeyPairs() throws Exception
+	{
+		JUnitTestServer server = JUnitTestServer.start(JUnitTestServer.newConfiguration());
+		
+		JUnitTestClient clientAdmin = server.getAdminClient();
+		JUnitTestClient client = server.createUserClient(config -> config.setMaxConcurrentRequests(8), false);
+		
+		assertTrue(client.pingServer().isSuccess());
+		long keyPairsBefore = getKeyPairsUsed(clientAdmin);
+		
+		// The full handshakes of the sessions took key pairs
+		assertTrue(keyPairsBefore > 0);
+		
+		// Every request opens a new connection, which resumes the session of the client
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(client.pingServer().isSuccess());
+		}
+		
+		// Connections of the session overtake each other
+		ArrayList<CompletableFuture<ResponseInfo>> futures = new ArrayList<CompletableFuture<ResponseInfo>>();
+		
+		for (int i = 0; i < 40; i++)
+		{
+			futures.add(client.pingServerAsync());
+		}
+		
+		for (CompletableFuture<ResponseInfo> future: futures)
+		{
+			assertTrue(future.get().isSuccess());
+		}
+		
+		assertEquals(keyPairsBefore, getKeyPairsUsed(clientAdmin));
+		
+		client.disconnect();
+	}
+	
+	@Test
+	void rejectReplayedResumption() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		try (TcpProxy proxy = new TcpProxy("localhost", config.getPort()))
+		{
+			JUnitTestClient client = server.createUserClient(
+					clientConfig -> clientConfig.setPort(proxy.getPort()), 
+					false);
+			
+			assertTrue(client.pingServer().isSuccess());
+			assertTrue(client.pingServer().isSuccess());
+			
+			byte[] resumedConnection = proxy.getClientBytes(proxy.getConnections() - 1);
+			
+			// Somebody who recorded the connection sends it again
+			try (Socket socket = new Socket("localhost", config.getPort()))
+			{
+				socket.setSoTimeout(10000);
+				socket.getOutputStream().write(resumedConnection);
+				socket.getOutputStream().flush();
+				
+				assertEquals(
+						FRAME_LENGTH_SESSION_RESUMPTION_REJECTED, 
+						new DataInputStream(socket.getInputStream()).readInt());
+			}
+			
+			// The session of the client is not affected
+			assertTrue(client.pingServer().isSuccess());
+			
+			client.disconnect();
+		}
+	}
+	
+	private static long getKeyPairsUsed(JUnitTestClient clientAdmin)
+	{
+		PayloadResponseMessageGetServerStatus status = clientAdmin.getServerStatus().getPayload();
+		
+		return status.getKeyPairsFromPool() + status.getKeyPairsGenerated();
+	}
+}
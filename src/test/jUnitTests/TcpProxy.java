@@ -0,0 +1,203 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP proxy between the clients and a server. It counts the connections which the clients open, 
+ * and it records the bytes which the clients send on every connection.
+ * @author spielwitz
+ *
+ */
+public class TcpProxy implements AutoCloseable
+{
+	private static final int BUFFER_SIZE = 8192;
+	
+	private ServerSocket serverSocket;
+	private String serverHost;
+	private int serverPort;
+	private AtomicInteger connections = new AtomicInteger();
+	private ArrayList<ByteArrayOutputStream> clientBytes = new ArrayList<ByteArrayOutputStream>();
+	private ArrayList<Socket> sockets = new ArrayList<Socket>();
+	
+	/**
+	 * Constructor. The proxy listens on a free port.
+	 * @param serverHost Host of the server
+	 * @param serverPort Port of the server
+	 * @throws IOException
+	 */
+	public TcpProxy(String serverHost, int serverPort) throws IOException
+	{
+		this.serverHost = serverHost;
+		this.serverPort = serverPort;
+		this.serverSocket = new ServerSocket(0);
+		
+		Thread acceptThread = new Thread(() -> this.accept());
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+	
+	@Override
+	public void close()
+	{
+		try
+		{
+			this.serverSocket.close();
+		}
+		catch (IOException x)
+		{
+		}
+		
+		synchronized(this.sockets)
+		{
+			for (Socket socket: this.sockets)
+			{
+				closeSocket(socket);
+			}
+		}
+	}
+	
+	/**
+	 * Get the bytes which the client has sent on a connection so far.
+	 * @param connection Index of the connection, in the order in which the connections were opened
+	 * @return The bytes
+	 */
+	public byte[] getClientBytes(int connection)
+	{
+		synchronized(this.clientBytes)
+		{
+			ByteArrayOutputStream bytes = this.clientBytes.get(connection);
+			
+			synchronized(bytes)
+			{
+				return bytes.toByteArray();
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of connections which the clients have opened.
+	 * @return The number of connections
+	 */
+	public int getConnections()
+	{
+		return this.connections.get();
+	}
+	
+	/**
+	 * Get the port on which the proxy listens.
+	 * @return The port
+	 */
+	public int getPort()
+	{
+		return this.serverSocket.getLocalPort();
+	}
+	
+	private void accept()
+	{
+		while (!this.serverSocket.isClosed())
+		{
+			try
+			{
+				Socket clientSocket = this.serverSocket.accept();
+				Socket serverSocket = new Socket(this.serverHost, this.serverPort);
+				
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				
+				synchronized(this.clientBytes)
+				{
+					this.clientBytes.add(bytes);
+				}
+				
+				synchronized(this.sockets)
+				{
+					this.sockets.add(clientSocket);
+					this.sockets.add(serverSocket);
+				}
+				
+				this.connections.incrementAndGet();
+				
+				forward(clientSocket, serverSocket, bytes);
+				forward(serverSocket, clientSocket, null);
+			}
+			catch (IOException x)
+			{
+			}
+		}
+	}
+	
+	private static void closeSocket(Socket socket)
+	{
+		try
+		{
+			socket.close();
+		}
+		catch (IOException x)
+		{
+		}
+	}
+	
+	private static void forward(Socket from, Socket to, ByteArrayOutputStream record)
+	{
+		Thread thread = new Thread(() ->
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			
+			try
+			{
+				InputStream in = from.getInputStream();
+				OutputStream out = to.getOutputStream();
+				int length;
+				
+				while ((length = in.read(buffer)) >= 0)
+				{
+					if (record != null)
+					{
+						synchronized(record)
+						{
+							record.write(buffer, 0, length);
+						}
+					}
+					
+					out.write(buffer, 0, length);
+					out.flush();
+				}
+				
+				// Pass the half-close on
+				to.shutdownOutput();
+			}
+			catch (IOException x)
+			{
+				closeSocket(from);
+				closeSocket(to);
+			}
+		});
+		
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,148 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.DataSetStore;
+
+/**
+ * Helpers shared by the tests.
+ * @author spielwitz
+ *
+ */
+public class TestUtils
+{
+	/**
+	 * Copy a folder and everything in it.
+	 * @param folder The folder
+	 * @param target The copy, which must not exist yet
+	 * @throws IOException
+	 */
+	public static void copyFolder(File folder, File target) throws IOException
+	{
+		Files.copy(folder.toPath(), target.toPath());
+		
+		File[] files = folder.listFiles();
+		
+		if (files != null)
+		{
+			for (File file: files)
+			{
+				if (file.isDirectory())
+				{
+					copyFolder(file, new File(target, file.getName()));
+				}
+				else
+				{
+					Files.copy(file.toPath(), new File(target, file.getName()).toPath());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Create an empty temporary folder.
+	 * @param prefix Prefix of the folder name
+	 * @return The folder
+	 * @throws IOException
+	 */
+	public static File createTempFolder(String prefix) throws IOException
+	{
+		return Files.createTempDirectory(prefix).toFile();
+	}
+	
+	/**
+	 * Delete a folder and everything in it.
+	 * @param folder The folder
+	 */
+	public static void deleteFolder(File folder)
+	{
+		File[] files = folder.listFiles();
+		
+		if (files != null)
+		{
+			for (File file: files)
+			{
+				if (file.isDirectory())
+				{
+					deleteFolder(file);
+				}
+				else
+				{
+					file.delete();
+				}
+			}
+		}
+		
+		folder.delete();
+	}
+	
+	/**
+	 * Get the sorted IDs of all data sets in a store.
+	 * @param store The data set store
+	 * @return The data set IDs
+	 * @throws IOException
+	 */
+	public static ArrayList<String> getDataSetIds(DataSetStore store) throws IOException
+	{
+		ArrayList<String> ids = new ArrayList<String>();
+		store.loadAll(dataSet -> ids.add(dataSet.getId()));
+		Collections.sort(ids);
+		
+		return ids;
+	}
+	
+	/**
+	 * Create a data set of the user "user" with a string as payload.
+	 * @param id The data set ID
+	 * @param payload The payload
+	 * @return The data set
+	 */
+	public static DataSet newDataSet(String id, String payload)
+	{
+		return new DataSet(id, new HashSet<String>(Arrays.asList("user")), payload);
+	}
+	
+	/**
+	 * Create a reproducible random text of hexadecimal digits, which compresses badly.
+	 * @param length The length of the text
+	 * @return The text
+	 */
+	public static String newRandomText(int length)
+	{
+		Random random = new Random(length);
+		StringBuilder sb = new StringBuilder();
+		
+		for (int i = 0; i < length; i++)
+		{
+			sb.append(Integer.toHexString(random.nextInt(16)));
+		}
+		
+		return sb.toString();
+	}
+}
@@ -0,0 +1,141 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.PayloadResponseMessageGetServerStatus;
+import spielwitz.biDiServer.PersistenceMode;
+import spielwitz.biDiServer.ResponseInfo;
+import spielwitz.biDiServer.Server;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.User;
+
+public class WriteAheadLogTests
+{
+	private static final String FOLDER_NAME_WRITE_AHEAD_LOG = "WriteAheadLog";
+	
+	@Test
+	void concurrentUpdatesAreCommittedTogether() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setPersistenceMode(PersistenceMode.WriteAheadLog);
+		JUnitTestServer server = JUnitTestServer.start(config);
+		
+		JUnitTestClient client = server.createUserClient(clientConfig -> clientConfig.setMaxConcurrentRequests(16), false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		ArrayList<CompletableFuture<ResponseInfo>> futures = new ArrayList<CompletableFuture<ResponseInfo>>();
+		
+		for (int i = 0; i < 100; i++)
+		{
+			futures.add(client.createDataSetAsync(new DataSet("ds" + i, userIds, "v" + i)));
+		}
+		
+		for (CompletableFuture<ResponseInfo> future: futures)
+		{
+			assertTrue(future.get().isSuccess());
+		}
+		
+		for (int i = 0; i < 100; i++)
+		{
+			assertEquals("v" + i, client.getDataSet("ds" + i).getPayload().getPayloadObject());
+		}
+		
+		PayloadResponseMessageGetServerStatus status = server.getAdminClient().getServerStatus().getPayload();
+		
+		assertTrue(status.getWriteAheadLogRecords() >= 100);
+		assertTrue(status.getWriteAheadLogCommits() > 0);
+		assertTrue(status.getWriteAheadLogCommits() <= status.getWriteAheadLogRecords());
+		
+		client.disconnect();
+	}
+	
+	@Test
+	void replayLogAfterCrash() throws Exception
+	{
+		ServerConfiguration config = JUnitTestServer.newConfiguration();
+		config.setPersistenceMode(PersistenceMode.WriteAheadLog);
+		
+		// The store fails, so that the updates stay in the log like after a crash
+		FailingDataSetStore failingDataSetStore = new FailingDataSetStore(false);
+		FailingStoreServer server = FailingStoreServer.start(config, failingDataSetStore);
+		
+		JUnitTestClient client = server.createUserClient(null, false);
+		HashSet<String> userIds = new HashSet<String>(Arrays.asList(client.getUserId()));
+		
+		failingDataSetStore.setFailing(true);
+		
+		assertTrue(client.createDataSet(new DataSet("a", userIds, "a1")).isSuccess());
+		assertTrue(client.createDataSet(new DataSet("b", userIds, "b1")).isSuccess());
+		assertTrue(client.updateDataSet(new DataSet("a", userIds, "a2")).isSuccess());
+		assertTrue(client.deleteDataSet("b").isSuccess());
+		assertTrue(client.createDataSet(new DataSet("c", userIds, "c1")).isSuccess());
+		
+		// The updates are answered from the log while the store is not available
+		assertEquals("a2", client.getDataSet("a").getPayload().getPayloadObject());
+		
+		PayloadResponseMessageGetServerStatus status = server.getAdminClient().getServerStatus().getPayload();
+		assertTrue(status.getWriteAheadLogPendingWrites() > 0);
+		
+		// Start a second server on a copy of the home folder of the first one
+		File homeDir = new File(TestUtils.createTempFolder("JUnitTestServer"), "copy");
+		TestUtils.copyFolder(server.getHomeDir(), homeDir);
+		
+		// The server crashed while it appended the next record
+		File[] segments = Paths.get(homeDir.toString(), Server.FOLDER_NAME_ROOT, FOLDER_NAME_WRITE_AHEAD_LOG).toFile().listFiles(
+				(folder, name) -> new File(folder, name).length() > 0);
+		assertTrue(segments.length > 0);
+		Arrays.sort(segments);
+		
+		try (FileOutputStream out = new FileOutputStream(segments[segments.length - 1], true))
+		{
+			out.write(new byte[] {0, 0, 1, 0, 1, '{', '"', 'i'});
+		}
+		
+		// The administrator of the second server is created again for its port
+		Paths.get(homeDir.toString(), Server.FOLDER_NAME_ROOT, "Users", User.ADMIN_USER_ID).toFile().delete();
+		
+		ServerConfiguration configRecovered = JUnitTestServer.newConfiguration();
+		configRecovered.setPersistenceMode(PersistenceMode.WriteAheadLog);
+		JUnitTestServer serverRecovered = new JUnitTestServer(configRecovered, homeDir).startInBackground();
+		
+		JUnitTestClient clientAdmin = serverRecovered.getAdminClient();
+		
+		assertEquals("a2", clientAdmin.getDataSet("a").getPayload().getPayloadObject());
+		assertFalse(clientAdmin.getDataSet("b").getResponseInfo().isSuccess());
+		assertEquals("c1", clientAdmin.getDataSet("c").getPayload().getPayloadObject());
+		
+		// The log was written to the store of the second server
+		assertEquals(0, clientAdmin.getServerStatus().getPayload().getWriteAheadLogPendingWrites());
+		
+		client.disconnect();
+	}
+}
@@ -0,0 +1,136 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+package test.jUnitTests.loadTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.DataSet;
+import spielwitz.biDiServer.DataSetStore;
+import spielwitz.biDiServer.FileDataSetStore;
+import spielwitz.biDiServer.InMemoryDataSetStore;
+import spielwitz.biDiServer.SegmentedDataSetStore;
+
+/**
+ * Compares the data set stores: every data set is written, updated several times, and read.
+ * Then the store is closed, reopened, and all data sets are loaded again. The number of data sets is set with 
+ * the system property "dataSetStoreDataSets" (default: 2000).
+ */
+class DataSetStoreBenchmark
+{
+	private static final int DATA_SETS_COUNT = Integer.getInteger("dataSetStoreDataSets", 2000);
+	private static final int UPDATES_COUNT = 5;
+	private static final int PAYLOAD_LENGTH = 2000;
+	
+	@Test
+	void start() throws Exception
+	{
+		Path folder = Files.createTempDirectory("DataSetStoreBenchmark");
+		
+		try
+		{
+			File folderFiles = new File(folder.toFile(), "Files");
+			File folderSegments = new File(folder.toFile(), "Segments");
+			folderFiles.mkdirs();
+			folderSegments.mkdirs();
+			
+			this.measure("Files", () -> new FileDataSetStore(folderFiles));
+			this.measure("Segments", () -> new SegmentedDataSetStore(folderSegments));
+			
+			InMemoryDataSetStore inMemoryDataSetStore = new InMemoryDataSetStore();
+			this.measure("Memory", () -> inMemoryDataSetStore);
+		}
+		finally
+		{
+			Files.walk(folder)
+			  .sorted(Comparator.reverseOrder())
+			  .map(Path::toFile)
+			  .forEach(File::delete);
+		}
+	}
+	
+	private void measure(String description, StoreFactory storeFactory) throws Exception
+	{
+		DataSetStore store = storeFactory.open();
+		HashSet<String> userIds = new HashSet<String>();
+		userIds.add("user");
+		
+		StringBuilder payload = new StringBuilder();
+		
+		for (int i = 0; i < PAYLOAD_LENGTH; i++)
+		{
+			payload.append((char)('a' + (i * 7) % 26));
+		}
+		
+		long timeStart = System.nanoTime();
+		
+		for (int update = 0; update <= UPDATES_COUNT; update++)
+		{
+			for (int i = 0; i < DATA_SETS_COUNT; i++)
+			{
+				store.put(new DataSet("DataSet" + i, userIds, update + payload.toString()));
+			}
+		}
+		
+		store.sync();
+		
+		long timeWritten = System.nanoTime();
+		
+		for (int i = 0; i < DATA_SETS_COUNT; i++)
+		{
+			DataSet dataSet = store.get("DataSet" + i);
+			assertEquals(UPDATES_COUNT + payload.toString(), dataSet.getPayload().getObject());
+		}
+		
+		long timeRead = System.nanoTime();
+		
+		store.close();
+		store = storeFactory.open();
+		
+		AtomicInteger dataSetsLoaded = new AtomicInteger();
+		store.loadAll(dataSet -> dataSetsLoaded.incrementAndGet());
+		assertEquals(DATA_SETS_COUNT, dataSetsLoaded.get());
+		
+		long timeLoaded = System.nanoTime();
+		
+		store.close();
+		
+		System.out.println(description + ": " + 
+				String.format("%.1f", (double)(timeWritten - timeStart) / 1000 / DATA_SETS_COUNT / (UPDATES_COUNT + 1)) + 
+				" microseconds per write, " +
+				String.format("%.1f", (double)(timeRead - timeWritten) / 1000 / DATA_SETS_COUNT) + 
+				" microseconds per read, " +
+				String.format("%.1f", (double)(timeLoaded - timeRead) / 1000000) + 
+				" milliseconds to reopen and load all data sets.");
+	}
+	
+	// ==============
+	
+	@FunctionalInterface
+	private interface StoreFactory
+	{
+		DataSetStore open() throws Exception;
+	}
+}
@@ -0,0 +1,240 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests.loadTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Comparator;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.interfaces.DHPublicKey;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.ClientConfiguration;
+import spielwitz.biDiServer.KeyAgreementAlgorithm;
+import spielwitz.biDiServer.LogLevel;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.User;
+
+/**
+ * Compares the classic Diffie-Hellman key agreement with the X25519 key agreement. First, the bare key generation
+ * and key agreement of both sides are measured. Then, complete handshakes with a server are measured, each with a
+ * new client, so that every request has to agree on a new session key. The number of iterations is set with the 
+ * system property "keyAgreements" (default: 50).
+ */
+class KeyAgreementBenchmark
+{
+	private static final int PORT = ServerConfiguration.SERVER_PORT + 3;
+	private static final int ITERATIONS_COUNT = Integer.getInteger("keyAgreements", 50);
+	private static final int WARM_UP_ITERATIONS_COUNT = 20;
+	
+	private static final File ServerHomeDir = 
+			Paths.get(
+					System.getProperty("user.dir"),
+					"KeyAgreementBenchmarkServerData").toFile();
+	
+	@Test
+	void start() throws Exception
+	{
+		boolean x25519Supported = this.isX25519Supported();
+		
+		if (!x25519Supported)
+		{
+			System.out.println("X25519 is not supported by this Java runtime. Only Diffie-Hellman is measured.");
+		}
+		
+		this.measureKeyAgreement(KeyAgreementAlgorithm.DiffieHellman);
+		
+		if (x25519Supported)
+		{
+			this.measureKeyAgreement(KeyAgreementAlgorithm.X25519);
+		}
+		
+		LoadTestServer server = this.prepareServer();
+		
+		Thread serverThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				server.start();
+			}
+		});
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		System.out.println("Waiting for 2 seconds to make sure that the server starts...");
+		Thread.sleep(2000);
+		
+		ClientConfiguration clientConfig = this.getAdminClientConfiguration();
+		
+		this.measureHandshake(clientConfig, KeyAgreementAlgorithm.DiffieHellman);
+		
+		if (x25519Supported)
+		{
+			this.measureHandshake(clientConfig, KeyAgreementAlgorithm.X25519);
+		}
+	}
+	
+	private ClientConfiguration getAdminClientConfiguration()
+	{
+		return ClientConfiguration.readFromFile(
+				Paths.get(
+						ServerHomeDir.toString(),
+						LoadTestServer.FOLDER_NAME_ROOT.toString(),
+						ClientConfiguration.getFileName(
+								User.ADMIN_USER_ID, 
+								"localhost", 
+								PORT)).
+				toString());
+	}
+	
+	private boolean isX25519Supported()
+	{
+		try
+		{
+			KeyPairGenerator.getInstance("X25519");
+			return true;
+		}
+		catch (Exception x)
+		{
+			return false;
+		}
+	}
+	
+	private void measureHandshake(ClientConfiguration clientConfig, KeyAgreementAlgorithm algorithm)
+	{
+		clientConfig.setKeyAgreementAlgorithm(algorithm);
+		
+		for (int i = 0; i < WARM_UP_ITERATIONS_COUNT; i++)
+		{
+			assertTrue(new LoadTestClient(clientConfig, false, "en-US").pingServer().isSuccess());
+		}
+		
+		long timeStart = System.nanoTime();
+		
+		for (int i = 0; i < ITERATIONS_COUNT; i++)
+		{
+			// A new client has no session yet and performs the full handshake
+			assertTrue(new LoadTestClient(clientConfig, false, "en-US").pingServer().isSuccess());
+		}
+		
+		long microsecondsPerHandshake = (System.nanoTime() - timeStart) / 1000 / ITERATIONS_COUNT;
+		
+		System.out.println(algorithm + ": " + microsecondsPerHandshake + " microseconds per request with full handshake.");
+	}
+	
+	private void measureKeyAgreement(KeyAgreementAlgorithm algorithm) throws Exception
+	{
+		int publicKeyBytes = 0;
+		
+		for (int i = 0; i < WARM_UP_ITERATIONS_COUNT; i++)
+		{
+			publicKeyBytes = this.performKeyAgreement(algorithm);
+		}
+		
+		long timeStart = System.nanoTime();
+		
+		for (int i = 0; i < ITERATIONS_COUNT; i++)
+		{
+			this.performKeyAgreement(algorithm);
+		}
+		
+		long microsecondsPerKeyAgreement = (System.nanoTime() - timeStart) / 1000 / ITERATIONS_COUNT;
+		
+		System.out.println(algorithm + ": " + microsecondsPerKeyAgreement + " microseconds per key agreement (both sides), " + 
+				publicKeyBytes + " bytes per encoded public key.");
+	}
+	
+	private int performKeyAgreement(KeyAgreementAlgorithm algorithm) throws Exception
+	{
+		String algorithmName = algorithm == KeyAgreementAlgorithm.X25519 ? "X25519" : "DH";
+		
+		KeyPairGenerator clientKpairGen = KeyPairGenerator.getInstance(algorithmName);
+		
+		if (algorithm == KeyAgreementAlgorithm.DiffieHellman)
+		{
+			clientKpairGen.initialize(2048);
+		}
+		
+		KeyPair clientKpair = clientKpairGen.generateKeyPair();
+		
+		KeyPairGenerator serverKpairGen = KeyPairGenerator.getInstance(algorithmName);
+		
+		if (algorithm == KeyAgreementAlgorithm.DiffieHellman)
+		{
+			serverKpairGen.initialize(((DHPublicKey)clientKpair.getPublic()).getParams());
+		}
+		
+		KeyPair serverKpair = serverKpairGen.generateKeyPair();
+		
+		KeyAgreement clientKeyAgree = KeyAgreement.getInstance(algorithmName);
+		clientKeyAgree.init(clientKpair.getPrivate());
+		clientKeyAgree.doPhase(serverKpair.getPublic(), true);
+		
+		KeyAgreement serverKeyAgree = KeyAgreement.getInstance(algorithmName);
+		serverKeyAgree.init(serverKpair.getPrivate());
+		serverKeyAgree.doPhase(clientKpair.getPublic(), true);
+		
+		assertArrayEquals(clientKeyAgree.generateSecret(), serverKeyAgree.generateSecret());
+		
+		return clientKpair.getPublic().getEncoded().length;
+	}
+	
+	private LoadTestServer prepareServer()
+	{
+		if (ServerHomeDir.exists())
+		{
+			try
+			{
+				Files.walk(ServerHomeDir.toPath())
+				  .sorted(Comparator.reverseOrder())
+				  .map(Path::toFile)
+				  .forEach(File::delete);
+			} catch (Exception e)
+			{
+			}
+		}
+		
+		ServerConfiguration serverConfig = new ServerConfiguration(
+				"localhost", 
+				PORT, 
+				"", 
+				LogLevel.Warning,
+				"en-US");
+		
+		LoadTestServer server = null;
+		
+		try
+		{
+			server = new LoadTestServer(serverConfig, ServerHomeDir);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		
+		return server;
+	}
+}
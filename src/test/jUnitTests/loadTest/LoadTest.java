@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.jupiter.api.Test;
 
@@ -36,8 +37,11 @@ import spielwitz.biDiServer.ClientConfiguration;
 import spielwitz.biDiServer.DataSet;
 import spielwitz.biDiServer.DataSetInfo;
 import spielwitz.biDiServer.LogLevel;
+import spielwitz.biDiServer.MessageFormat;
+import spielwitz.biDiServer.PayloadRequestMessageBatch;
 import spielwitz.biDiServer.PayloadRequestMessageChangeUser;
 import spielwitz.biDiServer.PayloadResponseGetDataSetInfosOfUser;
+import spielwitz.biDiServer.PayloadResponseMessageBatch;
 import spielwitz.biDiServer.PayloadResponseMessageChangeUser;
 import spielwitz.biDiServer.PayloadResponseMessageGetUsers;
 import spielwitz.biDiServer.Response;
@@ -157,7 +161,11 @@ class LoadTest
 		
 		for (int i = 0; i < usersCount; i++)
 		{
-			UserCreationThread thread = new UserCreationThread(clientAdmin);
+			// Mix JSON and binary messages, with and without kept-alive connections
+			UserCreationThread thread = new UserCreationThread(
+					clientAdmin, 
+					i % 2 == 0, 
+					i % 4 < 2 ? MessageFormat.Binary : MessageFormat.Json);
 			threads.add(thread);
 			thread.start();
 		}
@@ -260,11 +268,15 @@ class LoadTest
 	private class UserCreationThread extends Thread
 	{
 		private LoadTestClient clientAdmin;
+		private boolean keepAlive;
+		private MessageFormat messageFormat;
 		public LoadTestClient client;
 		
-		public UserCreationThread(LoadTestClient clientAdmin)
+		public UserCreationThread(LoadTestClient clientAdmin, boolean keepAlive, MessageFormat messageFormat)
 		{
 			this.clientAdmin = clientAdmin;
+			this.keepAlive = keepAlive;
+			this.messageFormat = messageFormat;
 		}
 		
 		public void run()
@@ -284,6 +296,10 @@ class LoadTest
 			
 			checkExpectedResponseInfo(responseActivateUser.getE2(), true, this);
 			
+			responseActivateUser.getE1().setKeepAlive(this.keepAlive);
+			responseActivateUser.getE1().setMessageFormat(this.messageFormat);
+			responseActivateUser.getE1().setMaxConcurrentRequests(4);
+			
 			this.client = new LoadTestClient(responseActivateUser.getE1(), true, "de-DE");
 			this.client.start();
 		}
@@ -362,6 +378,72 @@ class LoadTest
 			info = this.client.updateDataSet(dataSet);
 			checkExpectedResponseInfo(info, true, this);
 			
+			// Change single fields of the data set with a patch
+			responseDataSet = this.client.getDataSet(dataSet.getId());
+			checkExpectedResponseInfo(responseDataSet.getResponseInfo(), true, this);
+			
+			DataSet dataSetBase = responseDataSet.getPayload();
+			DataSetPayload dataSetPayloadPatched = (DataSetPayload)dataSetBase.getPayloadObject();
+			dataSetPayloadPatched.aBoolean = false;
+			dataSetPayloadPatched.aLongString = dataSet.getId();
+			
+			Response<Long> responseVersion = this.client.patchDataSet(dataSetBase, dataSetPayloadPatched);
+			checkExpectedResponseInfo(responseVersion.getResponseInfo(), true, this);
+			assertTrue(responseVersion.getPayload() > dataSetBase.getVersion());
+			
+			responseDataSet = this.client.getDataSet(dataSet.getId());
+			checkExpectedResponseInfo(responseDataSet.getResponseInfo(), true, this);
+			assertTrue(responseDataSet.getPayload().getVersion() == responseVersion.getPayload());
+			
+			dataSetPayload = (DataSetPayload)responseDataSet.getPayload().getPayloadObject();
+			assertTrue(!dataSetPayload.aBoolean);
+			assertTrue(dataSetPayload.aLongString.equals(dataSet.getId()));
+			
+			// A patch based on an outdated version is rejected
+			responseVersion = this.client.patchDataSet(dataSetBase, LoadTest.dataSetPayload);
+			checkExpectedResponseInfo(responseVersion.getResponseInfo(), false, this);
+			
+			// Get the data set only if it was modified
+			DataSet dataSetCurrent = responseDataSet.getPayload();
+			responseDataSet = this.client.getDataSet(dataSet.getId(), dataSetCurrent.getVersion());
+			checkExpectedResponseInfo(responseDataSet.getResponseInfo(), true, this);
+			assertTrue(responseDataSet.getResponseInfo().isNotModified());
+			assertTrue(responseDataSet.getPayload() == null);
+			
+			// Update the data set only if it was not modified in the meantime
+			responseVersion = this.client.updateDataSet(dataSetCurrent, dataSetCurrent.getVersion());
+			checkExpectedResponseInfo(responseVersion.getResponseInfo(), true, this);
+			assertTrue(responseVersion.getPayload() > dataSetCurrent.getVersion());
+			
+			responseVersion = this.client.updateDataSet(dataSetCurrent, dataSetCurrent.getVersion());
+			checkExpectedResponseInfo(responseVersion.getResponseInfo(), false, this);
+			
+			responseDataSet = this.client.getDataSet(dataSet.getId(), dataSetCurrent.getVersion());
+			checkExpectedResponseInfo(responseDataSet.getResponseInfo(), true, this);
+			assertTrue(!responseDataSet.getResponseInfo().isNotModified());
+			assertTrue(responseDataSet.getPayload().getVersion() > dataSetCurrent.getVersion());
+			
+			// Get the data set, a non-existing data set, and a custom response in one batch
+			PayloadRequestMessageBatch batch = new PayloadRequestMessageBatch();
+			int indexGetDataSet = batch.addGetDataSet(dataSet.getId());
+			int indexGetMissingDataSet = batch.addGetDataSet(UUID.randomUUID().toString());
+			CustomPayloadRequest payloadRequest = new CustomPayloadRequest();
+			int indexCustomRequest = batch.addCustomRequest(payloadRequest);
+			
+			Response<PayloadResponseMessageBatch> responseBatch = this.client.sendBatchRequest(batch);
+			checkExpectedResponseInfo(responseBatch.getResponseInfo(), true, this);
+			assertTrue(responseBatch.getPayload().size() == batch.size());
+			
+			responseDataSet = responseBatch.getPayload().getResponse(indexGetDataSet);
+			checkExpectedResponseInfo(responseDataSet.getResponseInfo(), true, this);
+			assertTrue(responseDataSet.getPayload().getId().equals(dataSet.getId()));
+			
+			checkExpectedResponseInfo(responseBatch.getPayload().getResponseInfo(indexGetMissingDataSet), false, this);
+			
+			Response<CustomPayloadResponse> responseCustom = responseBatch.getPayload().getResponse(indexCustomRequest);
+			checkExpectedResponseInfo(responseCustom.getResponseInfo(), true, this);
+			assertTrue(responseCustom.getPayload().getaString().equals(payloadRequest.getaString()));
+			
 			// Delete the data set
 			info = this.client.deleteDataSet(dataSet.getId());
 			checkExpectedResponseInfo(info, true, this);
@@ -389,11 +471,19 @@ class LoadTest
 			
 			PayloadResponseMessageGetUsers payload = response.getPayload();
 			
+			// Get the users concurrently
+			ArrayList<CompletableFuture<Response<User>>> futures = new ArrayList<CompletableFuture<Response<User>>>();
+			
 			for (User user: payload.getUsers())
 			{
-				Response<User> responseUser = this.client.getUser(user.getId());
+				futures.add(this.client.getUserAsync(user.getId()));
+			}
+			
+			for (int i = 0; i < futures.size(); i++)
+			{
+				Response<User> responseUser = futures.get(i).join();
 				checkExpectedResponseInfo(responseUser.getResponseInfo(), true, this);
-				assertTrue(responseUser.getPayload().toString().equals(user.toString()));
+				assertTrue(responseUser.getPayload().toString().equals(payload.getUsers().get(i).toString()));
 			}
 		}
 		
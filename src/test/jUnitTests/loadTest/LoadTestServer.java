@@ -39,7 +39,12 @@ class LoadTestServer extends Server
 	
 	protected LoadTestServer(ServerConfiguration config) throws ServerException
 	{
-		super(config, ServerHomeDir.toString());
+		this(config, ServerHomeDir);
+	}
+	
+	protected LoadTestServer(ServerConfiguration config, File homeDir) throws ServerException
+	{
+		super(config, homeDir.toString());
 	}
 
 	@Override
@@ -0,0 +1,285 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+package test.jUnitTests.loadTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import spielwitz.biDiServer.ClientConfiguration;
+import spielwitz.biDiServer.ExecutionMode;
+import spielwitz.biDiServer.LogLevel;
+import spielwitz.biDiServer.PayloadRequestMessageChangeUser;
+import spielwitz.biDiServer.PayloadResponseMessageChangeUser;
+import spielwitz.biDiServer.Response;
+import spielwitz.biDiServer.ResponseInfo;
+import spielwitz.biDiServer.ServerConfiguration;
+import spielwitz.biDiServer.Tuple;
+import spielwitz.biDiServer.User;
+
+/**
+ * Measures how many notification sockets one JVM can hold open at the same time. The number of
+ * connections is set with the system property "notificationSockets" (default: 100), the execution mode
+ * of server and clients with the system property "executionMode" (default: VirtualThreads).
+ */
+class NotificationSocketLoadTest
+{
+	// A fixed port might still be held by a client socket of a previous test in the same JVM
+	private static final int PORT = getFreePort();
+	private static final int CONNECTIONS_COUNT = Integer.getInteger("notificationSockets", 100);
+	private static final int USER_CREATION_THREADS_COUNT = 8;
+	private static final long CONNECT_TIMEOUT_MILLISECONDS = 120000;
+	
+	private static final File ServerHomeDir = 
+			Paths.get(
+					System.getProperty("user.dir"),
+					"NotificationSocketLoadTestServerData").toFile();
+	
+	private ExecutionMode executionMode = 
+			ExecutionMode.valueOf(System.getProperty("executionMode", ExecutionMode.VirtualThreads.toString()));
+	
+	@Test
+	void start()
+	{
+		LoadTestServer server = this.prepareServer();
+		
+		Thread serverThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				server.start();
+			}
+		});
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		System.out.println("Waiting for 2 seconds to make sure that the server starts...");
+		
+		try
+		{
+			Thread.sleep(2000);
+		} catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+		
+		int threadCountBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		long memoryBefore = this.getUsedMemory();
+		
+		ArrayList<LoadTestClient> clients = this.createUserClients(this.getAdminClient(), CONNECTIONS_COUNT);
+		assertEquals(CONNECTIONS_COUNT, clients.size());
+		
+		long timeStart = System.currentTimeMillis();
+		int connectedCount = 0;
+		
+		do
+		{
+			connectedCount = 0;
+			
+			for (LoadTestClient client: clients)
+			{
+				if (client.isConnected())
+				{
+					connectedCount++;
+				}
+			}
+			
+			if (connectedCount == clients.size())
+			{
+				break;
+			}
+			
+			try
+			{
+				Thread.sleep(500);
+			} catch (InterruptedException e)
+			{
+				break;
+			}
+		} while (System.currentTimeMillis() - timeStart < CONNECT_TIMEOUT_MILLISECONDS);
+		
+		int threadCountAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+		long memoryAfter = this.getUsedMemory();
+		
+		System.out.println("Execution mode: " + this.executionMode);
+		System.out.println(connectedCount + "/" + clients.size() + " notification sockets connected.");
+		System.out.println("Platform threads: " + threadCountBefore + " before, " + threadCountAfter + " after connecting.");
+		System.out.println("Used heap: " + (memoryBefore / 1024) + " KB before, " + (memoryAfter / 1024) + " KB after connecting.");
+		
+		assertEquals(clients.size(), connectedCount);
+		
+		for (LoadTestClient client: clients)
+		{
+			client.disconnect();
+		}
+	}
+	
+	private ArrayList<LoadTestClient> createUserClients(LoadTestClient clientAdmin, int usersCount)
+	{
+		System.out.println("Creating " + usersCount + " user clients ...");
+		
+		ArrayList<LoadTestClient> clients = new ArrayList<LoadTestClient>();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		
+		for (int i = 0; i < USER_CREATION_THREADS_COUNT; i++)
+		{
+			int count = usersCount / USER_CREATION_THREADS_COUNT + (i < usersCount % USER_CREATION_THREADS_COUNT ? 1 : 0);
+			
+			Thread thread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					for (int j = 0; j < count; j++)
+					{
+						LoadTestClient client = createUserClient(clientAdmin);
+						
+						synchronized(clients)
+						{
+							clients.add(client);
+						}
+					}
+				}
+			});
+			
+			threads.add(thread);
+			thread.start();
+		}
+		
+		for (Thread thread: threads)
+		{
+			try
+			{
+				thread.join();
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		
+		System.out.println(clients.size() + " user clients created.");
+		
+		return clients;
+	}
+	
+	private LoadTestClient createUserClient(LoadTestClient clientAdmin)
+	{
+		PayloadRequestMessageChangeUser payloadNewUser =
+				new PayloadRequestMessageChangeUser(
+						UUID.randomUUID().toString(), 
+						new Hashtable<String,String>(), 
+						UUID.randomUUID().toString(), 
+						true,
+						true);
+		
+		Response<PayloadResponseMessageChangeUser> response = clientAdmin.changeUser(payloadNewUser);
+		
+		Tuple<ClientConfiguration,ResponseInfo> responseActivateUser = 
+				LoadTestClient.activateUser(response.getPayload(), "de-DE", "1234");
+		
+		assertTrue(responseActivateUser.getE2().isSuccess());
+		
+		responseActivateUser.getE1().setExecutionMode(this.executionMode);
+		
+		LoadTestClient client = new LoadTestClient(responseActivateUser.getE1(), true, "de-DE");
+		client.start();
+		
+		return client;
+	}
+	
+	private LoadTestClient getAdminClient()
+	{
+		ClientConfiguration clientConfigAdmin = ClientConfiguration.readFromFile(
+				Paths.get(
+						ServerHomeDir.toString(),
+						LoadTestServer.FOLDER_NAME_ROOT.toString(),
+						ClientConfiguration.getFileName(
+								User.ADMIN_USER_ID, 
+								"localhost", 
+								PORT)).
+				toString());
+		
+		return new LoadTestClient(clientConfigAdmin, false, "de-DE");
+	}
+	
+	private static int getFreePort()
+	{
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			return socket.getLocalPort();
+		}
+		catch (IOException e)
+		{
+			return ServerConfiguration.SERVER_PORT + 2;
+		}
+	}
+	
+	private long getUsedMemory()
+	{
+		System.gc();
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+	
+	private LoadTestServer prepareServer()
+	{
+		if (ServerHomeDir.exists())
+		{
+			try
+			{
+				Files.walk(ServerHomeDir.toPath())
+				  .sorted(Comparator.reverseOrder())
+				  .map(Path::toFile)
+				  .forEach(File::delete);
+			} catch (Exception e)
+			{
+			}
+		}
+		
+		ServerConfiguration serverConfig = new ServerConfiguration(
+				"localhost", 
+				PORT, 
+				"", 
+				LogLevel.Warning,
+				"en-US");
+		
+		serverConfig.setExecutionMode(this.executionMode);
+		
+		LoadTestServer server = null;
+		
+		try
+		{
+			server = new LoadTestServer(serverConfig, ServerHomeDir);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		
+		return server;
+	}
+}
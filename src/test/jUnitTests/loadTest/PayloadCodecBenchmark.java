@@ -0,0 +1,230 @@
+/**	BiDiServer - a library that provides bi-directional communication between
+	a server and clients.
+	
+    Copyright (C) 2022 Michael Schweitzer, spielwitz@icloud.com
+	https://github.com/spielwitz/biDiServer
+	
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as
+    published by the Free Software Foundation, either version 3 of the
+    License, or (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>. **/
+
+
+package test.jUnitTests.loadTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import spielwitz.biDiServer.Payload;
+import spielwitz.biDiServer.PayloadCodecRegistry;
+
+/**
+ * Compares ways to convert payload objects to and from JSON: a new Gson instance with a class lookup per call,
+ * a shared Gson instance with a class lookup per call, the cached reflective type adapter of the payload codec registry, and a hand-written type adapter which
+ * is registered with the payload codec registry. The number of iterations is set with the 
+ * system property "payloadConversions" (default: 200000).
+ */
+class PayloadCodecBenchmark
+{
+	private static final int ITERATIONS_COUNT = Integer.getInteger("payloadConversions", 200000);
+	private static final int WARM_UP_ITERATIONS_COUNT = 20000;
+	
+	private static final Gson serializer = new Gson();
+	
+	@Test
+	void start() throws Exception
+	{
+		PayloadCodecRegistry.registerTypeAdapter(HandWrittenPayload.class, new HandWrittenPayloadTypeAdapter());
+		
+		ReflectivePayload reflectivePayload = new ReflectivePayload();
+		HandWrittenPayload handWrittenPayload = new HandWrittenPayload();
+		
+		reflectivePayload.name = "Benchmark";
+		reflectivePayload.turn = 42;
+		reflectivePayload.finished = false;
+		reflectivePayload.players = new ArrayList<String>();
+		reflectivePayload.players.add("Player 1");
+		reflectivePayload.players.add("Player 2");
+		reflectivePayload.players.add("Player 3");
+		
+		handWrittenPayload.name = reflectivePayload.name;
+		handWrittenPayload.turn = reflectivePayload.turn;
+		handWrittenPayload.finished = reflectivePayload.finished;
+		handWrittenPayload.players = new ArrayList<String>(reflectivePayload.players);
+		
+		// The hand-written type adapter must produce the same JSON as Gson does by default.
+		assertEquals(
+				new Payload(reflectivePayload).getJsonElement(), 
+				new Payload(handWrittenPayload).getJsonElement());
+		
+		HandWrittenPayload handWrittenPayloadCopy = (HandWrittenPayload) new Payload(handWrittenPayload).getObject();
+		assertEquals(handWrittenPayload.players, handWrittenPayloadCopy.players);
+		assertEquals(handWrittenPayload.turn, handWrittenPayloadCopy.turn);
+		
+		this.measure("New Gson instance and class lookup per call", reflectivePayload, Conversion.NewGson);
+		this.measure("Shared Gson instance and class lookup per call", reflectivePayload, Conversion.SharedGson);
+		this.measure("Cached reflective type adapter", reflectivePayload, Conversion.Payload);
+		this.measure("Registered hand-written type adapter", handWrittenPayload, Conversion.Payload);
+	}
+	
+	private Object convert(Object obj, Conversion conversion) throws Exception
+	{
+		switch (conversion)
+		{
+		case NewGson:
+			JsonElement jsonElement = new Gson().toJsonTree(obj);
+			return new Gson().fromJson(jsonElement, Class.forName(obj.getClass().getName()));
+		case SharedGson:
+			return serializer.fromJson(serializer.toJsonTree(obj), Class.forName(obj.getClass().getName()));
+		default:
+			return new Payload(obj).getObject();
+		}
+	}
+	
+	private void measure(String description, Object obj, Conversion conversion) throws Exception
+	{
+		for (int i = 0; i < WARM_UP_ITERATIONS_COUNT; i++)
+		{
+			assertNotNull(this.convert(obj, conversion));
+		}
+		
+		long timeStart = System.nanoTime();
+		
+		for (int i = 0; i < ITERATIONS_COUNT; i++)
+		{
+			assertNotNull(this.convert(obj, conversion));
+		}
+		
+		double microsecondsPerConversion = (double)(System.nanoTime() - timeStart) / 1000 / ITERATIONS_COUNT;
+		
+		System.out.println(description + ": " + 
+				String.format("%.2f", microsecondsPerConversion) + 
+				" microseconds per conversion to and from JSON.");
+	}
+	
+	// ==============
+	
+	private enum Conversion
+	{
+		NewGson,
+		SharedGson,
+		Payload
+	}
+	
+	// ==============
+	
+	static class HandWrittenPayload
+	{
+		String name;
+		int turn;
+		boolean finished;
+		ArrayList<String> players;
+	}
+	
+	// ==============
+	
+	private static class HandWrittenPayloadTypeAdapter extends TypeAdapter<HandWrittenPayload>
+	{
+		@Override
+		public HandWrittenPayload read(JsonReader in) throws IOException
+		{
+			HandWrittenPayload payload = new HandWrittenPayload();
+			
+			in.beginObject();
+			
+			while (in.hasNext())
+			{
+				String name = in.nextName();
+				
+				if (in.peek() == JsonToken.NULL)
+				{
+					in.nextNull();
+					continue;
+				}
+				
+				switch (name)
+				{
+				case "name":
+					payload.name = in.nextString();
+					break;
+				case "turn":
+					payload.turn = in.nextInt();
+					break;
+				case "finished":
+					payload.finished = in.nextBoolean();
+					break;
+				case "players":
+					payload.players = new ArrayList<String>();
+					in.beginArray();
+					while (in.hasNext())
+					{
+						payload.players.add(in.nextString());
+					}
+					in.endArray();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			
+			in.endObject();
+			
+			return payload;
+		}
+		
+		@Override
+		public void write(JsonWriter out, HandWrittenPayload payload) throws IOException
+		{
+			out.beginObject();
+			
+			if (payload.name != null)
+			{
+				out.name("name").value(payload.name);
+			}
+			
+			out.name("turn").value(payload.turn);
+			out.name("finished").value(payload.finished);
+			
+			if (payload.players != null)
+			{
+				out.name("players").beginArray();
+				
+				for (String player: payload.players)
+				{
+					out.value(player);
+				}
+				
+				out.endArray();
+			}
+			
+			out.endObject();
+		}
+	}
+	
+	// ==============
+	
+	static class ReflectivePayload
+	{
+		String name;
+		int turn;
+		boolean finished;
+		ArrayList<String> players;
+	}
+}